@@ -0,0 +1,124 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.tradelib.functors.Atr;
+import net.tradelib.functors.Ema;
+import net.tradelib.functors.Max;
+import net.tradelib.functors.Min;
+import net.tradelib.functors.Percentile;
+import net.tradelib.functors.Sma;
+import net.tradelib.functors.StdDev;
+import net.tradelib.functors.ZigZag;
+
+/**
+ * @brief The cost of adding a value to the rolling functors, in values per second.
+ *
+ * The values come from a precomputed random walk, so the functors see
+ * realistic (trending) data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FunctorBenchmark {
+
+   private static final int VALUES = 1 << 16;
+
+   @Param({"20", "200"})
+   public int length;
+
+   private double [] values;
+   private int valueId = 0;
+
+   private Sma sma;
+   private Ema ema;
+   private StdDev stdDev;
+   private Max max;
+   private Min min;
+   private Percentile percentile;
+   private Atr atr;
+   private ZigZag zigZag;
+
+   @Setup
+   public void setup() {
+      Random random = new Random(1);
+      values = new double[VALUES];
+      double value = 100.0;
+      for(int ii = 0; ii < VALUES; ++ii) {
+         value *= 1.0 + 0.01*random.nextGaussian();
+         values[ii] = value;
+      }
+
+      sma = new Sma(length);
+      ema = new Ema(length);
+      stdDev = new StdDev(length);
+      max = new Max(length);
+      min = new Min(length);
+      percentile = new Percentile(length);
+      atr = new Atr(length);
+      zigZag = new ZigZag(length, 2.0);
+   }
+
+   private double next() {
+      double value = values[valueId];
+      valueId = (valueId + 1) & (VALUES - 1);
+      return value;
+   }
+
+   @Benchmark
+   public double sma() { return sma.add(next()); }
+
+   @Benchmark
+   public double ema() { return ema.add(next()); }
+
+   @Benchmark
+   public double stdDev() { stdDev.add(next()); return stdDev.stdDev(); }
+
+   @Benchmark
+   public double max() { max.add(next()); return max.last(); }
+
+   @Benchmark
+   public double min() { min.add(next()); return min.last(); }
+
+   @Benchmark
+   public double percentile() { percentile.add(next()); return percentile.last(0.9); }
+
+   @Benchmark
+   public double atr() {
+      double close = next();
+      return atr.add(close*1.005, close*0.995, close);
+   }
+
+   @Benchmark
+   public int zigZag() { zigZag.add(next()); return zigZag.getTrend(); }
+}
@@ -0,0 +1,70 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.tradelib.core.MonteCarlo;
+
+/**
+ * @brief The time to resample 100k paths of 30 years of daily PnL.
+ *
+ * Uses all available processors.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MonteCarloBenchmark {
+
+   private static final int DAYS = 30*252;
+   private static final int PATHS = 100000;
+
+   @Param({"SHUFFLE", "BOOTSTRAP", "BLOCK_BOOTSTRAP"})
+   public String method;
+
+   private double [] pnls;
+
+   @Setup
+   public void setup() {
+      Random random = new Random(1);
+      pnls = new double[DAYS];
+      for(int ii = 0; ii < DAYS; ++ii) pnls[ii] = 50.0 + 1000.0*random.nextGaussian();
+   }
+
+   @Benchmark
+   public MonteCarlo.Result run() throws Exception {
+      return new MonteCarlo(pnls)
+               .setMethod(MonteCarlo.Method.valueOf(method))
+               .setNumPaths(PATHS)
+               .setInitialEquity(100000.0)
+               .run();
+   }
+}
@@ -0,0 +1,93 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.bench;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.tradelib.core.Order;
+import net.tradelib.core.OrderFill;
+import net.tradelib.core.Tick;
+
+/**
+ * @brief The cost of Order.tryFill, in fill attempts per second.
+ *
+ * Each invocation tries all order types, against a random tick, using the
+ * position matching the order (flat for entries, long or short for exits).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderBenchmark {
+
+   private static final int ORDERS = 16;
+   private static final int TICKS = 1024;
+
+   private Order [] orders;
+   private long [] positions;
+   private Tick [] ticks;
+   private int tickId = 0;
+
+   @Setup
+   public void setup() {
+      String ss = "ES";
+      orders = new Order[] {
+            Order.enterLong(ss, 1), Order.enterShort(ss, 1), Order.exitLong(ss, 1), Order.exitShort(ss, 1),
+            Order.enterLongLimit(ss, 1, 99.5), Order.enterShortLimit(ss, 1, 100.5),
+            Order.exitLongLimit(ss, 1, 100.5), Order.exitShortLimit(ss, 1, 99.5),
+            Order.enterLongStop(ss, 1, 100.5), Order.enterShortStop(ss, 1, 99.5),
+            Order.exitLongStop(ss, 1, 99.5), Order.exitShortStop(ss, 1, 100.5),
+            Order.enterLongStopLimit(ss, 1, 100.5, 101.0), Order.enterShortStopLimit(ss, 1, 99.5, 99.0),
+            Order.exitLongStopLimit(ss, 1, 99.5, 99.0), Order.exitShortStopLimit(ss, 1, 100.5, 101.0) };
+      positions = new long[] { 0, 0, 1, -1, 0, 0, 1, -1, 0, 0, 1, -1, 0, 0, 1, -1 };
+      assert orders.length == ORDERS;
+
+      Random random = new Random(1);
+      LocalDateTime ts = LocalDateTime.of(2015, 1, 2, 9, 30);
+      ticks = new Tick[TICKS];
+      for(int ii = 0; ii < TICKS; ++ii) {
+         ticks[ii] = new Tick(ss, ts.plusMinutes(ii), 98.0 + 4.0*random.nextDouble());
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(ORDERS)
+   public void tryFill(Blackhole bh) {
+      Tick tick = ticks[tickId];
+      tickId = (tickId + 1) & (TICKS - 1);
+
+      for(int ii = 0; ii < ORDERS; ++ii) {
+         OrderFill fill = orders[ii].tryFill(tick, positions[ii], (ii & 1) == 0);
+         bh.consume(fill);
+      }
+   }
+}
@@ -0,0 +1,99 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.bench;
+
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import net.tradelib.core.Instrument;
+import net.tradelib.core.Portfolio;
+
+/**
+ * @brief The cost of Portfolio.mark, in marks per second.
+ *
+ * Each invocation is a trading day - all instruments are marked at their
+ * closing prices. Every 10 days, each instrument reverses its position,
+ * so the marks include realized as well as unrealized PnL. The portfolio
+ * is recreated on every iteration, since it grows with the marks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PortfolioBenchmark {
+
+   private static final int INSTRUMENTS = 100;
+
+   private Instrument [] instruments;
+   private double [] prices;
+   private Random random;
+
+   private Portfolio portfolio;
+   private LocalDateTime ts;
+   private int day;
+
+   @Setup(Level.Iteration)
+   public void setup() {
+      instruments = new Instrument[INSTRUMENTS];
+      prices = new double[INSTRUMENTS];
+      random = new Random(1);
+
+      portfolio = new Portfolio();
+      ts = LocalDateTime.of(1985, 1, 2, 16, 0);
+      day = 0;
+
+      for(int ii = 0; ii < INSTRUMENTS; ++ii) {
+         instruments[ii] = Instrument.makeFuture(String.format("S%03d", ii));
+         prices[ii] = 100.0;
+         portfolio.addInstrument(instruments[ii]);
+         portfolio.mark(instruments[ii], ts, prices[ii]);
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(INSTRUMENTS)
+   public void mark(Blackhole bh) {
+      ts = ts.plusDays(1);
+
+      for(int ii = 0; ii < INSTRUMENTS; ++ii) {
+         prices[ii] *= 1.0 + 0.01*random.nextGaussian();
+         if(day % 10 == 0) {
+            // Go long on even reversals, short on odd ones
+            long quantity = day == 0 ? 1 : ((day/10) % 2 == 0 ? 2 : -2);
+            portfolio.addTransaction(instruments[ii], ts.minusHours(1), quantity, prices[ii], 0.0);
+         }
+         bh.consume(portfolio.mark(instruments[ii], ts, prices[ii]));
+      }
+
+      ++day;
+   }
+}
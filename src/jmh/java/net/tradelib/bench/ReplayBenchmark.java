@@ -0,0 +1,131 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.tradelib.core.Bar;
+import net.tradelib.core.HistoricalReplay;
+import net.tradelib.core.IBrokerListener;
+import net.tradelib.core.Order;
+import net.tradelib.core.OrderNotification;
+
+/**
+ * @brief The cost of replaying a dataset through HistoricalReplay.
+ *
+ * Each invocation replays the whole dataset. The "bars" and "fills"
+ * counters are the throughput in bars and fills per second. "feed" is the
+ * baseline - the cost of generating the bars, which "replay" includes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class ReplayBenchmark {
+
+   @Param({"daily", "minute"})
+   public String dataset;
+
+   @AuxCounters(AuxCounters.Type.OPERATIONS)
+   @State(Scope.Thread)
+   public static class Counters {
+      public long bars;
+      public long fills;
+
+      @Setup(Level.Iteration)
+      public void reset() { bars = 0; fills = 0; }
+   }
+
+   /**
+    * Enters a position every 20 bars and exits 10 bars later, using market orders.
+    */
+   private static class Trader implements IBrokerListener {
+      private HistoricalReplay broker;
+      private Counters counters;
+      private Map<String, int []> barCounts = new HashMap<String, int []>();
+
+      Trader(HistoricalReplay broker, Counters counters) {
+         this.broker = broker;
+         this.counters = counters;
+      }
+
+      @Override
+      public void barOpenHandler(Bar bar) throws Exception {
+      }
+
+      @Override
+      public void barCloseHandler(Bar bar) throws Exception {
+      }
+
+      @Override
+      public void barClosedHandler(Bar bar) throws Exception {
+         ++counters.bars;
+
+         int [] count = barCounts.get(bar.getSymbol());
+         if(count == null) {
+            count = new int[1];
+            barCounts.put(bar.getSymbol(), count);
+         }
+
+         int phase = count[0]++ % 20;
+         if(phase == 0) {
+            broker.submitOrder(Order.enterLong(bar.getSymbol(), 1));
+         } else if(phase == 10) {
+            broker.submitOrder(Order.exitLong(bar.getSymbol(), 1));
+         }
+      }
+
+      @Override
+      public void orderExecutedHandler(OrderNotification on) throws Exception {
+         ++counters.fills;
+      }
+   }
+
+   @Benchmark
+   public void feed(Counters counters) throws Exception {
+      SyntheticDataFeed feed = SyntheticDataFeed.preset(dataset);
+      feed.subscribeAll();
+      feed.addBarListener((Bar bar) -> ++counters.bars);
+      feed.start();
+   }
+
+   @Benchmark
+   public void replay(Counters counters) throws Exception {
+      SyntheticDataFeed feed = SyntheticDataFeed.preset(dataset);
+      HistoricalReplay broker = new HistoricalReplay();
+      broker.setDataFeed(feed);
+      broker.addBrokerListener(new Trader(broker, counters));
+      feed.subscribeAll();
+      broker.start();
+   }
+}
@@ -0,0 +1,160 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.bench;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.tradelib.core.Bar;
+import net.tradelib.core.HistoricalDataFeed;
+import net.tradelib.core.IBarListener;
+import net.tradelib.core.Instrument;
+import net.tradelib.core.InstrumentVariation;
+
+/**
+ * @brief A reproducible data feed of random walk bars.
+ *
+ * The bars are generated while the feed runs, so the memory footprint
+ * doesn't depend on the size of the dataset. For a given seed, the bars
+ * are the same on every run. Daily bars are generated for the weekdays,
+ * intraday bars cover 09:30 to 16:00 and are timestamped at the close.
+ */
+public class SyntheticDataFeed extends HistoricalDataFeed {
+
+   public static final LocalDate START = LocalDate.of(1985, 1, 2);
+
+   private static final LocalTime SESSION_OPEN = LocalTime.of(9, 30);
+   private static final LocalTime SESSION_CLOSE = LocalTime.of(16, 0);
+
+   private int numSymbols;
+   private int years;
+   private Duration duration;
+   private long seed;
+
+   private Map<String, Instrument> instruments = new HashMap<String, Instrument>();
+
+   public SyntheticDataFeed(int numSymbols, int years, Duration duration, long seed) {
+      this.numSymbols = numSymbols;
+      this.years = years;
+      this.duration = duration;
+      this.seed = seed;
+
+      for(String symbol : getSymbols()) instruments.put(symbol, Instrument.makeFuture(symbol));
+   }
+
+   /**
+    * @brief The predefined datasets.
+    *
+    *    * "daily" - 500 symbols, 30 years of daily bars
+    *    * "minute" - 50 symbols, 5 years of 1-minute bars
+    *    * "small" - 20 symbols, 5 years of daily bars
+    */
+   public static SyntheticDataFeed preset(String name) {
+      switch(name) {
+      case "daily": return new SyntheticDataFeed(500, 30, Duration.ofDays(1), 1);
+      case "minute": return new SyntheticDataFeed(50, 5, Duration.ofMinutes(1), 1);
+      case "small": return new SyntheticDataFeed(20, 5, Duration.ofDays(1), 1);
+      default: throw new IllegalArgumentException("Unknown dataset: " + name);
+      }
+   }
+
+   public List<String> getSymbols() {
+      List<String> result = new ArrayList<String>(numSymbols);
+      for(int ii = 0; ii < numSymbols; ++ii) result.add(String.format("S%03d", ii));
+      return result;
+   }
+
+   public void subscribeAll() {
+      for(String symbol : getSymbols()) subscribe(symbol);
+   }
+
+   @Override
+   public void configure(String config) throws Exception {
+   }
+
+   @Override
+   public void start() throws Exception {
+      List<String> symbols = new ArrayList<String>(subscriptions);
+      Collections.sort(symbols);
+      if(symbols.isEmpty()) return;
+
+      // Each symbol has its own generator, so a symbol's bars don't depend
+      // on the other subscriptions.
+      Random [] randoms = new Random[symbols.size()];
+      double [] prices = new double[symbols.size()];
+      for(int ii = 0; ii < symbols.size(); ++ii) {
+         randoms[ii] = new Random(seed*31 + symbols.get(ii).hashCode());
+         prices[ii] = 50.0 + 100.0*randoms[ii].nextDouble();
+      }
+
+      boolean intraday = duration.compareTo(Duration.ofDays(1)) < 0;
+      // The volatility per bar, about 1% per day
+      double sigma = 0.01*Math.sqrt(intraday ? (double)duration.getSeconds()/Duration.ofHours(6).plusMinutes(30).getSeconds() : 1.0);
+
+      LocalDate end = START.plusYears(years);
+      for(LocalDate date = START; date.isBefore(end); date = date.plusDays(1)) {
+         if(date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY) continue;
+
+         if(intraday) {
+            for(LocalDateTime ts = date.atTime(SESSION_OPEN).plus(duration);
+                  !ts.isAfter(date.atTime(SESSION_CLOSE)); ts = ts.plus(duration)) {
+               notifyBars(symbols, ts, randoms, prices, sigma);
+            }
+         } else {
+            notifyBars(symbols, date.atStartOfDay(), randoms, prices, sigma);
+         }
+      }
+   }
+
+   private void notifyBars(List<String> symbols, LocalDateTime ts, Random [] randoms, double [] prices, double sigma) throws Exception {
+      // The prices advance outside the feed range too, so the bars don't depend on it
+      boolean deliver = (feedStart == null || !ts.isBefore(feedStart)) && (feedStop == null || !ts.isAfter(feedStop));
+
+      for(int ii = 0; ii < symbols.size(); ++ii) {
+         Random random = randoms[ii];
+         double open = prices[ii];
+         double close = open*Math.exp(sigma*random.nextGaussian());
+         double high = Math.max(open, close)*(1.0 + 0.5*sigma*random.nextDouble());
+         double low = Math.min(open, close)*(1.0 - 0.5*sigma*random.nextDouble());
+         long volume = 1000 + random.nextInt(1000);
+         prices[ii] = close;
+         if(!deliver) continue;
+
+         Bar bar = new Bar(symbols.get(ii), duration, ts, open, high, low, close, 0, volume, 0);
+         for(IBarListener listener : barListeners) listener.barNotification(bar);
+      }
+   }
+
+   @Override
+   public Instrument getInstrument(String symbol) throws Exception {
+      Instrument instrument = instruments.get(symbol);
+      if(instrument == null) throw new IllegalArgumentException("Symbol " + symbol + " is not in the dataset.");
+      return instrument;
+   }
+
+   @Override
+   public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception {
+      return null;
+   }
+}
@@ -0,0 +1,146 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.tradelib.core.Bar;
+import net.tradelib.core.EpochTime;
+import net.tradelib.core.IBrokerListener;
+import net.tradelib.core.Order;
+import net.tradelib.core.OrderNotification;
+import net.tradelib.core.TickFile;
+import net.tradelib.core.TickReplay;
+
+/**
+ * @brief The cost of replaying ticks through TickReplay, in ticks per second.
+ *
+ * A single instrument, a random walk with a tick every 100 milliseconds,
+ * aggregated into 1-minute bars. "idle" has no orders, "bracket" keeps a
+ * stop above and below the market, re-submitted after each fill.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class TickReplayBenchmark {
+
+   private static final int TICKS = 5000000;
+   private static final String SYMBOL = "S000";
+
+   @Param({"idle", "bracket"})
+   public String trading;
+
+   private Path dir;
+
+   @Setup
+   public void setup() throws Exception {
+      long [] timestamps = new long[TICKS];
+      double [] prices = new double[TICKS];
+      long [] volumes = new long[TICKS];
+
+      Random random = new Random(1);
+      long ts = EpochTime.toNanos(LocalDateTime.of(2015, 1, 2, 9, 30));
+      double price = 2000.0;
+      for(int ii = 0; ii < TICKS; ++ii) {
+         timestamps[ii] = ts;
+         prices[ii] = price;
+         volumes[ii] = 1 + random.nextInt(10);
+         ts += 100000000L;
+         price += 0.25*(random.nextInt(3) - 1);
+      }
+
+      dir = Files.createTempDirectory("ticks");
+      TickFile.write(TickReplay.getTickFilePath(dir, SYMBOL), timestamps, prices, volumes, TICKS);
+   }
+
+   @TearDown
+   public void tearDown() throws Exception {
+      Files.deleteIfExists(TickReplay.getTickFilePath(dir, SYMBOL));
+      Files.deleteIfExists(dir);
+   }
+
+   /**
+    * Brackets the market with an entry stop on each side, 10 points away.
+    */
+   private static class Trader implements IBrokerListener {
+      private TickReplay broker;
+      private boolean flat = true;
+      private boolean pending = false;
+
+      Trader(TickReplay broker) { this.broker = broker; }
+
+      @Override
+      public void barOpenHandler(Bar bar) throws Exception {
+      }
+
+      @Override
+      public void barCloseHandler(Bar bar) throws Exception {
+      }
+
+      @Override
+      public void barClosedHandler(Bar bar) throws Exception {
+         if(pending) return;
+         if(flat) {
+            broker.submitOrder(Order.enterLongStop(SYMBOL, 1, bar.getClose() + 10.0));
+            broker.submitOrder(Order.enterShortStop(SYMBOL, 1, bar.getClose() - 10.0));
+         } else {
+            broker.submitOrder(Order.exitLong(SYMBOL, 1));
+            broker.submitOrder(Order.exitShort(SYMBOL, 1));
+         }
+         pending = true;
+      }
+
+      @Override
+      public void orderExecutedHandler(OrderNotification on) throws Exception {
+         flat = !flat;
+         pending = false;
+         broker.cancelAllOrders(SYMBOL);
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(TICKS)
+   public void replay() throws Exception {
+      TickReplay broker = new TickReplay();
+      broker.setDataFeed(new SyntheticDataFeed(1, 1, Duration.ofMinutes(1), 1));
+      broker.setTicksDir(dir);
+      broker.setBarDuration(Duration.ofMinutes(1));
+      if(trading.equals("bracket")) broker.addBrokerListener(new Trader(broker));
+      broker.subscribe(SYMBOL);
+      broker.start();
+   }
+}
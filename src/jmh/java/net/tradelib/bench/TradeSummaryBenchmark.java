@@ -0,0 +1,111 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.bench;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.tradelib.core.Series;
+import net.tradelib.core.Trade;
+import net.tradelib.core.TradeSummary;
+import net.tradelib.core.TradeSummaryBuilder;
+import net.tradelib.core.TradingResults;
+
+/**
+ * @brief The cost of TradeSummaryBuilder.add, in trades per second.
+ *
+ * Each invocation summarizes 30 years of daily PnL, traded in 10-day trades
+ * with 10 flat days in between. Every other trade is short, thus "summarize"
+ * computes the All, Long and Short summaries of the same trades, in one pass.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TradeSummaryBenchmark {
+
+   private static final int DAYS = 30*252;
+   private static final int TRADES = DAYS/20;
+
+   private Series pnl;
+   private List<Trade> trades;
+
+   @Setup
+   public void setup() {
+      Random random = new Random(1);
+
+      pnl = new Series(1);
+      List<LocalDateTime> days = new ArrayList<LocalDateTime>(DAYS);
+      LocalDateTime ts = LocalDateTime.of(1985, 1, 2, 0, 0);
+      while(days.size() < DAYS) {
+         if(ts.getDayOfWeek() != DayOfWeek.SATURDAY && ts.getDayOfWeek() != DayOfWeek.SUNDAY) {
+            days.add(ts);
+            pnl.append(ts, 1000.0*random.nextGaussian());
+         }
+         ts = ts.plusDays(1);
+      }
+
+      trades = new ArrayList<Trade>(TRADES);
+      for(int ii = 0; ii < TRADES; ++ii) {
+         Trade trade = new Trade();
+         trade.symbol = "ES";
+         trade.start = days.get(20*ii);
+         trade.end = days.get(20*ii + 9);
+         trade.initialPosition = ii % 2 == 0 ? 1 : -1;
+         trade.maxPosition = 1;
+         trade.numTransactions = 2;
+         for(int jj = 20*ii; jj < 20*ii + 10; ++jj) trade.pnl += pnl.get(jj);
+         trade.pctPnl = trade.pnl/100000.0;
+         trade.tickPnl = trade.pnl/12.5;
+         trades.add(trade);
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(TRADES)
+   public TradeSummary add() {
+      TradeSummaryBuilder tsb = new TradeSummaryBuilder(pnl);
+      for(Trade trade : trades) tsb.add(trade);
+      return tsb.summarize();
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(TRADES)
+   public TradingResults summarize() {
+      TradingResults tr = new TradingResults();
+      tr.pnl = pnl;
+      tr.stats = trades;
+      TradeSummaryBuilder.summarize(tr);
+      return tr;
+   }
+}
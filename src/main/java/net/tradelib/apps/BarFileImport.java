@@ -0,0 +1,80 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package net.tradelib.apps;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import net.tradelib.core.Bar;
+import net.tradelib.core.BarFile;
+import net.tradelib.core.BinaryDataFeed;
+import net.tradelib.core.SQLDataFeed;
+
+/**
+ * @brief Imports the bars from the "bars.table" into BarFile-s.
+ * 
+ * Usage: BarFileImport <datafeed config> <output dir> [symbol ...]
+ * 
+ * Without symbols, all symbols in the bars table are imported. The
+ * symbols are imported one at a time, so the memory use is bounded by
+ * the longest history.
+ */
+public class BarFileImport {
+   
+   private static final Logger logger = Logger.getLogger(BarFileImport.class.getName());
+   
+   public static void run(SQLDataFeed feed, Path dir, List<String> symbols) throws Exception {
+      Files.createDirectories(dir);
+      
+      List<Bar> bars = new ArrayList<Bar>();
+      feed.addBarListener((Bar bar) -> bars.add(bar));
+      
+      for(String symbol : symbols) {
+         feed.reset();
+         feed.subscribe(symbol);
+         bars.clear();
+         feed.start();
+         
+         BarFile.write(BinaryDataFeed.getBarFilePath(dir, symbol), bars);
+         logger.info(String.format("Imported %d bars for %s", bars.size(), symbol));
+      }
+      
+      feed.reset();
+   }
+   
+   public static void main(String[] args) throws Exception {
+      if(args.length < 2) {
+         System.err.println("Usage: BarFileImport <datafeed config> <output dir> [symbol ...]");
+         System.exit(1);
+      }
+      
+      SQLDataFeed feed = new SQLDataFeed();
+      feed.configure(args[0]);
+      // Import the full history
+      feed.setFeedStart(null);
+      
+      List<String> symbols = args.length > 2 ?
+                                 Arrays.asList(Arrays.copyOfRange(args, 2, args.length)) :
+                                 feed.getSymbols();
+      
+      run(feed, Paths.get(args[1]), symbols);
+   }
+}
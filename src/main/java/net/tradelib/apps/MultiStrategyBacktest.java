@@ -0,0 +1,164 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.apps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.tradelib.core.Context;
+import net.tradelib.core.HistoricalDataFeed;
+import net.tradelib.core.HistoricalReplay;
+import net.tradelib.core.SQLDataFeed;
+import net.tradelib.core.SharedDataFeed;
+import net.tradelib.core.Strategy;
+
+/**
+ * @brief Backtests many strategies over a single pass of the data feed.
+ *
+ * The bars are read and decoded once, by a SharedDataFeed, and replayed to
+ * all strategies in parallel. Each strategy runs on its own thread, with its
+ * own HistoricalReplay (orders and positions) and its own Account, thus a
+ * failing strategy doesn't affect the rest.
+ *
+ * There is one thread per strategy, not a bounded pool: a strategy's feed
+ * blocks until the shared feed is exhausted, and the shared feed doesn't
+ * start replaying until every strategy has started. With fewer threads than
+ * strategies, the queued strategies would never start and the running ones
+ * would wait for them forever. Thus the number of strategies per run should
+ * be kept reasonable.
+ */
+public class MultiStrategyBacktest {
+
+   private static final Logger logger = Logger.getLogger(MultiStrategyBacktest.class.getName());
+
+   public static class Result {
+      public Strategy strategy;
+      // The time spent in Strategy.start, in nanoseconds
+      public long backtestTime;
+      // The time spent writing the results to the database, in nanoseconds
+      public long dbTime;
+      // Not null if the strategy failed
+      public Exception exception;
+
+      Result(Strategy strategy) { this.strategy = strategy; }
+
+      public boolean isSuccess() { return exception == null; }
+   }
+
+   public static List<Result> run(List<Strategy> strategies) throws Exception {
+      StrategyBacktest.setupLogging();
+
+      String dbUrl = BacktestCfg.instance().getProperty("db.url");
+
+      HistoricalDataFeed hdf = new SQLDataFeed();
+      hdf.configure(BacktestCfg.instance().getProperty("datafeed.config", "config/datafeed.properties"));
+
+      long start = System.nanoTime();
+      List<Result> results = run(hdf, dbUrl, strategies);
+      long elapsedTime = System.nanoTime() - start;
+
+      System.out.println(report(results, elapsedTime));
+
+      return results;
+   }
+
+   /**
+    * @brief Runs the strategies against a configured data feed.
+    *
+    * The results are written to the database only if dbUrl is not null.
+    */
+   public static List<Result> run(HistoricalDataFeed hdf, String dbUrl, List<Strategy> strategies) throws Exception {
+      SharedDataFeed sharedFeed = new SharedDataFeed(hdf);
+
+      List<Result> results = new ArrayList<Result>(strategies.size());
+      List<Context> contexts = new ArrayList<Context>(strategies.size());
+      for(Strategy strategy : strategies) {
+         Context context = new Context();
+         context.dbUrl = dbUrl;
+         context.historicalDataFeed = sharedFeed.newConsumer();
+         context.broker = new HistoricalReplay(context);
+         contexts.add(context);
+         results.add(new Result(strategy));
+      }
+
+      // The strategies block on their feeds until the shared feed is exhausted,
+      // hence all of them must be running at the same time.
+      ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, strategies.size()));
+      try {
+         List<Future<?>> futures = new ArrayList<Future<?>>(strategies.size());
+         for(int ii = 0; ii < strategies.size(); ++ii) {
+            Context context = contexts.get(ii);
+            Result result = results.get(ii);
+            futures.add(executor.submit(() -> runStrategy(sharedFeed, context, result)));
+         }
+
+         sharedFeed.start();
+
+         for(Future<?> future : futures) future.get();
+      } finally {
+         executor.shutdownNow();
+      }
+
+      return results;
+   }
+
+   private static void runStrategy(SharedDataFeed sharedFeed, Context context, Result result) {
+      Strategy strategy = result.strategy;
+      try {
+         strategy.initialize(context);
+         strategy.cleanupDb();
+
+         long start = System.nanoTime();
+         strategy.start();
+         result.backtestTime = System.nanoTime() - start;
+         
+         strategy.updateEndEquity();
+
+         if(context.dbUrl != null) {
+            start = System.nanoTime();
+            strategy.writeResults();
+            strategy.writeStrategyReport();
+            result.dbTime = System.nanoTime() - start;
+         }
+      } catch(Exception ee) {
+         result.exception = ee;
+         logger.log(Level.SEVERE, "strategy " + strategy.getName() + " failed", ee);
+      } finally {
+         sharedFeed.close(context.historicalDataFeed);
+      }
+   }
+
+   public static String report(List<Result> results, long elapsedTime) {
+      StringBuilder sb = new StringBuilder();
+      long totalTime = 0;
+      for(Result result : results) {
+         if(result.isSuccess()) {
+            sb.append(String.format("%s: backtest took %.2f secs, writing to the database took %.2f secs%n",
+                     result.strategy.getName(), result.backtestTime/1e9, result.dbTime/1e9));
+         } else {
+            sb.append(String.format("%s: failed: %s%n", result.strategy.getName(), result.exception.getMessage()));
+         }
+         totalTime += result.backtestTime + result.dbTime;
+      }
+      sb.append(String.format("%d strategies took %.2f secs [%.2f secs sequential]",
+               results.size(), elapsedTime/1e9, totalTime/1e9));
+      return sb.toString();
+   }
+}
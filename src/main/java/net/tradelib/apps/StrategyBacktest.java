@@ -15,6 +15,9 @@
 package net.tradelib.apps;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -44,6 +47,7 @@ import net.tradelib.core.HistoricalReplay;
 import net.tradelib.core.SQLDataFeed;
 import net.tradelib.core.Series;
 import net.tradelib.core.Strategy;
+import net.tradelib.core.StrategySnapshot;
 import net.tradelib.core.TimeSeries;
 import net.tradelib.core.TradeSummary;
 import net.tradelib.misc.SftpUploader;
@@ -55,8 +59,7 @@ import com.google.gson.JsonObject;
 
 public class StrategyBacktest {
 
-   public static void run(Strategy strategy) throws Exception {
-      // Setup the logging
+   static void setupLogging() throws Exception {
       System.setProperty(
                "java.util.logging.SimpleFormatter.format",
                "%1$tY-%1$tm-%1$td %1$tH:%1$tM:%1$tS: %4$s: %5$s%n%6$s%n");
@@ -77,6 +80,26 @@ public class StrategyBacktest {
       }
        
       rootLogger.setLevel(Level.INFO); 
+   }
+   
+   /**
+    * @brief Backtests the strategy against the data feed, in memory.
+    *
+    * Nothing is written to the database, the results are available from
+    * the strategy after the call.
+    */
+   public static void run(HistoricalDataFeed hdf, Strategy strategy) throws Exception {
+      Context context = new Context();
+      context.historicalDataFeed = hdf;
+      context.broker = new HistoricalReplay(context);
+      
+      strategy.initialize(context);
+      strategy.start();
+      strategy.updateEndEquity();
+   }
+   
+   public static void run(Strategy strategy) throws Exception {
+      setupLogging();
       
       // Setup Hibernate
       // Configuration configuration = new Configuration();
@@ -94,6 +117,20 @@ public class StrategyBacktest {
       context.broker = hr;
       
       strategy.initialize(context);
+      
+      // With "snapshot.incremental", resume from the snapshot of the previous
+      // run and replay only the bars after it.
+      String snapshotFile = BacktestCfg.instance().getProperty("snapshot.file");
+      Path snapshotPath = Strings.isNullOrEmpty(snapshotFile) ? null : Paths.get(snapshotFile);
+      if(snapshotPath != null && Files.exists(snapshotPath) &&
+            Boolean.parseBoolean(BacktestCfg.instance().getProperty("snapshot.incremental", "false"))) {
+         LocalDateTime snapshotTs = StrategySnapshot.restore(strategy, snapshotPath);
+         if(hdf.getFeedStart() == null || hdf.getFeedStart().isBefore(snapshotTs)) {
+            hdf.setFeedStart(snapshotTs.plusNanos(1));
+         }
+         System.out.println("resuming from the snapshot at " + snapshotTs.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+      }
+      
       strategy.cleanupDb();
       
       long start = System.nanoTime();
@@ -101,18 +138,17 @@ public class StrategyBacktest {
       long elapsedTime = System.nanoTime() - start;
       System.out.println("backtest took " + String.format("%.2f secs",(double)elapsedTime/1e9));
       
+      if(snapshotPath != null) StrategySnapshot.save(strategy, snapshotPath);
+      
       start = System.nanoTime();
       strategy.updateEndEquity();
-      strategy.writeExecutionsAndTrades();
-      strategy.writeEquity();
+      // The executions, the trades, the equity and the strategy totals, in one transaction
+      strategy.writeResults();
       elapsedTime = System.nanoTime() - start;
       System.out.println("writing to the database took " + String.format("%.2f secs",(double)elapsedTime/1e9));
       
       System.out.println();
       
-      // Write the strategy totals to the database
-      strategy.totalTradeStats();
-      
       // Write the strategy report to the database and obtain the JSON
       // for writing it to the console.
       JsonObject report = strategy.writeStrategyReport();
@@ -0,0 +1,291 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.apps;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import net.tradelib.core.BarCache;
+import net.tradelib.core.Context;
+import net.tradelib.core.HistoricalDataFeed;
+import net.tradelib.core.HistoricalReplay;
+import net.tradelib.core.Strategy;
+import net.tradelib.core.TradeSummary;
+
+/**
+ * @brief Parameter sweeps over a strategy.
+ *
+ * Each parameter set is backtested independently, in memory, on a fork/join
+ * pool. All backtests replay the same BarCache, so the bars are loaded only
+ * once. Nothing is written to the database during the sweep - the results
+ * are ranked using the strategy totals (see Strategy.getTotalTradeSummary)
+ * and only the chosen parameter sets are backtested again and persisted,
+ * using "persist".
+ */
+public class StrategyOptimizer {
+
+   private static final Logger logger = Logger.getLogger(StrategyOptimizer.class.getName());
+
+   public interface StrategyFactory {
+      /**
+       * Creates a new strategy instance for the parameters. Strategies
+       * persisted together must have different names.
+       */
+      Strategy create(Map<String, Double> parameters) throws Exception;
+   }
+
+   public static class Parameter {
+      public final String name;
+      public final double min;
+      public final double max;
+      // The grid step. For the random samplers, the values are rounded
+      // to the grid if the step is positive.
+      public final double step;
+
+      public Parameter(String name, double min, double max, double step) {
+         this.name = name; this.min = min; this.max = max; this.step = step;
+      }
+
+      public Parameter(String name, double min, double max) {
+         this(name, min, max, 0.0);
+      }
+
+      double fromUnit(double uu) {
+         double value = min + uu*(max - min);
+         if(step > 0.0) {
+            value = min + Math.round((value - min)/step)*step;
+            value = Math.min(value, max);
+         }
+         return value;
+      }
+   }
+
+   public enum Metric {
+      SHARPE_RATIO, PROFIT_FACTOR, MAX_DRAWDOWN;
+
+      // Higher is better for all metrics. The drawdown is negative.
+      double get(TradeSummary summary) {
+         switch(this) {
+         case SHARPE_RATIO: return summary.sharpeRatio;
+         case PROFIT_FACTOR: return summary.profitFactor;
+         default: return summary.maxDD;
+         }
+      }
+   }
+
+   public static class Result {
+      public Map<String, Double> parameters;
+      // The strategy totals, null if the backtest failed
+      public TradeSummary summary;
+      public Exception exception;
+
+      Result(Map<String, Double> parameters) { this.parameters = parameters; }
+   }
+
+   private StrategyFactory factory;
+   private BarCache barCache;
+   private Metric metric = Metric.SHARPE_RATIO;
+   private int parallelism = Runtime.getRuntime().availableProcessors();
+   // The range of the cached bars replayed, null for all bars
+   private LocalDateTime feedStart = null;
+   private LocalDateTime feedStop = null;
+
+   public StrategyOptimizer(StrategyFactory factory, BarCache barCache) {
+      this.factory = factory;
+      this.barCache = barCache;
+   }
+
+   public void setMetric(Metric metric) { this.metric = metric; }
+   public Metric getMetric() { return metric; }
+
+   public void setParallelism(int parallelism) { this.parallelism = parallelism; }
+   public int getParallelism() { return parallelism; }
+   
+   /**
+    * Limits the backtests to the bars in [feedStart, feedStop], either can be null.
+    */
+   public void setFeedRange(LocalDateTime feedStart, LocalDateTime feedStop) {
+      this.feedStart = feedStart;
+      this.feedStop = feedStop;
+   }
+   public LocalDateTime getFeedStart() { return feedStart; }
+   public LocalDateTime getFeedStop() { return feedStop; }
+
+   /**
+    * @brief Backtests all parameter sets.
+    *
+    * @return The results, best first. Failed backtests are at the end.
+    */
+   public List<Result> optimize(List<Map<String, Double>> parameterSets) throws Exception {
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      List<Result> results;
+      try {
+         results = pool.submit(
+                  () -> parameterSets.parallelStream().map(this::backtest).collect(Collectors.toList())).get();
+      } finally {
+         pool.shutdown();
+      }
+
+      Comparator<Result> byMetric = Comparator.comparingDouble((Result rr) -> {
+         double value = rr.summary == null ? Double.NaN : metric.get(rr.summary);
+         return Double.isNaN(value) ? Double.NEGATIVE_INFINITY : value;
+      });
+      Collections.sort(results, byMetric.reversed());
+
+      return results;
+   }
+
+   private Result backtest(Map<String, Double> parameters) {
+      Result result = new Result(parameters);
+      try {
+         Context context = new Context();
+         context.historicalDataFeed = newFeed();
+         context.broker = new HistoricalReplay(context);
+
+         Strategy strategy = factory.create(parameters);
+         strategy.initialize(context);
+         strategy.start();
+         strategy.updateEndEquity();
+
+         result.summary = strategy.getTotalTradeSummary();
+      } catch(Exception ee) {
+         result.exception = ee;
+         logger.log(Level.WARNING, "backtest failed for " + parameters.toString(), ee);
+      }
+      return result;
+   }
+
+   /**
+    * @brief Backtests the parameter sets again and writes the results to the database.
+    *
+    * The writing is done on a background thread, so the next parameter set
+    * is replayed while the results of the previous one are written.
+    */
+   public void persist(List<Result> results, String dbUrl) throws Exception {
+      ExecutorService writer = Executors.newSingleThreadExecutor();
+      try {
+         List<Future<?>> futures = new ArrayList<Future<?>>(results.size());
+         for(Result result : results) {
+            Context context = new Context();
+            context.dbUrl = dbUrl;
+            context.historicalDataFeed = newFeed();
+            context.broker = new HistoricalReplay(context);
+
+            Strategy strategy = factory.create(result.parameters);
+            strategy.initialize(context);
+            strategy.cleanupDb();
+            strategy.start();
+            strategy.updateEndEquity();
+
+            futures.add(writer.submit(() -> {
+               strategy.writeResults();
+               strategy.writeStrategyReport();
+               return null;
+            }));
+         }
+
+         for(Future<?> future : futures) future.get();
+      } finally {
+         writer.shutdown();
+      }
+   }
+
+   private HistoricalDataFeed newFeed() {
+      HistoricalDataFeed feed = barCache.newFeed();
+      feed.setFeedStart(feedStart);
+      feed.setFeedStop(feedStop);
+      return feed;
+   }
+
+   /**
+    * @brief All combinations of the parameter values on the grid.
+    */
+   public static List<Map<String, Double>> grid(List<Parameter> parameters) {
+      List<Map<String, Double>> result = new ArrayList<Map<String, Double>>();
+      result.add(new LinkedHashMap<String, Double>());
+
+      for(Parameter parameter : parameters) {
+         List<Map<String, Double>> expanded = new ArrayList<Map<String, Double>>();
+         for(Map<String, Double> partial : result) {
+            // Use an index to avoid accumulating floating point errors
+            for(int ii = 0; ; ++ii) {
+               double value = parameter.min + ii*parameter.step;
+               if(value > parameter.max + 1e-9*Math.abs(parameter.step)) break;
+               Map<String, Double> map = new LinkedHashMap<String, Double>(partial);
+               map.put(parameter.name, value);
+               expanded.add(map);
+               if(parameter.step <= 0.0) break;
+            }
+         }
+         result = expanded;
+      }
+
+      return result;
+   }
+
+   /**
+    * @brief Uniformly distributed parameter sets.
+    */
+   public static List<Map<String, Double>> random(List<Parameter> parameters, int count, long seed) {
+      Random random = new Random(seed);
+      List<Map<String, Double>> result = new ArrayList<Map<String, Double>>(count);
+      for(int ii = 0; ii < count; ++ii) {
+         Map<String, Double> map = new LinkedHashMap<String, Double>();
+         for(Parameter parameter : parameters) {
+            map.put(parameter.name, parameter.fromUnit(random.nextDouble()));
+         }
+         result.add(map);
+      }
+      return result;
+   }
+
+   /**
+    * @brief Latin hypercube sampling.
+    *
+    * The range of each parameter is split into "count" strata, each
+    * stratum is used exactly once, the strata are paired randomly.
+    */
+   public static List<Map<String, Double>> latinHypercube(List<Parameter> parameters, int count, long seed) {
+      Random random = new Random(seed);
+      List<Map<String, Double>> result = new ArrayList<Map<String, Double>>(count);
+      for(int ii = 0; ii < count; ++ii) result.add(new LinkedHashMap<String, Double>());
+
+      List<Integer> strata = new ArrayList<Integer>(count);
+      for(int ii = 0; ii < count; ++ii) strata.add(ii);
+
+      for(Parameter parameter : parameters) {
+         Collections.shuffle(strata, random);
+         for(int ii = 0; ii < count; ++ii) {
+            double uu = (strata.get(ii) + random.nextDouble())/count;
+            result.get(ii).put(parameter.name, parameter.fromUnit(uu));
+         }
+      }
+
+      return result;
+   }
+}
@@ -0,0 +1,224 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.apps;
+
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import net.tradelib.core.BarCache;
+import net.tradelib.core.Context;
+import net.tradelib.core.HistoricalDataFeed;
+import net.tradelib.core.HistoricalReplay;
+import net.tradelib.core.Series;
+import net.tradelib.core.Strategy;
+import net.tradelib.core.TradeSummary;
+
+/**
+ * @brief Walk-forward analysis over a BarCache.
+ *
+ * The timeline is sliced into windows, each with an in-sample period
+ * followed by an out-of-sample period. The out-of-sample periods are
+ * consecutive and don't overlap. For each window the parameter sets are
+ * ranked in-sample using StrategyOptimizer, then the best one is backtested
+ * over the in-sample and the out-of-sample periods - the in-sample bars
+ * serve as a warm up, only the PnL inside the out-of-sample period counts.
+ * The out-of-sample PnLs of all windows are stitched into a single equity
+ * curve.
+ *
+ * With "anchored" set, all in-sample periods start at the first bar,
+ * otherwise they roll forward with the out-of-sample periods.
+ *
+ * The windows are independent, they run concurrently on a fork/join pool,
+ * all replaying the same BarCache. Nothing is written to the database.
+ */
+public class WalkForward {
+
+   private static final Logger logger = Logger.getLogger(WalkForward.class.getName());
+
+   public static class Window {
+      public final LocalDateTime inSampleStart;
+      // The end of the in-sample period and the start of the out-of-sample one
+      public final LocalDateTime outOfSampleStart;
+      public final LocalDateTime outOfSampleEnd;
+
+      // The best parameter set in-sample, null if all backtests failed
+      public Map<String, Double> parameters;
+      // The in-sample totals of the best parameter set
+      public TradeSummary inSampleSummary;
+      // The PnL inside [outOfSampleStart, outOfSampleEnd), one row per equity change
+      public Series outOfSamplePnl;
+      public Exception exception;
+
+      public Window(LocalDateTime inSampleStart, LocalDateTime outOfSampleStart, LocalDateTime outOfSampleEnd) {
+         this.inSampleStart = inSampleStart;
+         this.outOfSampleStart = outOfSampleStart;
+         this.outOfSampleEnd = outOfSampleEnd;
+      }
+
+      public boolean isSuccess() { return exception == null && outOfSamplePnl != null; }
+
+      public double getOutOfSampleNetPnl() {
+         double result = 0.0;
+         if(outOfSamplePnl != null) {
+            for(int ii = 0; ii < outOfSamplePnl.size(); ++ii) result += outOfSamplePnl.get(ii);
+         }
+         return result;
+      }
+   }
+
+   private StrategyOptimizer.StrategyFactory factory;
+   private BarCache barCache;
+   private List<Map<String, Double>> parameterSets;
+   private StrategyOptimizer.Metric metric = StrategyOptimizer.Metric.SHARPE_RATIO;
+   private int parallelism = Runtime.getRuntime().availableProcessors();
+
+   public WalkForward(StrategyOptimizer.StrategyFactory factory, BarCache barCache, List<Map<String, Double>> parameterSets) {
+      this.factory = factory;
+      this.barCache = barCache;
+      this.parameterSets = parameterSets;
+   }
+
+   public void setMetric(StrategyOptimizer.Metric metric) { this.metric = metric; }
+   public StrategyOptimizer.Metric getMetric() { return metric; }
+
+   /**
+    * The number of windows processed concurrently.
+    */
+   public void setParallelism(int parallelism) { this.parallelism = parallelism; }
+   public int getParallelism() { return parallelism; }
+
+   /**
+    * @brief Slices [start, end) into walk-forward windows.
+    *
+    * The first out-of-sample period starts "inSample" after "start", the
+    * last one is truncated at "end".
+    */
+   public static List<Window> windows(LocalDateTime start, LocalDateTime end, Period inSample,
+                                      Period outOfSample, boolean anchored) {
+      if(outOfSample.isZero() || outOfSample.isNegative()) {
+         throw new IllegalArgumentException("The out-of-sample period must be positive.");
+      }
+
+      List<Window> result = new ArrayList<Window>();
+      for(LocalDateTime oosStart = start.plus(inSample); oosStart.isBefore(end); oosStart = oosStart.plus(outOfSample)) {
+         LocalDateTime oosEnd = oosStart.plus(outOfSample);
+         if(oosEnd.isAfter(end)) oosEnd = end;
+         result.add(new Window(anchored ? start : oosStart.minus(inSample), oosStart, oosEnd));
+      }
+      return result;
+   }
+
+   /**
+    * @brief Windows covering all cached bars, starting at the day of the first bar.
+    */
+   public List<Window> windows(Period inSample, Period outOfSample, boolean anchored) {
+      if(barCache.size() == 0) return new ArrayList<Window>();
+      LocalDateTime start = barCache.getFirstDateTime().toLocalDate().atStartOfDay();
+      LocalDateTime end = barCache.getLastDateTime().toLocalDate().plusDays(1).atStartOfDay();
+      return windows(start, end, inSample, outOfSample, anchored);
+   }
+
+   /**
+    * @brief Runs the windows, in place.
+    *
+    * @return The stitched out-of-sample equity, starting at "initialEquity"
+    */
+   public Series run(List<Window> windows, double initialEquity) throws Exception {
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+         pool.submit(() -> windows.parallelStream().forEach(this::run)).get();
+      } finally {
+         pool.shutdown();
+      }
+
+      return stitch(windows, initialEquity);
+   }
+
+   private void run(Window window) {
+      try {
+         // The windows run in parallel already
+         StrategyOptimizer optimizer = new StrategyOptimizer(factory, barCache);
+         optimizer.setMetric(metric);
+         optimizer.setParallelism(1);
+         optimizer.setFeedRange(window.inSampleStart, window.outOfSampleStart.minusNanos(1));
+
+         List<StrategyOptimizer.Result> results = optimizer.optimize(parameterSets);
+         List<StrategyOptimizer.Result> succeeded = results.stream()
+                  .filter(rr -> rr.summary != null).collect(Collectors.toList());
+         if(succeeded.isEmpty()) {
+            throw new IllegalStateException("All in-sample backtests failed for the window starting at " +
+                     window.outOfSampleStart.toString());
+         }
+         window.parameters = succeeded.get(0).parameters;
+         window.inSampleSummary = succeeded.get(0).summary;
+
+         Context context = new Context();
+         HistoricalDataFeed feed = barCache.newFeed();
+         feed.setFeedStart(window.inSampleStart);
+         feed.setFeedStop(window.outOfSampleEnd.minusNanos(1));
+         context.historicalDataFeed = feed;
+         context.broker = new HistoricalReplay(context);
+
+         Strategy strategy = factory.create(window.parameters);
+         strategy.initialize(context);
+         strategy.start();
+         strategy.updateEndEquity();
+
+         window.outOfSamplePnl = periodPnl(strategy.getAccount().getEquity(), window.outOfSampleStart, window.outOfSampleEnd);
+      } catch(Exception ee) {
+         window.exception = ee;
+         logger.log(Level.WARNING, "walk-forward window starting at " + window.outOfSampleStart.toString() + " failed", ee);
+      }
+   }
+
+   // The equity changes with timestamps in [from, to)
+   private static Series periodPnl(Series equity, LocalDateTime from, LocalDateTime to) {
+      Series result = new Series(1);
+      for(int ii = 1; ii < equity.size(); ++ii) {
+         LocalDateTime ts = equity.getTimestamp(ii);
+         if(ts.isBefore(from)) continue;
+         if(!ts.isBefore(to)) break;
+         result.append(ts, equity.get(ii) - equity.get(ii - 1));
+      }
+      return result;
+   }
+
+   /**
+    * @brief Chains the out-of-sample PnLs of the windows into an equity curve.
+    *
+    * The failed windows contribute nothing.
+    */
+   public static Series stitch(List<Window> windows, double initialEquity) {
+      Series result = new Series(1);
+      double equity = initialEquity;
+      for(Window window : windows) {
+         if(!window.isSuccess()) continue;
+         Series pnl = window.outOfSamplePnl;
+         for(int ii = 0; ii < pnl.size(); ++ii) {
+            equity += pnl.get(ii);
+            result.append(pnl.getTimestamp(ii), equity);
+         }
+      }
+      result.setNames("equity");
+      return result;
+   }
+}
@@ -14,8 +14,12 @@
 
 package net.tradelib.core;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.List;
 import java.util.TreeMap;
 
@@ -187,19 +191,24 @@ public class Account {
       mark(instrument, bar.getDateTime(), bar.getClose());
    }
    
+   /**
+    * @brief Computes the end equity for the summaries up to, and including, "to".
+    * 
+    * Resumes from the last computed summary, thus the cost is proportional
+    * to the number of new summaries only. Summaries recorded at, or before,
+    * the end equity timestamp are not revisited.
+    */
    public void updateEndEquity(LocalDateTime to) {
-      double prevEndEquity = Double.NaN;
-      for(Summary ss : summaries.values()) {
-         if(ss.ts.isAfter(to)) {
-            break;
-         } else if(ss.ts.isAfter(endEquityTimestamp)) {
-            if(Double.isNaN(prevEndEquity)) {
-               throw new IllegalStateException("prevEndEquity not set!");
-            }
-            
-            ss.endEq = prevEndEquity + ss.addition + ss.withdrawal + ss.netPerformance;
-            endEquityTimestamp = ss.ts;
+      if(!to.isAfter(endEquityTimestamp)) return;
+      
+      double prevEndEquity = summaries.get(endEquityTimestamp).endEq;
+      for(Summary ss : summaries.subMap(endEquityTimestamp, false, to, true).values()) {
+         if(Double.isNaN(prevEndEquity)) {
+            throw new IllegalStateException("prevEndEquity not set!");
          }
+         
+         ss.endEq = prevEndEquity + ss.addition + ss.withdrawal + ss.netPerformance;
+         endEquityTimestamp = ss.ts;
          prevEndEquity = ss.endEq;
       }
    }
@@ -299,4 +308,69 @@ public class Account {
    public Series getPositionPnls(Instrument instrument) {
       return getPositionPnls(Portfolio.DEFAULT_NAME, instrument);
    }
+   
+   /**
+    * Writes the ledger and the portfolios (see StrategySnapshot).
+    */
+   void writeSnapshot(DataOutput out) throws IOException {
+      out.writeUTF(name);
+      StrategySnapshot.writeDateTime(out, endEquityTimestamp);
+      
+      out.writeInt(summaries.size());
+      for(Summary ss : summaries.values()) {
+         StrategySnapshot.writeDateTime(out, ss.ts);
+         out.writeDouble(ss.addition);
+         out.writeDouble(ss.withdrawal);
+         out.writeDouble(ss.interest);
+         out.writeDouble(ss.realizedPnl);
+         out.writeDouble(ss.unrealizedPnl);
+         out.writeDouble(ss.grossPnl);
+         out.writeDouble(ss.txnFees);
+         out.writeDouble(ss.netPnl);
+         out.writeDouble(ss.advisoryFees);
+         out.writeDouble(ss.netPerformance);
+         out.writeDouble(ss.endEq);
+      }
+      
+      out.writeInt(portfolios.size());
+      for(Map.Entry<String, PortfolioData> entry : portfolios.entrySet()) {
+         out.writeUTF(entry.getKey());
+         entry.getValue().portfolio.writeSnapshot(out);
+      }
+   }
+   
+   /**
+    * Replaces the ledger and the portfolios with the ones from a snapshot.
+    */
+   void readSnapshot(DataInput in) throws IOException {
+      name = in.readUTF();
+      endEquityTimestamp = StrategySnapshot.readDateTime(in);
+      
+      summaries.clear();
+      int numSummaries = in.readInt();
+      for(int ii = 0; ii < numSummaries; ++ii) {
+         Summary ss = new Summary(StrategySnapshot.readDateTime(in));
+         ss.addition = in.readDouble();
+         ss.withdrawal = in.readDouble();
+         ss.interest = in.readDouble();
+         ss.realizedPnl = in.readDouble();
+         ss.unrealizedPnl = in.readDouble();
+         ss.grossPnl = in.readDouble();
+         ss.txnFees = in.readDouble();
+         ss.netPnl = in.readDouble();
+         ss.advisoryFees = in.readDouble();
+         ss.netPerformance = in.readDouble();
+         ss.endEq = in.readDouble();
+         summaries.put(ss.ts, ss);
+      }
+      
+      portfolios.clear();
+      int numPortfolios = in.readInt();
+      for(int ii = 0; ii < numPortfolios; ++ii) {
+         String portfolioName = in.readUTF();
+         PortfolioData pd = new PortfolioData(portfolioName, summaries.firstKey());
+         pd.portfolio.readSnapshot(in);
+         portfolios.put(portfolioName, pd);
+      }
+   }
 }
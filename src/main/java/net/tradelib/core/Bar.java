@@ -20,6 +20,13 @@ import java.time.format.DateTimeFormatter;
 
 public class Bar {
    private String symbol;
+   // The id from SymbolRegistry, looked up on demand
+   private int symbolId = -1;
+   // The instrument, set by the data feeds which know it, null otherwise
+   private Instrument instrument = null;
+   // The timestamp as epoch nanoseconds (see EpochTime)
+   private long epochNanos;
+   // The timestamp as LocalDateTime, created on demand
    private LocalDateTime ts;
    private double open;
    private double high;
@@ -37,14 +44,14 @@ public class Bar {
    public Bar(String symbol, Duration duration, LocalDateTime ts, double open, double high, double low, double close,
          long contractInterest, long volume, long totalInterest) {
       
-      this.symbol = symbol; this.duration = duration; this.ts = ts;
+      this.symbol = symbol; this.duration = duration; this.ts = ts; this.epochNanos = EpochTime.toNanos(ts);
       this.open = open; this.high = high; this.low = low; this.close = close;
       this.contractInterest = contractInterest; this.volume = volume; this.totalInterest = totalInterest;
    }
    
    public Bar(String symbol, LocalDateTime ts, double open, double high, double low, double close, long volume) {
       
-      this.symbol = symbol; this.duration = Duration.ofDays(1); this.ts = ts;
+      this.symbol = symbol; this.duration = Duration.ofDays(1); this.ts = ts; this.epochNanos = EpochTime.toNanos(ts);
       this.open = open; this.high = high; this.low = low; this.close = close;
       this.volume = volume;
    }
@@ -52,26 +59,57 @@ public class Bar {
    public Bar(String symbol, LocalDateTime ts, double open, double high, double low, double close,
          long contractInterest, long volume, long totalInterest) {
       
-      this.symbol = symbol; this.duration = Duration.ofDays(1); this.ts = ts;
+      this.symbol = symbol; this.duration = Duration.ofDays(1); this.ts = ts; this.epochNanos = EpochTime.toNanos(ts);
+      this.open = open; this.high = high; this.low = low; this.close = close;
+      this.contractInterest = contractInterest; this.volume = volume; this.totalInterest = totalInterest;
+   }
+   
+   public Bar(String symbol, Duration duration, long epochNanos, double open, double high, double low, double close,
+         long contractInterest, long volume, long totalInterest) {
+      
+      this.symbol = symbol; this.duration = duration; this.epochNanos = epochNanos;
       this.open = open; this.high = high; this.low = low; this.close = close;
       this.contractInterest = contractInterest; this.volume = volume; this.totalInterest = totalInterest;
    }
    
    public Bar(Bar bar) {
+      copyFrom(bar);
+   }
+   
+   /**
+    * Overwrites all fields with the ones of another bar.
+    */
+   public void copyFrom(Bar bar) {
       symbol = bar.symbol;
+      symbolId = bar.symbolId;
+      instrument = bar.instrument;
+      epochNanos = bar.epochNanos;
       ts = bar.ts;
       open = bar.open; high = bar.high; low = bar.low; close = bar.close; adjusted = bar.adjusted;
       contractInterest = bar.contractInterest; volume = bar.volume; totalInterest = bar.totalInterest;
       duration = bar.duration;
       last = bar.last;
-      
    }
    
    public String getSymbol() { return symbol; }
-   public void setSymbol(String ss) { symbol = ss; }
+   public void setSymbol(String ss) { symbol = ss; symbolId = -1; instrument = null; }
+   
+   public int getSymbolId() {
+      if(symbolId < 0) symbolId = SymbolRegistry.getId(symbol);
+      return symbolId;
+   }
 
-   public LocalDateTime getDateTime() { return ts; }
-   public void setDateTime(LocalDateTime ts) { this.ts = ts; }
+   public Instrument getInstrument() { return instrument; }
+   public void setInstrument(Instrument instrument) { this.instrument = instrument; }
+
+   public LocalDateTime getDateTime() {
+      if(ts == null) ts = EpochTime.fromNanos(epochNanos);
+      return ts;
+   }
+   public void setDateTime(LocalDateTime ts) { this.ts = ts; this.epochNanos = EpochTime.toNanos(ts); }
+   
+   public long getEpochNanos() { return epochNanos; }
+   public void setEpochNanos(long nanos) { this.epochNanos = nanos; this.ts = null; }
    
    public double getOpen() { return open; }
    public void setOpen(double o) { open = o; }
@@ -111,9 +149,9 @@ public class Bar {
    public String toString() {
       String result = getSymbol() + ": ";
       if(duration.compareTo(Duration.ofDays(1)) == 0) {
-         result += ts.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")) + ": ";
+         result += getDateTime().format(DateTimeFormatter.ofPattern("yyyy-MM-dd")) + ": ";
       } else {
-         result += ts.toString() + ": ";  
+         result += getDateTime().toString() + ": ";  
       }
       
       result += Double.toString(open) + "," + Double.toString(high) + "," + Double.toString(low) +"," + Double.toString(close);
@@ -0,0 +1,138 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @brief An immutable, in-memory copy of a data feed.
+ *
+ * The bars and the instruments are loaded once, afterwards any number of
+ * threads can replay them concurrently using feeds obtained from "newFeed".
+ * The bars are shared between the feeds, thus they must not be modified.
+ */
+public class BarCache {
+
+   private final Bar [] bars;
+   private final Map<String, Instrument> instruments;
+   private final HistoricalDataFeed source;
+
+   private BarCache(List<Bar> bars, Map<String, Instrument> instruments, HistoricalDataFeed source) {
+      this.bars = bars.toArray(new Bar[bars.size()]);
+      this.instruments = Collections.unmodifiableMap(instruments);
+      this.source = source;
+   }
+
+   /**
+    * @brief Reads the bars for the symbols from a configured feed.
+    *
+    * The source is kept to serve instrument variation requests.
+    */
+   public static BarCache load(HistoricalDataFeed source, Collection<String> symbols) throws Exception {
+      source.reset();
+      for(String symbol : symbols) source.subscribe(symbol);
+
+      List<Bar> bars = new ArrayList<Bar>();
+      IBarListener listener = (Bar bar) -> bars.add(bar);
+      source.addBarListener(listener);
+      try {
+         source.start();
+      } finally {
+         source.barListeners.remove(listener);
+         source.reset();
+      }
+
+      Map<String, Instrument> instruments = new HashMap<String, Instrument>();
+      for(String symbol : symbols) instruments.put(symbol, source.getInstrument(symbol));
+      
+      // The replays use the instruments on the bars, without any lookups
+      for(Bar bar : bars) {
+         if(bar.getInstrument() == null) bar.setInstrument(instruments.get(bar.getSymbol()));
+      }
+
+      return new BarCache(bars, instruments, source);
+   }
+
+   public int size() { return bars.length; }
+
+   public Bar getBar(int index) { return bars[index]; }
+
+   public LocalDateTime getFirstDateTime() { return bars.length > 0 ? bars[0].getDateTime() : null; }
+   public LocalDateTime getLastDateTime() { return bars.length > 0 ? bars[bars.length - 1].getDateTime() : null; }
+
+   public Instrument getInstrument(String symbol) { return instruments.get(symbol); }
+
+   /**
+    * @brief Creates a new feed replaying the cached bars.
+    *
+    * The feed honours its own subscriptions, feed start and feed stop.
+    */
+   public HistoricalDataFeed newFeed() {
+      return new Feed();
+   }
+
+   /**
+    * Index of the first bar at, or after, the timestamp.
+    */
+   private int lowerBound(LocalDateTime ldt) {
+      int lo = 0;
+      int hi = bars.length;
+      while(lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if(bars[mid].getDateTime().isBefore(ldt)) lo = mid + 1;
+         else hi = mid;
+      }
+      return lo;
+   }
+
+   private class Feed extends HistoricalDataFeed {
+
+      @Override
+      public void configure(String config) throws Exception {
+      }
+
+      @Override
+      public void start() throws Exception {
+         if(subscriptions.size() == 0) return;
+
+         int ii = feedStart == null ? 0 : lowerBound(feedStart);
+         for(; ii < bars.length; ++ii) {
+            Bar bar = bars[ii];
+            if(feedStop != null && bar.getDateTime().isAfter(feedStop)) break;
+            if(!subscriptions.contains(bar.getSymbol())) continue;
+
+            for(IBarListener listener : barListeners) listener.barNotification(bar);
+         }
+      }
+
+      @Override
+      public Instrument getInstrument(String symbol) throws Exception {
+         Instrument instrument = instruments.get(symbol);
+         if(instrument == null) throw new IllegalArgumentException("Symbol " + symbol + " is not in the cache.");
+         return instrument;
+      }
+
+      @Override
+      public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception {
+         return source.getInstrumentVariation(provider, symbol);
+      }
+   }
+}
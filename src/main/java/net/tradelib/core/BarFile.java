@@ -0,0 +1,237 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package net.tradelib.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * @brief A per-symbol, memory-mapped, columnar file of bars.
+ * 
+ * The layout is a fixed header followed by one column per field:
+ * 
+ *    * header: magic, version, number of bars, bar duration in seconds
+ *    * timestamps as epoch nanoseconds (the LocalDateTime taken at UTC)
+ *    * open, high, low, close as doubles
+ *    * volume, contract interest, total interest as longs
+ *    
+ * All values are little endian. The bars must be stored in chronological order.
+ */
+public class BarFile implements AutoCloseable {
+   public static final String EXTENSION = ".bars";
+   
+   private static final int MAGIC = 0x52424c54; // "TLBR"
+   private static final int VERSION = 1;
+   private static final int HEADER_SIZE = 32;
+   private static final int NUM_COLUMNS = 8;
+   
+   private static final int TS = 0;
+   private static final int OPEN = 1;
+   private static final int HIGH = 2;
+   private static final int LOW = 3;
+   private static final int CLOSE = 4;
+   private static final int VOLUME = 5;
+   private static final int CONTRACT_INTEREST = 6;
+   private static final int TOTAL_INTEREST = 7;
+   
+   private final String symbol;
+   private final int size;
+   private final Duration duration;
+   private final FileChannel channel;
+   private final MappedByteBuffer buffer;
+   
+   private BarFile(String symbol, FileChannel channel) throws IOException {
+      this.symbol = symbol;
+      this.channel = channel;
+      
+      long fileSize = channel.size();
+      if(fileSize < HEADER_SIZE) {
+         throw new IOException("Bad bar file for " + symbol + ": the file is too short");
+      }
+      
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      
+      if(buffer.getInt(0) != MAGIC) {
+         throw new IOException("Bad bar file for " + symbol + ": wrong magic number");
+      }
+      
+      if(buffer.getInt(4) != VERSION) {
+         throw new IOException("Bad bar file for " + symbol + ": unsupported version " + buffer.getInt(4));
+      }
+      
+      long count = buffer.getLong(8);
+      if(fileSize != HEADER_SIZE + count*NUM_COLUMNS*8) {
+         throw new IOException("Bad bar file for " + symbol + ": the size doesn't match the header");
+      }
+      
+      size = (int)count;
+      duration = Duration.ofSeconds(buffer.getLong(16));
+   }
+   
+   /**
+    * @brief Opens a bar file for reading.
+    * 
+    * @param path The file path
+    * @param symbol The symbol to use for the bars read from the file
+    * 
+    * @return The opened file
+    */
+   public static BarFile open(Path path, String symbol) throws IOException {
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+      try {
+         return new BarFile(symbol, channel);
+      } catch(IOException e) {
+         channel.close();
+         throw e;
+      }
+   }
+   
+   /**
+    * @brief Writes a list of bars, replacing the file if it exists.
+    * 
+    * @param path The file path
+    * @param bars The bars in chronological order
+    */
+   public static void write(Path path, List<Bar> bars) throws IOException {
+      int count = bars.size();
+      if((long)count*NUM_COLUMNS*8 + HEADER_SIZE > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException("Too many bars for a single bar file: " + count);
+      }
+      
+      Duration duration = count > 0 ? bars.get(0).getDuration() : Duration.ofDays(1);
+      
+      ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE + count*NUM_COLUMNS*8);
+      bb.order(ByteOrder.LITTLE_ENDIAN);
+      bb.putInt(0, MAGIC);
+      bb.putInt(4, VERSION);
+      bb.putLong(8, count);
+      bb.putLong(16, duration.getSeconds());
+      
+      long previous = Long.MIN_VALUE;
+      for(int ii = 0; ii < count; ++ii) {
+         Bar bar = bars.get(ii);
+         long nanos = toEpochNanos(bar.getDateTime());
+         if(nanos < previous) {
+            throw new IllegalArgumentException("Bars must be in chronological order: " + bar.toString());
+         }
+         previous = nanos;
+         
+         bb.putLong(offset(TS, count, ii), nanos);
+         bb.putDouble(offset(OPEN, count, ii), bar.getOpen());
+         bb.putDouble(offset(HIGH, count, ii), bar.getHigh());
+         bb.putDouble(offset(LOW, count, ii), bar.getLow());
+         bb.putDouble(offset(CLOSE, count, ii), bar.getClose());
+         bb.putLong(offset(VOLUME, count, ii), bar.getVolume());
+         bb.putLong(offset(CONTRACT_INTEREST, count, ii), bar.getContractInterest());
+         bb.putLong(offset(TOTAL_INTEREST, count, ii), bar.getTotalInterest());
+      }
+      
+      Path tmp = path.resolveSibling(path.getFileName().toString() + ".tmp");
+      try(FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+         while(bb.hasRemaining()) fc.write(bb);
+      }
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+   }
+   
+   public static long toEpochNanos(LocalDateTime ldt) {
+      return EpochTime.toNanos(ldt);
+   }
+   
+   public static LocalDateTime fromEpochNanos(long nanos) {
+      return EpochTime.fromNanos(nanos);
+   }
+   
+   private static int offset(int column, int count, int row) {
+      return HEADER_SIZE + (column*count + row)*8;
+   }
+   
+   private int offset(int column, int row) {
+      return offset(column, size, row);
+   }
+   
+   public String getSymbol() { return symbol; }
+   public Duration getDuration() { return duration; }
+   public int size() { return size; }
+   
+   public long getEpochNanos(int id) { return buffer.getLong(offset(TS, id)); }
+   public LocalDateTime getDateTime(int id) { return fromEpochNanos(getEpochNanos(id)); }
+   public double getOpen(int id) { return buffer.getDouble(offset(OPEN, id)); }
+   public double getHigh(int id) { return buffer.getDouble(offset(HIGH, id)); }
+   public double getLow(int id) { return buffer.getDouble(offset(LOW, id)); }
+   public double getClose(int id) { return buffer.getDouble(offset(CLOSE, id)); }
+   public long getVolume(int id) { return buffer.getLong(offset(VOLUME, id)); }
+   public long getContractInterest(int id) { return buffer.getLong(offset(CONTRACT_INTEREST, id)); }
+   public long getTotalInterest(int id) { return buffer.getLong(offset(TOTAL_INTEREST, id)); }
+   
+   public Bar getBar(int id) {
+      return new Bar(symbol, duration, getEpochNanos(id), getOpen(id), getHigh(id), getLow(id), getClose(id),
+                     getContractInterest(id), getVolume(id), getTotalInterest(id));
+   }
+   
+   /**
+    * @brief Finds the first bar at, or after, a timestamp.
+    * 
+    * @param ldt The timestamp
+    * 
+    * @return The index of the bar, size() if all bars are before the timestamp.
+    */
+   public int lowerBound(LocalDateTime ldt) {
+      long nanos = toEpochNanos(ldt);
+      int lo = 0;
+      int hi = size;
+      while(lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if(getEpochNanos(mid) < nanos) lo = mid + 1;
+         else hi = mid;
+      }
+      return lo;
+   }
+   
+   /**
+    * @brief Finds the first bar after a timestamp.
+    * 
+    * @param ldt The timestamp
+    * 
+    * @return The index of the bar, size() if no bar is after the timestamp.
+    */
+   public int upperBound(LocalDateTime ldt) {
+      long nanos = toEpochNanos(ldt);
+      int lo = 0;
+      int hi = size;
+      while(lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if(getEpochNanos(mid) <= nanos) lo = mid + 1;
+         else hi = mid;
+      }
+      return lo;
+   }
+
+   @Override
+   public void close() throws IOException {
+      channel.close();
+   }
+}
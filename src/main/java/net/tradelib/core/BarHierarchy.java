@@ -14,40 +14,360 @@
 
 package net.tradelib.core;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.time.Duration;
-import java.util.HashMap;
+import java.time.LocalDate;
+import java.util.Arrays;
 
+/**
+ * @brief The bar histories of the symbols, one per duration.
+ * 
+ * Besides the histories of the bars as they arrive, the hierarchy maintains
+ * derived resolutions registered using "addResolution". These are built
+ * incrementally from the base bars passed to "add": N-minute and hourly bars
+ * (aligned to midnight), daily bars, weekly bars (see WEEK, the weeks are
+ * anchored to Monday using Calendar.toWeek) and monthly bars (see MONTH).
+ * The bar being formed is available from "getPartialBar". Once completed,
+ * it is added to the history of its resolution.
+ * 
+ * A derived bar is completed either by the first base bar of a later period,
+ * or by a base bar ending at the end of the period. Thus a daily bar built
+ * from the bars of a session which doesn't run until midnight is completed
+ * by the first bar of the next day, or by "flush".
+ */
 public class BarHierarchy {
-   private HashMap<String, HashMap<Duration, BarHistory>> historiesMap;
+   // The key of the weekly resolution
+   public static final Duration WEEK = Duration.ofDays(7);
+   // The key of the monthly resolution
+   public static final Duration MONTH = Duration.ofDays(30);
+   
+   private static final Duration DAY = Duration.ofDays(1);
+   
+   // Builds the bars of a derived resolution for a symbol
+   private static class Aggregator {
+      final Duration duration;
+      final long durationNanos;
+      BarHistory history;
+      // The bar being formed, reused for all periods
+      final Bar partial;
+      boolean active = false;
+      long periodStart;
+      long periodEnd;
+      
+      Aggregator(String symbol, Duration duration, BarHistory history) {
+         this.duration = duration;
+         this.durationNanos = duration.toNanos();
+         this.history = history;
+         this.partial = new Bar(symbol, duration, 0L, 0.0, 0.0, 0.0, 0.0, 0, 0, 0);
+      }
+      
+      void add(Bar bar) throws Exception {
+         long ts = bar.getEpochNanos();
+         if(active && (ts >= periodEnd || ts < periodStart)) complete();
+         
+         if(!active) {
+            setPeriod(ts);
+            partial.setEpochNanos(periodStart);
+            partial.setOpen(bar.getOpen());
+            partial.setHigh(bar.getHigh());
+            partial.setLow(bar.getLow());
+            partial.setVolume(0);
+            active = true;
+         } else {
+            if(bar.getHigh() > partial.getHigh()) partial.setHigh(bar.getHigh());
+            if(bar.getLow() < partial.getLow()) partial.setLow(bar.getLow());
+         }
+         partial.setClose(bar.getClose());
+         partial.setVolume(partial.getVolume() + bar.getVolume());
+         partial.setContractInterest(bar.getContractInterest());
+         partial.setTotalInterest(bar.getTotalInterest());
+         
+         Duration barDuration = bar.getDuration();
+         long barEnd = barDuration == null ? ts : ts + barDuration.toNanos();
+         if(barEnd >= periodEnd) complete();
+      }
+      
+      void complete() {
+         if(!active) return;
+         history.add(partial);
+         active = false;
+      }
+      
+      private void setPeriod(long ts) throws Exception {
+         long day = EpochTime.startOfDay(ts);
+         if(durationNanos < EpochTime.NANOS_PER_DAY) {
+            periodStart = day + ((ts - day)/durationNanos)*durationNanos;
+            periodEnd = Math.min(periodStart + durationNanos, day + EpochTime.NANOS_PER_DAY);
+         } else if(duration.equals(DAY)) {
+            periodStart = day;
+            periodEnd = day + EpochTime.NANOS_PER_DAY;
+         } else if(duration.equals(WEEK)) {
+            LocalDate week = Calendar.toWeek(EpochTime.fromNanos(day).toLocalDate());
+            periodStart = EpochTime.toNanos(week.atStartOfDay());
+            periodEnd = periodStart + 7*EpochTime.NANOS_PER_DAY;
+         } else {
+            LocalDate month = EpochTime.fromNanos(day).toLocalDate().withDayOfMonth(1);
+            periodStart = EpochTime.toNanos(month.atStartOfDay());
+            periodEnd = EpochTime.toNanos(month.plusMonths(1).atStartOfDay());
+         }
+      }
+   }
+   
+   // The histories for a symbol, one per duration. A symbol has only a
+   // few durations, a linear search is faster than hashing.
+   private static class SymbolHistories {
+      Duration [] durations = new Duration[0];
+      BarHistory [] histories = new BarHistory[0];
+      Aggregator [] aggregators = new Aggregator[0];
+   }
+   
+   // Indexed by the symbol id (see SymbolRegistry), null for the symbols not added
+   private SymbolHistories [] historiesById;
+   // The lookback for new histories, 0 retains all bars
+   private int lookback = 0;
    
    public BarHierarchy() {
-      historiesMap = new HashMap<String, HashMap<Duration,BarHistory>>();
+      historiesById = new SymbolHistories[0];
    }
+   
+   public BarHierarchy(int lookback) {
+      this();
+      this.lookback = lookback;
+   }
+   
+   /**
+    * Sets the number of bars retained by the histories created afterwards.
+    */
+   public void setLookback(int lookback) { this.lookback = lookback; }
+   public int getLookback() { return lookback; }
 
    public BarHistory getHistory(String symbol, Duration duration) {
-      HashMap<Duration,BarHistory> symbolHistories = historiesMap.get(symbol);
+      return getHistory(SymbolRegistry.findId(symbol), duration);
+   }
+   
+   public BarHistory getHistory(int symbolId, Duration duration) {
+      SymbolHistories symbolHistories = getSymbolHistories(symbolId);
       if(symbolHistories == null) {
          return null;
       }
       
-      BarHistory barHistory = symbolHistories.get(duration);
-      if(barHistory == null) {
-         barHistory = new BarHistory();
-         symbolHistories.put(duration, barHistory);
+      Duration [] durations = symbolHistories.durations;
+      for(int ii = 0; ii < durations.length; ++ii) {
+         if(durations[ii].equals(duration)) return symbolHistories.histories[ii];
       }
       
+      BarHistory barHistory = new BarHistory(lookback);
+      putHistory(symbolHistories, duration, barHistory);
+      
       return barHistory;
    }
    
    public void addSymbol(String symbol) {
-      HashMap<Duration,BarHistory> symbolHistories = historiesMap.get(symbol);
-      if(symbolHistories == null) {
-         symbolHistories = new HashMap<Duration, BarHistory>();
-         historiesMap.put(symbol, symbolHistories);
+      int symbolId = SymbolRegistry.getId(symbol);
+      if(symbolId >= historiesById.length) {
+         historiesById = Arrays.copyOf(historiesById, Math.max(symbolId + 1, SymbolRegistry.size()));
+      }
+      if(historiesById[symbolId] == null) {
+         historiesById[symbolId] = new SymbolHistories();
       }
    }
    
    public BarHistory getHistory(Bar bar) {
-      return getHistory(bar.getSymbol(), bar.getDuration());
+      return getHistory(bar.getSymbolId(), bar.getDuration());
+   }
+   
+   /**
+    * @brief Builds a derived resolution for a symbol from the bars passed to "add".
+    * 
+    * Adds the symbol if necessary. Registering a resolution twice is harmless.
+    * 
+    * @param duration Less than a day, a day, WEEK or MONTH
+    * 
+    * @return The history receiving the completed bars
+    */
+   public BarHistory addResolution(String symbol, Duration duration) {
+      if(duration.isNegative() || duration.isZero() ||
+            (duration.compareTo(DAY) > 0 && !duration.equals(WEEK) && !duration.equals(MONTH))) {
+         throw new IllegalArgumentException("Unsupported resolution " + duration.toString() + ".");
+      }
+      
+      addSymbol(symbol);
+      int symbolId = SymbolRegistry.getId(symbol);
+      BarHistory history = getHistory(symbolId, duration);
+      SymbolHistories symbolHistories = historiesById[symbolId];
+      Aggregator [] aggregators = symbolHistories.aggregators;
+      for(int ii = 0; ii < aggregators.length; ++ii) {
+         if(aggregators[ii].duration.equals(duration)) return history;
+      }
+      
+      int nn = aggregators.length;
+      symbolHistories.aggregators = Arrays.copyOf(aggregators, nn + 1);
+      symbolHistories.aggregators[nn] = new Aggregator(symbol, duration, history);
+      
+      return history;
+   }
+   
+   /**
+    * @brief Adds a base bar to its history and updates the derived resolutions of its symbol.
+    * 
+    * The resolutions which are not coarser than the bar are left alone.
+    * 
+    * @return The history of the bar, null if the symbol was not added
+    */
+   public BarHistory add(Bar bar) throws Exception {
+      BarHistory history = getHistory(bar);
+      if(history == null) return null;
+      
+      history.add(bar);
+      
+      Aggregator [] aggregators = historiesById[bar.getSymbolId()].aggregators;
+      Duration barDuration = bar.getDuration();
+      for(int ii = 0; ii < aggregators.length; ++ii) {
+         Aggregator aggregator = aggregators[ii];
+         if(barDuration != null && aggregator.duration.compareTo(barDuration) <= 0) continue;
+         aggregator.add(bar);
+      }
+      
+      return history;
+   }
+   
+   /**
+    * @brief The bar being formed for a derived resolution.
+    * 
+    * The bar is reused for all periods, copy it to keep it.
+    * 
+    * @return The partial bar, null if there is none
+    */
+   public Bar getPartialBar(String symbol, Duration duration) {
+      SymbolHistories symbolHistories = getSymbolHistories(SymbolRegistry.findId(symbol));
+      if(symbolHistories == null) return null;
+      
+      Aggregator [] aggregators = symbolHistories.aggregators;
+      for(int ii = 0; ii < aggregators.length; ++ii) {
+         if(aggregators[ii].duration.equals(duration)) {
+            return aggregators[ii].active ? aggregators[ii].partial : null;
+         }
+      }
+      return null;
+   }
+   
+   /**
+    * Completes the partial bars of all resolutions, at the end of the data for instance.
+    */
+   public void flush() {
+      for(SymbolHistories symbolHistories : historiesById) {
+         if(symbolHistories == null) continue;
+         for(Aggregator aggregator : symbolHistories.aggregators) aggregator.complete();
+      }
+   }
+   
+   /**
+    * Writes the histories and the state of the derived resolutions (see StrategySnapshot).
+    */
+   void writeSnapshot(DataOutput out) throws IOException {
+      int numSymbols = 0;
+      for(SymbolHistories symbolHistories : historiesById) {
+         if(symbolHistories != null) ++numSymbols;
+      }
+      out.writeInt(numSymbols);
+      
+      for(int symbolId = 0; symbolId < historiesById.length; ++symbolId) {
+         SymbolHistories symbolHistories = historiesById[symbolId];
+         if(symbolHistories == null) continue;
+         
+         out.writeUTF(SymbolRegistry.getSymbol(symbolId));
+         out.writeInt(symbolHistories.durations.length);
+         for(int ii = 0; ii < symbolHistories.durations.length; ++ii) {
+            out.writeLong(symbolHistories.durations[ii].toNanos());
+            out.writeInt(symbolHistories.histories[ii].getLookback());
+            symbolHistories.histories[ii].writeSnapshot(out);
+         }
+         
+         out.writeInt(symbolHistories.aggregators.length);
+         for(Aggregator aggregator : symbolHistories.aggregators) {
+            Bar partial = aggregator.partial;
+            out.writeLong(aggregator.durationNanos);
+            out.writeBoolean(aggregator.active);
+            out.writeLong(aggregator.periodStart);
+            out.writeLong(aggregator.periodEnd);
+            out.writeLong(partial.getEpochNanos());
+            out.writeDouble(partial.getOpen());
+            out.writeDouble(partial.getHigh());
+            out.writeDouble(partial.getLow());
+            out.writeDouble(partial.getClose());
+            out.writeLong(partial.getVolume());
+            out.writeLong(partial.getContractInterest());
+            out.writeLong(partial.getTotalInterest());
+         }
+      }
+   }
+   
+   /**
+    * Restores the histories, replacing the existing ones for the same symbols and durations.
+    */
+   void readSnapshot(DataInput in) throws IOException {
+      int numSymbols = in.readInt();
+      for(int ss = 0; ss < numSymbols; ++ss) {
+         String symbol = in.readUTF();
+         addSymbol(symbol);
+         SymbolHistories symbolHistories = historiesById[SymbolRegistry.getId(symbol)];
+         
+         int numDurations = in.readInt();
+         for(int ii = 0; ii < numDurations; ++ii) {
+            Duration duration = Duration.ofNanos(in.readLong());
+            BarHistory history = new BarHistory(in.readInt());
+            history.readSnapshot(in);
+            putHistory(symbolHistories, duration, history);
+         }
+         
+         int numAggregators = in.readInt();
+         for(int ii = 0; ii < numAggregators; ++ii) {
+            Duration duration = Duration.ofNanos(in.readLong());
+            addResolution(symbol, duration);
+            Aggregator aggregator = null;
+            for(Aggregator aa : symbolHistories.aggregators) {
+               if(aa.duration.equals(duration)) aggregator = aa;
+            }
+            
+            Bar partial = aggregator.partial;
+            aggregator.active = in.readBoolean();
+            aggregator.periodStart = in.readLong();
+            aggregator.periodEnd = in.readLong();
+            partial.setEpochNanos(in.readLong());
+            partial.setOpen(in.readDouble());
+            partial.setHigh(in.readDouble());
+            partial.setLow(in.readDouble());
+            partial.setClose(in.readDouble());
+            partial.setVolume(in.readLong());
+            partial.setContractInterest(in.readLong());
+            partial.setTotalInterest(in.readLong());
+         }
+      }
+   }
+   
+   private static void putHistory(SymbolHistories symbolHistories, Duration duration, BarHistory history) {
+      Duration [] durations = symbolHistories.durations;
+      for(int ii = 0; ii < durations.length; ++ii) {
+         if(durations[ii].equals(duration)) {
+            symbolHistories.histories[ii] = history;
+            for(Aggregator aggregator : symbolHistories.aggregators) {
+               if(aggregator.duration.equals(duration)) aggregator.history = history;
+            }
+            return;
+         }
+      }
+      
+      int nn = durations.length;
+      symbolHistories.durations = Arrays.copyOf(durations, nn + 1);
+      symbolHistories.durations[nn] = duration;
+      symbolHistories.histories = Arrays.copyOf(symbolHistories.histories, nn + 1);
+      symbolHistories.histories[nn] = history;
+   }
+   
+   private SymbolHistories getSymbolHistories(int symbolId) {
+      if(symbolId < 0 || symbolId >= historiesById.length) return null;
+      return historiesById[symbolId];
    }
 }
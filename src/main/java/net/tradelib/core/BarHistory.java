@@ -14,34 +14,76 @@
 
 package net.tradelib.core;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import net.tradelib.functors.Atr;
+import net.tradelib.functors.Ema;
+import net.tradelib.functors.Max;
+import net.tradelib.functors.Min;
+import net.tradelib.functors.Percentile;
 import net.tradelib.functors.Sma;
+import net.tradelib.functors.StdDev;
+import net.tradelib.functors.ZigZag;
 
+/**
+ * @brief The history of bars for a single (symbol, duration) pair.
+ * 
+ * The values are kept in primitive arrays, one per column. By default the
+ * arrays grow to accommodate all bars. With a positive lookback, the arrays
+ * are used as ring buffers and only the latest "lookback" bars are retained.
+ * 
+ * All accessors use offsets from the latest bar - 0 is the latest bar, 1 is
+ * the previous one, etc.
+ * 
+ * Indicators can be attached to the history (or to any of its columns). They
+ * are updated incrementally as bars are added and keep one value per bar:
+ * 
+ *    Indicator sma = history.close.attachSma(50);
+ *    Indicator atr = history.attachAtr(14);
+ *    ...
+ *    if(history.getClose() > sma.get(0) + 2*atr.get(1)) ...
+ */
 public class BarHistory {
-   private List<Bar> bars = new ArrayList<Bar>();
+   
+   private static final int INITIAL_CAPACITY = 256;
+   
+   private String symbol;
+   private Duration duration;
+   
+   // The maximum number of bars retained, 0 for unlimited
+   private final int lookback;
+   // The number of bars added so far
+   private int count = 0;
+   
+   // Epoch nanoseconds (see EpochTime)
+   private long [] timestamps;
+   private double [] opens;
+   private double [] highs;
+   private double [] lows;
+   private double [] closes;
+   private long [] volumes;
+   private long [] contractInterests;
+   private long [] totalInterests;
+   
+   private List<Indicator> indicators = new ArrayList<Indicator>();
    
    public interface IHistoryData {
       public double get(int id);
    }
    
-   private class MutableData<T> implements IHistoryData {
-      private List<T> list;
-
-      public MutableData() {
-         list = new ArrayList<T>();
-      }
-      
-      public void add(T value) {
-         list.add(value);
-      }
-      
-      @Override
-      public double get(int id) {
-         return (Double)list.get(list.size() - id -1);
-      }
+   /**
+    * Computes the value of an indicator for a bar, given the bar's offset.
+    * Called once per bar, from the oldest to the latest bar.
+    */
+   public interface IIndicatorUpdater {
+      public double update(int id);
    }
    
    public class HistoryData implements IHistoryData {
@@ -51,12 +93,20 @@ public class BarHistory {
       public HistoryData(IHistoryData container) {
          this.container = container;
       }
+      
+      protected HistoryData() {
+         this.container = null;
+      }
 
       @Override
       public double get(int id) {
          return container.get(id);
       }
       
+      /**
+       * Recomputes the average on each call, O(len). Prefer "attachSma"
+       * when the average is needed on every bar.
+       */
       public double sma(int len) {
          Sma ff = new Sma(len);
          for(int ii = 0; ii < len; ++ii) {
@@ -64,70 +114,298 @@ public class BarHistory {
          }
          return ff.last();
       }
+      
+      // Undefined values (the warm-up period of an indicator for instance)
+      // are not passed to the attached indicators.
+      private boolean isValid(int id) {
+         return !Double.isNaN(get(id));
+      }
+      
+      public Indicator attachSma(int len) {
+         Sma ff = new Sma(len);
+         return attach(id -> { if(isValid(id)) ff.add(get(id)); return ff.last(); });
+      }
+      
+      public Indicator attachEma(int len) {
+         Ema ff = new Ema(len);
+         return attach(id -> { if(isValid(id)) ff.add(get(id)); return ff.last(); });
+      }
+      
+      public Indicator attachEma(int len, boolean wilder) {
+         Ema ff = new Ema(len, wilder);
+         return attach(id -> { if(isValid(id)) ff.add(get(id)); return ff.last(); });
+      }
+      
+      public Indicator attachStdDev(int len) {
+         StdDev ff = new StdDev(len);
+         return attach(id -> { if(isValid(id)) ff.add(get(id)); return ff.stdDev(); });
+      }
+      
+      public Indicator attachMax(int len) {
+         Max ff = new Max(len);
+         return attach(id -> { if(isValid(id)) ff.add(get(id)); return ff.last(); });
+      }
+      
+      public Indicator attachMin(int len) {
+         Min ff = new Min(len);
+         return attach(id -> { if(isValid(id)) ff.add(get(id)); return ff.last(); });
+      }
+      
+      public Indicator attachPercentile(int len, double percentile) {
+         Percentile ff = new Percentile(len);
+         return attach(id -> { if(isValid(id)) ff.add(get(id)); return ff.last(percentile); });
+      }
+      
+      /**
+       * The indicator values are the ZigZag trend: 1, -1, or 0 (no trend yet).
+       */
+      public Indicator attachZigZag(int len, double deviation) {
+         ZigZag ff = new ZigZag(len, deviation);
+         return attach(id -> { if(isValid(id)) ff.add(get(id)); return ff.getTrend(); });
+      }
    }
    
-   private MutableData<Double> openContainer = new MutableData<Double>();
-   private MutableData<Double> highContainer = new MutableData<Double>();
-   private MutableData<Double> lowContainer = new MutableData<Double>();
-   private MutableData<Double> closeContainer = new MutableData<Double>();
-   private MutableData<Long> volumeContainer = new MutableData<Long>();
-   private MutableData<Long> totalInterestContainer = new MutableData<Long>();
-   private MutableData<Long> contractInterestContainer = new MutableData<Long>();
+   /**
+    * @brief An indicator attached to the history.
+    * 
+    * Keeps a value for each bar retained by the history. The indicators
+    * are updated in the order of attachment, thus an indicator can be
+    * attached to another indicator (an average of an average for instance).
+    */
+   public class Indicator extends HistoryData {
+      private final IIndicatorUpdater updater;
+      private double [] values;
+      
+      private Indicator(IIndicatorUpdater updater) {
+         this.updater = updater;
+         this.values = new double[opens.length];
+         Arrays.fill(values, Double.NaN);
+      }
+      
+      @Override
+      public double get(int id) {
+         return values[index(id)];
+      }
+      
+      public double last() {
+         return get(0);
+      }
+      
+      private void update(int id) {
+         values[index(id)] = updater.update(id);
+      }
+   }
    
-   public HistoryData open = new HistoryData(openContainer);
-   public HistoryData high = new HistoryData(highContainer);
-   public HistoryData low = new HistoryData(lowContainer);
-   public HistoryData close = new HistoryData(closeContainer);
-   public HistoryData volume = new HistoryData(volumeContainer);
-   public HistoryData totalInterest = new HistoryData(totalInterestContainer);
-   public HistoryData contractInterest = new HistoryData(contractInterestContainer);
-
-   public LocalDateTime getDateTime(int id) { return bars.get(bars.size() - id - 1).getDateTime(); }
-   public LocalDateTime getDateTime() { return bars.get(bars.size() - 1).getDateTime(); }
+   public HistoryData open = new HistoryData(id -> opens[index(id)]);
+   public HistoryData high = new HistoryData(id -> highs[index(id)]);
+   public HistoryData low = new HistoryData(id -> lows[index(id)]);
+   public HistoryData close = new HistoryData(id -> closes[index(id)]);
+   public HistoryData volume = new HistoryData(id -> volumes[index(id)]);
+   public HistoryData totalInterest = new HistoryData(id -> totalInterests[index(id)]);
+   public HistoryData contractInterest = new HistoryData(id -> contractInterests[index(id)]);
    
-   public double getOpen(int id) { return bars.get(bars.size() - id - 1).getOpen(); }
-   public double getOpen() { return bars.get(bars.size() - 1).getOpen(); }
+   public BarHistory() {
+      this(0);
+   }
    
-   public double getHigh(int id) { return bars.get(bars.size() - id - 1).getHigh(); }
-   public double getHigh() { return bars.get(bars.size() - 1).getHigh(); }
+   /**
+    * @param lookback The number of bars to retain, 0 to retain all bars
+    */
+   public BarHistory(int lookback) {
+      if(lookback < 0) throw new IllegalArgumentException("The lookback must be non-negative.");
+      
+      this.lookback = lookback;
+      allocate(lookback > 0 ? lookback : INITIAL_CAPACITY);
+   }
    
-   public double getLow(int id) { return bars.get(bars.size() - id - 1).getLow(); }
-   public double getLow() { return bars.get(bars.size() - 1).getLow(); }
+   private void allocate(int capacity) {
+      timestamps = new long[capacity];
+      opens = new double[capacity];
+      highs = new double[capacity];
+      lows = new double[capacity];
+      closes = new double[capacity];
+      volumes = new long[capacity];
+      contractInterests = new long[capacity];
+      totalInterests = new long[capacity];
+   }
    
-   public double getClose(int id) { return bars.get(bars.size() - id - 1).getClose(); }
-   public double getClose() { return bars.get(bars.size() - 1).getClose(); }
+   private void grow() {
+      int capacity = opens.length*2;
+      timestamps = Arrays.copyOf(timestamps, capacity);
+      opens = Arrays.copyOf(opens, capacity);
+      highs = Arrays.copyOf(highs, capacity);
+      lows = Arrays.copyOf(lows, capacity);
+      closes = Arrays.copyOf(closes, capacity);
+      volumes = Arrays.copyOf(volumes, capacity);
+      contractInterests = Arrays.copyOf(contractInterests, capacity);
+      totalInterests = Arrays.copyOf(totalInterests, capacity);
+      for(Indicator indicator : indicators) {
+         int size = indicator.values.length;
+         indicator.values = Arrays.copyOf(indicator.values, capacity);
+         Arrays.fill(indicator.values, size, capacity, Double.NaN);
+      }
+   }
    
-   public long getVolume(int id) { return bars.get(bars.size() - id - 1).getVolume(); }
-   public long getVolume() { return bars.get(bars.size() - 1).getVolume(); }
+   /**
+    * Maps an offset from the latest bar to an array index.
+    */
+   private int index(int id) {
+      if(id < 0 || id >= size()) {
+         throw new IndexOutOfBoundsException("Offset: " + id + ", Size: " + size());
+      }
+      int pos = count - 1 - id;
+      return pos < opens.length ? pos : pos % opens.length;
+   }
    
-   public long getContractInterest(int id) { return bars.get(bars.size() - id - 1).getContractInterest(); }
-   public long getContractInterest() { return bars.get(bars.size() - 1).getContractInterest(); }
+   public LocalDateTime getDateTime(int id) { return EpochTime.fromNanos(timestamps[index(id)]); }
+   public LocalDateTime getDateTime() { return getDateTime(0); }
    
-   public long getTotalInterest(int id) { return bars.get(bars.size() - id - 1).getTotalInterest(); }
-   public long getTotalInterest() { return bars.get(bars.size() - 1).getTotalInterest(); }
+   public long getEpochNanos(int id) { return timestamps[index(id)]; }
+   public long getEpochNanos() { return getEpochNanos(0); }
+   
+   public double getOpen(int id) { return opens[index(id)]; }
+   public double getOpen() { return getOpen(0); }
+   
+   public double getHigh(int id) { return highs[index(id)]; }
+   public double getHigh() { return getHigh(0); }
+   
+   public double getLow(int id) { return lows[index(id)]; }
+   public double getLow() { return getLow(0); }
+   
+   public double getClose(int id) { return closes[index(id)]; }
+   public double getClose() { return getClose(0); }
+   
+   public long getVolume(int id) { return volumes[index(id)]; }
+   public long getVolume() { return getVolume(0); }
+   
+   public long getContractInterest(int id) { return contractInterests[index(id)]; }
+   public long getContractInterest() { return getContractInterest(0); }
+   
+   public long getTotalInterest(int id) { return totalInterests[index(id)]; }
+   public long getTotalInterest() { return getTotalInterest(0); }
    
    public void add(Bar bar) {
-      bars.add(bar);
+      if(count == 0) {
+         symbol = bar.getSymbol();
+         duration = bar.getDuration();
+      }
+      
+      put(bar.getEpochNanos(), bar.getOpen(), bar.getHigh(), bar.getLow(), bar.getClose(),
+          bar.getVolume(), bar.getContractInterest(), bar.getTotalInterest());
+      
+      for(Indicator indicator : indicators) indicator.update(0);
+   }
+   
+   private void put(long ts, double open, double high, double low, double close,
+                    long volume, long contractInterest, long totalInterest) {
+      if(lookback == 0 && count == opens.length) grow();
+      
+      int pos = count < opens.length ? count : count % opens.length;
+      timestamps[pos] = ts;
+      opens[pos] = open;
+      highs[pos] = high;
+      lows[pos] = low;
+      closes[pos] = close;
+      volumes[pos] = volume;
+      contractInterests[pos] = contractInterest;
+      totalInterests[pos] = totalInterest;
       
-      openContainer.add(bar.getOpen());
-      highContainer.add(bar.getHigh());
-      lowContainer.add(bar.getLow());
-      closeContainer.add(bar.getClose());
-      volumeContainer.add(bar.getVolume());
-      contractInterestContainer.add(bar.getContractInterest());
-      totalInterestContainer.add(bar.getTotalInterest());
+      ++count;
    }
    
-   public Bar getBar(int id) { return bars.get(bars.size() - id - 1); }
-   public Bar getBar() { return bars.get(bars.size() - 1); }
+   /**
+    * Writes the retained bars, oldest first (see StrategySnapshot).
+    */
+   void writeSnapshot(DataOutput out) throws IOException {
+      StrategySnapshot.writeString(out, symbol);
+      out.writeLong(duration == null ? -1 : duration.toNanos());
+      out.writeInt(count);
+      int size = (int)size();
+      out.writeInt(size);
+      for(int id = size - 1; id >= 0; --id) {
+         int pos = index(id);
+         out.writeLong(timestamps[pos]);
+         out.writeDouble(opens[pos]);
+         out.writeDouble(highs[pos]);
+         out.writeDouble(lows[pos]);
+         out.writeDouble(closes[pos]);
+         out.writeLong(volumes[pos]);
+         out.writeLong(contractInterests[pos]);
+         out.writeLong(totalInterests[pos]);
+      }
+   }
+   
+   /**
+    * Restores the bars into an empty history, without indicators (see StrategySnapshot).
+    */
+   void readSnapshot(DataInput in) throws IOException {
+      if(count != 0 || !indicators.isEmpty()) {
+         throw new IllegalStateException("Snapshots are restored only into empty histories without indicators.");
+      }
+      
+      symbol = StrategySnapshot.readString(in);
+      long durationNanos = in.readLong();
+      duration = durationNanos < 0 ? null : Duration.ofNanos(durationNanos);
+      int savedCount = in.readInt();
+      int size = in.readInt();
+      if(lookback > 0 && size > lookback) {
+         throw new IOException("Bad snapshot: " + size + " bars for a lookback of " + lookback);
+      }
+      
+      // Place the bars as if all of them were added
+      count = savedCount - size;
+      for(int ii = 0; ii < size; ++ii) {
+         put(in.readLong(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+             in.readLong(), in.readLong(), in.readLong());
+      }
+   }
+   
+   /**
+    * @brief Attaches a custom indicator to the history.
+    * 
+    * If there are bars in the history already, the updater is called for
+    * each of them, so the indicator is up to date on return.
+    */
+   public Indicator attach(IIndicatorUpdater updater) {
+      Indicator indicator = new Indicator(updater);
+      for(int id = (int)size() - 1; id >= 0; --id) indicator.update(id);
+      indicators.add(indicator);
+      return indicator;
+   }
+   
+   public Indicator attachAtr(int len) {
+      Atr ff = new Atr(len);
+      return attach(id -> ff.add(getHigh(id), getLow(id), getClose(id)));
+   }
+   
+   /**
+    * Rebuilds a bar from the history. Allocates, prefer the column accessors.
+    */
+   public Bar getBar(int id) {
+      int pos = index(id);
+      return new Bar(symbol, duration, timestamps[pos], opens[pos], highs[pos], lows[pos], closes[pos],
+                     contractInterests[pos], volumes[pos], totalInterests[pos]);
+   }
+   
+   public Bar getBar() { return getBar(0); }
    
    public TimeSeries<Double> getCloseSeries() {
-      TimeSeries<Double> ts = new TimeSeries<Double>(1, bars.size());
-      for(Bar bar : bars) {
-         ts.add(bar.getDateTime(), bar.getClose());
+      TimeSeries<Double> ts = new TimeSeries<Double>(1, (int)size());
+      for(int id = (int)size() - 1; id >= 0; --id) {
+         ts.add(getDateTime(id), getClose(id));
       }
       return ts;
    }
    
-   public long size() { return bars.size(); }
+   /**
+    * @return The number of bars available - at most "lookback" if the lookback is set
+    */
+   public long size() { return lookback > 0 ? Math.min(count, lookback) : count; }
+   
+   /**
+    * @return The number of bars added to the history, including the ones no longer retained
+    */
+   public long getCount() { return count; }
+   
+   public int getLookback() { return lookback; }
 }
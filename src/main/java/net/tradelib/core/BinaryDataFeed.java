@@ -0,0 +1,173 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package net.tradelib.core;
+
+import java.io.FileInputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+
+/**
+ * @brief A historical data feed reading bars from per-symbol BarFile-s.
+ * 
+ * The bars for symbol "XX" are read from "<bars.dir>/XX.bars". The
+ * bars are delivered in the same order as SQLDataFeed - chronological,
+ * with the last bar for each symbol marked.
+ * 
+ * The bar files don't carry instrument definitions, these are delegated
+ * to an instrument source - by default an SQLDataFeed configured using
+ * the same property file.
+ */
+public class BinaryDataFeed extends HistoricalDataFeed {
+   
+   private Path barsDir;
+   
+   private HistoricalDataFeed instrumentSource = null;
+   
+   public BinaryDataFeed() {
+   }
+   
+   public BinaryDataFeed(Context context) {
+      super(context);
+   }
+   
+   public Path getBarsDir() { return barsDir; }
+   public void setBarsDir(Path dir) { this.barsDir = dir; }
+   public void setBarsDir(String dir) { this.barsDir = Paths.get(dir); }
+   
+   public HistoricalDataFeed getInstrumentSource() { return instrumentSource; }
+   public void setInstrumentSource(HistoricalDataFeed source) { this.instrumentSource = source; }
+   
+   public static Path getBarFilePath(Path dir, String symbol) {
+      return dir.resolve(symbol + BarFile.EXTENSION);
+   }
+
+   /**
+    * Configures the data feed using a property file.
+    * 
+    * Uses "bars.dir" for the location of the bar files. If "db.url"
+    * is set, the instruments are loaded by an SQLDataFeed using the
+    * same configuration.
+    * 
+    * @param path The config path
+    * @throws Exception 
+    */
+   @Override
+   public void configure(String path) throws Exception {
+      Properties config = new Properties();
+      config.load(new FileInputStream(path));
+      
+      String fs = config.getProperty("feed.start", null);
+      if(fs != null) {
+         try {
+            LocalDateTime ldt = LocalDate.parse(fs, DateTimeFormatter.ofPattern("yyyy-MM-dd")).atStartOfDay();
+            setFeedStart(ldt);
+         } catch(Exception e) {
+            
+         }
+      }
+      
+      setBarsDir(config.getProperty("bars.dir", "bars"));
+      
+      if(config.getProperty("db.url") != null) {
+         SQLDataFeed sdf = new SQLDataFeed();
+         sdf.configure(path);
+         setInstrumentSource(sdf);
+      }
+   }
+   
+   private static class Cursor implements Comparable<Cursor> {
+      final BarFile file;
+      final int end;
+      int pos;
+      long ts;
+      
+      Cursor(BarFile file, int begin, int end) {
+         this.file = file;
+         this.pos = begin;
+         this.end = end;
+         this.ts = file.getEpochNanos(begin);
+      }
+      
+      boolean advance() {
+         if(++pos >= end) return false;
+         ts = file.getEpochNanos(pos);
+         return true;
+      }
+
+      @Override
+      public int compareTo(Cursor other) {
+         int res = Long.compare(ts, other.ts);
+         if(res == 0) res = file.getSymbol().compareTo(other.file.getSymbol());
+         return res;
+      }
+   }
+
+   @Override
+   public void start() throws Exception {
+      if(subscriptions.size() == 0) return;
+      
+      List<BarFile> files = new ArrayList<BarFile>(subscriptions.size());
+      try {
+         PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(subscriptions.size());
+         for(String symbol : subscriptions) {
+            BarFile file = BarFile.open(getBarFilePath(barsDir, symbol), symbol);
+            files.add(file);
+            
+            int begin = getFeedStart() != null ? file.lowerBound(getFeedStart()) : 0;
+            int end = getFeedStop() != null ? file.upperBound(getFeedStop()) : file.size();
+            if(begin < end) queue.add(new Cursor(file, begin, end));
+         }
+         
+         while(!queue.isEmpty()) {
+            Cursor cursor = queue.poll();
+            
+            Bar bar = cursor.file.getBar(cursor.pos);
+            
+            if(cursor.advance()) {
+               queue.add(cursor);
+            } else {
+               bar.setLast(true);
+            }
+            
+            // Notify all listeners
+            for(IBarListener listener : barListeners) listener.barNotification(bar);
+         }
+      } finally {
+         for(BarFile file : files) file.close();
+      }
+   }
+
+   @Override
+   public Instrument getInstrument(String symbol) throws Exception {
+      if(instrumentSource == null) {
+         throw new IllegalStateException("No instrument source configured for " + symbol);
+      }
+      return instrumentSource.getInstrument(symbol);
+   }
+
+   @Override
+   public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception {
+      if(instrumentSource == null) return null;
+      return instrumentSource.getInstrumentVariation(provider, symbol);
+   }
+}
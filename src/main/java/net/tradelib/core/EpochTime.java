@@ -0,0 +1,59 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * @brief Timestamps as nanoseconds since the epoch.
+ *
+ * The LocalDateTime is taken at UTC, so the conversion doesn't depend on
+ * the time zone and a day is always NANOS_PER_DAY long. The range covers
+ * the years 1678 to 2261. The timestamps outside it saturate to
+ * Long.MIN_VALUE and Long.MAX_VALUE, which convert back to LocalDateTime.MIN
+ * and LocalDateTime.MAX (the sentinels used for "no start" and "no stop").
+ */
+public final class EpochTime {
+   public static final long NANOS_PER_SECOND = 1000000000L;
+   public static final long NANOS_PER_DAY = 86400L*NANOS_PER_SECOND;
+
+   private EpochTime() {
+   }
+
+   public static long toNanos(LocalDateTime ldt) {
+      long seconds = ldt.toEpochSecond(ZoneOffset.UTC);
+      try {
+         return Math.addExact(Math.multiplyExact(seconds, NANOS_PER_SECOND), ldt.getNano());
+      } catch(ArithmeticException ee) {
+         return seconds < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+      }
+   }
+
+   public static LocalDateTime fromNanos(long nanos) {
+      if(nanos == Long.MIN_VALUE) return LocalDateTime.MIN;
+      if(nanos == Long.MAX_VALUE) return LocalDateTime.MAX;
+      return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, NANOS_PER_SECOND), (int)Math.floorMod(nanos, NANOS_PER_SECOND), ZoneOffset.UTC);
+   }
+
+   /**
+    * The start of the day (midnight) containing the timestamp.
+    */
+   public static long startOfDay(long nanos) {
+      // The day of Long.MIN_VALUE starts before the range, keep the sentinel
+      if(nanos == Long.MIN_VALUE) return Long.MIN_VALUE;
+      return nanos - Math.floorMod(nanos, NANOS_PER_DAY);
+   }
+}
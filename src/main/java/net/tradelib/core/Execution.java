@@ -18,6 +18,9 @@ import java.time.LocalDateTime;
 
 public class Execution {
    private Instrument instrument;
+   // The timestamp as epoch nanoseconds (see EpochTime)
+   private long epochNanos;
+   // The timestamp as LocalDateTime, created on demand
    private LocalDateTime ts;
    private double price;
    private long quantity;
@@ -27,6 +30,7 @@ public class Execution {
    public Execution(Instrument instrument, LocalDateTime ts, double price, long qq) {
       this.instrument = instrument;
       this.ts = ts;
+      this.epochNanos = EpochTime.toNanos(ts);
       this.price = price;
       this.quantity = qq;
       this.fees = 0.0;
@@ -35,6 +39,7 @@ public class Execution {
    public Execution(Instrument instrument, LocalDateTime ts, double price, long qq, double fees) {
       this.instrument = instrument;
       this.ts = ts;
+      this.epochNanos = EpochTime.toNanos(ts);
       this.price = price;
       this.quantity = qq;
       this.fees = fees;
@@ -43,6 +48,7 @@ public class Execution {
    public Execution(Instrument instrument, LocalDateTime ts, double price, long qq, String sig) {
       this.instrument = instrument;
       this.ts = ts;
+      this.epochNanos = EpochTime.toNanos(ts);
       this.price = price;
       this.quantity = qq;
       this.signal = sig;
@@ -52,19 +58,35 @@ public class Execution {
    public Execution(Instrument instrument, LocalDateTime ts, double price, long qq, double fees, String sig) {
       this.instrument = instrument;
       this.ts = ts;
+      this.epochNanos = EpochTime.toNanos(ts);
       this.price = price;
       this.quantity = qq;
       this.signal = sig;
       this.fees = fees;
    }
    
+   public Execution(Instrument instrument, long epochNanos, double price, long qq, String sig) {
+      this.instrument = instrument;
+      this.epochNanos = epochNanos;
+      this.price = price;
+      this.quantity = qq;
+      this.signal = sig;
+      this.fees = 0.0;
+   }
+   
    public String getSymbol() { return instrument.getSymbol(); }
    
    public Instrument getInstrument() { return instrument; }
    public void setInstrument(Instrument i) { this.instrument = i; }
    
-   public LocalDateTime getDateTime() { return ts; }
-   public void setDateTime(LocalDateTime ts) { this.ts = ts; }
+   public LocalDateTime getDateTime() {
+      if(ts == null) ts = EpochTime.fromNanos(epochNanos);
+      return ts;
+   }
+   public void setDateTime(LocalDateTime ts) { this.ts = ts; this.epochNanos = EpochTime.toNanos(ts); }
+   
+   public long getEpochNanos() { return epochNanos; }
+   public void setEpochNanos(long nanos) { this.epochNanos = nanos; this.ts = null; }
    
    public double getPrice() { return price; }
    public void setPrice(double price) { this.price = price; }
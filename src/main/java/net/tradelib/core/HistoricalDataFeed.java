@@ -61,6 +61,7 @@ public abstract class HistoricalDataFeed {
    public abstract void start() throws Exception;
 
    public void subscribe(String symbol) {
+	   SymbolRegistry.getId(symbol);
 	   subscriptions.add(symbol);
    }
    
@@ -14,11 +14,14 @@
 
 package net.tradelib.core;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -26,7 +29,8 @@ public class HistoricalReplay implements IBroker, IBarListener {
    
    private static final Logger logger = Logger.getLogger(HistoricalReplay.class.getName());
    
-   private HashMap<String,InstrumentCB> instrumentCBMap;
+   // Indexed by the symbol id (see SymbolRegistry)
+   private InstrumentCB [] instrumentCBs;
    private HistoricalDataFeed dataFeed = null;
 
    public HistoricalDataFeed getDataFeed() {
@@ -40,20 +44,39 @@ public class HistoricalReplay implements IBroker, IBarListener {
 
    private Portfolio portfolio = null;
    
-   private LocalDateTime lastBarTimestamp = null;
-   // The bars belonging to this period (a day)
-   private List<Bar> periodsBars = new ArrayList<Bar>();
+   // The times, and the order, in which the bar prices are replayed
+   private ReplaySession session = new ReplaySession();
+   
+   // The timestamp of the current period, in epoch nanoseconds
+   private long lastBarTimestamp = Long.MIN_VALUE;
+   // The bars belonging to this period (a timestamp), with their instrument
+   // control blocks, the times of their events (ReplaySession.NUM_EVENTS per
+   // bar) and their path, resolved once on arrival. The arrays are reused
+   // across periods.
+   private Bar [] periodBars = new Bar[16];
+   private InstrumentCB [] periodCBs = new InstrumentCB[16];
+   private long [] periodTimes = new long[16*ReplaySession.NUM_EVENTS];
+   private boolean [] periodLowFirst = new boolean[16];
+   private int periodSize = 0;
+   
+   // The timestamp of the last bar replayed before a restored snapshot, the
+   // feed may deliver these bars again (the feed start has a day resolution
+   // for some feeds)
+   private long resumeAfter = Long.MIN_VALUE;
 
    // The order notifications
    private List<OrderNotification> orderNotifications = new ArrayList<OrderNotification>();
    
-   // The executions
-   private List<Execution> executions = new ArrayList<Execution>();
+   // The bar and the tick passed around during the period processing. They
+   // are reused for every bar, thus the listeners must not keep references
+   // to the bars they receive (copy them using "new Bar(bar)" instead).
+   final Bar eventBar = new Bar(null, Duration.ofDays(1), 0L, Double.NaN, Double.NaN, Double.NaN, Double.NaN, 0, 0, 0);
+   private final Tick tick = new Tick(null, 0L, Double.NaN);
    
    protected IBrokerListener handler;
    
    public HistoricalReplay() {
-      instrumentCBMap = new HashMap<String, InstrumentCB>();
+      instrumentCBs = new InstrumentCB[0];
       portfolio = new Portfolio("default");
    }
    
@@ -85,12 +108,19 @@ public class HistoricalReplay implements IBroker, IBarListener {
    
    public void reset() throws Exception {
       // Remove all per instrument runtime data
-      instrumentCBMap.clear();
+      instrumentCBs = new InstrumentCB[0];
       
       // Reset the data feed
       dataFeed.reset();
    }
    
+   public ReplaySession getSession() { return session; }
+   
+   /**
+    * @brief Sets the replay times and path, used for the bars received afterwards.
+    */
+   public void setSession(ReplaySession session) { this.session = session; }
+   
    public Portfolio getPortfolio(String name) {
       return portfolio;
    }
@@ -99,6 +129,13 @@ public class HistoricalReplay implements IBroker, IBarListener {
    public Instrument getInstrument(String symbol) throws Exception {
       return dataFeed.getInstrument(symbol);
    }
+   
+   @Override
+   public Instrument getInstrument(Bar bar) throws Exception {
+      // Use the bar's instrument if the feed has set it
+      Instrument instrument = bar.getInstrument();
+      return instrument != null ? instrument : getInstrumentCB(bar).instrument;
+   }
 
    @Override
    public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception {
@@ -107,52 +144,143 @@ public class HistoricalReplay implements IBroker, IBarListener {
 
    @Override
    public Position getPosition(Instrument instrument) throws Exception {
-      return getInstrumentCB(instrument.getSymbol()).position;
+      return getInstrumentCB(instrument.getId(), instrument.getSymbol()).position;
    }
 
-   private class InstrumentCB {
+   class InstrumentCB {
       // The instrument
       public Instrument instrument;
       // The position
       Position position;
+      // The timestamp of the last execution, in epoch nanoseconds
+      long lastExecution = Long.MIN_VALUE;
       // The orders
-      List<Order> orders;
+      OrderBook orders;
       // The new orders. All orders are registered into this list first. Later
-      // on they are moved to the "orders" list.
+      // on they are moved to the "orders" book.
       List<Order> newOrders;
       
       InstrumentCB(Instrument i) {
          instrument = i;
          position = new Position();
-         orders = new ArrayList<Order>();
+         orders = new OrderBook();
          newOrders = new ArrayList<Order>();
       }
    }
    
-   private InstrumentCB getInstrumentCB(String symbol) throws Exception {
-      InstrumentCB icb = instrumentCBMap.get(symbol);
+   InstrumentCB getInstrumentCB(int symbolId, String symbol) throws Exception {
+      if(symbolId >= instrumentCBs.length) {
+         instrumentCBs = Arrays.copyOf(instrumentCBs, Math.max(symbolId + 1, SymbolRegistry.size()));
+      }
+      InstrumentCB icb = instrumentCBs[symbolId];
       if(icb == null) {
          icb = new InstrumentCB(dataFeed.getInstrument(symbol));
-         instrumentCBMap.put(symbol, icb);
+         instrumentCBs[symbolId] = icb;
       }
       return icb;
    }
    
-   private void addNewOrders(InstrumentCB icb) {
-      icb.orders.addAll(icb.newOrders);
-      icb.newOrders.clear();
+   InstrumentCB getInstrumentCB(String symbol) throws Exception {
+      return getInstrumentCB(SymbolRegistry.getId(symbol), symbol);
+   }
+   
+   private InstrumentCB getInstrumentCB(Bar bar) throws Exception {
+      return getInstrumentCB(bar.getSymbolId(), bar.getSymbol());
    }
    
-   private void processOrders(InstrumentCB icb, Tick tick, boolean executeOnLimitOrStop) {
-      // Scan all orders and check for a fill against the current tick. The execution
+   /**
+    * Writes the positions, the open orders and the portfolio (see StrategySnapshot).
+    */
+   void writeSnapshot(DataOutput out) throws IOException {
+      out.writeLong(lastBarTimestamp);
+      portfolio.writeSnapshot(out);
+      
+      int numInstruments = 0;
+      for(InstrumentCB icb : instrumentCBs) {
+         if(icb != null) ++numInstruments;
+      }
+      out.writeInt(numInstruments);
+      
+      for(InstrumentCB icb : instrumentCBs) {
+         if(icb == null) continue;
+         
+         out.writeUTF(icb.instrument.getSymbol());
+         out.writeLong(icb.position.quantity);
+         StrategySnapshot.writeDateTime(out, icb.position.since);
+         out.writeLong(icb.lastExecution);
+         
+         // The book keeps the inactive orders until the next purge
+         int numActive = 0;
+         for(int ii = 0; ii < icb.orders.size(); ++ii) {
+            if(icb.orders.get(ii).isActive()) ++numActive;
+         }
+         out.writeInt(numActive);
+         for(int ii = 0; ii < icb.orders.size(); ++ii) {
+            Order order = icb.orders.get(ii);
+            if(order.isActive()) order.writeSnapshot(out);
+         }
+         
+         out.writeInt(icb.newOrders.size());
+         for(Order order : icb.newOrders) order.writeSnapshot(out);
+      }
+   }
+   
+   /**
+    * Restores the positions and the orders, the instruments are obtained from the data feed.
+    */
+   void readSnapshot(DataInput in) throws Exception {
+      lastBarTimestamp = in.readLong();
+      resumeAfter = lastBarTimestamp;
+      portfolio.readSnapshot(in);
+      
+      instrumentCBs = new InstrumentCB[0];
+      int numInstruments = in.readInt();
+      for(int ii = 0; ii < numInstruments; ++ii) {
+         InstrumentCB icb = getInstrumentCB(in.readUTF());
+         icb.position = new Position(in.readLong(), StrategySnapshot.readDateTime(in));
+         icb.lastExecution = in.readLong();
+         
+         int numOrders = in.readInt();
+         for(int jj = 0; jj < numOrders; ++jj) icb.orders.add(Order.readSnapshot(in));
+         
+         int numNewOrders = in.readInt();
+         for(int jj = 0; jj < numNewOrders; ++jj) icb.newOrders.add(Order.readSnapshot(in));
+      }
+   }
+   
+   // The timestamp of the latest bar, in epoch nanoseconds
+   long getLastBarTimestamp() { return lastBarTimestamp; }
+   
+   void addNewOrders(InstrumentCB icb) {
+      List<Order> newOrders = icb.newOrders;
+      if(newOrders.isEmpty()) return;
+      for(int ii = 0; ii < newOrders.size(); ++ii) icb.orders.add(newOrders.get(ii));
+      newOrders.clear();
+   }
+   
+   void processOrders(InstrumentCB icb, String symbol, long ts, double price, boolean executeOnLimitOrStop) {
+      OrderBook orders = icb.orders;
+      if(orders.isEmpty()) return;
+      
+      // Only the orders whose price is crossed by the tick
+      int ncandidates = orders.collect(price);
+      if(ncandidates == 0) return;
+      
+      tick.setSymbol(symbol);
+      tick.setEpochNanos(ts);
+      tick.setPrice(price);
+      
+      // Check the orders for a fill against the current tick. The execution
       // time must be different, hence we add a microsecond to the tick at each step.
-      LocalDateTime ldt = tick.getDateTime();
-      for(Order order : icb.orders) {
+      for(int ii = 0; ii < ncandidates; ++ii) {
+         Order order = orders.getCandidate(ii);
          long previousPosition = icb.position.quantity;
          OrderFill of = order.tryFill(tick, previousPosition, executeOnLimitOrStop);
          if(of != null) {
             // We have an execution, bump up the timestamp
-            ldt = ldt.plusNanos(1000);
+            ts += 1000;
+            icb.lastExecution = ts;
+            LocalDateTime ldt = EpochTime.fromNanos(ts);
 
             // Currently we only support single-entry and single-exit positions.
             if(previousPosition != 0 && of.getPosition() != 0) {
@@ -178,29 +306,13 @@ public class HistoricalReplay implements IBroker, IBarListener {
             boolean removeExits = (previousPosition > 0 && of.getPosition() <= 0) ||
                                   (previousPosition < 0 && of.getPosition() >= 0);
 
-            // Cancel orders if necessary
+            // Cancel orders if necessary, the active exit orders and, for
+            // an oca order, the rest of its group.
             if(order.isOca()) {
-               for(Order oo : icb.orders) {
-                  // Skip the current order
-                  if(oo == order) continue;
-
-                  // Cancel active, which are either exit or oca
-                  if(oo.isActive()) {
-                     if(oo.isExit() || oo.isOca() == order.isOca()) {
-                        oo.cancel();
-                     }
-                  }
-               }
+               orders.cancelExits(order);
+               orders.cancelOca(order);
             } else if (removeExits) {
-               for(Order oo : icb.orders) {
-                  // Skip the current order
-                  if(oo == order) continue;
-                  
-                  // Cancel active, exit orders
-                  if(oo.isExit() && oo.isActive()) {
-                     oo.cancel();
-                  }
-               }
+               orders.cancelExits(order);
             }
             
 //            logger_.info("appending transaction: " + icb.instrument.getSymbol() +
@@ -216,49 +328,56 @@ public class HistoricalReplay implements IBroker, IBarListener {
             order.fill();
             // Add a transaction to the portfolio
             portfolio.addTransaction(icb.instrument, ldt, of.getTransactionQuantity(), of.getFillPrice(), 0.0);
-            // Add an execution
-            executions.add(new Execution(icb.instrument, ldt, of.getFillPrice(), of.getTransactionQuantity(), order.getSignal()));
-            // Add a notification (posted after the order processing loop finishes)
-            orderNotifications.add(new OrderNotification(order, executions.get(executions.size()-1)));
+            // Add a notification with the execution (posted after the order processing loop finishes)
+            Execution execution = new Execution(icb.instrument, ts, of.getFillPrice(), of.getTransactionQuantity(), order.getSignal());
+            orderNotifications.add(new OrderNotification(order, execution));
          }
       }
    }
    
-   private void postOrderNotifications() throws Exception {
-      for(OrderNotification on : orderNotifications) {
+   void postOrderNotifications() throws Exception {
+      if(orderNotifications.isEmpty()) return;
+      for(int ii = 0; ii < orderNotifications.size(); ++ii) {
          if(handler != null) {
-            handler.orderExecutedHandler(on);
+            handler.orderExecutedHandler(orderNotifications.get(ii));
          }
       }
       orderNotifications.clear();
    }
    
-   private void cleanupOrders(InstrumentCB icb, Bar bar) {
+   void cleanupOrders(InstrumentCB icb, Bar bar) {
       // While improving performance by removing inactive orders
-      // from the list, we lose the order history.
-      Iterator<Order> it = icb.orders.iterator();
-      while(it.hasNext()) {
-         Order order = it.next();
-         order.updateState(bar);
-         if(!order.isActive()) it.remove();
-      }
+      // from the book, we lose the order history.
+      icb.orders.purge(bar);
    }
    
    @Override
    public void barNotification(Bar bar) throws Exception {
       
-      assert lastBarTimestamp == null || bar.getDateTime().compareTo(lastBarTimestamp) >= 0 : "The feed must deliver bars in chronological order.";
+      long ts = bar.getEpochNanos();
+      // The bars already replayed before a restored snapshot
+      if(ts <= resumeAfter) return;
+      assert ts >= lastBarTimestamp : "The feed must deliver bars in chronological order.";
       
       // Received a bar. If its timestamp is different than the 
       // current period, we need to process all bars for the period.
       // Otherwise, the bar is simply added to the collection.
-      if(lastBarTimestamp == null) {
-         lastBarTimestamp = bar.getDateTime();
-      } else if(bar.getDateTime().compareTo(lastBarTimestamp) != 0) {
-         processPeriodBars();
+      if(ts != lastBarTimestamp) {
+         if(periodSize > 0) processPeriodBars();
+         lastBarTimestamp = ts;
       }
       
-      periodsBars.add(bar);
+      if(periodSize == periodBars.length) {
+         periodBars = Arrays.copyOf(periodBars, 2*periodSize);
+         periodCBs = Arrays.copyOf(periodCBs, 2*periodSize);
+         periodTimes = Arrays.copyOf(periodTimes, 2*periodSize*ReplaySession.NUM_EVENTS);
+         periodLowFirst = Arrays.copyOf(periodLowFirst, 2*periodSize);
+      }
+      periodBars[periodSize] = bar;
+      periodCBs[periodSize] = getInstrumentCB(bar);
+      session.schedule(bar, periodTimes, periodSize*ReplaySession.NUM_EVENTS);
+      periodLowFirst[periodSize] = session.isLowFirst(bar);
+      ++periodSize;
    }
 
 //   public void barNotification(Bar bar) throws Exception {
@@ -358,22 +477,37 @@ public class HistoricalReplay implements IBroker, IBarListener {
 //      cleanupOrders(icb, closeBar);
 //   }
    
+   // The time of an event of a bar of the current period
+   private long eventTime(int barId, int event) {
+      return periodTimes[barId*ReplaySession.NUM_EVENTS + event];
+   }
+   
+   /**
+    * @brief Replays the bars of the current period.
+    *
+    * Each phase (open, the two extremes, close) is replayed for all bars before
+    * the next phase starts, and the notifications are posted between the
+    * phases, thus the phase loops can't be merged. The times and the order
+    * of the extremes come from the session (see ReplaySession). The bars
+    * passed to the listener are a single reused instance, valid only during
+    * the call.
+    */
    protected void processPeriodBars() throws Exception {
+      Bar [] bars = periodBars;
+      InstrumentCB [] icbs = periodCBs;
+      boolean [] lowFirst = periodLowFirst;
+      int nbars = periodSize;
+      
       // Process orders at the open
-      for(Bar bar : periodsBars) {
-         InstrumentCB icb = getInstrumentCB(bar.getSymbol());
+      for(int ii = 0; ii < nbars; ++ii) {
+         InstrumentCB icb = icbs[ii];
    
          // All orders are eligible for execution at this point.
          addNewOrders(icb);
    
          // Process orders at open. At the open the limit and stop orders
          // are executed on the tick (using false for executeOnLimitOrStop).
-         LocalDateTime ldt = LocalDateTime.of(
-                                 bar.getDateTime().getYear(),
-                                 bar.getDateTime().getMonthValue(),
-                                 bar.getDateTime().getDayOfMonth(),
-                                 9, 0, 1);
-         processOrders(icb, new Tick(bar.getSymbol(), ldt, bar.getOpen()), false);
+         processOrders(icb, bars[ii].getSymbol(), eventTime(ii, ReplaySession.OPEN), bars[ii].getOpen(), false);
       }
       
       // Send notifications order notifications
@@ -382,102 +516,76 @@ public class HistoricalReplay implements IBroker, IBarListener {
       // Notify for the opening of the bar. We use a bar, not a Tick object,
       // so that the callee can use (symbol, duration) to identify the bar set
       // this bar belongs to. The callee may use only the open price from the bar.
-      for(Bar bar : periodsBars) {
-         LocalDateTime ldt = LocalDateTime.of(
-               bar.getDateTime().getYear(),
-               bar.getDateTime().getMonthValue(),
-               bar.getDateTime().getDayOfMonth(),
-               9, 0, 1);
-
-         Bar openBar = new Bar(bar);
-         openBar.setDateTime(ldt);
-         openBar.setHigh(Double.NaN); openBar.setLow(Double.NaN); openBar.setClose(Double.NaN);
-         openBar.setContractInterest(Long.MIN_VALUE);
-         openBar.setVolume(Long.MIN_VALUE);
-         openBar.setTotalInterest(Long.MIN_VALUE);
+      for(int ii = 0; ii < nbars; ++ii) {
          if(handler != null) {
+            Bar openBar = eventBar;
+            openBar.copyFrom(bars[ii]);
+            openBar.setEpochNanos(eventTime(ii, ReplaySession.OPEN));
+            openBar.setHigh(Double.NaN); openBar.setLow(Double.NaN); openBar.setClose(Double.NaN);
+            openBar.setContractInterest(Long.MIN_VALUE);
+            openBar.setVolume(Long.MIN_VALUE);
+            openBar.setTotalInterest(Long.MIN_VALUE);
             handler.barOpenHandler(openBar);
          }
          
          // Pick up any new orders submitted during the previous steps.
-         addNewOrders(getInstrumentCB(bar.getSymbol()));
+         addNewOrders(icbs[ii]);
       }
       
-      // Process orders at low (assume at 11:00:01)
-      for(Bar bar : periodsBars) {
-         LocalDateTime ldt = LocalDateTime.of(
-                                 bar.getDateTime().getYear(),
-                                 bar.getDateTime().getMonthValue(),
-                                 bar.getDateTime().getDayOfMonth(),
-                                 11, 0, 1);
-         processOrders(getInstrumentCB(bar.getSymbol()), new Tick(bar.getSymbol(), ldt, bar.getLow()), true);
+      // Process orders at the first extreme (the low, by default at 11:00:01)
+      for(int ii = 0; ii < nbars; ++ii) {
+         double price = lowFirst[ii] ? bars[ii].getLow() : bars[ii].getHigh();
+         processOrders(icbs[ii], bars[ii].getSymbol(), eventTime(ii, ReplaySession.FIRST), price, true);
       }
 
-      // No new orders are added here. Orders submitted during the *high*
-      // processing are not eligible for execution during the *low* processing.
+      // No new orders are added here. Orders submitted during the processing
+      // of the first extreme are not eligible for execution at the second.
       
       // Send notifications for the executed trades
       postOrderNotifications();
 
-      // Process orders at high (assume at 13:00:01)
-      for(Bar bar : periodsBars) {
-         LocalDateTime ldt = LocalDateTime.of(
-                                 bar.getDateTime().getYear(),
-                                 bar.getDateTime().getMonthValue(),
-                                 bar.getDateTime().getDayOfMonth(),
-                                 13, 0, 1);
-         processOrders(getInstrumentCB(bar.getSymbol()), new Tick(bar.getSymbol(), ldt, bar.getHigh()), true);
+      // Process orders at the second extreme (the high, by default at 13:00:01)
+      for(int ii = 0; ii < nbars; ++ii) {
+         double price = lowFirst[ii] ? bars[ii].getHigh() : bars[ii].getLow();
+         processOrders(icbs[ii], bars[ii].getSymbol(), eventTime(ii, ReplaySession.SECOND), price, true);
       }
       
    
       // Publish the bar, but it's not closed yet - this is to accommodate
       // trading where the signal is computed at the close and the trading
       // takes place at the close.
-      for(Bar bar : periodsBars) {
-         LocalDateTime ldt = LocalDateTime.of(
-                                 bar.getDateTime().getYear(),
-                                 bar.getDateTime().getMonthValue(),
-                                 bar.getDateTime().getDayOfMonth(),
-                                 15, 59, 59);
-         Bar closeBar = new Bar(bar);
-         closeBar.setDateTime(ldt);
+      for(int ii = 0; ii < nbars; ++ii) {
          if(handler != null) {
+            Bar closeBar = eventBar;
+            closeBar.copyFrom(bars[ii]);
+            closeBar.setEpochNanos(eventTime(ii, ReplaySession.CLOSE));
             handler.barCloseHandler(closeBar);
          }
    
          // Pick up any new orders submitted during the previous two steps.
          // Everything is eligible to be processed at the close.
-         addNewOrders(getInstrumentCB(bar.getSymbol()));
+         addNewOrders(icbs[ii]);
       }
    
-      for(Bar bar : periodsBars) {
+      for(int ii = 0; ii < nbars; ++ii) {
          // Process orders at close
-         LocalDateTime ldt = LocalDateTime.of(
-               bar.getDateTime().getYear(),
-               bar.getDateTime().getMonthValue(),
-               bar.getDateTime().getDayOfMonth(),
-               15, 59, 59);
-         processOrders(getInstrumentCB(bar.getSymbol()), new Tick(bar.getSymbol(), ldt, bar.getClose()), false);
+         processOrders(icbs[ii], bars[ii].getSymbol(), eventTime(ii, ReplaySession.CLOSE), bars[ii].getClose(), false);
       }
    
       // Send notifications for the executed trades
       postOrderNotifications();
    
       // The bar is closed
-      for(Bar bar : periodsBars) {
-         LocalDateTime ldt = LocalDateTime.of(
-               bar.getDateTime().getYear(),
-               bar.getDateTime().getMonthValue(),
-               bar.getDateTime().getDayOfMonth(),
-               16, 0, 0);
-         Bar closeBar = new Bar(bar);
-         closeBar.setDateTime(ldt);
+      for(int ii = 0; ii < nbars; ++ii) {
+         Bar closeBar = eventBar;
+         closeBar.copyFrom(bars[ii]);
+         closeBar.setEpochNanos(eventTime(ii, ReplaySession.CLOSED));
          if(handler != null) {
             handler.barClosedHandler(closeBar);
          }
    
          // Make all orders eligible
-         InstrumentCB icb = getInstrumentCB(bar.getSymbol()); 
+         InstrumentCB icb = icbs[ii]; 
          addNewOrders(icb);
          
          // It's not safe to cleanup the order vectors earlier, since notifications
@@ -486,8 +594,10 @@ public class HistoricalReplay implements IBroker, IBarListener {
          cleanupOrders(icb, closeBar);
       }
       
-      // Clear the bar list
-      periodsBars.clear();
+      // Clear the period, dropping the references to the bars
+      Arrays.fill(bars, 0, nbars, null);
+      Arrays.fill(icbs, 0, nbars, null);
+      periodSize = 0;
    }
 
    @Override
@@ -497,10 +607,9 @@ public class HistoricalReplay implements IBroker, IBarListener {
 
    @Override
    public void cancelAllOrders() throws Exception {
-      for(InstrumentCB icb : instrumentCBMap.values()) {
-         for(Order oo : icb.orders) {
-            if(!oo.isCancelled()) oo.cancel();
-         }
+      for(InstrumentCB icb : instrumentCBs) {
+         if(icb == null) continue;
+         cancelAll(icb.orders);
       }
    }
 
@@ -508,7 +617,12 @@ public class HistoricalReplay implements IBroker, IBarListener {
    public void cancelAllOrders(String symbol) throws Exception {
       InstrumentCB icb = getInstrumentCB(symbol);
       if(icb == null) return;
-      for(Order oo : icb.orders) {
+      cancelAll(icb.orders);
+   }
+   
+   private static void cancelAll(OrderBook orders) {
+      for(int ii = 0; ii < orders.size(); ++ii) {
+         Order oo = orders.get(ii);
          if(!oo.isCancelled()) oo.cancel();
       }
    }
@@ -31,6 +31,8 @@ public interface IBroker {
    public void addBrokerListener(IBrokerListener listener) throws Exception;
    
    public Instrument getInstrument(String symbol) throws Exception;
+   // The instrument for a bar. Brokers can override this to avoid the lookup by symbol.
+   public default Instrument getInstrument(Bar bar) throws Exception { return getInstrument(bar.getSymbol()); }
    public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception;
    public Position getPosition(Instrument instrument) throws Exception;
 }
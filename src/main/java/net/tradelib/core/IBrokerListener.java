@@ -14,6 +14,10 @@
 
 package net.tradelib.core;
 
+/**
+ * The bars passed to the handlers may be reused by the broker once the
+ * handler returns. Handlers keeping a bar must copy it (new Bar(bar)).
+ */
 public interface IBrokerListener {
    public void barOpenHandler(Bar bar) throws Exception;
    public void barCloseHandler(Bar bar) throws Exception;
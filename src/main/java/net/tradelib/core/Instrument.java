@@ -29,6 +29,8 @@ public class Instrument {
    private final BigDecimal bpv;
    private String name;
    private final Currency currency;
+   // The id from SymbolRegistry, looked up on demand
+   private int id = -1;
    
    public boolean equals(Object o) {
       if(this == o) return true;
@@ -130,6 +132,11 @@ public class Instrument {
    
    public String getSymbol() { return symbol; }
    
+   public int getId() {
+      if(id < 0) id = SymbolRegistry.getId(symbol);
+      return id;
+   }
+   
    public String getName() { return name; }
    public void setName(String s) { this.name = s; }
 
@@ -0,0 +1,134 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package net.tradelib.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @brief An immutable set of instruments and instrument variations, indexed
+ * by symbol id (see SymbolRegistry).
+ *
+ * Adding instruments creates a new registry, thus a registry can be shared
+ * by any number of threads (parallel backtests for instance) without any
+ * locking. A symbol can be registered without an instrument, meaning it was
+ * looked up, but not found.
+ *
+ * The process-wide registries are kept by source (a database and a set of
+ * tables for instance), see "getShared" and "addShared".
+ */
+public final class InstrumentRegistry {
+   
+   public static final InstrumentRegistry EMPTY = new InstrumentRegistry(new Entry[0]);
+   
+   private static final ConcurrentHashMap<String, InstrumentRegistry> shared = new ConcurrentHashMap<String, InstrumentRegistry>();
+   
+   private static class Entry {
+      final Instrument instrument;
+      // The variations by provider
+      final Map<String, InstrumentVariation> variations;
+      
+      Entry(Instrument instrument, Map<String, InstrumentVariation> variations) {
+         this.instrument = instrument;
+         this.variations = variations;
+      }
+   }
+   
+   private final Entry [] entries;
+   
+   private InstrumentRegistry(Entry [] entries) {
+      this.entries = entries;
+   }
+   
+   /**
+    * Whether the symbol is in the registry, even if without an instrument.
+    */
+   public boolean contains(String symbol) {
+      return getEntry(SymbolRegistry.findId(symbol)) != null;
+   }
+   
+   public Instrument getInstrument(String symbol) {
+      return getInstrument(SymbolRegistry.findId(symbol));
+   }
+   
+   public Instrument getInstrument(int symbolId) {
+      Entry entry = getEntry(symbolId);
+      return entry != null ? entry.instrument : null;
+   }
+   
+   public InstrumentVariation getInstrumentVariation(String provider, String symbol) {
+      Entry entry = getEntry(SymbolRegistry.findId(symbol));
+      return entry != null ? entry.variations.get(provider) : null;
+   }
+   
+   private Entry getEntry(int symbolId) {
+      return symbolId >= 0 && symbolId < entries.length ? entries[symbolId] : null;
+   }
+   
+   /**
+    * @brief A new registry with the instruments and the variations added.
+    * 
+    * The existing entries for the symbols are replaced.
+    * 
+    * @param instruments The instruments by symbol, the values can be null
+    * @param variations The variations by symbol and provider, the symbols
+    *                   must be in "instruments"
+    */
+   public InstrumentRegistry add(Map<String, Instrument> instruments, Map<String, Map<String, InstrumentVariation>> variations) {
+      // Register the symbols first, so all ids are below the registry size
+      for(String symbol : instruments.keySet()) SymbolRegistry.getId(symbol);
+      
+      Entry [] result = Arrays.copyOf(entries, Math.max(entries.length, SymbolRegistry.size()));
+      for(Map.Entry<String, Instrument> item : instruments.entrySet()) {
+         Map<String, InstrumentVariation> vv = variations.get(item.getKey());
+         vv = vv == null ? Collections.<String, InstrumentVariation>emptyMap() :
+                           Collections.unmodifiableMap(new HashMap<String, InstrumentVariation>(vv));
+         result[SymbolRegistry.getId(item.getKey())] = new Entry(item.getValue(), vv);
+      }
+      return new InstrumentRegistry(result);
+   }
+   
+   /**
+    * The process-wide registry for a source, empty if none yet.
+    */
+   public static InstrumentRegistry getShared(String source) {
+      InstrumentRegistry registry = shared.get(source);
+      return registry != null ? registry : EMPTY;
+   }
+   
+   /**
+    * @brief Adds instruments to the process-wide registry of a source.
+    * 
+    * Concurrent additions for the same source are serialized, none is lost.
+    * 
+    * @return The new registry
+    */
+   public static InstrumentRegistry addShared(String source, Map<String, Instrument> instruments,
+                                              Map<String, Map<String, InstrumentVariation>> variations) {
+      return shared.compute(source, (String key, InstrumentRegistry registry) ->
+               (registry != null ? registry : EMPTY).add(instruments, variations));
+   }
+   
+   /**
+    * Removes all process-wide registries, the instruments are loaded again on demand.
+    */
+   public static void clearShared() {
+      shared.clear();
+   }
+}
@@ -0,0 +1,261 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * @brief Monte Carlo resampling of trade or daily PnLs.
+ * 
+ * Each path is a resampled sequence of the input PnLs, as long as the input.
+ * The methods are:
+ * 
+ *    * SHUFFLE - a random permutation (the end PnL is the same on all paths)
+ *    * BOOTSTRAP - independent draws with replacement
+ *    * BLOCK_BOOTSTRAP - consecutive (circular) blocks with random starts,
+ *      preserving the autocorrelation of daily PnLs within a block
+ * 
+ * For every path, the end PnL, the maximum drawdown (in cash and as a
+ * percentage of the peak equity), the Sharpe ratio and whether the equity
+ * falls to the ruin level are computed.
+ * 
+ * The paths are split in chunks run in parallel on a fork/join pool. Each
+ * chunk has its own SplittableRandom, split from the seed in chunk order,
+ * thus the results depend only on the seed and not on the scheduling. Each
+ * chunk samples its paths into a single, reused, primitive array - nothing
+ * is allocated per path.
+ */
+public class MonteCarlo {
+   
+   public enum Method { SHUFFLE, BOOTSTRAP, BLOCK_BOOTSTRAP }
+   
+   // The paths per chunk, the unit of work of the pool
+   private static final int CHUNK_SIZE = 256;
+   
+   /**
+    * @brief The sorted values of a statistic, one per path.
+    */
+   public static class Distribution {
+      private final double [] values;
+      
+      Distribution(double [] values) {
+         Arrays.sort(values);
+         this.values = values;
+      }
+      
+      /**
+       * @param pp The probability, in [0, 1]
+       * 
+       * @return The empirical quantile (the nearest rank)
+       */
+      public double quantile(double pp) {
+         int id = (int)Math.ceil(pp*values.length) - 1;
+         return values[Math.max(0, Math.min(values.length - 1, id))];
+      }
+      
+      public double median() { return quantile(0.5); }
+      
+      public double mean() {
+         double sum = 0.0;
+         for(int ii = 0; ii < values.length; ++ii) sum += values[ii];
+         return sum/values.length;
+      }
+      
+      public double min() { return values[0]; }
+      public double max() { return values[values.length - 1]; }
+      
+      public int size() { return values.length; }
+      public double get(int index) { return values[index]; }
+   }
+   
+   public static class Result {
+      public Distribution endPnl;
+      // Non-positive, in cash
+      public Distribution maxDrawdown;
+      // Non-positive, in percent of the peak equity
+      public Distribution maxDrawdownPct;
+      public Distribution sharpeRatio;
+      // The fraction of the paths reaching the ruin level
+      public double ruinProbability;
+   }
+   
+   private final double [] pnls;
+   private Method method = Method.BLOCK_BOOTSTRAP;
+   private int numPaths = 10000;
+   private int blockLength = 20;
+   private long seed = 1;
+   private double initialEquity = 0.0;
+   // No ruin level by default
+   private double ruinEquity = Double.NEGATIVE_INFINITY;
+   // Used to annualize the Sharpe ratio
+   private int periodsPerYear = 252;
+   private int parallelism = Runtime.getRuntime().availableProcessors();
+   
+   public MonteCarlo(double [] pnls) {
+      if(pnls.length == 0) throw new IllegalArgumentException("There are no PnLs to resample.");
+      this.pnls = pnls.clone();
+   }
+   
+   /**
+    * @brief Resamples the PnLs of the trades, see Portfolio.getTradingResults.
+    * 
+    * The default method becomes SHUFFLE and the Sharpe ratio is per trade.
+    */
+   public static MonteCarlo fromTrades(List<Trade> trades) {
+      double [] pnls = new double[trades.size()];
+      for(int ii = 0; ii < pnls.length; ++ii) pnls[ii] = trades.get(ii).pnl;
+      MonteCarlo mc = new MonteCarlo(pnls);
+      mc.method = Method.SHUFFLE;
+      mc.periodsPerYear = 1;
+      return mc;
+   }
+   
+   /**
+    * @brief Resamples the first column of a PnL series, daily PnLs for instance.
+    */
+   public static MonteCarlo fromPnl(Series pnl) {
+      double [] pnls = new double[pnl.size()];
+      for(int ii = 0; ii < pnls.length; ++ii) pnls[ii] = pnl.get(ii);
+      return new MonteCarlo(pnls);
+   }
+   
+   public MonteCarlo setMethod(Method method) { this.method = method; return this; }
+   public MonteCarlo setNumPaths(int numPaths) { this.numPaths = numPaths; return this; }
+   public MonteCarlo setBlockLength(int blockLength) { this.blockLength = blockLength; return this; }
+   public MonteCarlo setSeed(long seed) { this.seed = seed; return this; }
+   public MonteCarlo setInitialEquity(double initialEquity) { this.initialEquity = initialEquity; return this; }
+   /**
+    * A path is ruined once its equity, after a PnL is applied, is at, or
+    * below, this level. Not set by default, thus no path is ruined.
+    */
+   public MonteCarlo setRuinEquity(double ruinEquity) { this.ruinEquity = ruinEquity; return this; }
+   public MonteCarlo setPeriodsPerYear(int periodsPerYear) { this.periodsPerYear = periodsPerYear; return this; }
+   public MonteCarlo setParallelism(int parallelism) { this.parallelism = parallelism; return this; }
+   
+   public Method getMethod() { return method; }
+   public int getNumPaths() { return numPaths; }
+   
+   public Result run() throws Exception {
+      if(numPaths <= 0) throw new IllegalArgumentException("The number of paths must be positive.");
+      if(method == Method.BLOCK_BOOTSTRAP && blockLength <= 0) {
+         throw new IllegalArgumentException("The block length must be positive.");
+      }
+      
+      double [] endPnls = new double[numPaths];
+      double [] maxDDs = new double[numPaths];
+      double [] maxDDPcts = new double[numPaths];
+      double [] sharpes = new double[numPaths];
+      boolean [] ruined = new boolean[numPaths];
+      
+      int numChunks = (numPaths + CHUNK_SIZE - 1)/CHUNK_SIZE;
+      SplittableRandom root = new SplittableRandom(seed);
+      SplittableRandom [] randoms = new SplittableRandom[numChunks];
+      for(int ii = 0; ii < numChunks; ++ii) randoms[ii] = root.split();
+      
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+         pool.submit(() -> IntStream.range(0, numChunks).parallel().forEach(chunk -> {
+            int from = chunk*CHUNK_SIZE;
+            int to = Math.min(numPaths, from + CHUNK_SIZE);
+            runChunk(randoms[chunk], from, to, endPnls, maxDDs, maxDDPcts, sharpes, ruined);
+         })).get();
+      } finally {
+         pool.shutdown();
+      }
+      
+      int numRuined = 0;
+      for(int ii = 0; ii < numPaths; ++ii) {
+         if(ruined[ii]) ++numRuined;
+      }
+      
+      Result result = new Result();
+      result.endPnl = new Distribution(endPnls);
+      result.maxDrawdown = new Distribution(maxDDs);
+      result.maxDrawdownPct = new Distribution(maxDDPcts);
+      result.sharpeRatio = new Distribution(sharpes);
+      result.ruinProbability = (double)numRuined/numPaths;
+      return result;
+   }
+   
+   private void runChunk(SplittableRandom random, int from, int to, double [] endPnls, double [] maxDDs,
+                         double [] maxDDPcts, double [] sharpes, boolean [] ruined) {
+      int nn = pnls.length;
+      // The path, reused. For SHUFFLE, the permutation is shuffled in place for each path.
+      double [] path = pnls.clone();
+      
+      for(int pathId = from; pathId < to; ++pathId) {
+         switch(method) {
+         case SHUFFLE:
+            for(int ii = nn - 1; ii > 0; --ii) {
+               int jj = random.nextInt(ii + 1);
+               double tmp = path[jj];
+               path[jj] = path[ii];
+               path[ii] = tmp;
+            }
+            break;
+         case BOOTSTRAP:
+            for(int ii = 0; ii < nn; ++ii) path[ii] = pnls[random.nextInt(nn)];
+            break;
+         default:
+            // Circular blocks, copied in at most two pieces
+            for(int ii = 0; ii < nn; ) {
+               int start = random.nextInt(nn);
+               int len = Math.min(blockLength, nn - ii);
+               int first = Math.min(len, nn - start);
+               System.arraycopy(pnls, start, path, ii, first);
+               if(first < len) System.arraycopy(pnls, 0, path, ii + first, len - first);
+               ii += len;
+            }
+            break;
+         }
+         
+         double equity = initialEquity;
+         double peak = initialEquity;
+         // The initial equity doesn't count towards the ruin
+         double minEquity = Double.POSITIVE_INFINITY;
+         double maxDD = 0.0;
+         // As a fraction of the peak, compared using a multiplication to
+         // avoid a division per step
+         double maxDDFrac = 0.0;
+         double sumSq = 0.0;
+         
+         for(int ii = 0; ii < nn; ++ii) {
+            double pnl = path[ii];
+            equity += pnl;
+            sumSq += pnl*pnl;
+            if(equity > peak) peak = equity;
+            double dd = equity - peak;
+            if(dd < maxDD) maxDD = dd;
+            if(equity < minEquity) minEquity = equity;
+            if(equity < peak*(1.0 + maxDDFrac) && peak > 0.0) maxDDFrac = equity/peak - 1.0;
+         }
+         
+         double sum = equity - initialEquity;
+         double mean = sum/nn;
+         double variance = nn > 1 ? (sumSq - sum*mean)/(nn - 1) : 0.0;
+         double sd = Math.sqrt(Math.max(variance, 0.0));
+         
+         endPnls[pathId] = sum;
+         maxDDs[pathId] = maxDD;
+         maxDDPcts[pathId] = maxDDFrac*100.0;
+         sharpes[pathId] = sd > 0.0 ? Functions.sharpeRatio(mean, sd, periodsPerYear) : 0.0;
+         ruined[pathId] = minEquity <= ruinEquity;
+      }
+   }
+}
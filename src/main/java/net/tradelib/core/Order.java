@@ -14,6 +14,9 @@
 
 package net.tradelib.core;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.time.LocalDateTime;
 
 import com.google.gson.JsonObject;
@@ -47,6 +50,15 @@ public class Order {
    
    private boolean stopWasTriggered_;
    
+   // The book of the replay holding the order, and the keys it was indexed
+   // with. Maintained by OrderBook, the book is updated when a price, the
+   // type, the stop state or the oca group changes.
+   OrderBook book;
+   long bookSeq;
+   double bookLevel;
+   boolean bookBelow;
+   String bookOca;
+   
    public static Order enterLong(String s, long q) { return new Order(s, q, Double.NaN, Double.NaN, Type.ENTER_LONG); }
    public static Order enterLong(String s, long q, String sig) { return new Order(s, q, Double.NaN, Double.NaN, Type.ENTER_LONG, sig); }
    public static Order enterLongLimit(String s, long q, double lp) { return new Order(s, q, lp, Double.NaN, Type.ENTER_LONG_LIMIT); }
@@ -130,14 +142,50 @@ public class Order {
       return new Order(this);
    }
    
+   /**
+    * Writes the order, including its state (see StrategySnapshot).
+    */
+   void writeSnapshot(DataOutput out) throws IOException {
+      out.writeUTF(symbol);
+      out.writeLong(quantity);
+      out.writeDouble(limitPrice);
+      out.writeDouble(stopPrice);
+      StrategySnapshot.writeString(out, signal);
+      out.writeUTF(oca);
+      out.writeUTF(type.name());
+      out.writeUTF(state.name());
+      out.writeInt(barsValidFor);
+      StrategySnapshot.writeDateTime(out, lastBar);
+      out.writeBoolean(stopWasTriggered_);
+   }
+   
+   static Order readSnapshot(DataInput in) throws IOException {
+      String ss = in.readUTF();
+      long qq = in.readLong();
+      double lp = in.readDouble();
+      double sp = in.readDouble();
+      String sig = StrategySnapshot.readString(in);
+      String oca = in.readUTF();
+      Order order = new Order(ss, qq, lp, sp, Type.valueOf(in.readUTF()), sig);
+      order.oca = oca;
+      order.state = State.valueOf(in.readUTF());
+      order.barsValidFor = in.readInt();
+      order.lastBar = StrategySnapshot.readDateTime(in);
+      order.stopWasTriggered_ = in.readBoolean();
+      return order;
+   }
+   
    public String getSymbol() { return symbol; }
    public void setSymbol(String symbol) { this.symbol = symbol; }
    
    public double getLimit() { return limitPrice; }
-   public void setLimit(double price) { this.limitPrice = price; }
+   public void setLimit(double price) { this.limitPrice = price; bookUpdate(); }
    
    public double getStop() { return stopPrice; }
-   public void setStop(double price) { this.stopPrice = price; }
+   public void setStop(double price) { this.stopPrice = price; bookUpdate(); }
+   
+   public String getOca() { return oca; }
+   public void setOca(String oca) { this.oca = oca == null ? "" : oca; bookUpdate(); }
    
    public long getQuantity() { return quantity; }
    public void setQuantity(long quantity) { this.quantity = quantity; }
@@ -154,7 +202,11 @@ public class Order {
    public boolean isCancelled() { return state == State.CANCELLED; }
 
    public boolean isStopped() { return stopWasTriggered_; }
-   public void makeStopped() { stopWasTriggered_ = true; }
+   public void makeStopped() { stopWasTriggered_ = true; bookUpdate(); }
+   
+   private void bookUpdate() {
+      if(book != null) book.update(this);
+   }
 
    public boolean isBuy() {
       switch(type) {
@@ -260,6 +312,54 @@ public class Order {
    // Is this a One-Cancels-All order
    public boolean isOca() { return !oca.isEmpty(); }
    
+   /**
+    * The price which has to be reached for the order to fill (or, for the
+    * stop-limit orders, to trigger the stop). NaN for the market orders.
+    */
+   double getTriggerPrice() {
+      switch(type) {
+      case ENTER_LONG_LIMIT:
+      case EXIT_LONG_LIMIT:
+      case ENTER_SHORT_LIMIT:
+      case EXIT_SHORT_LIMIT:
+         return limitPrice;
+      case ENTER_LONG_STOP:
+      case EXIT_LONG_STOP:
+      case ENTER_SHORT_STOP:
+      case EXIT_SHORT_STOP:
+         return stopPrice;
+      case ENTER_LONG_STOP_LIMIT:
+      case EXIT_LONG_STOP_LIMIT:
+      case ENTER_SHORT_STOP_LIMIT:
+      case EXIT_SHORT_STOP_LIMIT:
+         return isStopped() ? limitPrice : stopPrice;
+      default:
+         return Double.NaN;
+      }
+   }
+   
+   /**
+    * Whether the trigger price is reached with the price at, or below, it
+    * (buy limits and sell stops), rather than at, or above, it.
+    */
+   boolean isTriggeredBelow() {
+      switch(type) {
+      case ENTER_LONG_LIMIT:
+      case EXIT_SHORT_LIMIT:
+      case EXIT_LONG_STOP:
+      case ENTER_SHORT_STOP:
+         return true;
+      case EXIT_LONG_STOP_LIMIT:
+      case ENTER_SHORT_STOP_LIMIT:
+         return !isStopped();
+      case ENTER_LONG_STOP_LIMIT:
+      case EXIT_SHORT_STOP_LIMIT:
+         return isStopped();
+      default:
+         return false;
+      }
+   }
+   
    public void updateState(Bar bar) {
       // Check whether the order requires processing (bar expiration is set and is active)
       if(!isActive() || barsValidFor < 0) return;
@@ -526,6 +626,7 @@ public class Order {
          this.stopPrice += offset;
          this.type = Type.EXIT_LONG_STOP_LIMIT;
       }
+      bookUpdate();
       return this;
    }
 }
@@ -0,0 +1,299 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * @brief The resting orders of an instrument, indexed by trigger price.
+ *
+ * The orders which may fill when the price falls to a level (buy limits and
+ * sell stops) and the ones which may fill when the price rises to a level
+ * (sell limits and buy stops) are kept sorted by that level, thus a price
+ * touches only the orders it actually crosses. The stop-limit orders are
+ * indexed by their stop until it's triggered, and by their limit afterwards.
+ * The market orders are tried at every price.
+ *
+ * "collect" returns the candidates in submission order, so the fills are the
+ * same as when all orders are tried in turn. Filled and cancelled orders are
+ * skipped, and removed from the book by "purge".
+ */
+class OrderBook {
+   
+   // The orders sorted by their trigger price
+   private static class Side {
+      double [] levels = new double[8];
+      Order [] orders = new Order[8];
+      int size = 0;
+      
+      // The first index with a level at, or above, the price
+      int lowerBound(double price) {
+         int lo = 0, hi = size;
+         while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(levels[mid] < price) lo = mid + 1;
+            else hi = mid;
+         }
+         return lo;
+      }
+      
+      // The first index with a level above the price
+      int upperBound(double price) {
+         int lo = 0, hi = size;
+         while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(levels[mid] <= price) lo = mid + 1;
+            else hi = mid;
+         }
+         return lo;
+      }
+      
+      void insert(double level, Order order) {
+         if(size == levels.length) {
+            levels = Arrays.copyOf(levels, 2*size);
+            orders = Arrays.copyOf(orders, 2*size);
+         }
+         int pos = upperBound(level);
+         System.arraycopy(levels, pos, levels, pos + 1, size - pos);
+         System.arraycopy(orders, pos, orders, pos + 1, size - pos);
+         levels[pos] = level;
+         orders[pos] = order;
+         ++size;
+      }
+      
+      void remove(double level, Order order) {
+         for(int ii = lowerBound(level); ii < size && levels[ii] == level; ++ii) {
+            if(orders[ii] == order) {
+               System.arraycopy(levels, ii + 1, levels, ii, size - ii - 1);
+               System.arraycopy(orders, ii + 1, orders, ii, size - ii - 1);
+               orders[--size] = null;
+               return;
+            }
+         }
+      }
+      
+      void compact(OrderBook owner) {
+         int active = 0;
+         for(int ii = 0; ii < size; ++ii) {
+            if(orders[ii].book == owner) {
+               levels[active] = levels[ii];
+               orders[active++] = orders[ii];
+            }
+         }
+         Arrays.fill(orders, active, size, null);
+         size = active;
+      }
+   }
+   
+   private static final Comparator<Order> BY_SEQUENCE = (Order o1, Order o2) -> Long.compare(o1.bookSeq, o2.bookSeq);
+   
+   // All orders, in submission order
+   private List<Order> orders = new ArrayList<Order>();
+   // The market orders (and the ones without a price), in submission order
+   private List<Order> marketOrders = new ArrayList<Order>();
+   private Side below = new Side();
+   private Side above = new Side();
+   // The exit orders, in submission order
+   private List<Order> exits = new ArrayList<Order>();
+   // The orders of each One-Cancels-All group
+   private HashMap<String, List<Order>> ocaGroups = new HashMap<String, List<Order>>();
+   
+   private long nextSeq = 0;
+   
+   // The result of "collect", reused
+   private Order [] candidates = new Order[16];
+   private int numCandidates = 0;
+   
+   public boolean isEmpty() { return orders.isEmpty(); }
+   
+   public int size() { return orders.size(); }
+   
+   public Order get(int index) { return orders.get(index); }
+   
+   public void add(Order order) {
+      if(order.book != null) order.book.remove(order);
+      
+      order.book = this;
+      order.bookSeq = nextSeq++;
+      orders.add(order);
+      if(order.isExit()) exits.add(order);
+      index(order);
+   }
+   
+   // Adds the order to the price and the oca indexes, recording the keys
+   private void index(Order order) {
+      double level = order.getTriggerPrice();
+      boolean isBelow = order.isTriggeredBelow();
+      order.bookLevel = level;
+      order.bookBelow = isBelow;
+      if(Double.isNaN(level)) {
+         insertInSequence(marketOrders, order);
+      } else if(isBelow) {
+         below.insert(level, order);
+      } else {
+         above.insert(level, order);
+      }
+      
+      order.bookOca = order.getOca();
+      if(order.isOca()) {
+         List<Order> group = ocaGroups.get(order.bookOca);
+         if(group == null) {
+            group = new ArrayList<Order>();
+            ocaGroups.put(order.bookOca, group);
+         }
+         insertInSequence(group, order);
+      }
+   }
+   
+   private void unindex(Order order) {
+      if(Double.isNaN(order.bookLevel)) {
+         marketOrders.remove(order);
+      } else if(order.bookBelow) {
+         below.remove(order.bookLevel, order);
+      } else {
+         above.remove(order.bookLevel, order);
+      }
+      
+      if(!order.bookOca.isEmpty()) {
+         List<Order> group = ocaGroups.get(order.bookOca);
+         group.remove(order);
+         if(group.isEmpty()) ocaGroups.remove(order.bookOca);
+      }
+   }
+   
+   private static void insertInSequence(List<Order> list, Order order) {
+      int pos = list.size();
+      while(pos > 0 && list.get(pos - 1).bookSeq > order.bookSeq) --pos;
+      list.add(pos, order);
+   }
+   
+   /**
+    * Re-indexes an order after a change of its prices, type, stop state or oca group.
+    */
+   void update(Order order) {
+      unindex(order);
+      index(order);
+   }
+   
+   private void remove(Order order) {
+      unindex(order);
+      orders.remove(order);
+      exits.remove(order);
+      order.book = null;
+   }
+   
+   /**
+    * @brief Collects the active orders which may fill at the price.
+    * 
+    * The orders are available through "getCandidate", in submission order,
+    * until the next call.
+    */
+   public int collect(double price) {
+      numCandidates = 0;
+      
+      for(int ii = 0; ii < marketOrders.size(); ++ii) addCandidate(marketOrders.get(ii));
+      
+      if(!Double.isNaN(price)) {
+         for(int ii = below.lowerBound(price); ii < below.size; ++ii) addCandidate(below.orders[ii]);
+         int end = above.upperBound(price);
+         for(int ii = 0; ii < end; ++ii) addCandidate(above.orders[ii]);
+      }
+      
+      if(numCandidates > 32) {
+         Arrays.sort(candidates, 0, numCandidates, BY_SEQUENCE);
+      } else {
+         // Insertion sort, there are usually only a few candidates
+         for(int ii = 1; ii < numCandidates; ++ii) {
+            Order order = candidates[ii];
+            int jj = ii - 1;
+            for(; jj >= 0 && candidates[jj].bookSeq > order.bookSeq; --jj) candidates[jj + 1] = candidates[jj];
+            candidates[jj + 1] = order;
+         }
+      }
+      
+      return numCandidates;
+   }
+   
+   private void addCandidate(Order order) {
+      if(!order.isActive()) return;
+      if(numCandidates == candidates.length) candidates = Arrays.copyOf(candidates, 2*numCandidates);
+      candidates[numCandidates++] = order;
+   }
+   
+   public Order getCandidate(int index) { return candidates[index]; }
+   
+   /**
+    * Cancels the other active orders of the oca group of the order.
+    */
+   public void cancelOca(Order order) {
+      List<Order> group = ocaGroups.get(order.getOca());
+      if(group == null) return;
+      for(int ii = 0; ii < group.size(); ++ii) {
+         Order oo = group.get(ii);
+         if(oo != order && oo.isActive()) oo.cancel();
+      }
+   }
+   
+   /**
+    * Cancels all other active exit orders.
+    */
+   public void cancelExits(Order order) {
+      for(int ii = 0; ii < exits.size(); ++ii) {
+         Order oo = exits.get(ii);
+         if(oo != order && oo.isActive()) oo.cancel();
+      }
+   }
+   
+   /**
+    * @brief Updates the expiration of the orders, and removes the inactive ones.
+    */
+   public void purge(Bar bar) {
+      boolean removed = false;
+      for(int ii = 0; ii < orders.size(); ++ii) {
+         Order order = orders.get(ii);
+         order.updateState(bar);
+         if(!order.isActive()) {
+            // Out of the book, the indexes are compacted below
+            order.book = null;
+            removed = true;
+         }
+      }
+      if(!removed) return;
+      
+      compact(orders);
+      compact(marketOrders);
+      compact(exits);
+      below.compact(this);
+      above.compact(this);
+      if(!ocaGroups.isEmpty()) {
+         ocaGroups.values().forEach(this::compact);
+         ocaGroups.values().removeIf(List::isEmpty);
+      }
+   }
+   
+   // Removes the orders which are not in this book anymore, keeping the order
+   private void compact(List<Order> list) {
+      int active = 0;
+      for(int ii = 0; ii < list.size(); ++ii) {
+         Order order = list.get(ii);
+         if(order.book == this) list.set(active++, order);
+      }
+      for(int ii = list.size() - 1; ii >= active; --ii) list.remove(ii);
+   }
+}
@@ -14,6 +14,9 @@
 
 package net.tradelib.core;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -34,6 +37,8 @@ public class Portfolio {
 
    private class Transaction {
       public LocalDateTime ts;
+      // The timestamp in epoch nanoseconds, for the comparisons in "mark"
+      public long nanos;
       public long quantity;
       public double price;
       public double value;
@@ -46,6 +51,7 @@ public class Portfolio {
 
       public Transaction(LocalDateTime ldt, long q, double p, double f) {
          ts = ldt;
+         nanos = EpochTime.toNanos(ldt);
          quantity = q;
          price = p;
          fees = f;
@@ -59,6 +65,8 @@ public class Portfolio {
 
       public Transaction(LocalDateTime ldt) {
          ts = ldt;
+         // LocalDateTime.MIN, used for the initial (sentinel) transaction, saturates to Long.MIN_VALUE
+         nanos = EpochTime.toNanos(ldt);
          quantity = 0;
          price = 0.0;
          fees = 0.0;
@@ -122,6 +130,8 @@ public class Portfolio {
    
    String name_;
    HashMap<String, InstrumentData> instrumentMap;
+   // The same data, indexed by the instrument id (see SymbolRegistry)
+   private InstrumentData [] instrumentsById = new InstrumentData[0];
    
    public Portfolio(String name) {
       this.name_ = name;
@@ -136,18 +146,29 @@ public class Portfolio {
    }
    
    public void addInstrument(Instrument i) {
-      InstrumentData icb = instrumentMap.get(i.getSymbol());
-      if(icb == null) {
-         instrumentMap.put(i.getSymbol(), new InstrumentData());
+      getOrAddInstrumentData(i);
+   }
+   
+   private InstrumentData getOrAddInstrumentData(Instrument instrument) {
+      int id = instrument.getId();
+      if(id < instrumentsById.length) {
+         InstrumentData idata = instrumentsById[id];
+         if(idata != null) return idata;
+      } else {
+         instrumentsById = Arrays.copyOf(instrumentsById, Math.max(id + 1, SymbolRegistry.size()));
       }
+      
+      InstrumentData idata = instrumentMap.get(instrument.getSymbol());
+      if(idata == null) {
+         idata = new InstrumentData();
+         instrumentMap.put(instrument.getSymbol(), idata);
+      }
+      instrumentsById[id] = idata;
+      return idata;
    }
    
    public void addTransaction(Instrument i, LocalDateTime ldt, long q, double p, double f) {
-      InstrumentData id = instrumentMap.get(i.getSymbol());
-      if(id == null) {
-         id = new InstrumentData();
-         instrumentMap.put(i.getSymbol(), id);
-      }
+      InstrumentData id = getOrAddInstrumentData(i);
       
       ArrayList<Transaction> instrumentTransactions = id.transactions;
       
@@ -166,6 +187,7 @@ public class Portfolio {
          // Adjust the inputs to reflect what's left to transact, increase the date
          // time by a microsecond to keep the uniqueness in the transaction set.
          transaction.ts = transaction.ts.plusNanos(1000);
+         transaction.nanos += 1000;
          transaction.quantity += ppq;
          ppq = 0;
          transaction.fees = perUnitFee * Math.abs(transaction.quantity); 
@@ -238,12 +260,7 @@ public class Portfolio {
    }
 
    public List<PositionPnl> mark(Instrument instrument, LocalDateTime ts, double price) {
-      InstrumentData idata = instrumentMap.get(instrument.getSymbol());
-      
-      if(idata == null) {
-         idata = new InstrumentData();
-         instrumentMap.put(instrument.getSymbol(), idata);
-      }
+      InstrumentData idata = getOrAddInstrumentData(instrument);
       
       if(idata.transactions.size() == 1) {
          // No real transactions, record the price and return
@@ -262,9 +279,11 @@ public class Portfolio {
       
       PositionPnl lastPnl = idata.positionPnls.get(idata.positionPnls.size() - 1);
       
+      long nanos = EpochTime.toNanos(ts);
+      
       // Only the last transaction can have the same timestamp as the price.
       int txnId = idata.lastTxn + 1;
-      while(txnId < txns.size() && idata.transactions.get(txnId).ts.isBefore(ts)) {
+      while(txnId < txns.size() && txns.get(txnId).nanos < nanos) {
          Transaction txn = txns.get(txnId);
          
          PositionPnl posPnl = new PositionPnl(txn.ts);
@@ -294,7 +313,7 @@ public class Portfolio {
       }
       
       // Process the price
-      if(txnId < txns.size() && idata.transactions.get(txnId).ts.equals(ts)) {
+      if(txnId < txns.size() && txns.get(txnId).nanos == nanos) {
          // A transaction with a same timestamp as the price
          Transaction txn = txns.get(txnId);
          
@@ -361,7 +380,7 @@ public class Portfolio {
    }
    
    public void updatePnl(Instrument instrument, TimeSeries<Double> prices) {
-      InstrumentData id = instrumentMap.get(instrument.getSymbol());
+      InstrumentData id = getInstrumentData(instrument);
       List<Transaction> transactions = id.transactions;
       
       PositionPnl lastPnl = id.positionPnls.get(id.positionPnls.size() - 1);
@@ -457,7 +476,8 @@ public class Portfolio {
    }
    
    private InstrumentData getInstrumentData(Instrument instrument) {
-      return instrumentMap.get(instrument.getSymbol());
+      int id = instrument.getId();
+      return id < instrumentsById.length ? instrumentsById[id] : null;
    }
    
    /**
@@ -491,7 +511,7 @@ public class Portfolio {
    {
       TimeSeries<Double> pnl = new TimeSeries<Double>();
       
-      ArrayList<Transaction> transactions = instrumentMap.get(instrument.getSymbol()).transactions;
+      ArrayList<Transaction> transactions = getInstrumentData(instrument).transactions;
 
       // Handle the trivial case of no transactions.
       if(transactions.size() <= 1) {
@@ -566,7 +586,7 @@ public class Portfolio {
    }
    
    public PositionPnl getPositionPnl(Instrument instrument) {
-      InstrumentData id = instrumentMap.get(instrument.getSymbol());
+      InstrumentData id = getInstrumentData(instrument);
       return id.positionPnls.get(id.positionPnls.size() - 1);
    }
    
@@ -584,7 +604,7 @@ public class Portfolio {
     * @param[in] price the price to compute the PnL
     */
    public Pnl getPositionPnl(Instrument instrument, Double price) {
-      ArrayList<Transaction> instrumentTransactions = instrumentMap.get(instrument.getSymbol()).transactions;
+      ArrayList<Transaction> instrumentTransactions = getInstrumentData(instrument).transactions;
       int ii = instrumentTransactions.size() - 1;
       Transaction transaction = instrumentTransactions.get(ii);
       assert transaction.positionQuantity != 0 : "Must not be called without a position";
@@ -615,7 +635,7 @@ public class Portfolio {
     * @param fees The transaction fees.
     */
    public void closePosition(Instrument instrument, LocalDateTime ldt, double price, double fees) {
-      InstrumentData icb = instrumentMap.get(instrument.getSymbol());
+      InstrumentData icb = getInstrumentData(instrument);
       if(icb == null) return;
       ArrayList<Transaction> instrumentTransactions = icb.transactions;
       if(instrumentTransactions == null || instrumentTransactions.size() <= 1) return;
@@ -704,7 +724,7 @@ public class Portfolio {
    public List<Trade> getTrades(Instrument instrument) {
       List<Trade> list = new ArrayList<Trade>();
 
-      InstrumentData icb = instrumentMap.get(instrument.getSymbol());
+      InstrumentData icb = getInstrumentData(instrument);
       if(icb == null) return list;
       
       ArrayList<Transaction> transactions = icb.transactions;
@@ -777,22 +797,7 @@ public class Portfolio {
       TradingResults tr = new TradingResults();
       tr.pnl = getPnlSeries(instrument);
       tr.stats = getTrades(instrument);
-      TradeSummaryBuilder shorts = new TradeSummaryBuilder(tr.pnl);
-      TradeSummaryBuilder longs = new TradeSummaryBuilder(tr.pnl);
-      TradeSummaryBuilder all = new TradeSummaryBuilder(tr.pnl);
-      
-      for(Trade ts : tr.stats) {
-         if(ts.initialPosition > 0) {
-            all.add(ts);
-            longs.add(ts);
-         } else if(ts.initialPosition < 0) {
-            all.add(ts);
-            shorts.add(ts);
-         }
-      }
-      tr.all = all.summarize();
-      tr.longs = longs.summarize();
-      tr.shorts = shorts.summarize();
+      TradeSummaryBuilder.summarize(tr);
       return tr;
    }
    
@@ -840,4 +845,140 @@ public class Portfolio {
    public Pnl getPnl(Instrument instrument) {
       return getInstrumentData(instrument).pnl;
    }
+   
+   /**
+    * Writes the summaries and the per instrument ledgers (see StrategySnapshot).
+    */
+   void writeSnapshot(DataOutput out) throws IOException {
+      out.writeUTF(name_);
+      
+      out.writeInt(summaries.size());
+      for(Summary ss : summaries.values()) {
+         StrategySnapshot.writeDateTime(out, ss.ts);
+         out.writeDouble(ss.longValue);
+         out.writeDouble(ss.shortValue);
+         out.writeDouble(ss.netValue);
+         out.writeDouble(ss.grossValue);
+         out.writeDouble(ss.txnFees);
+         out.writeDouble(ss.realizedPnl);
+         out.writeDouble(ss.unrealizedPnl);
+         out.writeDouble(ss.grossPnl);
+         out.writeDouble(ss.netPnl);
+      }
+      
+      out.writeInt(instrumentMap.size());
+      for(Entry<String, InstrumentData> entry : instrumentMap.entrySet()) {
+         InstrumentData idata = entry.getValue();
+         out.writeUTF(entry.getKey());
+         out.writeInt(idata.lastTxn);
+         out.writeDouble(idata.lastPrice);
+         out.writeDouble(idata.pnl.realized);
+         out.writeDouble(idata.pnl.unrealized);
+         
+         // Including the initial (sentinel) entries
+         out.writeInt(idata.transactions.size());
+         for(Transaction txn : idata.transactions) {
+            StrategySnapshot.writeDateTime(out, txn.ts);
+            out.writeLong(txn.nanos);
+            out.writeLong(txn.quantity);
+            out.writeDouble(txn.price);
+            out.writeDouble(txn.value);
+            out.writeDouble(txn.averageCost);
+            out.writeLong(txn.positionQuantity);
+            out.writeDouble(txn.positionAverageCost);
+            out.writeDouble(txn.grossPnl);
+            out.writeDouble(txn.netPnl);
+            out.writeDouble(txn.fees);
+         }
+         
+         out.writeInt(idata.positionPnls.size());
+         for(PositionPnl posPnl : idata.positionPnls) {
+            StrategySnapshot.writeDateTime(out, posPnl.ts);
+            out.writeDouble(posPnl.positionQuantity);
+            out.writeDouble(posPnl.positionValue);
+            out.writeDouble(posPnl.positionAverageCost);
+            out.writeDouble(posPnl.transactionValue);
+            out.writeDouble(posPnl.realizedPnl);
+            out.writeDouble(posPnl.unrealizedPnl);
+            out.writeDouble(posPnl.grossPnl);
+            out.writeDouble(posPnl.netPnl);
+            out.writeDouble(posPnl.fees);
+         }
+      }
+   }
+   
+   /**
+    * Replaces the summaries and the per instrument ledgers with the ones from a snapshot.
+    */
+   void readSnapshot(DataInput in) throws IOException {
+      name_ = in.readUTF();
+      
+      summaries.clear();
+      int numSummaries = in.readInt();
+      for(int ii = 0; ii < numSummaries; ++ii) {
+         Summary ss = new Summary(StrategySnapshot.readDateTime(in));
+         ss.longValue = in.readDouble();
+         ss.shortValue = in.readDouble();
+         ss.netValue = in.readDouble();
+         ss.grossValue = in.readDouble();
+         ss.txnFees = in.readDouble();
+         ss.realizedPnl = in.readDouble();
+         ss.unrealizedPnl = in.readDouble();
+         ss.grossPnl = in.readDouble();
+         ss.netPnl = in.readDouble();
+         summaries.put(ss.ts, ss);
+      }
+      
+      instrumentMap.clear();
+      instrumentsById = new InstrumentData[SymbolRegistry.size()];
+      int numInstruments = in.readInt();
+      for(int ii = 0; ii < numInstruments; ++ii) {
+         String symbol = in.readUTF();
+         InstrumentData idata = new InstrumentData();
+         idata.lastTxn = in.readInt();
+         idata.lastPrice = in.readDouble();
+         idata.pnl.realized = in.readDouble();
+         idata.pnl.unrealized = in.readDouble();
+         
+         idata.transactions.clear();
+         int numTransactions = in.readInt();
+         idata.transactions.ensureCapacity(numTransactions);
+         for(int jj = 0; jj < numTransactions; ++jj) {
+            Transaction txn = new Transaction(StrategySnapshot.readDateTime(in));
+            txn.nanos = in.readLong();
+            txn.quantity = in.readLong();
+            txn.price = in.readDouble();
+            txn.value = in.readDouble();
+            txn.averageCost = in.readDouble();
+            txn.positionQuantity = in.readLong();
+            txn.positionAverageCost = in.readDouble();
+            txn.grossPnl = in.readDouble();
+            txn.netPnl = in.readDouble();
+            txn.fees = in.readDouble();
+            idata.transactions.add(txn);
+         }
+         
+         idata.positionPnls.clear();
+         int numPositionPnls = in.readInt();
+         idata.positionPnls.ensureCapacity(numPositionPnls);
+         for(int jj = 0; jj < numPositionPnls; ++jj) {
+            PositionPnl posPnl = new PositionPnl(StrategySnapshot.readDateTime(in));
+            posPnl.positionQuantity = in.readDouble();
+            posPnl.positionValue = in.readDouble();
+            posPnl.positionAverageCost = in.readDouble();
+            posPnl.transactionValue = in.readDouble();
+            posPnl.realizedPnl = in.readDouble();
+            posPnl.unrealizedPnl = in.readDouble();
+            posPnl.grossPnl = in.readDouble();
+            posPnl.netPnl = in.readDouble();
+            posPnl.fees = in.readDouble();
+            idata.positionPnls.add(posPnl);
+         }
+         
+         instrumentMap.put(symbol, idata);
+         int id = SymbolRegistry.getId(symbol);
+         if(id >= instrumentsById.length) instrumentsById = Arrays.copyOf(instrumentsById, id + 1);
+         instrumentsById[id] = idata;
+      }
+   }
 }
@@ -0,0 +1,109 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import java.time.Duration;
+import java.time.LocalTime;
+
+/**
+ * @brief When, and in what order, the prices of a bar are replayed.
+ *
+ * A bar is replayed as five events: the open, the first and the second
+ * extreme (the low and the high, in the order given by the path), the close
+ * and the end of the bar ("closed"). For the bars of a day or longer, the
+ * events take place at fixed times of the bar's day, by default 09:00:01,
+ * 11:00:01, 13:00:01, 15:59:59 and 16:00. The shorter bars are taken to
+ * start at their timestamp and to end a duration later. The open and the
+ * close are a thousandth of the duration inside the bar, and the extremes
+ * are at a third and two thirds of it.
+ */
+public class ReplaySession {
+   
+   // The indexes of the events in a schedule
+   public static final int OPEN = 0;
+   public static final int FIRST = 1;
+   public static final int SECOND = 2;
+   public static final int CLOSE = 3;
+   public static final int CLOSED = 4;
+   public static final int NUM_EVENTS = 5;
+   
+   public enum Path {
+      // The low is visited before the high
+      OPEN_LOW_HIGH_CLOSE,
+      // The high is visited before the low
+      OPEN_HIGH_LOW_CLOSE,
+      // The extreme closer to the open is visited first, the low on a tie
+      NEAREST_EXTREME_FIRST;
+      
+      public boolean isLowFirst(Bar bar) {
+         switch(this) {
+         case OPEN_LOW_HIGH_CLOSE: return true;
+         case OPEN_HIGH_LOW_CLOSE: return false;
+         default: return bar.getOpen() - bar.getLow() <= bar.getHigh() - bar.getOpen();
+         }
+      }
+   }
+   
+   // The times of the events for the daily (and longer) bars, in nanoseconds from midnight
+   private final long [] dailyTimes;
+   private Path path = Path.OPEN_LOW_HIGH_CLOSE;
+   
+   public ReplaySession() {
+      this(LocalTime.of(9, 0, 1), LocalTime.of(11, 0, 1), LocalTime.of(13, 0, 1),
+           LocalTime.of(15, 59, 59), LocalTime.of(16, 0));
+   }
+   
+   /**
+    * @brief A session with the given times for the daily bars.
+    */
+   public ReplaySession(LocalTime open, LocalTime first, LocalTime second, LocalTime close, LocalTime closed) {
+      dailyTimes = new long[] { open.toNanoOfDay(), first.toNanoOfDay(), second.toNanoOfDay(),
+                                close.toNanoOfDay(), closed.toNanoOfDay() };
+      for(int ii = 1; ii < NUM_EVENTS; ++ii) {
+         if(dailyTimes[ii] <= dailyTimes[ii - 1]) {
+            throw new IllegalArgumentException("The session times must be increasing.");
+         }
+      }
+   }
+   
+   public Path getPath() { return path; }
+   public ReplaySession setPath(Path path) { this.path = path; return this; }
+   
+   public boolean isLowFirst(Bar bar) { return path.isLowFirst(bar); }
+   
+   /**
+    * @brief Computes the timestamps of the events of a bar.
+    *
+    * @param[in] bar the bar
+    * @param[out] times receives the epoch nanoseconds of the events, from "offset" on
+    * @param[in] offset the index of the OPEN event in times
+    */
+   public void schedule(Bar bar, long [] times, int offset) {
+      Duration duration = bar.getDuration();
+      long nanos = duration == null ? EpochTime.NANOS_PER_DAY : duration.toNanos();
+      long ts = bar.getEpochNanos();
+      if(nanos >= EpochTime.NANOS_PER_DAY) {
+         long day = EpochTime.startOfDay(ts);
+         for(int ii = 0; ii < NUM_EVENTS; ++ii) times[offset + ii] = day + dailyTimes[ii];
+      } else {
+         long margin = nanos/1000;
+         times[offset + OPEN] = ts + margin;
+         times[offset + FIRST] = ts + nanos/3;
+         times[offset + SECOND] = ts + 2*(nanos/3);
+         times[offset + CLOSE] = ts + nanos - margin;
+         times[offset + CLOSED] = ts + nanos;
+      }
+   }
+}
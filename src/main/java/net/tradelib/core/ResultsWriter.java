@@ -0,0 +1,216 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+
+/**
+ * @brief Writes the results of a strategy using batched statements.
+ *
+ * Each table has a single prepared statement, reused for all rows (across
+ * instruments). The rows are sent to the database in batches and committed
+ * on "commit", or every "commitChunk" rows if the chunk is positive. For
+ * MySQL, add "rewriteBatchedStatements=true" to the connection URL to have
+ * the batches sent as multi-row inserts.
+ */
+public class ResultsWriter implements AutoCloseable {
+   
+   // The maximum number of rows per batch
+   private static final int BATCH_SIZE = 1000;
+   
+   private Connection connection;
+   private long strategyId;
+   private int commitChunk;
+   
+   private PreparedStatement executionsStmt = null;
+   private PreparedStatement pnlsStmt = null;
+   private PreparedStatement tradesStmt = null;
+   private PreparedStatement summariesStmt = null;
+   private PreparedStatement equityStmt = null;
+   
+   // Rows added, but not sent to the database
+   private int pendingRows = 0;
+   // Rows sent to the database, but not committed
+   private int uncommittedRows = 0;
+   
+   /**
+    * @param connection The connection, auto commit must be off
+    * @param strategyId The strategy id for all rows
+    * @param commitChunk Commit after so many rows, 0 to commit only on "commit"
+    */
+   public ResultsWriter(Connection connection, long strategyId, int commitChunk) {
+      this.connection = connection;
+      this.strategyId = strategyId;
+      this.commitChunk = commitChunk;
+   }
+   
+   public void addExecution(Execution execution) throws SQLException {
+      if(executionsStmt == null) {
+         executionsStmt = connection.prepareStatement(
+                  "INSERT INTO executions(symbol,strategy_id,ts,price,quantity,signal_name) VALUES (?,?,?,?,?,?)");
+      }
+      executionsStmt.setLong(2, strategyId);
+      executionsStmt.setString(1, execution.getSymbol());
+      executionsStmt.setTimestamp(3, Timestamp.valueOf(execution.getDateTime()));
+      executionsStmt.setDouble(4, execution.getPrice());
+      executionsStmt.setLong(5, execution.getQuantity());
+      executionsStmt.setString(6, execution.getSignal());
+      add(executionsStmt);
+   }
+   
+   public void addPnl(String symbol, LocalDateTime ts, double pnl) throws SQLException {
+      if(pnlsStmt == null) {
+         pnlsStmt = connection.prepareStatement("REPLACE INTO pnls(strategy_id,symbol,ts,pnl) VALUES (?,?,?,?)");
+      }
+      pnlsStmt.setLong(1, strategyId);
+      pnlsStmt.setString(2, symbol);
+      pnlsStmt.setTimestamp(3, Timestamp.valueOf(ts));
+      pnlsStmt.setDouble(4, pnl);
+      add(pnlsStmt);
+   }
+   
+   public void addTrade(String symbol, Trade trade) throws SQLException {
+      if(tradesStmt == null) {
+         tradesStmt = connection.prepareStatement(
+                  " INSERT INTO trades(strategy_id,symbol,start,end,initial_position, " +
+                  "       max_position,num_transactions,pnl,pct_pnl,tick_pnl,fees) " +
+                  " VALUES(?,?,?,?,?,?,?,?,?,?,?)");
+      }
+      tradesStmt.setLong(1, strategyId);
+      tradesStmt.setString(2, symbol);
+      tradesStmt.setTimestamp(3, Timestamp.valueOf(trade.start));
+      tradesStmt.setTimestamp(4, Timestamp.valueOf(trade.end));
+      tradesStmt.setLong(5, trade.initialPosition);
+      tradesStmt.setLong(6, trade.maxPosition);
+      tradesStmt.setLong(7, trade.numTransactions);
+      tradesStmt.setDouble(8, trade.pnl);
+      tradesStmt.setDouble(9, trade.pctPnl);
+      tradesStmt.setDouble(10, trade.tickPnl);
+      tradesStmt.setDouble(11, trade.fees);
+      add(tradesStmt);
+   }
+   
+   /**
+    * Summaries without trades are skipped.
+    */
+   public void addTradeSummary(String symbol, String type, TradeSummary tradeSummary) throws SQLException {
+      if(tradeSummary.numTrades <= 0) return;
+      
+      if(summariesStmt == null) {
+         summariesStmt = connection.prepareStatement(
+                  " INSERT INTO trade_summaries (strategy_id,symbol,type,num_trades,gross_profits, " +
+                  "      gross_losses,profit_factor,average_daily_pnl,daily_pnl_stddev,sharpe_ratio, " +
+                  "      average_trade_pnl,trade_pnl_stddev,pct_positive,pct_negative,max_win,max_loss, " +
+                  "      average_win,average_loss,average_win_loss,equity_min,equity_max,max_drawdown, " +
+                  "      max_drawdown_pct) " +
+                  " VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
+      }
+      summariesStmt.setLong(1, strategyId);
+      summariesStmt.setString(2, symbol);
+      summariesStmt.setString(3, type);
+      summariesStmt.setLong(4, tradeSummary.numTrades);
+      setDoubleParam(summariesStmt, 5, tradeSummary.grossProfits);
+      setDoubleParam(summariesStmt, 6, tradeSummary.grossLosses);
+      setDoubleParam(summariesStmt, 7, tradeSummary.profitFactor);
+      setDoubleParam(summariesStmt, 8, tradeSummary.averageDailyPnl);
+      setDoubleParam(summariesStmt, 9, tradeSummary.dailyPnlStdDev);
+      setDoubleParam(summariesStmt, 10, tradeSummary.sharpeRatio);
+      setDoubleParam(summariesStmt, 11, tradeSummary.averageTradePnl);
+      setDoubleParam(summariesStmt, 12, tradeSummary.tradePnlStdDev);
+      setDoubleParam(summariesStmt, 13, tradeSummary.pctPositive);
+      setDoubleParam(summariesStmt, 14, tradeSummary.pctNegative);
+      setDoubleParam(summariesStmt, 15, tradeSummary.maxWin);
+      setDoubleParam(summariesStmt, 16, tradeSummary.maxLoss);
+      setDoubleParam(summariesStmt, 17, tradeSummary.averageWin);
+      setDoubleParam(summariesStmt, 18, tradeSummary.averageLoss);
+      setDoubleParam(summariesStmt, 19, tradeSummary.averageWinLoss);
+      setDoubleParam(summariesStmt, 20, tradeSummary.equityMin);
+      setDoubleParam(summariesStmt, 21, tradeSummary.equityMax);
+      setDoubleParam(summariesStmt, 22, tradeSummary.maxDD);
+      setDoubleParam(summariesStmt, 23, tradeSummary.maxDDPct);
+      add(summariesStmt);
+   }
+   
+   public void addEquity(LocalDateTime ts, double equity) throws SQLException {
+      if(equityStmt == null) {
+         equityStmt = connection.prepareStatement("REPLACE INTO end_equity(strategy_id,ts,equity) VALUES (?,?,?)");
+      }
+      equityStmt.setLong(1, strategyId);
+      equityStmt.setTimestamp(2, Timestamp.valueOf(ts));
+      equityStmt.setDouble(3, equity);
+      add(equityStmt);
+   }
+   
+   private void add(PreparedStatement stmt) throws SQLException {
+      stmt.addBatch();
+      ++pendingRows;
+      
+      if(commitChunk > 0 && uncommittedRows + pendingRows >= commitChunk) {
+         commit();
+      } else if(pendingRows >= BATCH_SIZE) {
+         flush();
+      }
+   }
+   
+   /**
+    * @brief Sends the pending rows to the database, without committing.
+    * 
+    * Queries on the same connection see the rows afterwards.
+    */
+   public void flush() throws SQLException {
+      if(pendingRows == 0) return;
+      
+      if(executionsStmt != null) executionsStmt.executeBatch();
+      if(pnlsStmt != null) pnlsStmt.executeBatch();
+      if(tradesStmt != null) tradesStmt.executeBatch();
+      if(summariesStmt != null) summariesStmt.executeBatch();
+      if(equityStmt != null) equityStmt.executeBatch();
+      
+      uncommittedRows += pendingRows;
+      pendingRows = 0;
+   }
+   
+   public void commit() throws SQLException {
+      flush();
+      connection.commit();
+      uncommittedRows = 0;
+   }
+   
+   /**
+    * Closes the statements, the pending rows are discarded.
+    */
+   @Override
+   public void close() throws SQLException {
+      PreparedStatement [] stmts = { executionsStmt, pnlsStmt, tradesStmt, summariesStmt, equityStmt };
+      for(PreparedStatement stmt : stmts) {
+         if(stmt != null) stmt.close();
+      }
+      executionsStmt = pnlsStmt = tradesStmt = summariesStmt = equityStmt = null;
+      pendingRows = 0;
+   }
+   
+   private static void setDoubleParam(PreparedStatement stmt, int index, double value) throws SQLException {
+      if(Double.isFinite(value)) {
+         stmt.setDouble(index, value);
+      } else {
+         stmt.setNull(index, Types.DOUBLE);
+      }
+   }
+}
@@ -26,14 +26,15 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Properties;
-import java.util.concurrent.ExecutionException;
-
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 
 public class SQLDataFeed extends HistoricalDataFeed {
    
@@ -48,7 +49,13 @@ public class SQLDataFeed extends HistoricalDataFeed {
    
    private String defaultInstrument = null;
    
-   private LoadingCache<String, Instrument> instrumentCache; 
+   // When set, the bars are streamed using one cursor per subscription
+   // and merged by timestamp, instead of a single global ORDER BY.
+   private boolean streaming = false;
+   private int fetchSize = 1000;
+   
+   // The maximum number of symbols in a single instrument query
+   private static final int MAX_SYMBOLS_PER_QUERY = 500;
    
    public String getInstrumentsTable() {
       return instrumentsTable;
@@ -102,13 +109,33 @@ public class SQLDataFeed extends HistoricalDataFeed {
       defaultInstrument = s;
    }
    
+   public boolean isStreaming() {
+      return streaming;
+   }
+   
+   public void setStreaming(boolean b) {
+      streaming = b;
+   }
+   
+   public int getFetchSize() {
+      return fetchSize;
+   }
+   
+   /**
+    * Sets the number of rows each cursor fetches at a time in streaming mode.
+    * 
+    * For MySQL, the driver honours the fetch size only if "useCursorFetch=true"
+    * is part of the connection URL. Otherwise, each result set is loaded in full.
+    */
+   public void setFetchSize(int n) {
+      fetchSize = n;
+   }
+   
    public SQLDataFeed() {
-      newInstrumentCache();
    }
    
    public SQLDataFeed(Context context) {
       super(context);
-      newInstrumentCache();
    }
    
    public boolean isMySQL() {
@@ -142,6 +169,8 @@ public class SQLDataFeed extends HistoricalDataFeed {
       setInstrumentsTable(config.getProperty("instruments.table"));
       setInstrumentsVariationsTable(config.getProperty("instruments.variations.table"));
       setInstrumentProvider(config.getProperty("instrument.provider"));
+      setStreaming(Boolean.parseBoolean(config.getProperty("feed.streaming", "false")));
+      setFetchSize(Integer.parseInt(config.getProperty("feed.fetch.size", "1000")));
    }
    
    class DateTimeReader {
@@ -216,9 +245,127 @@ public class SQLDataFeed extends HistoricalDataFeed {
 	   }
    }
    
+   private Bar readBar(ResultSet rs, DateTimeReader dtr, InstrumentRegistry registry) throws Exception {
+      Bar bar = new Bar(rs.getString(1), dtr.read(rs, 2),
+                        rs.getBigDecimal(3).doubleValue(),
+                        rs.getBigDecimal(4).doubleValue(),
+                        rs.getBigDecimal(5).doubleValue(),
+                        rs.getBigDecimal(6).doubleValue(),
+                        rs.getLong(7));
+      bar.setInstrument(registry.getInstrument(bar.getSymbolId()));
+      return bar;
+   }
+   
+   /**
+    * A cursor over the bars of a single symbol. Holds one bar of look-ahead,
+    * the rest of the buffering is left to the driver (bounded by the fetch size).
+    */
+   private class SymbolCursor implements Comparable<SymbolCursor> {
+      private PreparedStatement stmt;
+      private ResultSet rs;
+      private DateTimeReader dtr = new DateTimeReader();
+      private InstrumentRegistry registry;
+      Bar next = null;
+      
+      SymbolCursor(Connection con, String symbol, InstrumentRegistry registry) throws Exception {
+         this.registry = registry;
+
+         String query = "SELECT symbol,ts,open,high,low,close,volume " +
+                        "FROM " + getBarsTable() + " " +
+                        "WHERE symbol=? ";
+         if(isMySQL()) {
+            if(getFeedStart() != null) query += " AND ts >= DATE(?)";
+            if(getFeedStop() != null) query += " AND ts <= DATE(?)";
+         } else {
+            if(getFeedStart() != null) query += " AND ts >= ?";
+            if(getFeedStop() != null) query += " AND ts <= ?";
+         }
+         query += " ORDER BY ts ASC";
+         
+         stmt = con.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+         stmt.setFetchSize(getFetchSize());
+         int index = 1;
+         stmt.setString(index++, symbol);
+         if(getFeedStart() != null) stmt.setTimestamp(index++, Timestamp.valueOf(getFeedStart()));
+         if(getFeedStop() != null) stmt.setTimestamp(index++, Timestamp.valueOf(getFeedStop()));
+         
+         rs = stmt.executeQuery();
+      }
+      
+      boolean advance() throws Exception {
+         if(rs.next()) {
+            next = readBar(rs, dtr, registry);
+            return true;
+         }
+         
+         next = null;
+         close();
+         return false;
+      }
+      
+      void close() throws SQLException {
+         if(stmt != null) {
+            rs.close();
+            stmt.close();
+            stmt = null;
+         }
+      }
+
+      @Override
+      public int compareTo(SymbolCursor other) {
+         int res = next.getDateTime().compareTo(other.next.getDateTime());
+         if(res == 0) res = next.getSymbol().compareTo(other.next.getSymbol());
+         return res;
+      }
+   }
+   
+   /**
+    * Streams the bars using one cursor per subscription, merging them on
+    * a timestamp keyed priority queue. The database doesn't have to sort
+    * the combined result, and the memory use is bounded per symbol.
+    */
+   private void startStreaming() throws Exception {
+      InstrumentRegistry registry = getInstrumentRegistry();
+      Connection con = DriverManager.getConnection(getDbUrl());
+      
+      List<SymbolCursor> cursors = new ArrayList<SymbolCursor>(subscriptions.size());
+      try {
+         PriorityQueue<SymbolCursor> queue = new PriorityQueue<SymbolCursor>(subscriptions.size());
+         for(String symbol : subscriptions) {
+            SymbolCursor cursor = new SymbolCursor(con, symbol, registry);
+            cursors.add(cursor);
+            if(cursor.advance()) queue.add(cursor);
+         }
+         
+         while(!queue.isEmpty()) {
+            SymbolCursor cursor = queue.poll();
+            Bar bar = cursor.next;
+            
+            if(cursor.advance()) {
+               queue.add(cursor);
+            } else {
+               bar.setLast(true);
+            }
+            
+            // Notify all listeners
+            for(IBarListener listener : barListeners) listener.barNotification(bar);
+         }
+      } finally {
+         for(SymbolCursor cursor : cursors) cursor.close();
+         con.close();
+      }
+   }
+   
    @Override
    public void start() throws Exception {
       if(subscriptions.size() == 0) return;
+      
+      preloadInstruments(subscriptions);
+      
+      if(isStreaming()) {
+         startStreaming();
+         return;
+      }
 
       Iterator<String> it = subscriptions.iterator();
       String symbols = "\"" + it.next() + "\"";
@@ -226,6 +373,8 @@ public class SQLDataFeed extends HistoricalDataFeed {
          symbols = symbols + ",\"" + it.next() + "\""; 
       }
       
+      InstrumentRegistry registry = getInstrumentRegistry();
+      
       Connection con = DriverManager.getConnection(getDbUrl());
       
       String query;
@@ -276,12 +425,7 @@ public class SQLDataFeed extends HistoricalDataFeed {
             DateTimeReader dtr = new DateTimeReader();
 
             // Read a bar, add it to the queue and to the counting hash.
-            Bar bar = new Bar(rs.getString(1), dtr.read(rs, 2),
-                              rs.getBigDecimal(3).doubleValue(),
-                              rs.getBigDecimal(4).doubleValue(),
-                              rs.getBigDecimal(5).doubleValue(),
-                              rs.getBigDecimal(6).doubleValue(),
-                              rs.getLong(7));
+            Bar bar = readBar(rs, dtr, registry);
             queue.add(bar);
             Integer count = counters.get(bar.getSymbol());
             if(count == null) counters.put(bar.getSymbol(), 1);
@@ -310,62 +454,138 @@ public class SQLDataFeed extends HistoricalDataFeed {
       }
    }
 
+   /**
+    * @brief Lists the distinct symbols in the bars table.
+    * 
+    * @return The symbols in alphabetical order
+    */
+   public List<String> getSymbols() throws SQLException {
+      List<String> result = new ArrayList<String>();
+      
+      Connection con = DriverManager.getConnection(getDbUrl());
+      
+      String query = "SELECT DISTINCT symbol FROM " + getBarsTable() + " ORDER BY symbol";
+      PreparedStatement stmt = con.prepareStatement(query);
+      ResultSet rs = stmt.executeQuery();
+      while(rs.next()) {
+         result.add(rs.getString(1));
+      }
+      
+      stmt.close();
+      con.close();
+      
+      return result;
+   }
+
    @Override
    public Instrument getInstrument(String symbol) throws Exception {
-      return instrumentCache.get(symbol);
+      return getInstrumentRegistry(symbol).getInstrument(symbol);
    }
 
    @Override
    public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws SQLException {
+      return getInstrumentRegistry(symbol).getInstrumentVariation(provider, symbol);
+   }
+   
+   /**
+    * @brief The process-wide instrument registry for this feed's database,
+    * tables and provider.
+    * 
+    * The registry is shared by all feeds with the same configuration, thus
+    * the instruments are loaded once per process.
+    */
+   public InstrumentRegistry getInstrumentRegistry() {
+      return InstrumentRegistry.getShared(getInstrumentSource());
+   }
+   
+   private InstrumentRegistry getInstrumentRegistry(String symbol) throws SQLException {
+      InstrumentRegistry registry = getInstrumentRegistry();
+      if(!registry.contains(symbol)) {
+         registry = preloadInstruments(Collections.singletonList(symbol));
+      }
+      return registry;
+   }
+   
+   private String getInstrumentSource() {
+      return getDbUrl() + "|" + getInstrumentsTable() + "|" + getInstrumentsVariationsTable() + "|" +
+             getInstrumentProvider() + "|" + defaultInstrument;
+   }
+   
+   /**
+    * @brief Loads the instruments, and their variations, which are not in
+    * the registry yet.
+    * 
+    * The symbols are loaded in bulk, a query for the instruments and a query
+    * for the variations (per 500 symbols). Called by "start" for all
+    * subscriptions.
+    * 
+    * @return The registry, including the symbols
+    */
+   public InstrumentRegistry preloadInstruments(Collection<String> symbols) throws SQLException {
+      InstrumentRegistry registry = getInstrumentRegistry();
       
-      Connection con = DriverManager.getConnection(getDbUrl());
+      List<String> missing = new ArrayList<String>();
+      for(String symbol : symbols) {
+         if(!registry.contains(symbol)) missing.add(symbol);
+      }
+      if(missing.size() == 0) return registry;
       
-      InstrumentVariation result = null;
+      HashMap<String, Instrument> instruments = new HashMap<String, Instrument>();
+      HashMap<String, Map<String, InstrumentVariation>> variations = new HashMap<String, Map<String, InstrumentVariation>>();
       
-      if(getInstrumentsVariationsTable() != null) {
-         String query = "SELECT symbol,factor,tick " +
-                        "FROM " + getInstrumentsVariationsTable() + " " +
-                        "WHERE original_symbol=? AND original_provider=? AND provider=?";
-         PreparedStatement stmt = con.prepareStatement(query);
-         stmt.setString(1, symbol);
-         stmt.setString(2, getInstrumentProvider());
-         stmt.setString(3, provider);
-         ResultSet rs = stmt.executeQuery();
-         
-         if(rs.next()) {
-            result = new InstrumentVariation(rs.getString(1), rs.getBigDecimal(2).doubleValue(), rs.getBigDecimal(3).doubleValue());
+      if(getInstrumentsTable() != null || getInstrumentsVariationsTable() != null) {
+         Connection con = DriverManager.getConnection(getDbUrl());
+         try {
+            for(int ii = 0; ii < missing.size(); ii += MAX_SYMBOLS_PER_QUERY) {
+               List<String> chunk = missing.subList(ii, Math.min(missing.size(), ii + MAX_SYMBOLS_PER_QUERY));
+               if(getInstrumentsTable() != null) loadInstruments(con, chunk, instruments);
+               if(getInstrumentsVariationsTable() != null) loadInstrumentVariations(con, chunk, variations);
+            }
+         } finally {
+            con.close();
          }
       }
       
-      con.close();
+      for(String symbol : missing) {
+         // If a default instrument was set, use it
+         if(instruments.get(symbol) == null && defaultInstrument != null) {
+            instruments.put(symbol, Instrument.make(Instrument.Type.valueOf(defaultInstrument), symbol));
+         } else if(!instruments.containsKey(symbol)) {
+            // Not found, remembered as such
+            instruments.put(symbol, null);
+         }
+      }
       
-      return result;
+      return InstrumentRegistry.addShared(getInstrumentSource(), instruments, variations);
    }
    
-   private Instrument loadInstrument(String symbol) throws SQLException {
-      
-      Instrument result = null;
-      
-      Connection con = DriverManager.getConnection(getDbUrl());
-      
-      String query = "SELECT type,tick,bpv,comment,exchange " +
+   private static String placeholders(int count) {
+      StringBuilder sb = new StringBuilder("?");
+      for(int ii = 1; ii < count; ++ii) sb.append(",?");
+      return sb.toString();
+   }
+   
+   private void loadInstruments(Connection con, List<String> symbols, Map<String, Instrument> instruments) throws SQLException {
+      String query = "SELECT symbol,type,tick,bpv,comment,exchange " +
                      "FROM " + getInstrumentsTable() + " " +
-                     "WHERE symbol=? AND provider=?";
+                     "WHERE provider=? AND symbol IN (" + placeholders(symbols.size()) + ")";
       PreparedStatement stmt = con.prepareStatement(query);
-      stmt.setString(1, symbol);
-      stmt.setString(2, getInstrumentProvider());
+      stmt.setString(1, getInstrumentProvider());
+      for(int ii = 0; ii < symbols.size(); ++ii) stmt.setString(ii + 2, symbols.get(ii));
       ResultSet rs = stmt.executeQuery();
       
-      if(rs.next()) {
-         String type = rs.getString(1);
+      while(rs.next()) {
+         String symbol = rs.getString(1);
+         String type = rs.getString(2);
          String comment;
+         Instrument result = null;
          switch(type) {
          case "FUT":
-            result = Instrument.makeFuture(symbol, rs.getBigDecimal(2), rs.getBigDecimal(3), rs.getString(4));
+            result = Instrument.makeFuture(symbol, rs.getBigDecimal(3), rs.getBigDecimal(4), rs.getString(5));
             break;
          case "FX":
-            comment = rs.getString(4);
-            result = Instrument.makeForex(symbol, rs.getBigDecimal(2), comment.substring(3));
+            comment = rs.getString(5);
+            result = Instrument.makeForex(symbol, rs.getBigDecimal(3), comment.substring(3));
             result.setName(comment);
             break;
          case "CASH":
@@ -373,29 +593,39 @@ public class SQLDataFeed extends HistoricalDataFeed {
             result = Instrument.makeIndex(symbol);
             break;
          }
+         
+         // The first row wins, as with a single symbol query
+         if(!instruments.containsKey(symbol)) instruments.put(symbol, result);
       }
       
       stmt.close();
-      con.close();
+   }
+   
+   private void loadInstrumentVariations(Connection con, List<String> symbols,
+                                         Map<String, Map<String, InstrumentVariation>> variations) throws SQLException {
+      String query = "SELECT original_symbol,provider,symbol,factor,tick " +
+                     "FROM " + getInstrumentsVariationsTable() + " " +
+                     "WHERE original_provider=? AND original_symbol IN (" + placeholders(symbols.size()) + ")";
+      PreparedStatement stmt = con.prepareStatement(query);
+      stmt.setString(1, getInstrumentProvider());
+      for(int ii = 0; ii < symbols.size(); ++ii) stmt.setString(ii + 2, symbols.get(ii));
+      ResultSet rs = stmt.executeQuery();
       
-      // If a default instrument was set, use it
-      if(result == null && defaultInstrument != null) {
-         result = Instrument.make(Instrument.Type.valueOf(defaultInstrument), symbol);
+      while(rs.next()) {
+         String symbol = rs.getString(1);
+         String provider = rs.getString(2);
+         Map<String, InstrumentVariation> byProvider = variations.get(symbol);
+         if(byProvider == null) {
+            byProvider = new HashMap<String, InstrumentVariation>();
+            variations.put(symbol, byProvider);
+         }
+         
+         // The first row wins, as with a single symbol query
+         if(!byProvider.containsKey(provider)) {
+            byProvider.put(provider, new InstrumentVariation(rs.getString(3), rs.getBigDecimal(4).doubleValue(), rs.getBigDecimal(5).doubleValue()));
+         }
       }
       
-      return result;
-   }
-   
-   private void newInstrumentCache() {
-      CacheLoader<String, Instrument> cl =
-            new CacheLoader<String, Instrument>() {
-               public Instrument load(String symbol) throws SQLException {
-                  return loadInstrument(symbol);
-               }
-            };
-      instrumentCache = CacheBuilder
-                           .newBuilder()
-                           .maximumSize(1000)
-                           .build(cl);
+      stmt.close();
    }
 }
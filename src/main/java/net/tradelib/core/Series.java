@@ -20,22 +20,31 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
 
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
 
+import com.google.common.primitives.Doubles;
+
+/**
+ * @brief A time series of doubles, with one or more columns.
+ *
+ * The index is stored as epoch nanoseconds (see EpochTime) and each
+ * column as a primitive array. The arrays grow by doubling on "append".
+ */
 public class Series implements Cloneable {
-   private List<LocalDateTime> index;
-   List<List<Double>> data;
+   private static final int INITIAL_CAPACITY = 16;
+   
+   private long [] index;
+   double [][] data;
+   private int size;
    
    // The names of the data columns
    private HashMap<String, Integer> columnNames;
@@ -100,16 +109,20 @@ public class Series implements Cloneable {
    }
    
    public Series(int ncols) {
-      index = new ArrayList<LocalDateTime>();
-      data = new ArrayList<List<Double>>(ncols);
-      for(int ii = 0; ii < ncols; ++ii) {
-         data.add(new ArrayList<Double>());
-      }
+      this(ncols, INITIAL_CAPACITY);
+   }
+   
+   public Series(int ncols, int capacity) {
+      capacity = Math.max(capacity, 1);
+      index = new long[capacity];
+      data = new double[ncols][capacity];
+      size = 0;
       columnNames = new HashMap<String, Integer>();
    }
    
    public double get(int rowId, int colId) {
-      return data.get(colId).get(rowId);
+      checkRow(rowId);
+      return data[colId][rowId];
    }
    
    public double get(int rowId) {
@@ -121,39 +134,63 @@ public class Series implements Cloneable {
    }
    
    public LocalDateTime getTimestamp(int rowId) {
-      return index.get(rowId);
+      return EpochTime.fromNanos(getEpochNanos(rowId));
+   }
+   
+   public long getEpochNanos(int rowId) {
+      checkRow(rowId);
+      return index[rowId];
    }
    
    public double get(LocalDateTime ts, int colId) {
-      int rowId = Collections.binarySearch(index, ts);
+      int rowId = Arrays.binarySearch(index, 0, size, EpochTime.toNanos(ts));
       if(rowId < 0) {
          throw new BadIndexException(ts.format(DateTimeFormatter.ofPattern("yyyy-MM-dd")) + " is not in the index");
       }
-      return data.get(colId).get(rowId);
+      return data[colId][rowId];
    }
    
    public double get(LocalDateTime ts, String colName) {
       return get(ts, columnNames.get(colName));
    }
    
+   /**
+    * @brief A list view of the column.
+    * 
+    * The values can be changed through the view, but not added or removed.
+    * The view is invalidated by "append".
+    */
    public List<Double> getColumn(int colId) {
-      return data.get(colId);
+      return Doubles.asList(data[colId]).subList(0, size);
    }
    
    public List<Double> getColumn() {
-      return data.get(0);
+      return getColumn(0);
+   }
+   
+   /**
+    * @brief A copy of the column.
+    */
+   public double [] toArray(int colId) {
+      return Arrays.copyOf(data[colId], size);
+   }
+   
+   public double [] toArray() {
+      return toArray(0);
    }
    
    public void set(int row, double value) {
-      data.get(0).set(row, value);
+      set(row, 0, value);
    }
    
    public void set(int row, int col, double value) {
-      data.get(col).set(row, value);
+      checkRow(row);
+      data[col][row] = value;
    }
    
    public void set(int row, LocalDateTime ts) {
-      index.set(row, ts);
+      checkRow(row);
+      index[row] = EpochTime.toNanos(ts);
    }
    
    public void set(int row, LocalDateTime ts, double ...args) {
@@ -184,105 +221,119 @@ public class Series implements Cloneable {
    }
    
    public int size() {
-      return index.size();
+      return size;
    }
    
    public void append(LocalDateTime ts, double ...args) {
-      index.add(ts);
-      int endLoop = Math.min(args.length, data.size());
+      append(EpochTime.toNanos(ts), args);
+   }
+   
+   /**
+    * @brief Appends a row. Missing values are filled with the last argument.
+    */
+   public void append(long epochNanos, double ...args) {
+      ensureCapacity(size + 1);
+      index[size] = epochNanos;
+      int endLoop = Math.min(args.length, data.length);
       for(int ii = 0; ii < endLoop; ++ii) {
-         data.get(ii).add(args[ii]);
+         data[ii][size] = args[ii];
       }
-      for(int ii = endLoop; ii < data.size(); ++ii) {
-         data.get(ii).add(args[args.length - 1]);
+      for(int ii = endLoop; ii < data.length; ++ii) {
+         data[ii][size] = args[args.length - 1];
       }
+      ++size;
    }
    
+   /**
+    * @brief A copy of the first rows.
+    * 
+    * A negative argument excludes as many rows from the end.
+    */
    public Series head(int rows) {
       if(rows < 0) {
          if(Math.abs(rows) > size()) return null;
          rows = size() + rows;
       } else if(rows > size()){
-         return this;
-      }
-      Series result = new Series();
-      result.index = index.subList(0, rows);
-      result.data = new ArrayList<List<Double>>(data.size());
-      for(int ii = 0; ii < data.size(); ++ii) {
-         result.data.add(data.get(ii).subList(0, rows));
-      }
-      if(columnNames != null) {
-         result.columnNames = new HashMap<String, Integer>(columnNames);
+         rows = size();
       }
-      return result;
+      return copyOfRange(0, rows);
    }
    
+   /**
+    * @brief A copy of the last rows.
+    * 
+    * A negative argument excludes as many rows from the beginning.
+    */
    public Series tail(int rows) {
       if(rows < 0) rows = size() + rows;
+      return copyOfRange(size() - rows, size());
+   }
+   
+   private Series copyOfRange(int from, int to) {
       Series result = new Series();
-      result.index = index.subList(size() - rows, size());
-      result.data = new ArrayList<List<Double>>(data.size());
-      for(int ii = 0; ii < data.size(); ++ii) {
-         result.data.add(data.get(ii).subList(size() - rows, size()));
+      result.index = Arrays.copyOfRange(index, from, Math.max(to, from + 1));
+      result.data = new double[data.length][];
+      for(int ii = 0; ii < data.length; ++ii) {
+         result.data[ii] = Arrays.copyOfRange(data[ii], from, Math.max(to, from + 1));
       }
+      result.size = to - from;
       if(columnNames != null) {
          result.columnNames = new HashMap<String, Integer>(columnNames);
       }
       return result;
    }
    
-   private TreeMap<LocalDateTime,Integer> buildDailyIndex() {
-      TreeMap<LocalDateTime,Integer> result = new TreeMap<LocalDateTime, Integer>();
-      int ii = 0;
-      while(ii < size()) {
-         LocalDate ld = index.get(ii).toLocalDate();
-         int jj = ii + 1;
-         for(; jj < size(); ++jj) {
-            if(!index.get(jj).toLocalDate().equals(ld)) {
-               break;
-            }
-         }
-         --jj;
-         
-         result.put(ld.atStartOfDay(), jj - ii + 1);
-         
-         ii = jj + 1;
-      }
-         
-      return result;
-   }
-   
    public Series toDaily(BinaryOperator<Double> accumulator) {
       return toDaily(0.0, accumulator);
    }
    
    public Series toDaily(double identity, BinaryOperator<Double> accumulator) {
-      TreeMap<LocalDateTime,Integer> newIndex = buildDailyIndex();
-      Series result = new Series();
-      int numUnique = newIndex.size();
-      result.index = new ArrayList<LocalDateTime>(numUnique);
-      result.data = new ArrayList<List<Double>>(data.size());
-      for(int ii = 0; ii < data.size(); ++ii) {
-         result.data.add(new ArrayList<Double>(newIndex.size()));
+      return toDailyDouble(identity, (double x, double y) -> accumulator.apply(x, y));
+   }
+   
+   /**
+    * @brief The same as "toDaily", without boxing the values.
+    * 
+    * A separate name, so implicitly typed lambdas passed to "toDaily"
+    * remain unambiguous.
+    */
+   public Series toDailyDouble(DoubleBinaryOperator accumulator) {
+      return toDailyDouble(0.0, accumulator);
+   }
+   
+   /**
+    * @brief Aggregates the rows for each day.
+    * 
+    * The rows must be ordered. Each day is reduced, starting from "identity",
+    * to a single row, timestamped at the start of the day.
+    */
+   public Series toDailyDouble(double identity, DoubleBinaryOperator accumulator) {
+      // Count the days first, to size the result exactly
+      int days = 0;
+      for(int ii = 0; ii < size; ++ii) {
+         if(ii == 0 || EpochTime.startOfDay(index[ii]) != EpochTime.startOfDay(index[ii - 1])) ++days;
       }
       
-      int currentIndex = 0;
-      Iterator<Map.Entry<LocalDateTime, Integer>> iter = newIndex.entrySet().iterator();
-      while(iter.hasNext()) {
-         Map.Entry<LocalDateTime, Integer> entry = iter.next();
-         result.append(entry.getKey(), 0.0);
-         int lastIndex = result.size() - 1;
-         for(int jj = 0; jj < data.size(); ++jj) {
-            result.set(lastIndex, data.get(jj).subList(currentIndex, currentIndex + entry.getValue()).stream().reduce(identity, accumulator));
+      Series result = new Series(data.length, days);
+      int begin = 0;
+      while(begin < size) {
+         long day = EpochTime.startOfDay(index[begin]);
+         int end = begin + 1;
+         while(end < size && EpochTime.startOfDay(index[end]) == day) ++end;
+         
+         int row = result.size;
+         result.index[row] = day;
+         for(int jj = 0; jj < data.length; ++jj) {
+            double [] column = data[jj];
+            double value = identity;
+            for(int ii = begin; ii < end; ++ii) {
+               value = accumulator.applyAsDouble(value, column[ii]);
+            }
+            result.data[jj][row] = value;
          }
-         currentIndex += entry.getValue();
-//         result.append(entry.getKey(), 0.0);
-//         int lastIndex = result.size() - 1;
-//         for(int ii = 0; ii < entry.getValue(); ++ii, ++currentIndex) {
-//            for(int jj = 0; jj < data.size(); ++jj) {
-//               result.set(lastIndex, jj, result.get(lastIndex, jj) + get(currentIndex, jj));
-//            }
-//         }
+         ++result.size;
+         
+         begin = end;
       }
       
       if(columnNames != null) {
@@ -294,10 +345,10 @@ public class Series implements Cloneable {
    
    public void print(DateTimeFormatter dtf) {
       for(int ii = 0; ii < size(); ++ii) {
-         System.out.print(index.get(ii).format(dtf) + ": ");
-         System.out.format("%,.2f", data.get(0).get(ii));
-         for(int jj = 1; jj < data.size(); ++jj) {
-            System.out.format(", %,.2f", data.get(jj).get(ii));
+         System.out.print(getTimestamp(ii).format(dtf) + ": ");
+         System.out.format("%,.2f", data[0][ii]);
+         for(int jj = 1; jj < data.length; ++jj) {
+            System.out.format(", %,.2f", data[jj][ii]);
          }
          System.out.println();
       }
@@ -315,38 +366,39 @@ public class Series implements Cloneable {
    }
    
    public int columns() {
-      return data.size();
+      return data.length;
    }
    
    public boolean isOrdered() {
-      for(int ii = 1; ii < index.size(); ++ii) {
-         if(index.get(ii).isBefore(index.get(ii-1))) return false;
+      for(int ii = 1; ii < size; ++ii) {
+         if(index[ii] < index[ii-1]) return false;
       }
       return true;
    }
    
+   private void checkRow(int rowId) {
+      if(rowId < 0 || rowId >= size) {
+         throw new IndexOutOfBoundsException("Row: " + rowId + ", size: " + size);
+      }
+   }
+   
+   private void ensureCapacity(int capacity) {
+      if(capacity <= index.length) return;
+      
+      int newCapacity = Math.max(capacity, 2*index.length);
+      index = Arrays.copyOf(index, newCapacity);
+      for(int ii = 0; ii < data.length; ++ii) {
+         data[ii] = Arrays.copyOf(data[ii], newCapacity);
+      }
+   }
+   
    /**
     * @brief Clones (deep copy) of the object.
     * 
     * @return The copy.
     */
    public Series clone() {
-      Series result = new Series();
-      
-      result.index = new ArrayList<LocalDateTime>(index);
-      
-      result.data = new ArrayList<List<Double>>(data.size());
-      for(int ii = 0; ii < data.size(); ++ii) {
-         ArrayList<Double> column = new ArrayList<Double>();
-         column.addAll(data.get(ii));
-         result.data.add(column);
-      }
-      
-      if(columnNames != null) {
-         result.columnNames = new HashMap<String, Integer>(columnNames);
-      }
-      
-      return result;     
+      return copyOfRange(0, size);
    }
    
    /**
@@ -358,35 +410,16 @@ public class Series implements Cloneable {
     * @return The lagged (shifted) time series.
     */
    public Series lag(int k) {
-      if(k < 0) {
-         int ii = 0;
-         int jj = -k;
-         for(; jj < index.size(); ++ii, ++jj) {
-            for(int col = 0; col < data.size(); ++col) {
-               data.get(col).set(ii, data.get(col).get(jj));
-            }
-         }
-         
-         // Set to NA for the rest
-         for(; ii < index.size(); ++ii) {
-            for(int col = 0; col < data.size(); ++col) {
-               data.get(col).set(ii, Double.NaN);
-            }
-         }
-      } else if(k > 0) {
-         int ii = size() - 1;
-         int jj = ii - k;
-         for(; jj >= 0; --ii, --jj) {
-            for(int col = 0; col < data.size(); ++col) {
-               data.get(col).set(ii, data.get(col).get(jj));
-            }
-         }
-         
-         // Set to NA for the rest
-         for(; ii >= 0; --ii) {
-            for(int col = 0; col < data.size(); ++col) {
-               data.get(col).set(ii, Double.NaN);
-            }
+      for(int col = 0; col < data.length; ++col) {
+         double [] column = data[col];
+         if(Math.abs(k) >= size) {
+            Arrays.fill(column, 0, size, Double.NaN);
+         } else if(k < 0) {
+            System.arraycopy(column, -k, column, 0, size + k);
+            Arrays.fill(column, size + k, size, Double.NaN);
+         } else if(k > 0) {
+            System.arraycopy(column, 0, column, k, size - k);
+            Arrays.fill(column, 0, k, Double.NaN);
          }
       }
 
@@ -404,4 +437,3 @@ public class Series implements Cloneable {
       return lag(1);
    }
 }
- 
\ No newline at end of file
@@ -0,0 +1,216 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @brief Runs a data feed once and replays its bars to many consumers.
+ *
+ * Each consumer is a HistoricalDataFeed on its own, so it can be plugged into
+ * a HistoricalReplay like any other feed. The usage scenario is:
+ *
+ *    1. Create a consumer per client using "newConsumer".
+ *
+ *    2. On a separate thread per consumer, subscribe and "start" the
+ *    consumer (usually indirectly, via Strategy.start). The consumer's
+ *    start blocks until the shared feed is exhausted.
+ *
+ *    3. "start" the shared feed. It waits until all consumers have been
+ *    started (or closed), subscribes the source to the union of their
+ *    subscriptions and hands the bars over, one period at a time.
+ *
+ * Each consumer receives only the bars for its own subscriptions, within
+ * its own feed start and feed stop (the source's range applies to all). The bar
+ * objects are shared between the consumers, thus they must not be modified.
+ * The number of periods queued per consumer is bounded, so a slow consumer
+ * slows down the source instead of accumulating the whole history in memory.
+ */
+public class SharedDataFeed implements IBarListener {
+
+   // Marks the end of the stream
+   private static final List<Bar> END = Collections.emptyList();
+
+   private HistoricalDataFeed source;
+   private int queueCapacity;
+
+   private List<Consumer> consumers = new ArrayList<Consumer>();
+   private int notReady = 0;
+   private boolean started = false;
+
+   private LocalDateTime periodTimestamp = null;
+   private List<Bar> periodBars = new ArrayList<Bar>();
+
+   public SharedDataFeed(HistoricalDataFeed source) {
+      this(source, 64);
+   }
+
+   /**
+    * @param source The feed to read the bars from
+    * @param queueCapacity The maximum number of periods buffered per consumer
+    */
+   public SharedDataFeed(HistoricalDataFeed source, int queueCapacity) {
+      this.source = source;
+      this.queueCapacity = queueCapacity;
+      source.addBarListener(this);
+   }
+
+   public HistoricalDataFeed getSource() { return source; }
+
+   public synchronized HistoricalDataFeed newConsumer() {
+      if(started) throw new IllegalStateException("Consumers must be created before the shared feed is started.");
+
+      Consumer consumer = new Consumer();
+      consumers.add(consumer);
+      ++notReady;
+      return consumer;
+   }
+
+   /**
+    * @brief Waits for the consumers and runs the source feed.
+    *
+    * Returns when the source is exhausted and the end of the stream has
+    * been queued to all consumers.
+    */
+   public void start() throws Exception {
+      synchronized(this) {
+         started = true;
+         while(notReady > 0) wait();
+      }
+
+      try {
+         for(Consumer consumer : consumers) {
+            if(consumer.closed) continue;
+            for(String symbol : consumer.getSubscriptions()) source.subscribe(symbol);
+         }
+
+         source.start();
+
+         // The final period
+         flush();
+      } finally {
+         for(Consumer consumer : consumers) consumer.deliver(END);
+      }
+   }
+
+   /**
+    * @brief Releases a consumer.
+    *
+    * Must be called once the consumer's client is done (including on
+    * failure), so that the shared feed never waits on it.
+    */
+   public void close(HistoricalDataFeed feed) {
+      Consumer consumer = (Consumer)feed;
+      consumer.closed = true;
+      consumer.ready();
+   }
+
+   @Override
+   public void barNotification(Bar bar) throws Exception {
+      if(periodTimestamp != null && !bar.getDateTime().equals(periodTimestamp)) {
+         flush();
+      }
+      periodTimestamp = bar.getDateTime();
+      periodBars.add(bar);
+   }
+
+   private void flush() throws InterruptedException {
+      if(periodBars.isEmpty()) return;
+
+      for(Consumer consumer : consumers) {
+         if(consumer.closed || !consumer.inRange(periodTimestamp)) continue;
+
+         List<Bar> bars = new ArrayList<Bar>(periodBars.size());
+         for(Bar bar : periodBars) {
+            if(consumer.subscriptions.contains(bar.getSymbol())) bars.add(bar);
+         }
+
+         if(!bars.isEmpty()) consumer.deliver(bars);
+      }
+
+      periodBars.clear();
+   }
+
+   private class Consumer extends HistoricalDataFeed {
+
+      private BlockingQueue<List<Bar>> queue = new ArrayBlockingQueue<List<Bar>>(queueCapacity);
+      private volatile boolean closed = false;
+      private boolean isReady = false;
+
+      HashSet<String> getSubscriptions() { return subscriptions; }
+      
+      // The range is set before "start", thus visible to the source thread after "ready"
+      boolean inRange(LocalDateTime ts) {
+         return (feedStart == null || !ts.isBefore(feedStart)) && (feedStop == null || !ts.isAfter(feedStop));
+      }
+
+      void ready() {
+         synchronized(SharedDataFeed.this) {
+            if(!isReady) {
+               isReady = true;
+               --notReady;
+               SharedDataFeed.this.notifyAll();
+            }
+         }
+      }
+
+      void deliver(List<Bar> bars) throws InterruptedException {
+         // A consumer may fail while the queue is full, check periodically
+         while(!closed) {
+            if(queue.offer(bars, 100, TimeUnit.MILLISECONDS)) break;
+         }
+      }
+
+      @Override
+      public void configure(String config) throws Exception {
+      }
+
+      @Override
+      public void start() throws Exception {
+         ready();
+
+         try {
+            while(true) {
+               List<Bar> bars = queue.take();
+               if(bars == END) break;
+
+               for(Bar bar : bars) {
+                  for(IBarListener listener : barListeners) listener.barNotification(bar);
+               }
+            }
+         } catch(Exception ee) {
+            closed = true;
+            throw ee;
+         }
+      }
+
+      @Override
+      public Instrument getInstrument(String symbol) throws Exception {
+         return source.getInstrument(symbol);
+      }
+
+      @Override
+      public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception {
+         return source.getInstrumentVariation(provider, symbol);
+      }
+   }
+}
@@ -14,6 +14,9 @@
 
 package net.tradelib.core;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -23,16 +26,14 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
-import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
@@ -65,6 +66,14 @@ public abstract class Strategy implements IBrokerListener {
    protected boolean maintainAccount = true;
    // True if old positions should be deleted from the database
    protected boolean cleanupPositions = true;
+   // Commit the results every so many rows, 0 to commit once
+   protected int commitChunk = 0;
+   
+   private ResultsWriter resultsWriter = null;
+   
+   public void setCommitChunk(int n) {
+      this.commitChunk = n;
+   }
    
    public void setCleanupPositions(boolean b) {
       this.cleanupPositions = b;
@@ -126,42 +135,16 @@ public abstract class Strategy implements IBrokerListener {
       // Load the strategy unique id from the "strategies" table
       getDbId();
 
-      String query = "DELETE FROM executions WHERE strategy_id=?"; 
-      PreparedStatement stmt = connection.prepareStatement(query);
-      stmt.setLong(1, dbId);
-      stmt.executeUpdate();
-      stmt.close();
-      
-      query = "DELETE FROM trades WHERE strategy_id=?"; 
-      stmt = connection.prepareStatement(query);
-      stmt.setLong(1, dbId);
-      stmt.executeUpdate();
-      stmt.close();
+      // All deletes in a single round trip
+      List<String> tables = new ArrayList<String>(
+               Arrays.asList("executions", "trades", "pnls", "trade_summaries", "end_equity"));
+      if(cleanupPositions) tables.add("strategy_positions");
       
-      query = "DELETE FROM pnls WHERE strategy_id=?"; 
-      stmt = connection.prepareStatement(query);
-      stmt.setLong(1, dbId);
-      stmt.executeUpdate();
-      stmt.close();
-      
-      query = "DELETE FROM trade_summaries WHERE strategy_id=?"; 
-      stmt = connection.prepareStatement(query);
-      stmt.setLong(1, dbId);
-      stmt.executeUpdate();
-      stmt.close();
-      
-      if(cleanupPositions) {
-         query = "DELETE FROM strategy_positions WHERE strategy_id=?"; 
-         stmt = connection.prepareStatement(query);
-         stmt.setLong(1, dbId);
-         stmt.executeUpdate();
-         stmt.close();
+      Statement stmt = connection.createStatement();
+      for(String table : tables) {
+         stmt.addBatch("DELETE FROM " + table + " WHERE strategy_id=" + Long.toString(dbId));
       }
-      
-      query = "DELETE FROM end_equity WHERE strategy_id=?"; 
-      stmt = connection.prepareStatement(query);
-      stmt.setLong(1, dbId);
-      stmt.executeUpdate();
+      stmt.executeBatch();
       stmt.close();
       
       connection.commit();
@@ -201,181 +184,146 @@ public abstract class Strategy implements IBrokerListener {
       stmt.close();
    }
    
-   public void writeExecutions() throws SQLException {
-      
-      connectIfNecessary();
-
-      getDbId();
+   /**
+    * @brief The writer used for all results.
+    * 
+    * Reuses the prepared statements across calls and instruments.
+    */
+   protected ResultsWriter getResultsWriter() throws SQLException {
+      if(resultsWriter == null) {
+         connectIfNecessary();
+         getDbId();
+         resultsWriter = new ResultsWriter(connection, dbId, commitChunk);
+      }
+      return resultsWriter;
+   }
+   
+   /**
+    * @brief Writes all results: executions, trades, PnLs, trade summaries,
+    * equity and the totals.
+    * 
+    * Everything is written in a single transaction, unless a commit chunk
+    * is set.
+    */
+   public void writeResults() throws Exception {
+      ResultsWriter writer = getResultsWriter();
+      addExecutions(writer);
+      List<TradingResults> results = addAllTrades(writer);
+      addEquity(writer);
       
-      String query = "INSERT INTO executions(symbol,strategy_id,ts,price,quantity,signal_name) VALUES (?,?,?,?,?,?)";
-      PreparedStatement stmt = connection.prepareStatement(query);
+      // Commits
+      totalTradeStats("TOTAL", results);
+   }
+   
+   public void writeExecutions() throws SQLException {
+      ResultsWriter writer = getResultsWriter();
+      addExecutions(writer);
+      writer.commit();
+   }
+   
+   private void addExecutions(ResultsWriter writer) throws SQLException {
       for(Execution execution : executions) {
-         stmt.setString(1, execution.getSymbol());
-         stmt.setLong(2, dbId);
-         stmt.setTimestamp(3, Timestamp.valueOf(execution.getDateTime()));
-         stmt.setDouble(4, execution.getPrice());
-         stmt.setLong(5, execution.getQuantity());
-         stmt.setString(6, execution.getSignal());
-         // stmt.executeUpdate();
-         stmt.addBatch();
+         writer.addExecution(execution);
       }
-      stmt.executeBatch();
-      connection.commit();
    }
    
    public void writeExecutionsAndTrades() throws Exception {
-      writeExecutions();
-      writeTrades();
+      ResultsWriter writer = getResultsWriter();
+      addExecutions(writer);
+      addAllTrades(writer);
+      writer.commit();
    }
    
    public void writeTrades() throws Exception {
+      ResultsWriter writer = getResultsWriter();
+      addAllTrades(writer);
+      writer.commit();
+   }
+   
+   public void writeTrades(Instrument instrument) throws Exception {
+      ResultsWriter writer = getResultsWriter();
+      addTrades(writer, instrument);
+      writer.commit();
+   }
+   
+   /**
+    * @brief Adds the PnL, the trades and the trade summaries of all instruments.
+    * 
+    * The trading results are computed in parallel, since they only read the
+    * account. The writer is used from the calling thread only.
+    */
+   private List<TradingResults> addAllTrades(ResultsWriter writer) throws Exception {
+      List<Instrument> instruments = getPortfolioInstruments();
+      List<TradingResults> results = getTradingResults(instruments);
+      for(int ii = 0; ii < instruments.size(); ++ii) {
+         addTrades(writer, instruments.get(ii), results.get(ii));
+      }
+      return results;
+   }
+   
+   private List<Instrument> getPortfolioInstruments() throws Exception {
+      List<Instrument> instruments = new ArrayList<Instrument>();
       for(String symbol : account.getPortfolioSymbols()) {
-         writeTrades(broker.getInstrument(symbol));
+         instruments.add(broker.getInstrument(symbol));
       }
+      return instruments;
    }
    
-   public void writeTrades(Instrument instrument) throws Exception {
-      BarHistory history = barData.getHistory(instrument.getSymbol(), Duration.ofDays(1));
-      Series pnl = account.getPnlSeries(instrument);
+   private List<TradingResults> getTradingResults(List<Instrument> instruments) {
+      return instruments.parallelStream()
+               .map(instrument -> account.getPortfolioTradingResults(instrument))
+               .collect(Collectors.toList());
+   }
+   
+   private void addTrades(ResultsWriter writer, Instrument instrument) throws Exception {
+      addTrades(writer, instrument, account.getPortfolioTradingResults(instrument));
+   }
+   
+   private void addTrades(ResultsWriter writer, Instrument instrument, TradingResults tr) throws Exception {
+      // The PnL series isn't modified by the trade summaries
+      Series pnl = tr.pnl;
       if(pnl.size() == 0) return;
       
-      connectIfNecessary();
-      
-      getDbId();
-
-      long start = System.nanoTime();
-      
       // Write the PnL
-      String query = " REPLACE INTO pnls(strategy_id,symbol,ts,pnl) VALUES (?,?,?,?) ";
-      PreparedStatement stmt = connection.prepareStatement(query);
-      stmt.setLong(1, dbId);
-      stmt.setString(2, instrument.getSymbol());
       for(int ii = 0; ii < pnl.size(); ++ii) {
-         stmt.setTimestamp(3, Timestamp.valueOf(pnl.getTimestamp(ii)));
-         stmt.setDouble(4, pnl.get(ii));
-         stmt.addBatch();
+         writer.addPnl(instrument.getSymbol(), pnl.getTimestamp(ii), pnl.get(ii));
       }
-      stmt.executeBatch();
-      connection.commit();
-      stmt.close();
-      
-      long elapsedTime = System.nanoTime() - start;
-      // System.out.println("pnls insert took " + String.format("%.4f secs",(double)elapsedTime/1e9));
       
-      TradingResults tr = account.getPortfolioTradingResults(instrument);
-      // TradingResults trold = portfolio.getTradingResults(instrument);
       // Write the trade statistics
-      if(tr.stats.size() > 0) {
-         
-         query = " INSERT INTO trades(strategy_id,symbol,start,end,initial_position, " +
-                 "       max_position,num_transactions,pnl,pct_pnl,tick_pnl,fees) " +
-                 " VALUES(?,?,?,?,?,?,?,?,?,?,?)";
-         stmt = connection.prepareStatement(query);
-         stmt.setLong(1, dbId);
-         stmt.setString(2, instrument.getSymbol());
-         start = System.nanoTime();
-         int ii = 0;
-         for(Trade tradeStats : tr.stats) {
-            stmt.setTimestamp(3, Timestamp.valueOf(tradeStats.start));
-            stmt.setTimestamp(4, Timestamp.valueOf(tradeStats.end));
-            stmt.setLong(5, tradeStats.initialPosition);
-            stmt.setLong(6, tradeStats.maxPosition);
-            stmt.setLong(7, tradeStats.numTransactions);
-            // System.out.println(tradeStats.pnl);
-            stmt.setDouble(8, tradeStats.pnl);
-            stmt.setDouble(9, tradeStats.pctPnl);
-            stmt.setDouble(10, tradeStats.tickPnl);
-            stmt.setDouble(11, tradeStats.fees);
-//            Trade oldTradeStats = trold.stats.get(ii);
-//            if(tradeStats.pnl != oldTradeStats.pnl ||
-//               tradeStats.numTransactions != oldTradeStats.numTransactions ||
-//               tradeStats.initialPosition != oldTradeStats.initialPosition) {
-//               
-//               throw new Exception("Alternative trade statitics don't match!");
-//            }
-            stmt.executeUpdate();
-            
-            ++ii;
-         }
-         connection.commit();
-         stmt.close();
-         
-         elapsedTime = System.nanoTime() - start;
-         // System.out.println("trades insert took " + String.format("%.4f secs",(double)elapsedTime/1e9));
+      for(Trade trade : tr.stats) {
+         writer.addTrade(instrument.getSymbol(), trade);
       }
       
-      writeTradeSummary(instrument, "All", tr.all);
-      writeTradeSummary(instrument, "Long", tr.longs);
-      writeTradeSummary(instrument, "Short", tr.shorts);
-      
-      connection.commit();
+      writer.addTradeSummary(instrument.getSymbol(), "All", tr.all);
+      writer.addTradeSummary(instrument.getSymbol(), "Long", tr.longs);
+      writer.addTradeSummary(instrument.getSymbol(), "Short", tr.shorts);
    }
    
    protected void writeTradeSummary(String symbol, String type, TradeSummary tradeSummary) throws SQLException {
-      
-      connectIfNecessary();
-      
-      if(tradeSummary.numTrades > 0) {
-         String query = " INSERT INTO trade_summaries (strategy_id,symbol,type,num_trades,gross_profits, " +
-                        "      gross_losses,profit_factor,average_daily_pnl,daily_pnl_stddev,sharpe_ratio, " +
-                        "      average_trade_pnl,trade_pnl_stddev,pct_positive,pct_negative,max_win,max_loss, " +
-                        "      average_win,average_loss,average_win_loss,equity_min,equity_max,max_drawdown, " +
-                        "      max_drawdown_pct) " +
-                        " VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
-         PreparedStatement stmt = connection.prepareStatement(query);
-         stmt.setLong(1, dbId);
-         stmt.setString(2, symbol);
-         stmt.setString(3, type);
-         stmt.setLong(4, tradeSummary.numTrades);
-         setDoubleParam(stmt, 5, tradeSummary.grossProfits);
-         setDoubleParam(stmt, 6, tradeSummary.grossLosses);
-         setDoubleParam(stmt, 7, tradeSummary.profitFactor);
-         setDoubleParam(stmt, 8, tradeSummary.averageDailyPnl);
-         setDoubleParam(stmt, 9, tradeSummary.dailyPnlStdDev);
-         setDoubleParam(stmt, 10, tradeSummary.sharpeRatio);
-         setDoubleParam(stmt, 11, tradeSummary.averageTradePnl);
-         setDoubleParam(stmt, 12, tradeSummary.tradePnlStdDev);
-         setDoubleParam(stmt, 13, tradeSummary.pctPositive);
-         setDoubleParam(stmt, 14, tradeSummary.pctNegative);
-         setDoubleParam(stmt, 15, tradeSummary.maxWin);
-         setDoubleParam(stmt, 16, tradeSummary.maxLoss);
-         setDoubleParam(stmt, 17, tradeSummary.averageWin);
-         setDoubleParam(stmt, 18, tradeSummary.averageLoss);
-         setDoubleParam(stmt, 19, tradeSummary.averageWinLoss);
-         setDoubleParam(stmt, 20, tradeSummary.equityMin);
-         setDoubleParam(stmt, 21, tradeSummary.equityMax);
-         setDoubleParam(stmt, 22, tradeSummary.maxDD);
-         setDoubleParam(stmt, 23, tradeSummary.maxDDPct);
-         stmt.executeUpdate();
-         connection.commit();
-      }
+      ResultsWriter writer = getResultsWriter();
+      writer.addTradeSummary(symbol, type, tradeSummary);
+      writer.commit();
    }
    
    public void writeEquity() throws SQLException {
-      connectIfNecessary();
-      
-      // Accumulate using the last value for each day (the end equity)
-      Series eq = getAccount().getEquity().toDaily((Double x, Double y) -> y);
-      
-      String query = " REPLACE INTO end_equity(strategy_id,ts,equity) VALUES (?,?,?) ";
-      PreparedStatement stmt = connection.prepareStatement(query);
-      stmt.setLong(1, dbId);
+      ResultsWriter writer = getResultsWriter();
+      addEquity(writer);
+      writer.commit();
+   }
+   
+   private void addEquity(ResultsWriter writer) throws SQLException {
+      Series eq = getEndEquity();
       for(int ii = 0; ii < eq.size(); ++ii) {
-         stmt.setTimestamp(2, Timestamp.valueOf(eq.getTimestamp(ii)));
-         stmt.setDouble(3, eq.get(ii));
-         stmt.addBatch();
+         writer.addEquity(eq.getTimestamp(ii), eq.get(ii));
       }
-      stmt.executeBatch();
-      connection.commit();
-      stmt.close();
    }
    
-   private void setDoubleParam(PreparedStatement stmt, int index, double value) throws SQLException {
-      if(Double.isFinite(value)) {
-         stmt.setDouble(index, value);
-      } else {
-         stmt.setNull(index, Types.DOUBLE);
-      }
+   /**
+    * @brief The equity at the end of each day.
+    */
+   public Series getEndEquity() {
+      // Accumulate using the last value for each day
+      return getAccount().getEquity().toDailyDouble((double x, double y) -> y);
    }
    
    protected void writeTradeSummary(Instrument instrument, String type, TradeSummary tradeSummary) throws SQLException {
@@ -416,10 +364,10 @@ public abstract class Strategy implements IBrokerListener {
    public void barCloseHandler(Bar bar) throws Exception {
       checkBar(bar);
 
-      BarHistory history = barData.getHistory(bar);
+      // Also updates the derived resolutions of the symbol
+      BarHistory history = barData.add(bar);
       // null means the strategy is not interested in this symbol
       if(history != null) {
-         history.add(bar);
          onBarClose(history, bar);
       }
    }
@@ -428,7 +376,7 @@ public abstract class Strategy implements IBrokerListener {
       checkBar(bar);
       
       if(bar.getDateTime().isAfter(getTradingStart()) && maintainAccount) {
-         Instrument instrument = broker.getInstrument(bar.getSymbol());
+         Instrument instrument = broker.getInstrument(bar);
          getAccount().mark(instrument, bar);
       }
 
@@ -465,7 +413,8 @@ public abstract class Strategy implements IBrokerListener {
    /**
     * @brief Get basic statistics to evaluate performance.
     * 
-    * Computations are based off the equity curve.
+    * Computations are based off the end of day equity of the account,
+    * the database is not used.
     * 
     * For a quick strategy evaluation, I currently use the approach from
     * "Building Reliable Trading Systems", by Keith Fitschen.
@@ -477,19 +426,19 @@ public abstract class Strategy implements IBrokerListener {
     *    * Percentage Max Drawdown
     *    
     * @return A time series with the afford-mentioned columns
-    * 
-    * @throws SQLException 
     */
    public Series getAnnualStats() throws Exception {
+      return getAnnualStats(getEndEquity());
+   }
+   
+   /**
+    * @brief The annual statistics of an end of day equity series.
+    * 
+    * See "getAnnualStats()" for the columns.
+    */
+   public static Series getAnnualStats(Series endEquity) {
       Series result = new Series(5);
       
-      connectIfNecessary();
-      
-      String query = "SELECT ts,equity FROM end_equity WHERE strategy_id=" +
-                     Long.toString(dbId) + " ORDER BY ts ASC";
-      Statement stmt = connection.createStatement();
-      ResultSet rs = stmt.executeQuery(query);
-   
       double equity = Double.NaN;
       double startEquity = Double.NaN;
       double maxEquity = Double.NaN;
@@ -499,26 +448,26 @@ public abstract class Strategy implements IBrokerListener {
    
       LocalDateTime last = null;
       
-      if(rs.next()) {
-         last = rs.getTimestamp(1).toLocalDateTime();
-         equity = rs.getDouble(2);
+      if(endEquity.size() > 0) {
+         last = endEquity.getTimestamp(0);
+         equity = endEquity.get(0);
          maxEquity = equity;
          minEquity = equity;
          startEquity = equity;
          maxDD = 0.0;
       }
       
-      while(rs.next()) {
+      for(int ii = 1; ii < endEquity.size(); ++ii) {
          // Kick off the statistics at the first different equity
-         if(result.size() == 0 && rs.getDouble(2) == equity) {
-            last = rs.getTimestamp(1).toLocalDateTime();
+         if(result.size() == 0 && endEquity.get(ii) == equity) {
+            last = endEquity.getTimestamp(ii);
             continue;
          }
          
-         LocalDateTime ldt = rs.getTimestamp(1).toLocalDateTime(); 
+         LocalDateTime ldt = endEquity.getTimestamp(ii); 
          if(ldt.getYear() == last.getYear()) {
             // Same year, update the counters
-            equity = rs.getDouble(2);
+            equity = endEquity.get(ii);
             maxEquity = Math.max(maxEquity, equity);
             minEquity = Math.min(minEquity, equity);
             maxDD = Math.min(maxDD, equity - maxEquity);
@@ -530,7 +479,7 @@ public abstract class Strategy implements IBrokerListener {
             result.append(last, pnl, pnlPct, equity, maxDD, maxDDPct);
             
             startEquity = equity;
-            equity = rs.getDouble(2);
+            equity = endEquity.get(ii);
             
             maxEquity = equity;
             minEquity = equity;
@@ -549,8 +498,6 @@ public abstract class Strategy implements IBrokerListener {
          result.append(last, pnl, pnlPct, equity, maxDD, maxDDPct);
       }
       
-      connection.commit();
-      
       return result;
    }
 
@@ -825,168 +772,211 @@ public abstract class Strategy implements IBrokerListener {
       }
    };
    
-   private class PnlPair {
-      public boolean seenNonZeroPnl;
-      public double pnl;
+   /**
+    * @brief The totals over the trading results of all instruments.
+    * 
+    * The PnL series are merged, by timestamp, into primitive arrays. The
+    * instruments are added one at a time, the PnL at each timestamp is
+    * summed in the order of the instruments.
+    */
+   private class Totals {
+      TradeTotalsBuilder all = new TradeTotalsBuilder();
+      TradeTotalsBuilder longs = new TradeTotalsBuilder();
+      TradeTotalsBuilder shorts = new TradeTotalsBuilder();
+      
+      long [] timestamps = new long[0];
+      double [] pnls = new double[0];
+      // Whether the sum at a timestamp has been non-zero at some point
+      boolean [] seenNonZero = new boolean[0];
+      int size = 0;
+      
+      void add(TradingResults tr) {
+         // Same as "writeTrades" - skip instruments without PnL
+         if(tr.pnl.size() == 0) return;
+         
+         for(Trade trade : tr.stats) {
+            if(trade.initialPosition < 0) {
+               shorts.add(trade.initialPosition, trade.pnl);
+            } else {
+               longs.add(trade.initialPosition, trade.pnl);
+            }
+            all.add(trade.initialPosition, trade.pnl);
+         }
+         
+         merge(tr.pnl);
+      }
       
-      public PnlPair(double d) {
-         pnl = d;
-         seenNonZeroPnl = pnl != 0.0;
+      private void merge(Series pnl) {
+         long [] newTimestamps = new long[size + pnl.size()];
+         double [] newPnls = new double[newTimestamps.length];
+         boolean [] newSeenNonZero = new boolean[newTimestamps.length];
+         
+         int ii = 0;
+         int jj = 0;
+         int kk = 0;
+         while(ii < size || jj < pnl.size()) {
+            long ts;
+            double value;
+            boolean seen;
+            // On ties, the existing total goes first
+            if(jj == pnl.size() || (ii < size && timestamps[ii] <= pnl.getEpochNanos(jj))) {
+               ts = timestamps[ii];
+               value = pnls[ii];
+               seen = seenNonZero[ii];
+               ++ii;
+            } else {
+               ts = pnl.getEpochNanos(jj);
+               value = pnl.get(jj);
+               seen = value != 0.0;
+               ++jj;
+            }
+            
+            if(kk > 0 && newTimestamps[kk - 1] == ts) {
+               newPnls[kk - 1] += value;
+               newSeenNonZero[kk - 1] |= seen || newPnls[kk - 1] != 0.0;
+            } else {
+               newTimestamps[kk] = ts;
+               newPnls[kk] = value;
+               newSeenNonZero[kk] = seen;
+               ++kk;
+            }
+         }
+         
+         timestamps = newTimestamps;
+         pnls = newPnls;
+         seenNonZero = newSeenNonZero;
+         size = kk;
       }
       
-      public boolean seenNonZero() { return seenNonZeroPnl; }
-      public double pnl() { return pnl; }
+      Series getPnl() {
+         Series result = new Series(1, size);
+         for(int ii = 0; ii < size; ++ii) {
+            result.append(timestamps[ii], pnls[ii]);
+         }
+         return result;
+      }
       
-      public void add(double pnl) {
-         this.pnl += pnl; 
-         seenNonZeroPnl |= this.pnl != 0.0;
+      /**
+       * @brief Adds the per-bar and the equity statistics to the total trade summary.
+       */
+      TradeSummary summarizeAll() {
+         AverageAndVariance barStats = new AverageAndVariance();
+         
+         double equity = 0.0;
+         double maxEquity = Double.NEGATIVE_INFINITY;
+         double minEquity = Double.MAX_VALUE;
+         double maxDD = Double.MAX_VALUE;
+         double maxDDPct = Double.MAX_VALUE;
+         
+         for(int ii = 0; ii < size; ++ii) {
+            double pnl = pnls[ii];
+            
+            // Collect statistics
+            if(seenNonZero[ii]) barStats.add(pnl);
+            
+            equity += pnl;
+            maxEquity = Math.max(maxEquity, equity);
+            minEquity = Math.min(minEquity, equity);
+            maxDD = Math.min(maxDD, equity - maxEquity);
+            // The percentage is meaningful only once the equity has been positive
+            if(maxEquity > 0) maxDDPct = Math.min(maxDDPct, equity/maxEquity-1);
+         }
+         
+         TradeSummary summary = all.summarize();
+         summary.equityMin = minEquity;
+         summary.equityMax = maxEquity;
+         summary.maxDD = maxDD;
+         summary.maxDDPct = maxDDPct*100;
+   
+         summary.averageDailyPnl = barStats.getAverage();
+         summary.dailyPnlStdDev = barStats.getStdDev();
+         summary.sharpeRatio = Functions.sharpeRatio(summary.averageDailyPnl, summary.dailyPnlStdDev, 252);
+         
+         return summary;
       }
    }
    
+   private Totals getTotals(List<TradingResults> results) {
+      Totals totals = new Totals();
+      for(TradingResults tr : results) totals.add(tr);
+      return totals;
+   }
+   
    /**
-    * @throws SQLException 
     * @brief Computes total statistics for all trades for this strategy
-    * in the database.
+    * and writes them to the database.
     *
     * Goes through the trades and the pnls for all instruments and
-    * computes "TradeSummary". The new trade summary and the pnl are
-    * inserted into the corresponding tables using the string "name"
-    * as the symbol for the instrument.
+    * computes "TradeSummary". The statistics are computed from the
+    * account, the database is only written to. The new trade summary
+    * and the pnl are inserted into the corresponding tables using the
+    * string "name" as the symbol for the instrument.
     * 
     * We use "TOTAL" for "name" (unlikely to have a real symbol TOTAL),
     * but it's good to have things flexible.
     *
     * @param[in] the id to use for the entries in the various tables
     */
-   protected void totalTradeStats(String name) throws SQLException {
-
-      connectIfNecessary();
-      
-      getDbId();
+   protected void totalTradeStats(String name) throws Exception {
+      totalTradeStats(name, getTradingResults(getPortfolioInstruments()));
+   }
+   
+   private void totalTradeStats(String name, List<TradingResults> results) throws SQLException {
+      ResultsWriter writer = getResultsWriter();
       
       String query = "DELETE FROM pnls WHERE strategy_id=" + Long.toString(dbId) +
             " AND symbol = \"" + name + "\"";
       Statement stmt = connection.createStatement();
-      stmt.executeUpdate(query);
-      connection.commit();
-      
-      stmt.close();
+      stmt.addBatch(query);
       
       query = "DELETE FROM trade_summaries WHERE strategy_id=" + Long.toString(dbId) +
             " AND symbol = \"" + name + "\"";
-      stmt = connection.createStatement();
-      stmt.executeUpdate(query);
-      connection.commit();
+      stmt.addBatch(query);
+      stmt.executeBatch();
       
       stmt.close();
       
-      // Go through each individual trade
-      TradeTotalsBuilder shortsBuilder = new TradeTotalsBuilder();
-      TradeTotalsBuilder longsBuilder = new TradeTotalsBuilder();
-      TradeTotalsBuilder allBuilder = new TradeTotalsBuilder();
+      Totals totals = getTotals(results);
       
-      query = "SELECT initial_position,pnl FROM trades WHERE strategy_id=" + Long.toString(dbId);
-      stmt = connection.createStatement();
-      ResultSet rs = stmt.executeQuery(query);
-      while(rs.next()) {
-         long position = rs.getLong(1);
-         double pnl = rs.getDouble(2);
-         if(position < 0) {
-            shortsBuilder.add(position, pnl);
-            allBuilder.add(position, pnl);
-         } else {
-            longsBuilder.add(position, pnl);
-            allBuilder.add(position, pnl);
-         }
+      // Write the total PnL
+      for(int ii = 0; ii < totals.size; ++ii) {
+         writer.addPnl(name, EpochTime.fromNanos(totals.timestamps[ii]), totals.pnls[ii]);
       }
-      stmt.close();
-      
-      // The pair tells us:
-      //    1. Weather we have seen non-zero PnL for that timestamp
-      //    2. The total PnL
-      TreeMap<LocalDateTime,PnlPair> pnlMap = new TreeMap<LocalDateTime, PnlPair>();
-      query = "SELECT ts,pnl FROM pnls WHERE strategy_id=?";
-      PreparedStatement pstmt = connection.prepareStatement(query);
-      pstmt.setLong(1, dbId);
-      rs = pstmt.executeQuery(); 
-      while(rs.next()) {
-         LocalDateTime ldt = rs.getTimestamp(1).toLocalDateTime();
-         double pnl = rs.getDouble(2);
-         PnlPair pp = pnlMap.get(ldt);
-         if(pp != null) {
-            pp.add(pnl);
-         } else {
-            pnlMap.put(ldt, new PnlPair(pnl));
-         }
-      }
-      pstmt.close();
-      
-      // Write the total PnL and collect the basic per-bar and equity statistics
-      query = "INSERT INTO pnls (strategy_id,symbol,ts,pnl) values (?,?,?,?)";
-      pstmt = connection.prepareStatement(query);
-      pstmt.setLong(1, dbId);
-      pstmt.setString(2, name);
-      
-      AverageAndVariance barStats = new AverageAndVariance();
-      
-      double equity = 0.0;
-      double maxEquity = Double.MIN_VALUE;
-      double minEquity = Double.MAX_VALUE;
-      double maxDD = Double.MAX_VALUE;
-      double maxDDPct = Double.MAX_VALUE;
-      
-      for(Map.Entry<LocalDateTime,PnlPair> entry : pnlMap.entrySet()) {
-         PnlPair pp = entry.getValue();
-         double pnl = pp.pnl();
-
-         // Write the PnL
-         pstmt.setTimestamp(3, Timestamp.valueOf(entry.getKey()));
-         pstmt.setDouble(4, pnl);
-         // pstmt.executeUpdate();
-         pstmt.addBatch();
-         
-         // Collect statistics
-         if(pp.seenNonZero()) barStats.add(pnl);
-         
-         equity += pnl;
-         maxEquity = Math.max(maxEquity, equity);
-         minEquity = Math.min(minEquity, equity);
-         maxDD = Math.min(maxDD, equity - maxEquity);
-         maxDDPct = Math.min(maxDDPct, equity/maxEquity-1);
-         if(Double.isNaN(maxDDPct) || !Double.isFinite(maxDDPct)) {
-            Logger.getLogger("").warning(String.format("Fixing a bad maximum drawdown [%f]", maxDDPct));
-            maxDDPct = Double.MAX_VALUE;
-         }
-      }
-      
-      pstmt.executeBatch();
-      connection.commit();
-      pstmt.close();
       
       // Write out the total as a trade summary
-      TradeSummary summary = allBuilder.summarize();
-      summary.equityMin = minEquity;
-      summary.equityMax = maxEquity;
-      summary.maxDD = maxDD;
-      summary.maxDDPct = maxDDPct*100;
-
-      summary.averageDailyPnl = barStats.getAverage();
-      summary.dailyPnlStdDev = barStats.getStdDev();
-      summary.sharpeRatio = Functions.sharpeRatio(summary.averageDailyPnl, summary.dailyPnlStdDev, 252);
-      
-      writeTradeSummary(name, "All", summary);
+      writer.addTradeSummary(name, "All", totals.summarizeAll());
       
       // For the shorts and longs totals we don't have equityMin, equityMax, etc
-      writeTradeSummary(name, "Long", longsBuilder.summarize());
-      writeTradeSummary(name, "Short", shortsBuilder.summarize());
+      writer.addTradeSummary(name, "Long", totals.longs.summarize());
+      writer.addTradeSummary(name, "Short", totals.shorts.summarize());
       
-      connection.commit();
+      writer.commit();
    }
    
    public void totalTradeStats() throws Exception {
       totalTradeStats("TOTAL");
    }
    
+   /**
+    * @brief Computes the total statistics for all trades in memory.
+    * 
+    * The same as the "All" summary written by "totalTradeStats", without
+    * touching the database. Useful when the backtest results are not
+    * persisted (optimizations for instance).
+    */
+   public TradeSummary getTotalTradeSummary() throws Exception {
+      return getTotals(getTradingResults(getPortfolioInstruments())).summarizeAll();
+   }
+   
+   /**
+    * @brief The PnL of all instruments, summed by timestamp.
+    * 
+    * The same as the "TOTAL" PnL written by "totalTradeStats".
+    */
+   public Series getTotalPnl() throws Exception {
+      return getTotals(getTradingResults(getPortfolioInstruments())).getPnl();
+   }
+   
    // public Portfolio getPortfolio() { return portfolio; }
    public Account getAccount() {return account; }
    
@@ -1131,6 +1121,8 @@ public abstract class Strategy implements IBrokerListener {
    }
    
    public void persistStatus(Strategy.Status status) throws Exception {
+      if(dbUrl == null) return;
+      
       connectIfNecessary();
       status.persist(connection);
    }
@@ -1181,7 +1173,38 @@ public abstract class Strategy implements IBrokerListener {
       return summary;
    }
    
+   /**
+    * @brief Builds the strategy report from the account and writes it to the database.
+    */
    public JsonObject writeStrategyReport() throws Exception {
+      JsonObject result = getStrategyReport();
+      
+      Gson gson = new GsonBuilder()
+                        .setPrettyPrinting()
+                        .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
+                        .create();
+
+      connectIfNecessary();
+      
+      String query = " REPLACE INTO strategy_report (strategy_id,last_date,report) " +
+                     " VALUES(?,?,?) ";
+      PreparedStatement stmt = connection.prepareStatement(query);
+      stmt.setLong(1, dbId);
+      stmt.setTimestamp(2, Timestamp.valueOf(getLastTimestamp()));
+      String jsonString = gson.toJson(result); 
+      stmt.setString(3, jsonString);
+      stmt.executeUpdate();
+      
+      connection.commit();
+      
+      return result;
+   }
+   
+   /**
+    * @brief Builds the strategy report (annual statistics, drawdowns and
+    * totals) from the account, without touching the database.
+    */
+   public JsonObject getStrategyReport() throws Exception {
       // Annual statistics
       Series annualStats = getAnnualStats();
       
@@ -1286,8 +1309,8 @@ public abstract class Strategy implements IBrokerListener {
          }
       }
       
-      TradeSummary summary = getSummary("TOTAL", "All");
-      if(summary != null) {
+      TradeSummary summary = getTotalTradeSummary();
+      if(summary.numTrades > 0) {
          result.addProperty("avg_trade_pnl", Math.round(summary.averageTradePnl));
          result.addProperty("maxdd", Math.round(maxDD));
          result.addProperty("maxdd_pct", maxDDPct*100);
@@ -1299,24 +1322,6 @@ public abstract class Strategy implements IBrokerListener {
          result.addProperty("num_trades", 0);
       }
       
-      Gson gson = new GsonBuilder()
-                        .setPrettyPrinting()
-                        .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-                        .create();
-
-      connectIfNecessary();
-      
-      String query = " REPLACE INTO strategy_report (strategy_id,last_date,report) " +
-                     " VALUES(?,?,?) ";
-      PreparedStatement stmt = connection.prepareStatement(query);
-      stmt.setLong(1, dbId);
-      stmt.setTimestamp(2, Timestamp.valueOf(getLastTimestamp()));
-      String jsonString = gson.toJson(result); 
-      stmt.setString(3, jsonString);
-      stmt.executeUpdate();
-      
-      connection.commit();
-      
       return result;
    }
    
@@ -1604,6 +1609,74 @@ public abstract class Strategy implements IBrokerListener {
       
    }
    
+   /**
+    * @brief Writes the state of a derived strategy to a snapshot.
+    * 
+    * Override to save the fields the strategy maintains across bars. The
+    * histories, the account, the executions and the broker state are
+    * saved already (see StrategySnapshot).
+    */
+   protected void writeState(DataOutput out) throws IOException {}
+   
+   /**
+    * @brief Restores the state written by "writeState".
+    */
+   protected void readState(DataInput in) throws IOException {}
+   
+   void writeSnapshot(DataOutput out) throws IOException {
+      out.writeLong(lastDay.toEpochDay());
+      StrategySnapshot.writeDateTime(out, lastTimestamp);
+      
+      out.writeInt(executions.size());
+      for(Execution execution : executions) {
+         out.writeUTF(execution.getSymbol());
+         out.writeLong(execution.getEpochNanos());
+         out.writeDouble(execution.getPrice());
+         out.writeLong(execution.getQuantity());
+         out.writeDouble(execution.getFees());
+         StrategySnapshot.writeString(out, execution.getSignal());
+      }
+      
+      barData.writeSnapshot(out);
+      account.writeSnapshot(out);
+      
+      boolean hasBroker = broker instanceof HistoricalReplay;
+      out.writeBoolean(hasBroker);
+      if(hasBroker) ((HistoricalReplay)broker).writeSnapshot(out);
+      
+      writeState(out);
+   }
+   
+   void readSnapshot(DataInput in) throws Exception {
+      lastDay = LocalDate.ofEpochDay(in.readLong());
+      lastTimestamp = StrategySnapshot.readDateTime(in);
+      
+      executions.clear();
+      int numExecutions = in.readInt();
+      for(int ii = 0; ii < numExecutions; ++ii) {
+         Instrument instrument = broker.getInstrument(in.readUTF());
+         long nanos = in.readLong();
+         double price = in.readDouble();
+         long quantity = in.readLong();
+         double fees = in.readDouble();
+         Execution execution = new Execution(instrument, nanos, price, quantity, StrategySnapshot.readString(in));
+         execution.setFees(fees);
+         executions.add(execution);
+      }
+      
+      barData.readSnapshot(in);
+      account.readSnapshot(in);
+      
+      if(in.readBoolean()) {
+         if(!(broker instanceof HistoricalReplay)) {
+            throw new IOException("Bad snapshot: the broker state requires a HistoricalReplay broker");
+         }
+         ((HistoricalReplay)broker).readSnapshot(in);
+      }
+      
+      readState(in);
+   }
+   
    public void setTradingStart(LocalDateTime ldt) {tradingStart = ldt; }
    public LocalDateTime getTradingStart() { return tradingStart; }
    
@@ -0,0 +1,146 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * @brief Saves and restores the state of a strategy, to resume a backtest later.
+ * 
+ * A snapshot is taken once the strategy has processed all bars of its feed.
+ * Restored into a freshly initialized strategy of the same name (before
+ * "start"), the strategy continues from the bars after the snapshot exactly
+ * as if it had replayed all of them:
+ * 
+ *    * the bar histories, including the partial bars of the derived resolutions
+ *    * the account, with its portfolios, transactions and position PnLs
+ *    * the executions
+ *    * the positions and the open orders of the broker (HistoricalReplay only)
+ *    * the strategy's own state, see Strategy.writeState/readState
+ *    
+ * The indicators are not saved - attaching them to the restored histories
+ * replays them over the retained bars. With the default lookback (all bars
+ * retained) their values are the same as on a full replay.
+ * 
+ * The file is a compact binary (big endian) stream: the magic, the version,
+ * the strategy name and the timestamp of the last bar, followed by the
+ * sections above. It's written to a temporary file first and moved in place,
+ * thus a failed save keeps the previous snapshot.
+ */
+public class StrategySnapshot {
+   public static final String EXTENSION = ".snapshot";
+   
+   private static final int MAGIC = 0x544c5353; // "TLSS"
+   private static final int VERSION = 1;
+   
+   // Encodes a null date time
+   private static final long NULL_DAY = Long.MIN_VALUE;
+   
+   public static void save(Strategy strategy, Path path) throws Exception {
+      Path tmp = path.resolveSibling(path.getFileName().toString() + ".tmp");
+      try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         writeString(out, strategy.getName());
+         writeDateTime(out, getLastBarTimestamp(strategy));
+         strategy.writeSnapshot(out);
+      }
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+   }
+   
+   /**
+    * @brief Restores a snapshot into an initialized, but not started, strategy.
+    * 
+    * @return The timestamp of the last bar processed before the snapshot, the
+    *         feed needs to deliver only the bars after it
+    */
+   public static LocalDateTime restore(Strategy strategy, Path path) throws Exception {
+      try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+         if(in.readInt() != MAGIC) {
+            throw new IOException("Bad snapshot " + path.toString() + ": wrong magic number");
+         }
+         int version = in.readInt();
+         if(version != VERSION) {
+            throw new IOException("Bad snapshot " + path.toString() + ": unsupported version " + version);
+         }
+         String name = readString(in);
+         if(name != null && !name.equals(strategy.getName())) {
+            throw new IOException("Bad snapshot " + path.toString() + ": taken for strategy " + name);
+         }
+         LocalDateTime ts = readDateTime(in);
+         strategy.readSnapshot(in);
+         return ts;
+      }
+   }
+   
+   /**
+    * @return The timestamp of the last bar processed before the snapshot, without restoring it
+    */
+   public static LocalDateTime getTimestamp(Path path) throws IOException {
+      try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1024))) {
+         if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Bad snapshot " + path.toString() + ": wrong magic number or version");
+         }
+         readString(in);
+         return readDateTime(in);
+      }
+   }
+   
+   // The timestamp of the last bar, the strategy's last timestamp is the time of its closed event
+   private static LocalDateTime getLastBarTimestamp(Strategy strategy) {
+      if(strategy.getBroker() instanceof HistoricalReplay) {
+         long nanos = ((HistoricalReplay)strategy.getBroker()).getLastBarTimestamp();
+         if(nanos != Long.MIN_VALUE) return EpochTime.fromNanos(nanos);
+      }
+      return strategy.getLastTimestamp();
+   }
+   
+   static void writeString(DataOutput out, String ss) throws IOException {
+      out.writeBoolean(ss != null);
+      if(ss != null) out.writeUTF(ss);
+   }
+   
+   static String readString(DataInput in) throws IOException {
+      return in.readBoolean() ? in.readUTF() : null;
+   }
+   
+   // As the epoch day and the nanosecond of the day, thus LocalDateTime.MIN/MAX are fine too
+   static void writeDateTime(DataOutput out, LocalDateTime ldt) throws IOException {
+      if(ldt == null) {
+         out.writeLong(NULL_DAY);
+      } else {
+         out.writeLong(ldt.toLocalDate().toEpochDay());
+         out.writeLong(ldt.toLocalTime().toNanoOfDay());
+      }
+   }
+   
+   static LocalDateTime readDateTime(DataInput in) throws IOException {
+      long day = in.readLong();
+      if(day == NULL_DAY) return null;
+      return LocalDateTime.of(LocalDate.ofEpochDay(day), LocalTime.ofNanoOfDay(in.readLong()));
+   }
+}
@@ -0,0 +1,75 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @brief Process-wide dense integer ids for the symbols.
+ *
+ * The ids start at 0 and are assigned on first use (usually at subscribe
+ * time). They never change, so the per-symbol data in the replay, the
+ * portfolio and the bar hierarchy can be kept in arrays indexed by id,
+ * instead of hash maps keyed by the symbol. Thread-safe.
+ */
+public final class SymbolRegistry {
+   private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+   private static volatile String [] symbols = new String[64];
+   private static volatile int count = 0;
+   
+   private SymbolRegistry() {
+   }
+   
+   /**
+    * Returns the id of the symbol, registers the symbol if necessary.
+    */
+   public static int getId(String symbol) {
+      Integer id = ids.get(symbol);
+      return id != null ? id : register(symbol);
+   }
+   
+   /**
+    * Returns the id of the symbol, -1 if the symbol is not registered.
+    */
+   public static int findId(String symbol) {
+      Integer id = ids.get(symbol);
+      return id != null ? id : -1;
+   }
+   
+   public static String getSymbol(int id) {
+      if(id < 0 || id >= count) throw new IndexOutOfBoundsException("Symbol id: " + id + ", Size: " + count);
+      return symbols[id];
+   }
+   
+   /**
+    * The number of registered symbols, all ids are less than this.
+    */
+   public static int size() { return count; }
+   
+   private static synchronized int register(String symbol) {
+      Integer existing = ids.get(symbol);
+      if(existing != null) return existing;
+      
+      if(count == symbols.length) symbols = Arrays.copyOf(symbols, 2*symbols.length);
+      int id = count;
+      symbols[id] = symbol;
+      // Publish the id last, so a thread seeing it also sees the symbol
+      // and a size above it
+      count = id + 1;
+      ids.put(symbol, id);
+      return id;
+   }
+}
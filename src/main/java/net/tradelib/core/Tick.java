@@ -18,6 +18,9 @@ import java.time.LocalDateTime;
 
 public class Tick {
    private String symbol;
+   // The timestamp as epoch nanoseconds (see EpochTime)
+   private long epochNanos;
+   // The timestamp as LocalDateTime, created on demand
    private LocalDateTime ts;
    private double price;
    private long volume;
@@ -25,22 +28,37 @@ public class Tick {
    public Tick(String s, LocalDateTime ts, double price, long volume) {
       this.symbol = s;
       this.ts = ts;
+      this.epochNanos = EpochTime.toNanos(ts);
       this.price = price;
       this.volume = volume;
    }
    
    public Tick(String s, LocalDateTime ts, double price) {
+      this(s, ts, price, Long.MIN_VALUE);
+   }
+   
+   public Tick(String s, long epochNanos, double price, long volume) {
       this.symbol = s;
-      this.ts = ts;
+      this.epochNanos = epochNanos;
       this.price = price;
-      this.volume = Long.MIN_VALUE;
+      this.volume = volume;
+   }
+   
+   public Tick(String s, long epochNanos, double price) {
+      this(s, epochNanos, price, Long.MIN_VALUE);
    }
    
    public String getSymbol() { return symbol; }
    public void setSymbol(String ss) { this.symbol = ss; }
 
-   public LocalDateTime getDateTime() { return ts; }
-   public void setDateTime(LocalDateTime ts) { this.ts = ts; }
+   public LocalDateTime getDateTime() {
+      if(ts == null) ts = EpochTime.fromNanos(epochNanos);
+      return ts;
+   }
+   public void setDateTime(LocalDateTime ts) { this.ts = ts; this.epochNanos = EpochTime.toNanos(ts); }
+   
+   public long getEpochNanos() { return epochNanos; }
+   public void setEpochNanos(long nanos) { this.epochNanos = nanos; this.ts = null; }
    
    public double getPrice() { return price; }
    public void setPrice(double p) { this.price = p; }
@@ -0,0 +1,208 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+
+/**
+ * @brief A per-symbol, memory-mapped, columnar file of ticks (trade prints).
+ * 
+ * The layout follows BarFile - a fixed header followed by one column per field:
+ * 
+ *    * header: magic, version, number of ticks
+ *    * timestamps as epoch nanoseconds (the LocalDateTime taken at UTC)
+ *    * prices as doubles
+ *    * volumes as longs
+ *    
+ * All values are little endian. The ticks must be stored in chronological
+ * order, ticks with the same timestamp are allowed. A file holds up to about
+ * 89 million ticks (a single mapping is limited to 2GB).
+ */
+public class TickFile implements AutoCloseable {
+   public static final String EXTENSION = ".ticks";
+   
+   private static final int MAGIC = 0x4b544c54; // "TLTK"
+   private static final int VERSION = 1;
+   private static final int HEADER_SIZE = 32;
+   private static final int NUM_COLUMNS = 3;
+   
+   private static final int TS = 0;
+   private static final int PRICE = 1;
+   private static final int VOLUME = 2;
+   
+   private final String symbol;
+   private final int size;
+   private final FileChannel channel;
+   private final MappedByteBuffer buffer;
+   // The column offsets
+   private final int tsOffset;
+   private final int priceOffset;
+   private final int volumeOffset;
+   
+   private TickFile(String symbol, FileChannel channel) throws IOException {
+      this.symbol = symbol;
+      this.channel = channel;
+      
+      long fileSize = channel.size();
+      if(fileSize < HEADER_SIZE) {
+         throw new IOException("Bad tick file for " + symbol + ": the file is too short");
+      }
+      if(fileSize > Integer.MAX_VALUE) {
+         throw new IOException("Bad tick file for " + symbol + ": the file is too large");
+      }
+      
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      
+      if(buffer.getInt(0) != MAGIC) {
+         throw new IOException("Bad tick file for " + symbol + ": wrong magic number");
+      }
+      
+      if(buffer.getInt(4) != VERSION) {
+         throw new IOException("Bad tick file for " + symbol + ": unsupported version " + buffer.getInt(4));
+      }
+      
+      long count = buffer.getLong(8);
+      if(fileSize != HEADER_SIZE + count*NUM_COLUMNS*8) {
+         throw new IOException("Bad tick file for " + symbol + ": the size doesn't match the header");
+      }
+      
+      size = (int)count;
+      tsOffset = offset(TS, size, 0);
+      priceOffset = offset(PRICE, size, 0);
+      volumeOffset = offset(VOLUME, size, 0);
+   }
+   
+   /**
+    * @brief Opens a tick file for reading.
+    * 
+    * @param path The file path
+    * @param symbol The symbol of the ticks in the file
+    * 
+    * @return The opened file
+    */
+   public static TickFile open(Path path, String symbol) throws IOException {
+      FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+      try {
+         return new TickFile(symbol, channel);
+      } catch(IOException e) {
+         channel.close();
+         throw e;
+      }
+   }
+   
+   /**
+    * @brief Writes ticks given as columns, replacing the file if it exists.
+    * 
+    * @param path The file path
+    * @param timestamps The timestamps as epoch nanoseconds, in chronological order
+    * @param prices The prices
+    * @param volumes The volumes
+    * @param count The number of ticks to write
+    */
+   public static void write(Path path, long [] timestamps, double [] prices, long [] volumes, int count) throws IOException {
+      if((long)count*NUM_COLUMNS*8 + HEADER_SIZE > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException("Too many ticks for a single tick file: " + count);
+      }
+      
+      ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE + count*NUM_COLUMNS*8);
+      bb.order(ByteOrder.LITTLE_ENDIAN);
+      bb.putInt(0, MAGIC);
+      bb.putInt(4, VERSION);
+      bb.putLong(8, count);
+      
+      long previous = Long.MIN_VALUE;
+      for(int ii = 0; ii < count; ++ii) {
+         if(timestamps[ii] < previous) {
+            throw new IllegalArgumentException("Ticks must be in chronological order: " + EpochTime.fromNanos(timestamps[ii]));
+         }
+         previous = timestamps[ii];
+         
+         bb.putLong(offset(TS, count, ii), timestamps[ii]);
+         bb.putDouble(offset(PRICE, count, ii), prices[ii]);
+         bb.putLong(offset(VOLUME, count, ii), volumes[ii]);
+      }
+      
+      Path tmp = path.resolveSibling(path.getFileName().toString() + ".tmp");
+      try(FileChannel fc = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+         while(bb.hasRemaining()) fc.write(bb);
+      }
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+   }
+   
+   private static int offset(int column, int count, int row) {
+      return HEADER_SIZE + (column*count + row)*8;
+   }
+   
+   public String getSymbol() { return symbol; }
+   public int size() { return size; }
+   
+   public long getEpochNanos(int id) { return buffer.getLong(tsOffset + id*8); }
+   public LocalDateTime getDateTime(int id) { return EpochTime.fromNanos(getEpochNanos(id)); }
+   public double getPrice(int id) { return buffer.getDouble(priceOffset + id*8); }
+   public long getVolume(int id) { return buffer.getLong(volumeOffset + id*8); }
+   
+   public Tick getTick(int id) {
+      return new Tick(symbol, getEpochNanos(id), getPrice(id), getVolume(id));
+   }
+   
+   /**
+    * @brief Finds the first tick at, or after, a timestamp.
+    * 
+    * @return The index of the tick, size() if all ticks are before the timestamp.
+    */
+   public int lowerBound(LocalDateTime ldt) {
+      long nanos = EpochTime.toNanos(ldt);
+      int lo = 0;
+      int hi = size;
+      while(lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if(getEpochNanos(mid) < nanos) lo = mid + 1;
+         else hi = mid;
+      }
+      return lo;
+   }
+   
+   /**
+    * @brief Finds the first tick after a timestamp.
+    * 
+    * @return The index of the tick, size() if no tick is after the timestamp.
+    */
+   public int upperBound(LocalDateTime ldt) {
+      long nanos = EpochTime.toNanos(ldt);
+      int lo = 0;
+      int hi = size;
+      while(lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if(getEpochNanos(mid) <= nanos) lo = mid + 1;
+         else hi = mid;
+      }
+      return lo;
+   }
+
+   @Override
+   public void close() throws IOException {
+      channel.close();
+   }
+}
@@ -0,0 +1,274 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * @brief A simulated broker replaying ticks (trade prints) from TickFile-s.
+ *
+ * The ticks for symbol "XX" are read from "<ticks dir>/XX.ticks" and are
+ * replayed in chronological order, each of them matched against the resting
+ * orders of its instrument. The orders are filled at the tick price.
+ *
+ * The ticks are aggregated into bars of "barDuration" (aligned on the epoch,
+ * one minute by default), which are published to the listener the same way
+ * HistoricalReplay publishes them: "barOpenHandler" after the first tick of
+ * a bar (stamped at the tick), "barCloseHandler" when the bar is complete
+ * (stamped a nanosecond before its end), followed by the orders submitted at
+ * the close being tried at the close price at that time, and
+ * "barClosedHandler" at the end of the bar. A bar is complete once a tick
+ * (of any symbol) at, or after, its end is replayed.
+ *
+ * The instruments come from the data feed, which is not started.
+ */
+public class TickReplay extends HistoricalReplay {
+   
+   // The replay state of a symbol
+   private static class SymbolState {
+      final String symbol;
+      final TickFile file;
+      final InstrumentCB icb;
+      int pos;
+      int end;
+      // The bar being built, valid if "barEnd" is not Long.MIN_VALUE
+      final Bar bar;
+      long barEnd = Long.MIN_VALUE;
+      
+      SymbolState(String symbol, TickFile file, InstrumentCB icb, Duration barDuration) {
+         this.symbol = symbol;
+         this.file = file;
+         this.icb = icb;
+         this.bar = new Bar(symbol, barDuration, 0L, Double.NaN, Double.NaN, Double.NaN, Double.NaN, 0, 0, 0);
+      }
+   }
+   
+   private Path ticksDir = Paths.get("ticks");
+   private Duration barDuration = Duration.ofMinutes(1);
+   private LocalDateTime feedStart = null;
+   private LocalDateTime feedStop = null;
+   private LinkedHashSet<String> symbols = new LinkedHashSet<String>();
+   
+   private SymbolState [] states = new SymbolState[0];
+   // The earliest end of the open bars
+   private long nextBarEnd = Long.MAX_VALUE;
+   private long barNanos;
+   
+   public TickReplay() {
+   }
+   
+   public TickReplay(Context context) {
+      super(context);
+   }
+   
+   public Path getTicksDir() { return ticksDir; }
+   public void setTicksDir(Path dir) { this.ticksDir = dir; }
+   public void setTicksDir(String dir) { this.ticksDir = Paths.get(dir); }
+   
+   public static Path getTickFilePath(Path dir, String symbol) {
+      return dir.resolve(symbol + TickFile.EXTENSION);
+   }
+   
+   public Duration getBarDuration() { return barDuration; }
+   public void setBarDuration(Duration duration) { this.barDuration = duration; }
+   
+   public void setFeedStart(LocalDateTime ldt) { this.feedStart = ldt; }
+   public void setFeedStop(LocalDateTime ldt) { this.feedStop = ldt; }
+   
+   @Override
+   public void subscribe(String symbol) throws Exception {
+      SymbolRegistry.getId(symbol);
+      symbols.add(symbol);
+   }
+   
+   @Override
+   public void unsubscribe(String symbol) throws Exception {
+      symbols.remove(symbol);
+   }
+   
+   @Override
+   public void reset() throws Exception {
+      super.reset();
+      symbols.clear();
+   }
+   
+   @Override
+   public void start() throws Exception {
+      if(symbols.isEmpty()) return;
+      
+      barNanos = barDuration.toNanos();
+      if(barNanos <= 0) throw new IllegalArgumentException("The bar duration must be positive: " + barDuration);
+      
+      List<TickFile> files = new ArrayList<TickFile>(symbols.size());
+      try {
+         List<SymbolState> active = new ArrayList<SymbolState>(symbols.size());
+         for(String symbol : symbols) {
+            TickFile file = TickFile.open(getTickFilePath(ticksDir, symbol), symbol);
+            files.add(file);
+            
+            SymbolState state = new SymbolState(symbol, file, getInstrumentCB(symbol), barDuration);
+            state.pos = feedStart != null ? file.lowerBound(feedStart) : 0;
+            state.end = feedStop != null ? file.upperBound(feedStop) : file.size();
+            if(state.pos < state.end) active.add(state);
+         }
+         states = active.toArray(new SymbolState[active.size()]);
+         nextBarEnd = Long.MAX_VALUE;
+         
+         if(states.length == 1) {
+            replay(states[0]);
+         } else if(states.length > 1) {
+            replay(states);
+         }
+         
+         // Complete the last bars
+         closeBars(Long.MAX_VALUE);
+      } finally {
+         states = new SymbolState[0];
+         for(TickFile file : files) file.close();
+      }
+   }
+   
+   private void replay(SymbolState state) throws Exception {
+      TickFile file = state.file;
+      for(int ii = state.pos; ii < state.end; ++ii) {
+         onTick(state, file.getEpochNanos(ii), file.getPrice(ii), file.getVolume(ii));
+      }
+   }
+   
+   private void replay(SymbolState [] states) throws Exception {
+      // Merge the files by timestamp. There are only a few symbols, a linear
+      // scan for the earliest tick is cheaper than a priority queue.
+      long [] next = new long[states.length];
+      for(int ii = 0; ii < states.length; ++ii) next[ii] = states[ii].file.getEpochNanos(states[ii].pos);
+      
+      while(true) {
+         int best = -1;
+         long bestTs = Long.MAX_VALUE;
+         for(int ii = 0; ii < states.length; ++ii) {
+            if(next[ii] < bestTs) {
+               bestTs = next[ii];
+               best = ii;
+            }
+         }
+         if(best < 0) break;
+         
+         SymbolState state = states[best];
+         TickFile file = state.file;
+         int pos = state.pos;
+         onTick(state, bestTs, file.getPrice(pos), file.getVolume(pos));
+         
+         state.pos = ++pos;
+         next[best] = pos < state.end ? file.getEpochNanos(pos) : Long.MAX_VALUE;
+      }
+   }
+   
+   private void onTick(SymbolState state, long ts, double price, long volume) throws Exception {
+      if(ts >= nextBarEnd) closeBars(ts);
+      
+      InstrumentCB icb = state.icb;
+      Bar bar = state.bar;
+      boolean isNewBar = state.barEnd == Long.MIN_VALUE;
+      if(isNewBar) {
+         long barStart = Math.floorDiv(ts, barNanos)*barNanos;
+         state.barEnd = barStart + barNanos;
+         nextBarEnd = Math.min(nextBarEnd, state.barEnd);
+         
+         bar.setEpochNanos(barStart);
+         bar.setOpen(price);
+         bar.setHigh(price);
+         bar.setLow(price);
+         bar.setVolume(volume);
+      } else {
+         if(price > bar.getHigh()) bar.setHigh(price);
+         if(price < bar.getLow()) bar.setLow(price);
+         bar.setVolume(bar.getVolume() + volume);
+      }
+      bar.setClose(price);
+      
+      // Orders submitted since the previous tick are eligible
+      addNewOrders(icb);
+      
+      // Execution timestamps must increase, ticks may share a timestamp
+      processOrders(icb, state.symbol, Math.max(ts, icb.lastExecution), price, false);
+      postOrderNotifications();
+      
+      if(isNewBar) {
+         if(handler != null) {
+            Bar openBar = eventBar;
+            openBar.copyFrom(bar);
+            openBar.setEpochNanos(ts);
+            openBar.setHigh(Double.NaN); openBar.setLow(Double.NaN); openBar.setClose(Double.NaN);
+            openBar.setContractInterest(Long.MIN_VALUE);
+            openBar.setVolume(Long.MIN_VALUE);
+            openBar.setTotalInterest(Long.MIN_VALUE);
+            handler.barOpenHandler(openBar);
+         }
+         addNewOrders(icb);
+      }
+   }
+   
+   /**
+    * Completes the bars ending at, or before, the timestamp.
+    */
+   private void closeBars(long ts) throws Exception {
+      // Publish the complete bars, the orders submitted at this point are
+      // tried at the close.
+      for(SymbolState state : states) {
+         if(state.barEnd == Long.MIN_VALUE || state.barEnd > ts) continue;
+         
+         if(handler != null) {
+            Bar closeBar = eventBar;
+            closeBar.copyFrom(state.bar);
+            closeBar.setEpochNanos(state.barEnd - 1);
+            handler.barCloseHandler(closeBar);
+         }
+         addNewOrders(state.icb);
+      }
+      
+      for(SymbolState state : states) {
+         if(state.barEnd == Long.MIN_VALUE || state.barEnd > ts) continue;
+         InstrumentCB icb = state.icb;
+         long closeTs = Math.max(state.barEnd - 1, icb.lastExecution);
+         processOrders(icb, state.symbol, closeTs, state.bar.getClose(), false);
+      }
+      postOrderNotifications();
+      
+      nextBarEnd = Long.MAX_VALUE;
+      for(SymbolState state : states) {
+         if(state.barEnd == Long.MIN_VALUE) continue;
+         if(state.barEnd > ts) {
+            nextBarEnd = Math.min(nextBarEnd, state.barEnd);
+            continue;
+         }
+         
+         Bar closedBar = eventBar;
+         closedBar.copyFrom(state.bar);
+         closedBar.setEpochNanos(state.barEnd);
+         if(handler != null) {
+            handler.barClosedHandler(closedBar);
+         }
+         addNewOrders(state.icb);
+         cleanupOrders(state.icb, closedBar);
+         
+         state.barEnd = Long.MIN_VALUE;
+      }
+   }
+}
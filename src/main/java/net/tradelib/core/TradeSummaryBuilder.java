@@ -74,7 +74,28 @@ public class TradeSummaryBuilder {
       maxDDPct = Double.MAX_VALUE;
    }
    
+   /**
+    * @brief Adds a trade, and the PnL inside it.
+    * 
+    * The trades must be added in order. The PnL outside the trades is
+    * ignored, the series is not modified.
+    */
    public void add(Trade ts) {
+      addTrade(ts);
+
+      // Skip the PnL until the current trade begins
+      while(pnlId < pnl.size() && pnl.getTimestamp(pnlId).isBefore(ts.start)) {
+         ++pnlId;
+      }
+
+      // Use the PnL inside the current trade
+      while(pnlId < pnl.size() && !pnl.getTimestamp(pnlId).isAfter(ts.end)) {
+         addPnl(pnl.get(pnlId));
+         ++pnlId;
+      }
+   }
+   
+   private void addTrade(Trade ts) {
       ++numTrades;
       if(ts.pnl < 0.0) {
          ++nonZero;
@@ -92,31 +113,77 @@ public class TradeSummaryBuilder {
 
       maxWin = Math.max(maxWin, ts.pnl);
       maxLoss = Math.min(maxLoss, ts.pnl);
-
-      // Set the PnL to zero until the current trade begins
-      while(pnlId < pnl.size() && pnl.getTimestamp(pnlId).isBefore(ts.start)) {
-         pnl.set(pnlId, 0.0);
-         ++pnlId;
+   }
+   
+   private void addPnl(double value) {
+      equity += value; 
+      maxEquity = Math.max(maxEquity, equity);
+      minEquity = Math.min(minEquity, equity);
+      maxDD = Math.min(maxDD, equity - maxEquity);
+      maxDDPct = Math.min(maxDDPct, equity/maxEquity-1);
+      if(Double.isNaN(maxDDPct) || !Double.isFinite(maxDDPct)) {
+         maxDDPct = Double.MAX_VALUE;
       }
 
-      // Keep the PnL as it is inside the current trade
-      while(pnlId < pnl.size() && !pnl.getTimestamp(pnlId).isAfter(ts.end)) {
-         equity += pnl.get(pnlId); 
-         maxEquity = Math.max(maxEquity, equity);
-         minEquity = Math.min(minEquity, equity);
-         maxDD = Math.min(maxDD, equity - maxEquity);
-         double prev = maxDDPct;
-         maxDDPct = Math.min(maxDDPct, equity/maxEquity-1);
-         if(Double.isNaN(maxDDPct) || !Double.isFinite(maxDDPct)) {
-            maxDDPct = Double.MAX_VALUE;
+      if(value != 0.0) {
+         dailyPnlStats.addValue(value);
+      }
+   }
+   
+   /**
+    * @brief Computes the All, Long and Short summaries in a single pass.
+    * 
+    * Reads "stats" and "pnl" from the results, and sets "all", "longs" and
+    * "shorts". The outcome is the same as adding each trade to the "all"
+    * builder and to the builder for its side, but the trades and the PnL
+    * are traversed only once and the PnL is not modified.
+    */
+   public static void summarize(TradingResults tr) {
+      TradeSummaryBuilder all = new TradeSummaryBuilder(tr.pnl);
+      TradeSummaryBuilder longs = new TradeSummaryBuilder(tr.pnl);
+      TradeSummaryBuilder shorts = new TradeSummaryBuilder(tr.pnl);
+      Series pnl = tr.pnl;
+      
+      for(Trade ts : tr.stats) {
+         TradeSummaryBuilder side;
+         if(ts.initialPosition > 0) side = longs;
+         else if(ts.initialPosition < 0) side = shorts;
+         else continue;
+         
+         all.addTrade(ts);
+         side.addTrade(ts);
+         
+         int begin = all.pnlId;
+         while(begin < pnl.size() && pnl.getTimestamp(begin).isBefore(ts.start)) {
+            ++begin;
          }
-
-         if(pnl.get(pnlId) != 0.0) {
-            dailyPnlStats.addValue(pnl.get(pnlId));
+         
+         // A trade may begin at the timestamp the previous one ended. That
+         // PnL belongs to the previous trade for "all", but the side builder
+         // hasn't seen it if the previous trade was on the other side.
+         int sideBegin = begin;
+         while(sideBegin > side.pnlId && !pnl.getTimestamp(sideBegin - 1).isBefore(ts.start)) {
+            --sideBegin;
          }
-
-         ++pnlId;
+         
+         int end = sideBegin;
+         while(end < pnl.size() && !pnl.getTimestamp(end).isAfter(ts.end)) {
+            ++end;
+         }
+         
+         for(int ii = sideBegin; ii < end; ++ii) {
+            double value = pnl.get(ii);
+            if(ii >= begin) all.addPnl(value);
+            side.addPnl(value);
+         }
+         
+         all.pnlId = Math.max(begin, end);
+         side.pnlId = end;
       }
+      
+      tr.all = all.summarize();
+      tr.longs = longs.summarize();
+      tr.shorts = shorts.summarize();
    }
    
    public TradeSummary summarize() {
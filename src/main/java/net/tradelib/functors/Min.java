@@ -14,28 +14,74 @@
 
 package net.tradelib.functors;
 
-import com.google.common.collect.EvictingQueue;
-
+/**
+ * @brief The rolling minimum over the last "length" values.
+ * 
+ * Uses a monotonic deque - amortized O(1) per value. The deque holds the
+ * candidates for the minimum, in the order they were added, with decreasing
+ * priority from the front. It never exceeds "length" elements, thus it's
+ * stored in fixed, primitive ring buffers.
+ * 
+ * The values are ordered as by Double.compare: -0.0 is less than 0.0, and
+ * NaN is greater than all numbers, thus it is the minimum only if all the
+ * values in the window are NaN.
+ */
 public class Min {
    private int length;
    private int count;
-   private EvictingQueue<Double> eq;
+   
+   // The deque: the values and the index (the count at the time of addition) of each value
+   private double [] values;
+   private int [] indexes;
+   private int head;
+   private int size;
    
    public Min(int length) {
       this.length = length;
       this.count = 0;
-      this.eq = EvictingQueue.create(this.length);
+      this.values = new double[length];
+      this.indexes = new int[length];
+      this.head = 0;
+      this.size = 0;
    }
    
    public int getLength() { return length; }
    public int getCount() { return count; }
    
    public void add(double value) {
+      // Drop the candidates dominated by the new value. On ties, the
+      // latest value wins.
+      while(size > 0 && Double.compare(values[tail()], value) >= 0) --size;
+      
+      // Drop the front if it left the window
+      if(size > 0 && indexes[head] <= count - length) {
+         head = (head + 1) % length;
+         --size;
+      }
+      
+      int pos = (head + size) % length;
+      values[pos] = value;
+      indexes[pos] = count;
+      ++size;
+      
       ++count;
-      eq.add(value);
+   }
+   
+   private int tail() {
+      return (head + size - 1) % length;
    }
    
    public double last() {
-      return count < length ? Double.NaN : eq.stream().min(Double::compare).get();
+      return count < length ? Double.NaN : values[head];
+   }
+   
+   /**
+    * @brief The argmin age.
+    * 
+    * @return How many values ago the minimum was added (0 for the latest
+    * value), or -1 if there are not enough values yet
+    */
+   public int getAge() {
+      return count < length ? -1 : count - 1 - indexes[head];
    }
 }
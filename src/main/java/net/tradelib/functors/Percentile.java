@@ -16,39 +16,68 @@ package net.tradelib.functors;
 
 import java.util.Arrays;
 
+/**
+ * @brief The rolling percentile over the last "length" values.
+ * 
+ * Besides the ring buffer of values, keeps the window sorted at all times.
+ * Adding a value locates the evicted and the new values by a binary search,
+ * and shifts the elements in between, thus the percentile and the rank
+ * queries never sort. The window is ordered as by Arrays.sort (-0.0 before
+ * 0.0, NaN after all numbers), both when inserting and when evicting.
+ */
 public class Percentile {
    private int length;
    private int count;
    private double [] buffer;
    private double [] sorted;
-   private boolean isSorted;
+   // The number of values in "sorted"
+   private int size;
    
    public Percentile(int length) {
       this.length = length;
       this.count = 0;
       this.buffer = new double [length];
       this.sorted = new double [length];
-      this.isSorted = false;
+      this.size = 0;
    }
    
    public int getLength() { return length; }
    public int getCount() { return count; }
    
    public void add(double value) {
-      buffer[count % length] = value;
+      int pos = count % length;
+      if(count >= length) {
+         // Remove the evicted value
+         int id = Arrays.binarySearch(sorted, 0, size, buffer[pos]);
+         System.arraycopy(sorted, id + 1, sorted, id, size - id - 1);
+         --size;
+      }
+      
+      int id = upperBound(value);
+      System.arraycopy(sorted, id, sorted, id + 1, size - id);
+      sorted[id] = value;
+      ++size;
+      
+      buffer[pos] = value;
       ++count;
-      isSorted = false;
+   }
+   
+   // The index of the first value in "sorted" greater than "value", using
+   // the same ordering as Arrays.binarySearch
+   private int upperBound(double value) {
+      int lo = 0;
+      int hi = size;
+      while(lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if(Double.compare(sorted[mid], value) <= 0) lo = mid + 1;
+         else hi = mid;
+      }
+      return lo;
    }
    
    public double last(double percentile) {
       if(count < length) return Double.NaN;
       
-      if(!isSorted) {
-         System.arraycopy(buffer, 0, sorted, 0, length);
-         Arrays.sort(sorted);
-         isSorted = true;
-      }
-      
       double n = (length - 1.0)*percentile + 1.0;
       if(n == 1d) {
          return sorted[0];
@@ -60,4 +89,33 @@ public class Percentile {
          return sorted[k - 1] + d * (sorted[k] - sorted[k - 1]);
       }
    }
+   
+   /**
+    * @brief Multiple percentiles at once.
+    */
+   public double [] last(double... percentiles) {
+      double [] result = new double[percentiles.length];
+      for(int ii = 0; ii < percentiles.length; ++ii) {
+         result[ii] = last(percentiles[ii]);
+      }
+      return result;
+   }
+   
+   /**
+    * @brief The percentile rank of a value within the window.
+    * 
+    * The inverse of "last", using the same interpolation. Values below the
+    * window minimum have rank 0, values above the maximum have rank 1. For
+    * repeated values, the highest rank is returned.
+    */
+   public double rank(double value) {
+      if(count < length) return Double.NaN;
+      
+      int id = upperBound(value);
+      if(id == 0) return 0.0;
+      if(id == length) return 1.0;
+      
+      double n = id + (value - sorted[id - 1])/(sorted[id] - sorted[id - 1]);
+      return (n - 1.0)/(length - 1.0);
+   }
 }
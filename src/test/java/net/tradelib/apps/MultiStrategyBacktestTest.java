@@ -0,0 +1,142 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.apps;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.tradelib.core.Bar;
+import net.tradelib.core.BarHistory;
+import net.tradelib.core.HistoricalDataFeed;
+import net.tradelib.core.IBarListener;
+import net.tradelib.core.Instrument;
+import net.tradelib.core.InstrumentVariation;
+import net.tradelib.core.Series;
+import net.tradelib.core.Strategy;
+import net.tradelib.core.TradeSummary;
+
+import org.junit.Test;
+
+public class MultiStrategyBacktestTest {
+   
+   private static class ListDataFeed extends HistoricalDataFeed {
+      private List<Bar> bars;
+      
+      public ListDataFeed(List<Bar> bars) { this.bars = bars; }
+      
+      @Override
+      public void configure(String config) throws Exception {}
+      
+      @Override
+      public void start() throws Exception {
+         for(Bar bar : bars) {
+            if(!subscriptions.contains(bar.getSymbol())) continue;
+            for(IBarListener listener : barListeners) listener.barNotification(bar);
+         }
+      }
+      
+      @Override
+      public Instrument getInstrument(String symbol) throws Exception {
+         return Instrument.makeFuture(symbol, new BigDecimal("0.25"), new BigDecimal("50"));
+      }
+      
+      @Override
+      public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception { return null; }
+   }
+   
+   // Long when the close of "symbol" is above its close "length" bars ago
+   private static class MomentumStrategy extends Strategy {
+      private String symbol;
+      private int length;
+      
+      public MomentumStrategy(String symbol, int length) {
+         this.symbol = symbol;
+         this.length = length;
+         setName("momentum-" + symbol + "-" + length);
+      }
+      
+      @Override
+      public void start() throws Exception {
+         subscribe(symbol);
+         super.start();
+      }
+      
+      @Override
+      protected void onBarClose(BarHistory history, Bar bar) throws Exception {
+         if(history.size() <= length) return;
+         
+         long position = getBroker().getPosition(getBroker().getInstrument(bar.getSymbol())).quantity;
+         if(position == 0 && history.getClose() > history.getClose(length)) {
+            enterLong(bar.getSymbol(), 1);
+         } else if(position > 0 && history.getClose() < history.getClose(length)) {
+            exitLong(bar.getSymbol());
+         }
+      }
+   }
+   
+   private static List<Strategy> newStrategies() {
+      return Arrays.asList(
+               new MomentumStrategy("ES", 5),
+               new MomentumStrategy("ES", 20),
+               new MomentumStrategy("NQ", 10));
+   }
+   
+   @Test
+   public void testRun() throws Exception {
+      List<Bar> bars = new ArrayList<Bar>();
+      for(int ii = 0; ii < 400; ++ii) {
+         double es = 2000.0 + 100.0*Math.sin(ii/20.0) + ii;
+         double nq = 4000.0 + 150.0*Math.cos(ii/15.0) - ii;
+         bars.add(new Bar("ES", LocalDate.of(2014, 1, 1).plusDays(ii).atStartOfDay(),
+                          es - 1.0, es + 5.0, es - 5.0, es, 1000));
+         bars.add(new Bar("NQ", LocalDate.of(2014, 1, 1).plusDays(ii).atStartOfDay(),
+                          nq - 1.0, nq + 5.0, nq - 5.0, nq, 1000));
+      }
+      
+      List<Strategy> strategies = newStrategies();
+      List<MultiStrategyBacktest.Result> results = MultiStrategyBacktest.run(new ListDataFeed(bars), null, strategies);
+      assertEquals(strategies.size(), results.size());
+      
+      // Each strategy must produce the same results as when backtested alone
+      List<Strategy> expected = newStrategies();
+      for(int ii = 0; ii < expected.size(); ++ii) {
+         MultiStrategyBacktest.Result result = results.get(ii);
+         assertTrue(result.isSuccess());
+         assertSame(strategies.get(ii), result.strategy);
+         
+         StrategyBacktest.run(new ListDataFeed(bars), expected.get(ii));
+         
+         TradeSummary actualSummary = result.strategy.getTotalTradeSummary();
+         TradeSummary expectedSummary = expected.get(ii).getTotalTradeSummary();
+         assertTrue(expectedSummary.numTrades > 0);
+         assertEquals(expectedSummary.numTrades, actualSummary.numTrades);
+         assertEquals(expectedSummary.grossProfits, actualSummary.grossProfits, 1e-8);
+         assertEquals(expectedSummary.grossLosses, actualSummary.grossLosses, 1e-8);
+         
+         Series actualEquity = result.strategy.getEndEquity();
+         Series expectedEquity = expected.get(ii).getEndEquity();
+         assertEquals(expectedEquity.size(), actualEquity.size());
+         for(int jj = 0; jj < expectedEquity.size(); ++jj) {
+            assertEquals(expectedEquity.getTimestamp(jj), actualEquity.getTimestamp(jj));
+            assertEquals(expectedEquity.get(jj), actualEquity.get(jj), 1e-8);
+         }
+      }
+   }
+}
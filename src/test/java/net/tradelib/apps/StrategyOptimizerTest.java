@@ -0,0 +1,155 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.apps;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import net.tradelib.core.Bar;
+import net.tradelib.core.BarCache;
+import net.tradelib.core.BarHistory;
+import net.tradelib.core.HistoricalDataFeed;
+import net.tradelib.core.IBarListener;
+import net.tradelib.core.Instrument;
+import net.tradelib.core.InstrumentVariation;
+import net.tradelib.core.Strategy;
+
+import org.junit.Test;
+
+public class StrategyOptimizerTest {
+   
+   private static class ListDataFeed extends HistoricalDataFeed {
+      private List<Bar> bars;
+      
+      public ListDataFeed(List<Bar> bars) { this.bars = bars; }
+      
+      @Override
+      public void configure(String config) throws Exception {}
+      
+      @Override
+      public void start() throws Exception {
+         for(Bar bar : bars) {
+            if(!subscriptions.contains(bar.getSymbol())) continue;
+            for(IBarListener listener : barListeners) listener.barNotification(bar);
+         }
+      }
+      
+      @Override
+      public Instrument getInstrument(String symbol) throws Exception {
+         return Instrument.makeFuture(symbol, new BigDecimal("0.25"), new BigDecimal("50"));
+      }
+      
+      @Override
+      public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception { return null; }
+   }
+   
+   // Long when the close is above the close "length" bars ago
+   private static class MomentumStrategy extends Strategy {
+      private int length;
+      
+      public MomentumStrategy(int length) {
+         this.length = length;
+         setName("momentum-" + length);
+      }
+      
+      @Override
+      public void start() throws Exception {
+         subscribe("ES");
+         super.start();
+      }
+      
+      @Override
+      protected void onBarClose(BarHistory history, Bar bar) throws Exception {
+         if(history.size() <= length) return;
+         
+         long position = getBroker().getPosition(getBroker().getInstrument(bar.getSymbol())).quantity;
+         if(position == 0 && history.getClose() > history.getClose(length)) {
+            enterLong(bar.getSymbol(), 1);
+         } else if(position > 0 && history.getClose() < history.getClose(length)) {
+            exitLong(bar.getSymbol());
+         }
+      }
+   }
+   
+   @Test
+   public void testSamplers() {
+      List<StrategyOptimizer.Parameter> parameters = Arrays.asList(
+               new StrategyOptimizer.Parameter("a", 1, 5, 1),
+               new StrategyOptimizer.Parameter("b", 0.1, 0.3, 0.1));
+      
+      List<Map<String, Double>> grid = StrategyOptimizer.grid(parameters);
+      assertEquals(15, grid.size());
+      assertEquals(1.0, grid.get(0).get("a"), 1e-8);
+      assertEquals(0.3, grid.get(14).get("b"), 1e-8);
+      
+      List<Map<String, Double>> lhs = StrategyOptimizer.latinHypercube(
+               Arrays.asList(new StrategyOptimizer.Parameter("a", 0, 5), parameters.get(1)), 5, 1);
+      assertEquals(5, lhs.size());
+      // Each stratum of "a" is used exactly once
+      boolean [] seen = new boolean[5];
+      for(Map<String, Double> map : lhs) {
+         int aa = (int)Math.floor(map.get("a"));
+         assertFalse(seen[aa]);
+         seen[aa] = true;
+         assertTrue(map.get("b") >= 0.1 - 1e-8 && map.get("b") <= 0.3 + 1e-8);
+      }
+      
+      for(Map<String, Double> map : StrategyOptimizer.random(parameters, 20, 1)) {
+         assertTrue(map.get("a") >= 1.0 && map.get("a") <= 5.0);
+      }
+   }
+
+   @Test
+   public void testOptimize() throws Exception {
+      List<Bar> bars = new ArrayList<Bar>();
+      for(int ii = 0; ii < 400; ++ii) {
+         double close = 2000.0 + 100.0*Math.sin(ii/20.0) + ii;
+         bars.add(new Bar("ES", LocalDate.of(2014, 1, 1).plusDays(ii).atStartOfDay(),
+                          close - 1.0, close + 5.0, close - 5.0, close, 1000));
+      }
+      
+      BarCache cache = BarCache.load(new ListDataFeed(bars), Arrays.asList("ES"));
+      assertEquals(400, cache.size());
+      
+      StrategyOptimizer optimizer = new StrategyOptimizer(
+               (Map<String, Double> params) -> new MomentumStrategy(params.get("length").intValue()),
+               cache);
+      optimizer.setParallelism(2);
+      
+      List<Map<String, Double>> parameterSets = StrategyOptimizer.grid(
+               Arrays.asList(new StrategyOptimizer.Parameter("length", 2, 20, 2)));
+      List<StrategyOptimizer.Result> results = optimizer.optimize(parameterSets);
+      
+      assertEquals(parameterSets.size(), results.size());
+      for(int ii = 0; ii < results.size(); ++ii) {
+         assertNull(results.get(ii).exception);
+         assertTrue(results.get(ii).summary.numTrades > 0);
+         if(ii > 0) assertTrue(results.get(ii - 1).summary.sharpeRatio >= results.get(ii).summary.sharpeRatio);
+      }
+      
+      // The same parameters must produce the same results sequentially
+      StrategyOptimizer.Result best = results.get(0);
+      optimizer.setParallelism(1);
+      List<StrategyOptimizer.Result> again = optimizer.optimize(Arrays.asList(best.parameters));
+      assertEquals(best.summary.sharpeRatio, again.get(0).summary.sharpeRatio, 1e-10);
+      assertEquals(best.summary.numTrades, again.get(0).summary.numTrades);
+   }
+}
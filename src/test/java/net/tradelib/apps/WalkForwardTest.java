@@ -0,0 +1,158 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.apps;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import net.tradelib.core.Bar;
+import net.tradelib.core.BarCache;
+import net.tradelib.core.BarHistory;
+import net.tradelib.core.HistoricalDataFeed;
+import net.tradelib.core.IBarListener;
+import net.tradelib.core.Instrument;
+import net.tradelib.core.InstrumentVariation;
+import net.tradelib.core.Series;
+import net.tradelib.core.Strategy;
+
+import org.junit.Test;
+
+public class WalkForwardTest {
+   
+   private static class ListDataFeed extends HistoricalDataFeed {
+      private List<Bar> bars;
+      
+      public ListDataFeed(List<Bar> bars) { this.bars = bars; }
+      
+      @Override
+      public void configure(String config) throws Exception {}
+      
+      @Override
+      public void start() throws Exception {
+         for(Bar bar : bars) {
+            if(!subscriptions.contains(bar.getSymbol())) continue;
+            for(IBarListener listener : barListeners) listener.barNotification(bar);
+         }
+      }
+      
+      @Override
+      public Instrument getInstrument(String symbol) throws Exception {
+         return Instrument.makeFuture(symbol, new BigDecimal("0.25"), new BigDecimal("50"));
+      }
+      
+      @Override
+      public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception { return null; }
+   }
+   
+   // Long when the close is above the close "length" bars ago
+   private static class MomentumStrategy extends Strategy {
+      private int length;
+      
+      public MomentumStrategy(int length) {
+         this.length = length;
+         setName("momentum-" + length);
+      }
+      
+      @Override
+      public void start() throws Exception {
+         subscribe("ES");
+         super.start();
+      }
+      
+      @Override
+      protected void onBarClose(BarHistory history, Bar bar) throws Exception {
+         if(history.size() <= length) return;
+         
+         long position = getBroker().getPosition(getBroker().getInstrument(bar.getSymbol())).quantity;
+         if(position == 0 && history.getClose() > history.getClose(length)) {
+            enterLong(bar.getSymbol(), 1);
+         } else if(position > 0 && history.getClose() < history.getClose(length)) {
+            exitLong(bar.getSymbol());
+         }
+      }
+   }
+   
+   @Test
+   public void testWindows() {
+      LocalDateTime start = LocalDate.of(2010, 1, 1).atStartOfDay();
+      LocalDateTime end = LocalDate.of(2012, 3, 1).atStartOfDay();
+      
+      List<WalkForward.Window> rolling = WalkForward.windows(start, end, Period.ofYears(1), Period.ofMonths(6), false);
+      assertEquals(3, rolling.size());
+      assertEquals(LocalDate.of(2011, 1, 1).atStartOfDay(), rolling.get(0).outOfSampleStart);
+      assertEquals(LocalDate.of(2011, 7, 1).atStartOfDay(), rolling.get(0).outOfSampleEnd);
+      assertEquals(LocalDate.of(2011, 1, 1).atStartOfDay(), rolling.get(2).inSampleStart);
+      // The last window is truncated
+      assertEquals(end, rolling.get(2).outOfSampleEnd);
+      
+      List<WalkForward.Window> anchored = WalkForward.windows(start, end, Period.ofYears(1), Period.ofMonths(6), true);
+      assertEquals(3, anchored.size());
+      for(WalkForward.Window window : anchored) assertEquals(start, window.inSampleStart);
+   }
+   
+   @Test
+   public void testRun() throws Exception {
+      List<Bar> bars = new ArrayList<Bar>();
+      for(int ii = 0; ii < 720; ++ii) {
+         double close = 2000.0 + 100.0*Math.sin(ii/20.0) + 50.0*Math.sin(ii/7.0) + ii;
+         bars.add(new Bar("ES", LocalDate.of(2014, 1, 1).plusDays(ii).atStartOfDay(),
+                          close - 1.0, close + 5.0, close - 5.0, close, 1000));
+      }
+      BarCache cache = BarCache.load(new ListDataFeed(bars), Arrays.asList("ES"));
+      
+      List<Map<String, Double>> parameterSets = StrategyOptimizer.grid(
+               Arrays.asList(new StrategyOptimizer.Parameter("length", 2, 20, 3)));
+      WalkForward walkForward = new WalkForward(
+               (Map<String, Double> params) -> new MomentumStrategy(params.get("length").intValue()),
+               cache, parameterSets);
+      walkForward.setParallelism(3);
+      
+      List<WalkForward.Window> windows = walkForward.windows(Period.ofMonths(6), Period.ofMonths(3), false);
+      assertEquals(6, windows.size());
+      Series equity = walkForward.run(windows, 100000.0);
+      
+      double total = 0.0;
+      for(WalkForward.Window window : windows) {
+         assertTrue(window.isSuccess());
+         assertNotNull(window.parameters);
+         for(int ii = 0; ii < window.outOfSamplePnl.size(); ++ii) {
+            LocalDateTime ts = window.outOfSamplePnl.getTimestamp(ii);
+            assertFalse(ts.isBefore(window.outOfSampleStart));
+            assertTrue(ts.isBefore(window.outOfSampleEnd));
+         }
+         total += window.getOutOfSampleNetPnl();
+      }
+      assertTrue(equity.size() > 0);
+      assertEquals(100000.0 + total, equity.get(equity.size() - 1), 1e-6);
+      
+      // The windows are independent, running them sequentially gives the same results
+      List<WalkForward.Window> sequential = walkForward.windows(Period.ofMonths(6), Period.ofMonths(3), false);
+      walkForward.setParallelism(1);
+      Series again = walkForward.run(sequential, 100000.0);
+      assertEquals(equity.size(), again.size());
+      assertEquals(equity.get(equity.size() - 1), again.get(again.size() - 1), 1e-6);
+      for(int ii = 0; ii < windows.size(); ++ii) {
+         assertEquals(windows.get(ii).parameters, sequential.get(ii).parameters);
+      }
+   }
+}
@@ -586,4 +586,39 @@ public class AccountTest {
          assertEquals(expected.get(ldt, "Txn.Fees"), actual.get(ii, "fees"), 1e-8);
       }
    }
+   
+   @Test
+   public void testIncrementalEndEquity() throws Exception {
+      LocalDateTime start = LocalDate.of(2000, 1, 3).atTime(17, 0);
+      Account account = new Account(start, 10000.0);
+      
+      double expected = 10000.0;
+      for(int ii = 1; ii <= 2000; ++ii) {
+         LocalDateTime ldt = start.plusDays(ii);
+         account.add(ldt, 10.0);
+         account.addInterest(ldt.plusHours(1), 0.5);
+         expected += 10.5;
+         
+         // Updating at an earlier point is a no-op
+         account.updateEndEquity(ldt.minusDays(1));
+         account.updateEndEquity(ldt.plusHours(2));
+         assertEquals(expected, account.getEndEquity(), 1e-8);
+         assertEquals(ldt.plusHours(1), account.getEndEquityTimestamp());
+      }
+      
+      assertEquals(10000.0 + 10.0, account.getEndEquity(start.plusDays(1)), 1e-8);
+   }
+   
+   @Test
+   public void testDefaultStart() throws Exception {
+      // The default account starts at LocalDateTime.MIN
+      Account account = new Account();
+      account.add(LocalDate.of(2014, 1, 2).atTime(17, 0), 100.0);
+      account.updateEndEquity();
+      
+      Series equity = account.getEquity();
+      assertEquals(2, equity.size());
+      assertEquals(LocalDateTime.MIN, equity.getTimestamp(0));
+      assertEquals(100.0, equity.get(1), 1e-8);
+   }
 }
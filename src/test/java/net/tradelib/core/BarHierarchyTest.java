@@ -0,0 +1,162 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+import org.junit.Test;
+
+public class BarHierarchyTest {
+
+   @Test
+   public void testSymbolIds() {
+      int esId = SymbolRegistry.getId("BHT_ES");
+      int nqId = SymbolRegistry.getId("BHT_NQ");
+      assertNotEquals(esId, nqId);
+      assertEquals(esId, SymbolRegistry.getId("BHT_ES"));
+      assertEquals("BHT_NQ", SymbolRegistry.getSymbol(nqId));
+      assertEquals(-1, SymbolRegistry.findId("BHT_UNKNOWN"));
+      
+      Bar bar = new Bar("BHT_ES", LocalDate.of(2014, 1, 2).atStartOfDay(), 1.0, 2.0, 0.5, 1.5, 100);
+      assertEquals(esId, bar.getSymbolId());
+      bar.setSymbol("BHT_NQ");
+      assertEquals(nqId, bar.getSymbolId());
+   }
+   
+   @Test
+   public void testHistories() {
+      BarHierarchy hierarchy = new BarHierarchy(10);
+      assertNull(hierarchy.getHistory("BHT_CL", Duration.ofDays(1)));
+      assertNull(hierarchy.getHistory("BHT_NEVER_SEEN", Duration.ofDays(1)));
+      assertEquals(-1, SymbolRegistry.findId("BHT_NEVER_SEEN"));
+      
+      hierarchy.addSymbol("BHT_CL");
+      BarHistory daily = hierarchy.getHistory("BHT_CL", Duration.ofDays(1));
+      BarHistory hourly = hierarchy.getHistory("BHT_CL", Duration.ofHours(1));
+      assertNotNull(daily);
+      assertNotSame(daily, hourly);
+      assertSame(daily, hierarchy.getHistory("BHT_CL", Duration.ofDays(1)));
+      
+      Bar bar = new Bar("BHT_CL", LocalDate.of(2014, 1, 2).atStartOfDay(), 1.0, 2.0, 0.5, 1.5, 100);
+      assertSame(daily, hierarchy.getHistory(bar));
+   }
+   
+   @Test
+   public void testIntradayResolutions() throws Exception {
+      BarHierarchy hierarchy = new BarHierarchy();
+      hierarchy.addSymbol("BHT_RES");
+      BarHistory fiveMin = hierarchy.addResolution("BHT_RES", Duration.ofMinutes(5));
+      BarHistory hourly = hierarchy.addResolution("BHT_RES", Duration.ofHours(1));
+      BarHistory daily = hierarchy.addResolution("BHT_RES", Duration.ofDays(1));
+      assertSame(fiveMin, hierarchy.addResolution("BHT_RES", Duration.ofMinutes(5)));
+      
+      // Two sessions of minute bars, 09:30 to 15:59
+      LocalDateTime [] days = { LocalDate.of(2015, 3, 2).atTime(9, 30), LocalDate.of(2015, 3, 3).atTime(9, 30) };
+      for(int dd = 0; dd < days.length; ++dd) {
+         for(int ii = 0; ii < 390; ++ii) {
+            double price = 100.0 + dd*10 + ii*0.01;
+            Bar bar = new Bar("BHT_RES", Duration.ofMinutes(1), days[dd].plusMinutes(ii),
+                              price, price + 0.5, price - 0.5, price + 0.1, 0, 10, 0);
+            assertNotNull(hierarchy.add(bar));
+            
+            // The bar ending the five minute period completes it
+            if(ii % 5 == 4) {
+               assertNull(hierarchy.getPartialBar("BHT_RES", Duration.ofMinutes(5)));
+            } else {
+               Bar partial = hierarchy.getPartialBar("BHT_RES", Duration.ofMinutes(5));
+               assertEquals(10*(ii % 5 + 1), partial.getVolume());
+               assertEquals(price + 0.1, partial.getClose(), 1e-9);
+            }
+         }
+         
+         // The session doesn't run until midnight, the day is still forming
+         Bar partialDay = hierarchy.getPartialBar("BHT_RES", Duration.ofDays(1));
+         assertNotNull(partialDay);
+         assertEquals(days[dd].toLocalDate().atStartOfDay(), partialDay.getDateTime());
+         assertEquals(3900, partialDay.getVolume());
+      }
+      
+      assertEquals(780, hierarchy.getHistory("BHT_RES", Duration.ofMinutes(1)).size());
+      assertEquals(156, fiveMin.size());
+      assertEquals(LocalDate.of(2015, 3, 3).atTime(15, 55), fiveMin.getDateTime());
+      assertEquals(50, fiveMin.getVolume());
+      
+      // Seven hourly bars a day, the 15:00 bar is completed by the 15:59 minute bar
+      assertEquals(14, hourly.size());
+      assertEquals(LocalDate.of(2015, 3, 2).atTime(9, 0), hourly.getDateTime(13));
+      assertEquals(300, hourly.getVolume(13));
+      assertEquals(600, hourly.getVolume(12));
+      assertNull(hierarchy.getPartialBar("BHT_RES", Duration.ofHours(1)));
+      
+      // The first bar of the second day completed the first day
+      assertEquals(1, daily.size());
+      assertEquals(100.0, daily.getOpen(), 1e-9);
+      assertEquals(100.0 + 389*0.01 + 0.5, daily.getHigh(), 1e-9);
+      assertEquals(99.5, daily.getLow(), 1e-9);
+      assertEquals(100.0 + 389*0.01 + 0.1, daily.getClose(), 1e-9);
+      
+      hierarchy.flush();
+      assertEquals(2, daily.size());
+      assertEquals(14, hourly.size());
+      assertNull(hierarchy.getPartialBar("BHT_RES", Duration.ofDays(1)));
+   }
+   
+   @Test
+   public void testWeeklyAndMonthly() throws Exception {
+      BarHierarchy hierarchy = new BarHierarchy();
+      hierarchy.addSymbol("BHT_WM");
+      BarHistory weekly = hierarchy.addResolution("BHT_WM", BarHierarchy.WEEK);
+      BarHistory monthly = hierarchy.addResolution("BHT_WM", BarHierarchy.MONTH);
+      // Not coarser than the daily bars, ignored
+      BarHistory hourly = hierarchy.addResolution("BHT_WM", Duration.ofHours(1));
+      
+      // The weekdays from Thursday, 2015-01-01 to Friday, 2015-02-27
+      int numDays = 0;
+      for(LocalDate ld = LocalDate.of(2015, 1, 1); !ld.isAfter(LocalDate.of(2015, 2, 27)); ld = ld.plusDays(1)) {
+         if(ld.getDayOfWeek().getValue() > 5) continue;
+         double price = ld.getDayOfYear();
+         hierarchy.add(new Bar("BHT_WM", ld.atStartOfDay(), price, price + 1, price - 1, price, 1));
+         ++numDays;
+      }
+      
+      assertEquals(0, hourly.size());
+      
+      // The week of 2015-02-23 is still forming
+      assertEquals(8, weekly.size());
+      assertEquals(LocalDate.of(2014, 12, 29).atStartOfDay(), weekly.getDateTime(7));
+      assertEquals(2, weekly.getVolume(7));
+      assertEquals(LocalDate.of(2015, 2, 16).atStartOfDay(), weekly.getDateTime());
+      assertEquals(5, weekly.getVolume());
+      assertEquals(LocalDate.of(2015, 2, 16).getDayOfYear() - 1, weekly.getLow(), 1e-9);
+      assertEquals(LocalDate.of(2015, 2, 20).getDayOfYear() + 1, weekly.getHigh(), 1e-9);
+      Bar partialWeek = hierarchy.getPartialBar("BHT_WM", BarHierarchy.WEEK);
+      assertEquals(LocalDate.of(2015, 2, 23).atStartOfDay(), partialWeek.getDateTime());
+      assertEquals(BarHierarchy.WEEK, partialWeek.getDuration());
+      
+      assertEquals(1, monthly.size());
+      assertEquals(LocalDate.of(2015, 1, 1).atStartOfDay(), monthly.getDateTime());
+      assertEquals(22, monthly.getVolume());
+      assertEquals(numDays - 22, hierarchy.getPartialBar("BHT_WM", BarHierarchy.MONTH).getVolume());
+   }
+   
+   @Test(expected = IllegalArgumentException.class)
+   public void testUnsupportedResolution() {
+      new BarHierarchy().addResolution("BHT_WM", Duration.ofDays(3));
+   }
+}
@@ -0,0 +1,119 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+
+import net.tradelib.functors.Atr;
+import net.tradelib.functors.Max;
+import net.tradelib.functors.Sma;
+
+import org.junit.Test;
+
+public class BarHistoryTest {
+   
+   private static Bar makeBar(int ii) {
+      return new Bar("ES", LocalDate.of(2014, 1, 1).plusDays(ii).atStartOfDay(),
+                     ii + 1.0, ii + 2.0, ii + 0.5, ii + 1.5, 1000 + ii);
+   }
+
+   @Test
+   public void testGrowable() {
+      BarHistory history = new BarHistory();
+      for(int ii = 0; ii < 1000; ++ii) history.add(makeBar(ii));
+      
+      assertEquals(1000, history.size());
+      assertEquals(1000, history.getCount());
+      assertEquals(1000.5, history.getClose(), 1e-8);
+      assertEquals(1.5, history.getClose(999), 1e-8);
+      assertEquals(1999, history.getVolume());
+      assertEquals(1998.0, history.volume.get(1), 1e-8);
+      assertEquals(999.0, history.high.get(2), 1e-8);
+      assertEquals(LocalDate.of(2014, 1, 1).atStartOfDay(), history.getDateTime(999));
+      assertEquals((1000.5 + 999.5 + 998.5)/3.0, history.close.sma(3), 1e-8);
+      
+      Bar bar = history.getBar(10);
+      assertEquals("ES", bar.getSymbol());
+      assertEquals(990.0, bar.getOpen(), 1e-8);
+      
+      assertEquals(1000, history.getCloseSeries().size());
+      assertEquals(1.5, history.getCloseSeries().get(0), 1e-8);
+   }
+   
+   @Test
+   public void testLookback() {
+      BarHistory history = new BarHistory(50);
+      for(int ii = 0; ii < 30; ++ii) history.add(makeBar(ii));
+      assertEquals(30, history.size());
+      assertEquals(1.5, history.getClose(29), 1e-8);
+      
+      for(int ii = 30; ii < 175; ++ii) history.add(makeBar(ii));
+      assertEquals(50, history.size());
+      assertEquals(175, history.getCount());
+      for(int id = 0; id < 50; ++id) {
+         assertEquals(174 - id + 1.5, history.getClose(id), 1e-8);
+         assertEquals(174 - id + 1.0, history.open.get(id), 1e-8);
+      }
+      
+      try {
+         history.getClose(50);
+         fail("the bar is no longer retained");
+      } catch(IndexOutOfBoundsException ee) {
+      }
+      
+      TimeSeries<Double> closes = history.getCloseSeries();
+      assertEquals(50, closes.size());
+      assertEquals(125 + 1.5, closes.get(0), 1e-8);
+   }
+   
+   @Test
+   public void testIndicators() {
+      BarHistory history = new BarHistory(100);
+      for(int ii = 0; ii < 10; ++ii) history.add(makeBar(ii*ii % 17));
+      
+      // Attached after some bars, the existing bars are replayed
+      BarHistory.Indicator sma = history.close.attachSma(5);
+      BarHistory.Indicator max = history.high.attachMax(20);
+      BarHistory.Indicator smaSma = sma.attachSma(3);
+      BarHistory.Indicator atr = history.attachAtr(14);
+      
+      Sma smaRef = new Sma(5);
+      Max maxRef = new Max(20);
+      Atr atrRef = new Atr(14);
+      double [] smas = new double[300];
+      for(int ii = 0; ii < 300; ++ii) {
+         Bar bar = makeBar(ii*ii % 17);
+         if(ii >= 10) history.add(bar);
+         
+         smas[ii] = smaRef.add(bar.getClose());
+         maxRef.add(bar.getHigh());
+         atrRef.add(bar.getHigh(), bar.getLow(), bar.getClose());
+         
+         if(ii < 10) continue;
+         
+         assertEquals(smas[ii], sma.last(), 1e-8);
+         assertEquals(history.close.sma(5), sma.get(0), 1e-8);
+         if(ii >= 4) assertEquals(smas[ii - 4], sma.get(4), 1e-8);
+         assertEquals(maxRef.last(), max.get(0), 1e-8);
+         assertEquals(atrRef.last(), atr.get(0), 1e-8);
+         if(ii >= 6) assertEquals((smas[ii] + smas[ii - 1] + smas[ii - 2])/3.0, smaSma.get(0), 1e-8);
+      }
+      
+      assertEquals(100, history.size());
+      assertEquals(smas[299 - 99], sma.get(99), 1e-8);
+   }
+}
@@ -0,0 +1,100 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package net.tradelib.core;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BinaryDataFeedTest {
+   
+   private List<Bar> makeBars(String symbol, LocalDateTime start, int count, int step) {
+      List<Bar> bars = new ArrayList<Bar>();
+      for(int ii = 0; ii < count; ++ii) {
+         double price = 100.0 + ii;
+         bars.add(new Bar(symbol, start.plusDays(ii*step), price, price + 1.0, price - 1.0, price + 0.5, 1000 + ii));
+      }
+      return bars;
+   }
+
+   @Test
+   public void testBarFile() throws Exception {
+      Path dir = Files.createTempDirectory("bars");
+      Path path = BinaryDataFeed.getBarFilePath(dir, "ES");
+      
+      List<Bar> bars = makeBars("ES", LocalDateTime.of(2014, 1, 2, 0, 0), 10, 1);
+      BarFile.write(path, bars);
+      
+      try(BarFile file = BarFile.open(path, "ES")) {
+         assertEquals(10, file.size());
+         for(int ii = 0; ii < bars.size(); ++ii) {
+            Bar bar = file.getBar(ii);
+            assertEquals("ES", bar.getSymbol());
+            assertEquals(bars.get(ii).getDateTime(), bar.getDateTime());
+            assertEquals(bars.get(ii).getOpen(), bar.getOpen(), 0.0);
+            assertEquals(bars.get(ii).getHigh(), bar.getHigh(), 0.0);
+            assertEquals(bars.get(ii).getLow(), bar.getLow(), 0.0);
+            assertEquals(bars.get(ii).getClose(), bar.getClose(), 0.0);
+            assertEquals(bars.get(ii).getVolume(), bar.getVolume());
+            assertEquals(bars.get(ii).getDuration(), bar.getDuration());
+         }
+         
+         assertEquals(3, file.lowerBound(LocalDateTime.of(2014, 1, 5, 0, 0)));
+         assertEquals(4, file.upperBound(LocalDateTime.of(2014, 1, 5, 0, 0)));
+         assertEquals(0, file.lowerBound(LocalDateTime.of(2000, 1, 1, 0, 0)));
+         assertEquals(10, file.lowerBound(LocalDateTime.of(2020, 1, 1, 0, 0)));
+      }
+   }
+   
+   @Test
+   public void testFeedOrder() throws Exception {
+      Path dir = Files.createTempDirectory("bars");
+      BarFile.write(BinaryDataFeed.getBarFilePath(dir, "ES"), makeBars("ES", LocalDateTime.of(2014, 1, 2, 0, 0), 10, 1));
+      BarFile.write(BinaryDataFeed.getBarFilePath(dir, "OJ"), makeBars("OJ", LocalDateTime.of(2014, 1, 1, 0, 0), 5, 2));
+      
+      BinaryDataFeed feed = new BinaryDataFeed();
+      feed.setBarsDir(dir);
+      feed.subscribe("ES");
+      feed.subscribe("OJ");
+      feed.setFeedStart(LocalDateTime.of(2014, 1, 3, 0, 0));
+      
+      List<Bar> received = new ArrayList<Bar>();
+      feed.addBarListener((Bar bar) -> received.add(bar));
+      feed.start();
+      
+      // ES: 01-03 .. 01-11 (9 bars), OJ: 01-03 .. 01-09 (4 bars)
+      assertEquals(13, received.size());
+      for(int ii = 1; ii < received.size(); ++ii) {
+         assertFalse(received.get(ii).getDateTime().isBefore(received.get(ii-1).getDateTime()));
+      }
+      
+      int lastCount = 0;
+      for(Bar bar : received) {
+         if(bar.isLast()) {
+            ++lastCount;
+            if(bar.getSymbol().equals("ES")) assertEquals(LocalDateTime.of(2014, 1, 11, 0, 0), bar.getDateTime());
+            else assertEquals(LocalDateTime.of(2014, 1, 9, 0, 0), bar.getDateTime());
+         }
+      }
+      assertEquals(2, lastCount);
+   }
+}
@@ -0,0 +1,250 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import static org.junit.Assert.*;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class HistoricalReplayTest {
+   
+   private static class ListDataFeed extends HistoricalDataFeed {
+      private List<Bar> bars;
+      
+      public ListDataFeed(List<Bar> bars) { this.bars = bars; }
+      
+      @Override
+      public void configure(String config) throws Exception {}
+      
+      @Override
+      public void start() throws Exception {
+         for(Bar bar : bars) {
+            for(IBarListener listener : barListeners) listener.barNotification(bar);
+         }
+      }
+      
+      @Override
+      public Instrument getInstrument(String symbol) throws Exception {
+         return Instrument.makeFuture(symbol);
+      }
+      
+      @Override
+      public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception {
+         return null;
+      }
+   }
+   
+   @Test
+   public void testEpochTime() throws Exception {
+      LocalDateTime ldt = LocalDateTime.of(1965, 3, 4, 9, 0, 1, 1000);
+      long nanos = EpochTime.toNanos(ldt);
+      assertEquals(ldt, EpochTime.fromNanos(nanos));
+      assertEquals(ldt.toLocalDate().atStartOfDay(), EpochTime.fromNanos(EpochTime.startOfDay(nanos)));
+      
+      Bar bar = new Bar("ES", Duration.ofDays(1), nanos, 1, 2, 0.5, 1.5, 0, 100, 0);
+      assertEquals(ldt, bar.getDateTime());
+      assertEquals(nanos, new Bar(bar).getEpochNanos());
+   }
+   
+   @Test
+   public void testPeriods() throws Exception {
+      List<Bar> bars = new ArrayList<Bar>();
+      for(int ii = 0; ii < 3; ++ii) {
+         LocalDateTime ts = LocalDate.of(2014, 1, 2 + ii).atStartOfDay();
+         bars.add(new Bar("ES", ts, 100 + ii, 101 + ii, 99 + ii, 100.5 + ii, 1000));
+         bars.add(new Bar("NQ", ts, 200 + ii, 201 + ii, 199 + ii, 200.5 + ii, 1000));
+      }
+      
+      HistoricalReplay broker = new HistoricalReplay();
+      broker.setDataFeed(new ListDataFeed(bars));
+      
+      List<String> events = new ArrayList<String>();
+      List<Execution> executions = new ArrayList<Execution>();
+      broker.addBrokerListener(new IBrokerListener() {
+         public void barOpenHandler(Bar bar) throws Exception {
+            events.add("open " + bar.getSymbol());
+            assertEquals(LocalDateTime.of(bar.getDateTime().toLocalDate(), LocalTime.of(9, 0, 1)), bar.getDateTime());
+         }
+         public void barCloseHandler(Bar bar) throws Exception {
+            events.add("close " + bar.getSymbol());
+         }
+         public void barClosedHandler(Bar bar) throws Exception {
+            events.add("closed " + bar.getSymbol());
+            if(bar.getSymbol().equals("ES") && events.size() == 5) broker.submitOrder(Order.enterLong("ES", 1));
+         }
+         public void orderExecutedHandler(OrderNotification on) throws Exception {
+            executions.add(on.execution);
+         }
+      });
+      broker.start();
+      
+      // All bars of a period are opened before any of them is closed
+      assertEquals(18, events.size());
+      assertEquals("open ES", events.get(0));
+      assertEquals("open NQ", events.get(1));
+      assertEquals("close ES", events.get(2));
+      assertEquals("closed NQ", events.get(5));
+      
+      // Filled at the next open, a microsecond after the tick
+      assertEquals(1, executions.size());
+      assertEquals(101.0, executions.get(0).getPrice(), 1e-8);
+      assertEquals(LocalDateTime.of(2014, 1, 3, 9, 0, 1, 1000), executions.get(0).getDateTime());
+   }
+   
+   @Test
+   public void testOcaBracket() throws Exception {
+      List<Bar> bars = new ArrayList<Bar>();
+      bars.add(new Bar("ES", LocalDate.of(2014, 1, 2).atStartOfDay(), 100, 100.5, 99.5, 100, 1000));
+      bars.add(new Bar("ES", LocalDate.of(2014, 1, 3).atStartOfDay(), 100, 103, 97, 102, 1000));
+      
+      HistoricalReplay broker = new HistoricalReplay();
+      broker.setDataFeed(new ListDataFeed(bars));
+      List<Execution> executions = new ArrayList<Execution>();
+      List<Order> bracket = new ArrayList<Order>();
+      broker.addBrokerListener(new IBrokerListener() {
+         public void barOpenHandler(Bar bar) throws Exception {}
+         public void barCloseHandler(Bar bar) throws Exception {}
+         public void barClosedHandler(Bar bar) throws Exception {
+            if(bracket.isEmpty()) {
+               bracket.add(Order.enterLongStop("ES", 1, 102.0));
+               bracket.add(Order.enterShortStop("ES", 1, 98.0));
+               for(Order order : bracket) {
+                  order.setOca("bracket");
+                  broker.submitOrder(order);
+               }
+            }
+         }
+         public void orderExecutedHandler(OrderNotification on) throws Exception {
+            executions.add(on.execution);
+         }
+      });
+      broker.start();
+      
+      // The low is replayed before the high, the short stop fills and cancels the long one
+      assertEquals(1, executions.size());
+      assertEquals(-1, executions.get(0).getQuantity());
+      assertEquals(98.0, executions.get(0).getPrice(), 1e-8);
+      assertTrue(bracket.get(0).isCancelled());
+   }
+   
+   private static List<Execution> replayBracket(List<Bar> bars, ReplaySession session, List<Bar> opens) throws Exception {
+      HistoricalReplay broker = new HistoricalReplay();
+      broker.setSession(session);
+      broker.setDataFeed(new ListDataFeed(bars));
+      List<Execution> executions = new ArrayList<Execution>();
+      broker.addBrokerListener(new IBrokerListener() {
+         public void barOpenHandler(Bar bar) throws Exception { opens.add(new Bar(bar)); }
+         public void barCloseHandler(Bar bar) throws Exception {}
+         public void barClosedHandler(Bar bar) throws Exception {
+            if(opens.size() == 1) {
+               Order longEntry = Order.enterLongStop("ES", 1, 100.25);
+               longEntry.setOca("bracket");
+               broker.submitOrder(longEntry);
+               Order shortEntry = Order.enterShortStop("ES", 1, 98.0);
+               shortEntry.setOca("bracket");
+               broker.submitOrder(shortEntry);
+            }
+         }
+         public void orderExecutedHandler(OrderNotification on) throws Exception {
+            executions.add(on.execution);
+         }
+      });
+      broker.start();
+      return executions;
+   }
+   
+   @Test
+   public void testIntradaySession() throws Exception {
+      LocalDateTime ts = LocalDateTime.of(2014, 1, 2, 10, 0);
+      List<Bar> bars = new ArrayList<Bar>();
+      bars.add(new Bar("ES", Duration.ofMinutes(1), EpochTime.toNanos(ts), 100, 100, 100, 100, 0, 10, 0));
+      // Closer to the high than to the low
+      bars.add(new Bar("ES", Duration.ofMinutes(1), EpochTime.toNanos(ts.plusMinutes(1)), 100, 100.5, 97, 99, 0, 10, 0));
+      
+      // The default path visits the low first
+      List<Bar> opens = new ArrayList<Bar>();
+      List<Execution> executions = replayBracket(bars, new ReplaySession(), opens);
+      assertEquals(2, opens.size());
+      assertEquals(ts.plusNanos(60000000), opens.get(0).getDateTime());
+      assertEquals(1, executions.size());
+      assertEquals(-1, executions.get(0).getQuantity());
+      assertEquals(98.0, executions.get(0).getPrice(), 1e-8);
+      assertEquals(ts.plusSeconds(80).plusNanos(1000), executions.get(0).getDateTime());
+      
+      opens.clear();
+      executions = replayBracket(bars, new ReplaySession().setPath(ReplaySession.Path.NEAREST_EXTREME_FIRST), opens);
+      assertEquals(1, executions.size());
+      assertEquals(1, executions.get(0).getQuantity());
+      assertEquals(100.25, executions.get(0).getPrice(), 1e-8);
+      
+      opens.clear();
+      executions = replayBracket(bars, new ReplaySession().setPath(ReplaySession.Path.OPEN_HIGH_LOW_CLOSE), opens);
+      assertEquals(1, executions.get(0).getQuantity());
+   }
+   
+   @Test
+   public void testNoAllocationPerBar() throws Exception {
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+      com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)bean;
+      Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+      threadBean.setThreadAllocatedMemoryEnabled(true);
+      
+      String [] symbols = { "ES", "NQ", "CL", "GC" };
+      int ndays = 4000;
+      List<Bar> bars = new ArrayList<Bar>(ndays*symbols.length);
+      long day = EpochTime.toNanos(LocalDate.of(2000, 1, 3).atStartOfDay());
+      for(int ii = 0; ii < ndays; ++ii, day += EpochTime.NANOS_PER_DAY) {
+         for(String symbol : symbols) {
+            bars.add(new Bar(symbol, Duration.ofDays(1), day, 100, 101, 99, 100.5, 0, 1000, 0));
+         }
+      }
+      
+      HistoricalReplay broker = new HistoricalReplay();
+      broker.setDataFeed(new ListDataFeed(bars));
+      int [] closed = new int[1];
+      broker.addBrokerListener(new IBrokerListener() {
+         public void barOpenHandler(Bar bar) throws Exception {}
+         public void barCloseHandler(Bar bar) throws Exception {}
+         public void barClosedHandler(Bar bar) throws Exception { ++closed[0]; }
+         public void orderExecutedHandler(OrderNotification on) throws Exception {}
+      });
+      // A resting order, scanned at each price, but never filled
+      broker.submitOrder(Order.enterLongLimit("ES", 1, 1.0));
+      
+      // Warm up, the instrument control blocks and the period arrays are allocated here
+      int half = bars.size()/2;
+      for(int ii = 0; ii < half; ++ii) broker.barNotification(bars.get(ii));
+      
+      closed[0] = 0;
+      long threadId = Thread.currentThread().getId();
+      long before = threadBean.getThreadAllocatedBytes(threadId);
+      for(int ii = half; ii < bars.size(); ++ii) broker.barNotification(bars.get(ii));
+      long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+      
+      assertEquals(half, closed[0]);
+      // Allow for a few stray allocations (the measurement itself), but not one per bar
+      assertTrue("allocated " + allocated + " bytes", allocated < half);
+   }
+}
@@ -0,0 +1,134 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MonteCarloTest {
+   
+   private static double [] makePnls(int count, long seed) {
+      Random random = new Random(seed);
+      double [] pnls = new double[count];
+      for(int ii = 0; ii < count; ++ii) pnls[ii] = 10.0 + 100.0*random.nextGaussian();
+      return pnls;
+   }
+   
+   @Test
+   public void testShuffle() throws Exception {
+      double [] pnls = makePnls(500, 1);
+      double sum = 0.0;
+      double negatives = 0.0;
+      for(double pnl : pnls) {
+         sum += pnl;
+         if(pnl < 0.0) negatives += pnl;
+      }
+      
+      MonteCarlo.Result result = new MonteCarlo(pnls).setMethod(MonteCarlo.Method.SHUFFLE).setNumPaths(1000).run();
+      assertEquals(1000, result.endPnl.size());
+      // A permutation keeps the sum
+      assertEquals(sum, result.endPnl.min(), 1e-6);
+      assertEquals(sum, result.endPnl.max(), 1e-6);
+      // The drawdown can't exceed the sum of the losses
+      assertTrue(result.maxDrawdown.min() >= negatives - 1e-6);
+      assertTrue(result.maxDrawdown.max() <= 0.0);
+      assertTrue(result.maxDrawdown.quantile(0.05) <= result.maxDrawdown.median());
+   }
+   
+   @Test
+   public void testBootstrap() throws Exception {
+      double [] pnls = makePnls(2000, 2);
+      double mean = 0.0;
+      for(double pnl : pnls) mean += pnl/pnls.length;
+      
+      for(MonteCarlo.Method method : new MonteCarlo.Method [] { MonteCarlo.Method.BOOTSTRAP, MonteCarlo.Method.BLOCK_BOOTSTRAP }) {
+         MonteCarlo.Result result = new MonteCarlo(pnls).setMethod(method).setNumPaths(2000).run();
+         // The end PnLs vary, centered on the input's
+         assertTrue(result.endPnl.min() < result.endPnl.max());
+         assertEquals(mean*pnls.length, result.endPnl.mean(), 0.05*mean*pnls.length);
+         assertEquals(Math.sqrt(252)*mean/100.0, result.sharpeRatio.median(), 0.15);
+      }
+   }
+   
+   @Test
+   public void testDeterministic() throws Exception {
+      double [] pnls = makePnls(1000, 3);
+      MonteCarlo.Result sequential = new MonteCarlo(pnls).setNumPaths(3000).setSeed(7).setParallelism(1).run();
+      MonteCarlo.Result parallel = new MonteCarlo(pnls).setNumPaths(3000).setSeed(7).setParallelism(4).run();
+      for(int ii = 0; ii < 3000; ++ii) {
+         assertEquals(sequential.endPnl.get(ii), parallel.endPnl.get(ii), 0.0);
+         assertEquals(sequential.maxDrawdown.get(ii), parallel.maxDrawdown.get(ii), 0.0);
+         assertEquals(sequential.sharpeRatio.get(ii), parallel.sharpeRatio.get(ii), 0.0);
+      }
+      
+      MonteCarlo.Result other = new MonteCarlo(pnls).setNumPaths(3000).setSeed(8).run();
+      assertNotEquals(sequential.endPnl.median(), other.endPnl.median(), 0.0);
+   }
+   
+   @Test
+   public void testRuin() throws Exception {
+      double [] pnls = makePnls(1000, 4);
+      MonteCarlo.Result safe = new MonteCarlo(pnls).setInitialEquity(1e7).setNumPaths(500).run();
+      assertEquals(0.0, safe.ruinProbability, 0.0);
+      assertTrue(safe.maxDrawdownPct.min() > -100.0);
+      
+      MonteCarlo.Result risky = new MonteCarlo(pnls).setInitialEquity(1000.0).setRuinEquity(500.0).setNumPaths(500).run();
+      assertTrue(risky.ruinProbability > 0.0);
+      assertTrue(risky.ruinProbability < 1.0);
+   }
+   
+   @Test
+   public void testRuinDefaults() throws Exception {
+      // Profitable on every step
+      double [] pnls = new double[100];
+      for(int ii = 0; ii < pnls.length; ++ii) pnls[ii] = 10.0 + ii % 7;
+      
+      MonteCarlo.Result defaults = new MonteCarlo(pnls).setNumPaths(200).run();
+      assertEquals(0.0, defaults.ruinProbability, 0.0);
+      
+      // Starting at the ruin level isn't a ruin, only the equity after a step is
+      MonteCarlo.Result atRuin = new MonteCarlo(pnls).setInitialEquity(500.0).setRuinEquity(500.0).setNumPaths(200).run();
+      assertEquals(0.0, atRuin.ruinProbability, 0.0);
+      
+      // The first step is at most 16
+      MonteCarlo.Result ruined = new MonteCarlo(pnls).setInitialEquity(500.0).setRuinEquity(520.0).setNumPaths(200).run();
+      assertEquals(1.0, ruined.ruinProbability, 0.0);
+   }
+   
+   @Test
+   public void testFromTrades() throws Exception {
+      List<Trade> trades = new ArrayList<Trade>();
+      for(int ii = 0; ii < 50; ++ii) {
+         Trade trade = new Trade();
+         trade.start = LocalDate.of(2014, 1, 1).plusDays(2*ii).atStartOfDay();
+         trade.end = trade.start.plusDays(1);
+         trade.pnl = ii % 3 == 0 ? -200.0 : 150.0;
+         trades.add(trade);
+      }
+      
+      MonteCarlo mc = MonteCarlo.fromTrades(trades);
+      assertEquals(MonteCarlo.Method.SHUFFLE, mc.getMethod());
+      MonteCarlo.Result result = mc.setNumPaths(100).run();
+      assertEquals(17*(-200.0) + 33*150.0, result.endPnl.median(), 1e-6);
+      // Per trade, not annualized
+      assertTrue(result.sharpeRatio.max() < 1.0);
+   }
+}
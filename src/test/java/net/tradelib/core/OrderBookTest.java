@@ -0,0 +1,111 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+
+import org.junit.Test;
+
+public class OrderBookTest {
+   
+   private static Order [] collect(OrderBook book, double price) {
+      int nn = book.collect(price);
+      Order [] result = new Order[nn];
+      for(int ii = 0; ii < nn; ++ii) result[ii] = book.getCandidate(ii);
+      return result;
+   }
+   
+   @Test
+   public void testCollect() {
+      OrderBook book = new OrderBook();
+      Order buyLimit = Order.enterLongLimit("ES", 1, 99.0);
+      Order buyStop = Order.enterLongStop("ES", 1, 101.0);
+      Order market = Order.enterLong("ES", 1);
+      Order sellStop = Order.exitLongStop("ES", 1, 98.0);
+      Order sellLimit = Order.exitLongLimit("ES", 1, 102.0);
+      book.add(buyLimit);
+      book.add(buyStop);
+      book.add(market);
+      book.add(sellStop);
+      book.add(sellLimit);
+      
+      // Only the market order is tried inside the range
+      assertArrayEquals(new Order[] { market }, collect(book, 100.0));
+      // The crossed orders, in submission order
+      assertArrayEquals(new Order[] { buyLimit, market, sellStop }, collect(book, 97.0));
+      assertArrayEquals(new Order[] { buyStop, market, sellLimit }, collect(book, 102.0));
+      assertArrayEquals(new Order[] { buyLimit, market }, collect(book, 99.0));
+      
+      // Inactive orders are skipped
+      market.cancel();
+      assertEquals(0, collect(book, 100.0).length);
+      
+      // Repricing re-indexes the order
+      buyStop.setStop(100.0);
+      assertArrayEquals(new Order[] { buyStop }, collect(book, 100.0));
+      
+      // The inactive orders are removed
+      book.purge(new Bar("ES", LocalDate.of(2015, 3, 3).atStartOfDay(), 100, 101, 99, 100, 0));
+      assertEquals(4, book.size());
+      assertNull(market.book);
+      assertSame(book, buyLimit.book);
+   }
+   
+   @Test
+   public void testStopLimit() {
+      OrderBook book = new OrderBook();
+      Order oo = Order.enterLongStopLimit("ES", 1, 101.0, 100.5);
+      book.add(oo);
+      
+      assertEquals(0, collect(book, 100.75).length);
+      assertArrayEquals(new Order[] { oo }, collect(book, 102.0));
+      
+      // The stop is triggered, but the limit is not reached
+      Tick tick = new Tick("ES", 0L, 102.0);
+      assertNull(oo.tryFill(tick, 0, false));
+      assertTrue(oo.isStopped());
+      
+      // Indexed by the limit afterwards
+      assertEquals(0, collect(book, 102.0).length);
+      assertArrayEquals(new Order[] { oo }, collect(book, 100.25));
+   }
+   
+   @Test
+   public void testCancel() {
+      OrderBook book = new OrderBook();
+      Order longEntry = Order.enterLongStop("ES", 1, 101.0);
+      longEntry.setOca("bracket");
+      Order shortEntry = Order.enterShortStop("ES", 1, 99.0);
+      shortEntry.setOca("bracket");
+      Order other = Order.enterLongLimit("NQ", 1, 90.0);
+      other.setOca("other");
+      Order exit = Order.exitLongStop("ES", 1, 95.0);
+      book.add(longEntry);
+      book.add(shortEntry);
+      book.add(other);
+      book.add(exit);
+      
+      book.cancelOca(shortEntry);
+      assertTrue(longEntry.isCancelled());
+      assertTrue(shortEntry.isActive());
+      assertTrue(other.isActive());
+      assertTrue(exit.isActive());
+      
+      book.cancelExits(shortEntry);
+      assertTrue(exit.isCancelled());
+   }
+}
@@ -0,0 +1,95 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+
+import org.junit.Test;
+
+public class ResultsWriterTest {
+   
+   private String createDb() throws Exception {
+      File file = File.createTempFile("results", ".db");
+      file.deleteOnExit();
+      String url = "jdbc:sqlite:" + file.getAbsolutePath();
+      
+      Connection con = DriverManager.getConnection(url);
+      Statement stmt = con.createStatement();
+      stmt.executeUpdate("CREATE TABLE end_equity(id INTEGER PRIMARY KEY NOT NULL, strategy_id INTEGER NOT NULL, " +
+                         "ts DATETIME(6) NOT NULL, equity DOUBLE NOT NULL)");
+      stmt.executeUpdate("CREATE TABLE pnls(id INTEGER PRIMARY KEY NOT NULL, strategy_id INTEGER NOT NULL, " +
+                         "symbol VARCHAR(10) NOT NULL, ts DATETIME(6) NOT NULL, pnl DOUBLE NOT NULL)");
+      stmt.close();
+      con.close();
+      
+      return url;
+   }
+   
+   private long count(String url, String table) throws Exception {
+      try(Connection con = DriverManager.getConnection(url);
+          Statement stmt = con.createStatement();
+          ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+         rs.next();
+         return rs.getLong(1);
+      }
+   }
+
+   @Test
+   public void testCommit() throws Exception {
+      String url = createDb();
+      Connection con = DriverManager.getConnection(url);
+      con.setAutoCommit(false);
+      
+      LocalDateTime ts = LocalDateTime.of(2014, 1, 2, 16, 0);
+      try(ResultsWriter writer = new ResultsWriter(con, 7, 0)) {
+         for(int ii = 0; ii < 2500; ++ii) {
+            writer.addEquity(ts.plusDays(ii), 100000.0 + ii);
+            writer.addPnl("ES", ts.plusDays(ii), ii);
+         }
+         // Full batches have been sent, but nothing is committed
+         assertEquals(0, count(url, "end_equity"));
+         
+         writer.commit();
+      }
+      con.close();
+      
+      assertEquals(2500, count(url, "end_equity"));
+      assertEquals(2500, count(url, "pnls"));
+   }
+   
+   @Test
+   public void testCommitChunk() throws Exception {
+      String url = createDb();
+      Connection con = DriverManager.getConnection(url);
+      con.setAutoCommit(false);
+      
+      LocalDateTime ts = LocalDateTime.of(2014, 1, 2, 16, 0);
+      try(ResultsWriter writer = new ResultsWriter(con, 7, 3)) {
+         for(int ii = 0; ii < 7; ++ii) writer.addEquity(ts.plusDays(ii), 100000.0 + ii);
+         assertEquals(6, count(url, "end_equity"));
+         
+         writer.commit();
+         assertEquals(7, count(url, "end_equity"));
+      }
+      con.close();
+   }
+}
@@ -0,0 +1,181 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SQLDataFeedTest {
+   
+   private String createDb() throws Exception {
+      File file = File.createTempFile("bars", ".db");
+      file.deleteOnExit();
+      String url = "jdbc:sqlite:" + file.getAbsolutePath();
+      
+      Connection con = DriverManager.getConnection(url);
+      Statement stmt = con.createStatement();
+      stmt.executeUpdate("CREATE TABLE bars(symbol VARCHAR(10), ts DATE, open DECIMAL(18,8), high DECIMAL(18,8), " +
+                         "low DECIMAL(18,8), close DECIMAL(18,8), volume BIGINT)");
+      stmt.close();
+      
+      PreparedStatement pstmt = con.prepareStatement("INSERT INTO bars VALUES(?,?,?,?,?,?,?)");
+      String [] symbols = { "ES", "OJ", "AUD" };
+      for(int ss = 0; ss < symbols.length; ++ss) {
+         // Different lengths and steps, so the symbols interleave unevenly
+         for(int ii = 0; ii < 20 - 5*ss; ++ii) {
+            pstmt.setString(1, symbols[ss]);
+            pstmt.setString(2, LocalDate.of(2014, 1, 1).plusDays(ii*(ss + 1)).toString());
+            pstmt.setDouble(3, 100.0 + ii);
+            pstmt.setDouble(4, 101.0 + ii);
+            pstmt.setDouble(5, 99.0 + ii);
+            pstmt.setDouble(6, 100.5 + ii);
+            pstmt.setLong(7, 1000 + ii);
+            pstmt.executeUpdate();
+         }
+      }
+      pstmt.close();
+      con.close();
+      
+      return url;
+   }
+   
+   private List<Bar> read(String url, boolean streaming) throws Exception {
+      SQLDataFeed feed = new SQLDataFeed();
+      feed.setDbUrl(url);
+      feed.setBarsTable("bars");
+      feed.setStreaming(streaming);
+      feed.setFetchSize(4);
+      feed.subscribe("ES");
+      feed.subscribe("OJ");
+      feed.subscribe("AUD");
+      
+      List<Bar> result = new ArrayList<Bar>();
+      feed.addBarListener((Bar bar) -> result.add(bar));
+      feed.start();
+      return result;
+   }
+
+   @Test
+   public void testStreaming() throws Exception {
+      String url = createDb();
+      
+      List<Bar> sorted = read(url, false);
+      List<Bar> streamed = read(url, true);
+      
+      assertEquals(45, sorted.size());
+      assertEquals(sorted.size(), streamed.size());
+      
+      int lastCount = 0;
+      for(int ii = 0; ii < streamed.size(); ++ii) {
+         Bar bar = streamed.get(ii);
+         if(ii > 0) assertFalse(bar.getDateTime().isBefore(streamed.get(ii - 1).getDateTime()));
+         assertEquals(sorted.get(ii).getDateTime(), bar.getDateTime());
+         if(bar.isLast()) ++lastCount;
+      }
+      assertEquals(3, lastCount);
+      
+      // The last flags must match the global ORDER BY implementation
+      for(Bar bar : sorted) {
+         if(!bar.isLast()) continue;
+         boolean found = false;
+         for(Bar other : streamed) {
+            if(other.isLast() && other.getSymbol().equals(bar.getSymbol())) {
+               assertEquals(bar.getDateTime(), other.getDateTime());
+               found = true;
+            }
+         }
+         assertTrue(found);
+      }
+   }
+   
+   @Test
+   public void testInstruments() throws Exception {
+      String url = createDb();
+      
+      Connection con = DriverManager.getConnection(url);
+      Statement stmt = con.createStatement();
+      stmt.executeUpdate("CREATE TABLE instruments(symbol VARCHAR(10), provider VARCHAR(10), type VARCHAR(10), " +
+                         "tick DECIMAL(18,8), bpv DECIMAL(18,8), comment VARCHAR(64), exchange VARCHAR(10))");
+      stmt.executeUpdate("INSERT INTO instruments VALUES('ES','csi','FUT',0.25,50,'E-mini S&P 500','CME')");
+      stmt.executeUpdate("INSERT INTO instruments VALUES('ES','other','FUT',1,1,'Wrong provider','CME')");
+      stmt.executeUpdate("INSERT INTO instruments VALUES('AUD','csi','FX',0.0001,1,'AUDUSD','IDEALPRO')");
+      stmt.executeUpdate("CREATE TABLE instrument_variations(original_symbol VARCHAR(10), original_provider VARCHAR(10), " +
+                         "provider VARCHAR(10), symbol VARCHAR(10), factor DECIMAL(18,8), tick DECIMAL(18,8))");
+      stmt.executeUpdate("INSERT INTO instrument_variations VALUES('ES','csi','ib','ES',1,0.25)");
+      stmt.executeUpdate("INSERT INTO instrument_variations VALUES('OJ','csi','ib','OJ',0.01,0.05)");
+      stmt.close();
+      con.close();
+      
+      SQLDataFeed feed = new SQLDataFeed();
+      feed.setDbUrl(url);
+      feed.setBarsTable("bars");
+      feed.setInstrumentsTable("instruments");
+      feed.setInstrumentsVariationsTable("instrument_variations");
+      feed.setInstrumentProvider("csi");
+      feed.subscribe("ES");
+      feed.subscribe("OJ");
+      feed.subscribe("AUD");
+      
+      assertFalse(feed.getInstrumentRegistry().contains("ES"));
+      
+      List<Bar> bars = new ArrayList<Bar>();
+      feed.addBarListener((Bar bar) -> bars.add(bar));
+      feed.start();
+      
+      // All subscriptions are loaded at start, including the missing ones
+      InstrumentRegistry registry = feed.getInstrumentRegistry();
+      assertTrue(registry.contains("ES"));
+      assertTrue(registry.contains("OJ"));
+      assertTrue(registry.contains("AUD"));
+      
+      Instrument es = feed.getInstrument("ES");
+      assertEquals(0.25, es.getTick(), 1e-9);
+      assertEquals(50.0, es.getBpv(), 1e-9);
+      assertTrue(feed.getInstrument("AUD").isForex());
+      assertNull(feed.getInstrument("OJ"));
+      
+      assertEquals(45, bars.size());
+      for(Bar bar : bars) {
+         assertSame(registry.getInstrument(bar.getSymbol()), bar.getInstrument());
+      }
+      
+      assertEquals(0.01, feed.getInstrumentVariation("ib", "OJ").getFactor(), 1e-9);
+      assertEquals(0.25, feed.getInstrumentVariation("ib", "ES").getTick(), 1e-9);
+      assertNull(feed.getInstrumentVariation("ib", "AUD"));
+      
+      // Another feed with the same configuration shares the instruments
+      SQLDataFeed other = new SQLDataFeed();
+      other.setDbUrl(url);
+      other.setInstrumentsTable("instruments");
+      other.setInstrumentsVariationsTable("instrument_variations");
+      other.setInstrumentProvider("csi");
+      assertSame(es, other.getInstrument("ES"));
+      
+      // A default instrument makes it a different source
+      other.setDefaultInstrument("STOCK");
+      assertNotSame(es, other.getInstrument("ES"));
+      assertTrue(other.getInstrument("OJ").isStock());
+   }
+}
@@ -69,6 +69,35 @@ public class SeriesTest {
       tt = ss.tail(-4);
       assertEquals(100, tt.size());
       assertEquals(168.60, tt.get(98, "high"), 1e-8);
+      
+      // More rows than available is a copy too
+      tt = ss.head(1000);
+      assertNotSame(ss, tt);
+      assertEquals(ss.size(), tt.size());
+      tt.set(0, 0, -1.0);
+      assertNotEquals(-1.0, ss.get(0, 0), 1e-8);
+   }
+   
+   @Test
+   public void testEpochRange() throws Exception {
+      LocalDateTime ldt = LocalDateTime.of(2014, 1, 2, 10, 0, 0, 123);
+      assertEquals(ldt, EpochTime.fromNanos(EpochTime.toNanos(ldt)));
+      
+      // Outside the range, saturate to the sentinels
+      assertEquals(Long.MIN_VALUE, EpochTime.toNanos(LocalDateTime.MIN));
+      assertEquals(Long.MAX_VALUE, EpochTime.toNanos(LocalDateTime.MAX));
+      assertEquals(Long.MIN_VALUE, EpochTime.toNanos(LocalDateTime.of(1500, 1, 1, 0, 0)));
+      assertEquals(Long.MAX_VALUE, EpochTime.toNanos(LocalDateTime.of(3000, 1, 1, 0, 0)));
+      assertEquals(LocalDateTime.MIN, EpochTime.fromNanos(Long.MIN_VALUE));
+      assertEquals(LocalDateTime.MAX, EpochTime.fromNanos(Long.MAX_VALUE));
+      
+      Series ss = new Series(1);
+      ss.append(LocalDateTime.MIN, 1.0);
+      ss.append(ldt, 2.0);
+      Series daily = ss.toDailyDouble((double x, double y) -> y);
+      assertEquals(2, daily.size());
+      assertEquals(LocalDateTime.MIN, daily.getTimestamp(0));
+      assertEquals(ldt.toLocalDate().atStartOfDay(), daily.getTimestamp(1));
    }
    
    @Test
@@ -88,6 +117,48 @@ public class SeriesTest {
       // tt.head(10).print("yyyy-MM-dd");
    }
    
+   @Test
+   public void testToDailyPrimitive() throws Exception {
+      Series ss = Series.fromCsv(
+                     Paths.get(getClass().getResource("/data/pnl.csv").toURI()).toString(),
+                     true,
+                     DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+      // Implicitly typed lambdas resolve to the boxed variant
+      Series boxed = ss.toDaily((x, y) -> x + y);
+      Series tt = ss.toDailyDouble((double x, double y) -> x + y);
+      assertEquals(boxed.size(), tt.size());
+      for(int ii = 0; ii < tt.size(); ++ii) {
+         assertEquals(boxed.getTimestamp(ii), tt.getTimestamp(ii));
+         assertEquals(boxed.get(ii), tt.get(ii), 1e-8);
+      }
+      
+      // The last value of the day
+      tt = ss.toDailyDouble(Double.NaN, (double x, double y) -> y);
+      assertEquals(ss.get(ss.size() - 1), tt.get(tt.size() - 1), 1e-8);
+   }
+   
+   @Test
+   public void testAppend() throws Exception {
+      Series ss = new Series(2, 1);
+      LocalDateTime ts = LocalDateTime.of(2014, 1, 2, 9, 30, 0, 123456789);
+      for(int ii = 0; ii < 1000; ++ii) {
+         ss.append(ts.plusMinutes(ii), ii, -ii);
+      }
+      // Missing values are filled with the last argument
+      ss.append(ts.plusMinutes(1000), 5.0);
+      
+      assertEquals(1001, ss.size());
+      assertTrue(ss.isOrdered());
+      assertEquals(ts.plusMinutes(500), ss.getTimestamp(500));
+      assertEquals(-500.0, ss.get(ts.plusMinutes(500), 1), 1e-8);
+      assertEquals(5.0, ss.get(1000, 1), 1e-8);
+      assertEquals(1001, ss.getColumn(1).size());
+      
+      Series tt = ss.head(10);
+      tt.set(0, 1, 42.0);
+      assertEquals(0.0, ss.get(0, 1), 1e-8);
+   }
+   
    @Test
    public void testLag() throws Exception {
       Series ss = Series.fromCsv(
@@ -0,0 +1,139 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class SharedDataFeedTest {
+   
+   private static class ListDataFeed extends HistoricalDataFeed {
+      private List<Bar> bars;
+      public int starts = 0;
+      
+      public ListDataFeed(List<Bar> bars) { this.bars = bars; }
+      
+      @Override
+      public void configure(String config) throws Exception {}
+      
+      @Override
+      public void start() throws Exception {
+         ++starts;
+         for(Bar bar : bars) {
+            if(!subscriptions.contains(bar.getSymbol())) continue;
+            for(IBarListener listener : barListeners) listener.barNotification(bar);
+         }
+      }
+      
+      @Override
+      public Instrument getInstrument(String symbol) throws Exception { return Instrument.makeIndex(symbol); }
+      
+      @Override
+      public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception { return null; }
+   }
+   
+   private List<Bar> consume(HistoricalDataFeed feed, String... symbols) throws Exception {
+      List<Bar> result = new ArrayList<Bar>();
+      for(String symbol : symbols) feed.subscribe(symbol);
+      feed.addBarListener((Bar bar) -> result.add(bar));
+      feed.start();
+      return result;
+   }
+
+   @Test
+   public void testFanOut() throws Exception {
+      List<Bar> bars = new ArrayList<Bar>();
+      for(int ii = 0; ii < 500; ++ii) {
+         for(String symbol : new String[] { "ES", "OJ", "AUD" }) {
+            bars.add(new Bar(symbol, LocalDate.of(2014, 1, 1).plusDays(ii).atStartOfDay(), 1.0, 1.0, 1.0, 1.0, ii));
+         }
+      }
+      
+      ListDataFeed source = new ListDataFeed(bars);
+      // A small queue forces the source to wait on the consumers
+      SharedDataFeed shared = new SharedDataFeed(source, 2);
+      HistoricalDataFeed esFeed = shared.newConsumer();
+      HistoricalDataFeed allFeed = shared.newConsumer();
+      HistoricalDataFeed failingFeed = shared.newConsumer();
+      HistoricalDataFeed unusedFeed = shared.newConsumer();
+      
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+         Future<List<Bar>> esBars = executor.submit(() -> consume(esFeed, "ES"));
+         Future<List<Bar>> allBars = executor.submit(() -> consume(allFeed, "ES", "OJ", "AUD"));
+         Future<?> failing = executor.submit(() -> {
+            failingFeed.subscribe("OJ");
+            failingFeed.addBarListener((Bar bar) -> { throw new RuntimeException("failed"); });
+            try {
+               failingFeed.start();
+            } finally {
+               shared.close(failingFeed);
+            }
+            return null;
+         });
+         shared.close(unusedFeed);
+         
+         shared.start();
+         
+         assertEquals(1, source.starts);
+         assertEquals(500, esBars.get().size());
+         for(Bar bar : esBars.get()) assertEquals("ES", bar.getSymbol());
+         assertEquals(bars, allBars.get());
+         
+         try {
+            failing.get();
+            fail("the consumer exception must propagate");
+         } catch(Exception ee) {
+         }
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+   
+   @Test
+   public void testConsumerRange() throws Exception {
+      List<Bar> bars = new ArrayList<Bar>();
+      for(int ii = 0; ii < 100; ++ii) {
+         bars.add(new Bar("ES", LocalDate.of(2014, 1, 1).plusDays(ii).atStartOfDay(), 1.0, 1.0, 1.0, 1.0, ii));
+      }
+      
+      SharedDataFeed shared = new SharedDataFeed(new ListDataFeed(bars), 2);
+      HistoricalDataFeed allFeed = shared.newConsumer();
+      HistoricalDataFeed rangeFeed = shared.newConsumer();
+      rangeFeed.setFeedStart(bars.get(10).getDateTime());
+      rangeFeed.setFeedStop(bars.get(19).getDateTime());
+      
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+         Future<List<Bar>> allBars = executor.submit(() -> consume(allFeed, "ES"));
+         Future<List<Bar>> rangeBars = executor.submit(() -> consume(rangeFeed, "ES"));
+         
+         shared.start();
+         
+         assertEquals(bars, allBars.get());
+         assertEquals(bars.subList(10, 20), rangeBars.get());
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+}
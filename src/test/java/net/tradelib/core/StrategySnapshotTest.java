@@ -0,0 +1,184 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class StrategySnapshotTest {
+   
+   private static class ListDataFeed extends HistoricalDataFeed {
+      private List<Bar> bars;
+      
+      public ListDataFeed(List<Bar> bars) { this.bars = bars; }
+      
+      @Override
+      public void configure(String config) throws Exception {}
+      
+      @Override
+      public void start() throws Exception {
+         for(Bar bar : bars) {
+            if(!subscriptions.contains(bar.getSymbol())) continue;
+            for(IBarListener listener : barListeners) listener.barNotification(bar);
+         }
+      }
+      
+      @Override
+      public Instrument getInstrument(String symbol) throws Exception {
+         return Instrument.makeFuture(symbol, new BigDecimal("0.25"), new BigDecimal("50"));
+      }
+      
+      @Override
+      public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception { return null; }
+   }
+   
+   // Trades the close against its moving average, with breakout entries resting for a few bars
+   private static class SmaStrategy extends Strategy {
+      BarHistory.Indicator sma = null;
+      // Saved with writeState
+      int numClosed = 0;
+      
+      public SmaStrategy() { setName("sma-snapshot"); }
+      
+      @Override
+      public void start() throws Exception {
+         barData.addResolution("SST_ES", BarHierarchy.WEEK);
+         subscribe("SST_ES");
+         super.start();
+      }
+      
+      @Override
+      protected void onBarClose(BarHistory history, Bar bar) throws Exception {
+         // Attached lazily, thus replayed over the restored bars
+         if(sma == null) sma = history.close.attachSma(10);
+         ++numClosed;
+         if(history.size() < 10) return;
+         
+         long position = getBroker().getPosition(getBroker().getInstrument(bar.getSymbol())).quantity;
+         if(position == 0 && history.getClose() > sma.get(0)) {
+            enterLongStop(bar.getSymbol(), history.getHigh() + 1.0, 1, "breakout", 3);
+         } else if(position > 0 && history.getClose() < sma.get(0)) {
+            exitLong(bar.getSymbol());
+         }
+      }
+      
+      @Override
+      protected void writeState(DataOutput out) throws IOException { out.writeInt(numClosed); }
+      
+      @Override
+      protected void readState(DataInput in) throws IOException { numClosed = in.readInt(); }
+   }
+   
+   private static List<Bar> makeBars(int count) {
+      List<Bar> bars = new ArrayList<Bar>();
+      for(int ii = 0; ii < count; ++ii) {
+         double close = 2000.0 + 100.0*Math.sin(ii/15.0) + 20.0*Math.sin(ii/2.0);
+         bars.add(new Bar("SST_ES", LocalDate.of(2014, 1, 1).plusDays(ii).atStartOfDay(),
+                          close - 2.0, close + 8.0, close - 8.0, close, 1000));
+      }
+      return bars;
+   }
+   
+   private static SmaStrategy run(List<Bar> bars, Path restoreFrom) throws Exception {
+      Context context = new Context();
+      context.historicalDataFeed = new ListDataFeed(bars);
+      context.broker = new HistoricalReplay(context);
+      
+      SmaStrategy strategy = new SmaStrategy();
+      strategy.initialize(context);
+      strategy.setInitialEquity(LocalDate.of(2013, 12, 31), 100000.0);
+      if(restoreFrom != null) StrategySnapshot.restore(strategy, restoreFrom);
+      strategy.start();
+      return strategy;
+   }
+   
+   @Test
+   public void testResume() throws Exception {
+      List<Bar> bars = makeBars(400);
+      SmaStrategy full = run(bars, null);
+      full.updateEndEquity();
+      assertTrue(full.executions.size() > 10);
+      
+      Path dir = Files.createTempDirectory("snapshot");
+      Path path = dir.resolve("sma" + StrategySnapshot.EXTENSION);
+      SmaStrategy first = run(bars.subList(0, 250), null);
+      StrategySnapshot.save(first, path);
+      assertEquals(bars.get(249).getDateTime(), StrategySnapshot.getTimestamp(path));
+      
+      // The feed delivers all bars again, the ones before the snapshot are skipped
+      SmaStrategy resumed = run(bars, path);
+      resumed.updateEndEquity();
+      
+      assertEquals(400, resumed.numClosed);
+      assertEquals(full.getLastTimestamp(), resumed.getLastTimestamp());
+      
+      assertEquals(full.executions.size(), resumed.executions.size());
+      for(int ii = 0; ii < full.executions.size(); ++ii) {
+         Execution expected = full.executions.get(ii);
+         Execution actual = resumed.executions.get(ii);
+         assertEquals(expected.getEpochNanos(), actual.getEpochNanos());
+         assertEquals(expected.getPrice(), actual.getPrice(), 1e-9);
+         assertEquals(expected.getQuantity(), actual.getQuantity());
+         assertEquals(expected.getSignal(), actual.getSignal());
+      }
+      
+      Series expectedSummary = full.getAccount().getSummary();
+      Series actualSummary = resumed.getAccount().getSummary();
+      assertEquals(expectedSummary.size(), actualSummary.size());
+      for(int ii = 0; ii < expectedSummary.size(); ++ii) {
+         assertEquals(expectedSummary.getTimestamp(ii), actualSummary.getTimestamp(ii));
+         for(int jj = 0; jj < 11; ++jj) {
+            assertEquals(expectedSummary.get(ii, jj), actualSummary.get(ii, jj), 1e-6);
+         }
+      }
+      assertEquals(full.getAccount().getEndEquity(), resumed.getAccount().getEndEquity(), 1e-6);
+      
+      Instrument instrument = full.getBroker().getInstrument("SST_ES");
+      Series expectedPnl = full.getAccount().getPnlSeries(instrument);
+      Series actualPnl = resumed.getAccount().getPnlSeries(instrument);
+      assertEquals(expectedPnl.size(), actualPnl.size());
+      assertEquals(expectedPnl.get(expectedPnl.size() - 1), actualPnl.get(actualPnl.size() - 1), 1e-6);
+      
+      // The histories, the indicators and the derived resolutions
+      assertEquals(400, resumed.barData.getHistory(bars.get(0)).size());
+      assertEquals(full.sma.get(0), resumed.sma.get(0), 1e-9);
+      BarHistory expectedWeekly = full.barData.getHistory("SST_ES", BarHierarchy.WEEK);
+      BarHistory actualWeekly = resumed.barData.getHistory("SST_ES", BarHierarchy.WEEK);
+      assertEquals(expectedWeekly.size(), actualWeekly.size());
+      assertEquals(expectedWeekly.getHigh(0), actualWeekly.getHigh(0), 1e-9);
+      assertEquals(full.barData.getPartialBar("SST_ES", BarHierarchy.WEEK).getVolume(),
+                   resumed.barData.getPartialBar("SST_ES", BarHierarchy.WEEK).getVolume());
+   }
+   
+   @Test(expected = IOException.class)
+   public void testWrongStrategy() throws Exception {
+      Path path = Files.createTempDirectory("snapshot").resolve("other" + StrategySnapshot.EXTENSION);
+      SmaStrategy strategy = run(makeBars(20), null);
+      strategy.setName("another-strategy");
+      StrategySnapshot.save(strategy, path);
+      run(makeBars(20), path);
+   }
+}
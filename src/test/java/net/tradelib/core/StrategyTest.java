@@ -0,0 +1,258 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package net.tradelib.core;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+public class StrategyTest {
+   
+   private static class ListDataFeed extends HistoricalDataFeed {
+      private List<Bar> bars;
+      
+      public ListDataFeed(List<Bar> bars) { this.bars = bars; }
+      
+      @Override
+      public void configure(String config) throws Exception {}
+      
+      @Override
+      public void start() throws Exception {
+         for(Bar bar : bars) {
+            if(!subscriptions.contains(bar.getSymbol())) continue;
+            for(IBarListener listener : barListeners) listener.barNotification(bar);
+         }
+      }
+      
+      @Override
+      public Instrument getInstrument(String symbol) throws Exception {
+         return Instrument.makeFuture(symbol, new BigDecimal("0.25"), new BigDecimal("50"));
+      }
+      
+      @Override
+      public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception { return null; }
+   }
+   
+   // Always in the market, long above the moving average, short below it
+   private static class ReversalStrategy extends Strategy {
+      public ReversalStrategy() { setName("reversal"); }
+      
+      @Override
+      public void start() throws Exception {
+         subscribe("ST_ES");
+         subscribe("ST_NQ");
+         super.start();
+      }
+      
+      @Override
+      protected void onBarClose(BarHistory history, Bar bar) throws Exception {
+         if(history.size() < 10) return;
+         
+         double sma = 0.0;
+         for(int ii = 0; ii < 10; ++ii) sma += history.getClose(ii);
+         sma /= 10.0;
+         
+         long position = getBroker().getPosition(getBroker().getInstrument(bar.getSymbol())).quantity;
+         if(position <= 0 && history.getClose() > sma) {
+            if(position < 0) exitShort(bar.getSymbol());
+            enterLong(bar.getSymbol(), 1);
+         } else if(position >= 0 && history.getClose() < sma) {
+            if(position > 0) exitLong(bar.getSymbol());
+            enterShort(bar.getSymbol(), 1);
+         }
+      }
+   }
+   
+   // Long from the second bar on
+   private static class HoldStrategy extends Strategy {
+      public HoldStrategy() { setName("hold"); }
+      
+      @Override
+      public void start() throws Exception {
+         subscribe("ST_ES");
+         super.start();
+      }
+      
+      @Override
+      protected void onBarClose(BarHistory history, Bar bar) throws Exception {
+         if(history.size() < 2) return;
+         
+         long position = getBroker().getPosition(getBroker().getInstrument(bar.getSymbol())).quantity;
+         if(position == 0) enterLong(bar.getSymbol(), 1);
+      }
+   }
+   
+   private static ReversalStrategy run() throws Exception {
+      List<Bar> bars = new ArrayList<Bar>();
+      for(int ii = 0; ii < 800; ++ii) {
+         LocalDateTime ts = LocalDate.of(2013, 1, 1).plusDays(ii).atStartOfDay();
+         double es = 2000.0 + 100.0*Math.sin(ii/15.0) + 20.0*Math.sin(ii/2.0);
+         double nq = 4000.0 + 150.0*Math.cos(ii/25.0) + 30.0*Math.sin(ii/3.0);
+         bars.add(new Bar("ST_ES", ts, es - 2.0, es + 8.0, es - 8.0, es, 1000));
+         bars.add(new Bar("ST_NQ", ts, nq - 2.0, nq + 8.0, nq - 8.0, nq, 1000));
+      }
+      
+      Context context = new Context();
+      context.historicalDataFeed = new ListDataFeed(bars);
+      context.broker = new HistoricalReplay(context);
+      
+      ReversalStrategy strategy = new ReversalStrategy();
+      strategy.initialize(context);
+      strategy.setInitialEquity(LocalDate.of(2012, 12, 31), 100000.0);
+      strategy.start();
+      strategy.updateEndEquity();
+      return strategy;
+   }
+   
+   @Test
+   public void testTotals() throws Exception {
+      ReversalStrategy strategy = run();
+      
+      TreeMap<LocalDateTime, Double> expected = new TreeMap<LocalDateTime, Double>();
+      long numTrades = 0;
+      long numLongs = 0;
+      for(String symbol : strategy.getAccount().getPortfolioSymbols()) {
+         Instrument instrument = strategy.getBroker().getInstrument(symbol);
+         Series pnl = strategy.getAccount().getPnlSeries(instrument);
+         for(int ii = 0; ii < pnl.size(); ++ii) {
+            expected.merge(pnl.getTimestamp(ii), pnl.get(ii), Double::sum);
+         }
+         for(Trade trade : strategy.getAccount().getPortfolioTradingResults(instrument).stats) {
+            ++numTrades;
+            if(trade.initialPosition > 0) ++numLongs;
+         }
+      }
+      assertTrue(numTrades > 20);
+      assertTrue(numLongs > 0 && numLongs < numTrades);
+      
+      Series total = strategy.getTotalPnl();
+      assertEquals(expected.size(), total.size());
+      int ii = 0;
+      for(LocalDateTime ts : expected.keySet()) {
+         assertEquals(ts, total.getTimestamp(ii));
+         assertEquals(expected.get(ts), total.get(ii), 1e-6);
+         ++ii;
+      }
+      
+      TradeSummary summary = strategy.getTotalTradeSummary();
+      assertEquals(numTrades, summary.numTrades);
+      
+      // The equity curve adds up the total PnL
+      double equity = 0.0;
+      double maxEquity = Double.NEGATIVE_INFINITY;
+      double maxDD = 0.0;
+      for(int jj = 0; jj < total.size(); ++jj) {
+         equity += total.get(jj);
+         maxEquity = Math.max(maxEquity, equity);
+         maxDD = Math.min(maxDD, equity - maxEquity);
+      }
+      assertEquals(maxDD, summary.maxDD, 1e-6);
+   }
+   
+   @Test
+   public void testAnnualStats() throws Exception {
+      Series equity = new Series(1);
+      equity.append(LocalDateTime.of(2014, 12, 30, 0, 0), 100.0);
+      equity.append(LocalDateTime.of(2014, 12, 31, 0, 0), 100.0);
+      equity.append(LocalDateTime.of(2015, 3, 1, 0, 0), 120.0);
+      equity.append(LocalDateTime.of(2015, 6, 1, 0, 0), 90.0);
+      equity.append(LocalDateTime.of(2015, 12, 31, 0, 0), 110.0);
+      equity.append(LocalDateTime.of(2016, 6, 1, 0, 0), 132.0);
+      
+      Series stats = Strategy.getAnnualStats(equity);
+      assertEquals(3, stats.size());
+      
+      // The flat start closes the first year without a PnL
+      assertEquals(2014, stats.getTimestamp(0).getYear());
+      assertEquals(0.0, stats.get(0, 0), 1e-9);
+      assertEquals(100.0, stats.get(0, 2), 1e-9);
+      
+      assertEquals(2015, stats.getTimestamp(1).getYear());
+      assertEquals(10.0, stats.get(1, 0), 1e-9);
+      assertEquals(0.1, stats.get(1, 1), 1e-9);
+      assertEquals(110.0, stats.get(1, 2), 1e-9);
+      assertEquals(-30.0, stats.get(1, 3), 1e-9);
+      assertEquals(-0.25, stats.get(1, 4), 1e-9);
+      
+      assertEquals(2016, stats.getTimestamp(2).getYear());
+      assertEquals(22.0, stats.get(2, 0), 1e-9);
+      assertEquals(0.2, stats.get(2, 1), 1e-9);
+      assertEquals(132.0, stats.get(2, 2), 1e-9);
+      
+      assertEquals(0, Strategy.getAnnualStats(new Series(1)).size());
+   }
+   
+   @Test
+   public void testReportWithoutDatabase() throws Exception {
+      ReversalStrategy strategy = run();
+      assertNull(strategy.getDbUrl());
+      
+      JsonObject report = strategy.getStrategyReport();
+      assertEquals(3, report.getAsJsonArray("annual_stats").size());
+      assertEquals(strategy.getTotalTradeSummary().numTrades, report.get("num_trades").getAsLong());
+      assertTrue(report.has("total_maxdd"));
+   }
+   
+   @Test
+   public void testNegativeStart() throws Exception {
+      // The entry is marked at the previous close, thus the first PnL is negative.
+      // Then down, up above the entry and down again.
+      List<Bar> bars = new ArrayList<Bar>();
+      for(int ii = 0; ii < 60; ++ii) {
+         LocalDateTime ts = LocalDate.of(2013, 1, 1).plusDays(ii).atStartOfDay();
+         double close = ii == 0 ? 2000.0 : (ii <= 10 ? 2010.0 - 5.0*(ii - 1) : (ii <= 40 ? 1965.0 + 5.0*(ii - 10) : 2115.0 - 2.0*(ii - 40)));
+         bars.add(new Bar("ST_ES", ts, close, close + 1.0, close - 1.0, close, 1000));
+      }
+      
+      Context context = new Context();
+      context.historicalDataFeed = new ListDataFeed(bars);
+      context.broker = new HistoricalReplay(context);
+      
+      HoldStrategy strategy = new HoldStrategy();
+      strategy.initialize(context);
+      strategy.start();
+      strategy.updateEndEquity();
+      
+      Series total = strategy.getTotalPnl();
+      double equity = 0.0;
+      double maxEquity = Double.NEGATIVE_INFINITY;
+      double maxDD = 0.0;
+      double maxDDPct = 0.0;
+      for(int ii = 0; ii < total.size(); ++ii) {
+         equity += total.get(ii);
+         maxEquity = Math.max(maxEquity, equity);
+         maxDD = Math.min(maxDD, equity - maxEquity);
+         if(maxEquity > 0.0) maxDDPct = Math.min(maxDDPct, equity/maxEquity - 1.0);
+      }
+      assertTrue(total.get(0) < 0.0);
+      assertTrue(maxDDPct < 0.0);
+      
+      TradeSummary summary = strategy.getTotalTradeSummary();
+      assertEquals(maxEquity, summary.equityMax, 1e-6);
+      assertEquals(maxDD, summary.maxDD, 1e-6);
+      assertEquals(maxDDPct*100, summary.maxDDPct, 1e-6);
+      assertTrue(summary.maxDDPct > -100.0);
+   }
+}
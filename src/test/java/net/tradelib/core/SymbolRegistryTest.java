@@ -0,0 +1,70 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package net.tradelib.core;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class SymbolRegistryTest {
+   
+   @Test
+   public void testConcurrentRegistration() throws Exception {
+      int numThreads = 4;
+      int numSymbols = 20000;
+      ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+      try {
+         List<Future<?>> futures = new ArrayList<Future<?>>();
+         for(int tt = 0; tt < numThreads; ++tt) {
+            final int thread = tt;
+            futures.add(executor.submit(() -> {
+               for(int ii = 0; ii < numSymbols; ++ii) {
+                  // All threads register the same symbols, each one also
+                  // checks the symbol registered by the others
+                  String symbol = "SRT_" + ii;
+                  int id = SymbolRegistry.getId(symbol);
+                  assertTrue(id < SymbolRegistry.size());
+                  assertEquals(symbol, SymbolRegistry.getSymbol(id));
+                  
+                  int other = SymbolRegistry.findId("SRT_" + (ii + thread + 1));
+                  if(other >= 0) {
+                     assertTrue(other < SymbolRegistry.size());
+                     assertEquals("SRT_" + (ii + thread + 1), SymbolRegistry.getSymbol(other));
+                  }
+               }
+               return null;
+            }));
+         }
+         for(Future<?> future : futures) future.get();
+      } finally {
+         executor.shutdown();
+      }
+      
+      // Each symbol got a single id
+      Set<Integer> ids = new HashSet<Integer>();
+      for(int ii = 0; ii < numSymbols; ++ii) ids.add(SymbolRegistry.findId("SRT_" + ii));
+      assertEquals(numSymbols, ids.size());
+      assertFalse(ids.contains(-1));
+   }
+}
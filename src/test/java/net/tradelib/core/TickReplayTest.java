@@ -0,0 +1,144 @@
+// Copyright 2015 Ivan Popivanov
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package net.tradelib.core;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TickReplayTest {
+   
+   private static final LocalDateTime START = LocalDateTime.of(2014, 1, 2, 10, 0);
+   
+   private static void writeTicks(Path dir, String symbol, int [] seconds, double [] prices) throws Exception {
+      long [] timestamps = new long[seconds.length];
+      long [] volumes = new long[seconds.length];
+      for(int ii = 0; ii < seconds.length; ++ii) {
+         timestamps[ii] = EpochTime.toNanos(START.plusSeconds(seconds[ii]));
+         volumes[ii] = 1 + ii;
+      }
+      TickFile.write(TickReplay.getTickFilePath(dir, symbol), timestamps, prices, volumes, seconds.length);
+   }
+   
+   private static class InstrumentFeed extends HistoricalDataFeed {
+      @Override
+      public void configure(String config) throws Exception {}
+      @Override
+      public void start() throws Exception {}
+      @Override
+      public Instrument getInstrument(String symbol) throws Exception { return Instrument.makeFuture(symbol); }
+      @Override
+      public InstrumentVariation getInstrumentVariation(String provider, String symbol) throws Exception { return null; }
+   }
+   
+   @Test
+   public void testTickFile() throws Exception {
+      Path dir = Files.createTempDirectory("ticks");
+      writeTicks(dir, "ES", new int[] { 0, 10, 10, 70 }, new double[] { 100, 101, 99, 102 });
+      
+      try(TickFile file = TickFile.open(TickReplay.getTickFilePath(dir, "ES"), "ES")) {
+         assertEquals(4, file.size());
+         assertEquals(START.plusSeconds(10), file.getDateTime(2));
+         assertEquals(99.0, file.getPrice(2), 0.0);
+         assertEquals(3, file.getVolume(2));
+         assertEquals(1, file.lowerBound(START.plusSeconds(10)));
+         assertEquals(3, file.upperBound(START.plusSeconds(10)));
+         assertEquals(4, file.lowerBound(START.plusSeconds(71)));
+      }
+   }
+   
+   @Test
+   public void testReplay() throws Exception {
+      Path dir = Files.createTempDirectory("ticks");
+      writeTicks(dir, "ES", new int[] { 0, 10, 20, 20, 50, 65, 90 }, new double[] { 100, 101, 99, 99.5, 100.5, 102, 98 });
+      writeTicks(dir, "NQ", new int[] { 30, 120 }, new double[] { 200, 201 });
+      
+      TickReplay broker = new TickReplay();
+      broker.setDataFeed(new InstrumentFeed());
+      broker.setTicksDir(dir);
+      broker.subscribe("ES");
+      broker.subscribe("NQ");
+      
+      List<String> events = new ArrayList<String>();
+      List<LocalDateTime> times = new ArrayList<LocalDateTime>();
+      List<Bar> closed = new ArrayList<Bar>();
+      List<Execution> executions = new ArrayList<Execution>();
+      broker.addBrokerListener(new IBrokerListener() {
+         public void barOpenHandler(Bar bar) throws Exception {
+            events.add("open " + bar.getSymbol());
+            times.add(bar.getDateTime());
+         }
+         public void barCloseHandler(Bar bar) throws Exception {
+            events.add("close " + bar.getSymbol());
+            times.add(bar.getDateTime());
+         }
+         public void barClosedHandler(Bar bar) throws Exception {
+            events.add("closed " + bar.getSymbol());
+            times.add(bar.getDateTime());
+            closed.add(new Bar(bar));
+            if(closed.size() == 1) {
+               broker.submitOrder(Order.enterLong("ES", 1));
+               broker.submitOrder(Order.exitLongStop("ES", 1, 99.0));
+            }
+         }
+         public void orderExecutedHandler(OrderNotification on) throws Exception {
+            executions.add(on.execution);
+         }
+      });
+      broker.start();
+      
+      // Both bars of the first minute are completed by the first tick of the second
+      assertEquals("open ES", events.get(0));
+      assertEquals("open NQ", events.get(1));
+      assertEquals("close ES", events.get(2));
+      assertEquals("close NQ", events.get(3));
+      assertEquals("closed ES", events.get(4));
+      assertEquals("closed NQ", events.get(5));
+      assertEquals("open ES", events.get(6));
+      assertEquals(12, events.size());
+      
+      // Opened at the first tick, published for the close at the time the
+      // close orders are tried, closed at the end, as by HistoricalReplay
+      assertEquals(START, times.get(0));
+      assertEquals(START.plusSeconds(30), times.get(1));
+      assertEquals(START.plusMinutes(1).minusNanos(1), times.get(2));
+      assertEquals(START.plusMinutes(1).minusNanos(1), times.get(3));
+      assertEquals(START.plusMinutes(1), times.get(4));
+      assertEquals(START.plusMinutes(1), times.get(5));
+      assertEquals(START.plusSeconds(65), times.get(6));
+      
+      Bar bar = closed.get(0);
+      assertEquals(START.plusMinutes(1), bar.getDateTime());
+      assertEquals(100.0, bar.getOpen(), 0.0);
+      assertEquals(101.0, bar.getHigh(), 0.0);
+      assertEquals(99.0, bar.getLow(), 0.0);
+      assertEquals(100.5, bar.getClose(), 0.0);
+      assertEquals(15, bar.getVolume());
+      
+      // The entry fills at the next tick, the stop at the tick crossing it
+      assertEquals(2, executions.size());
+      assertEquals(102.0, executions.get(0).getPrice(), 0.0);
+      assertEquals(START.plusSeconds(65).plusNanos(1000), executions.get(0).getDateTime());
+      assertEquals(-1, executions.get(1).getQuantity());
+      assertEquals(98.0, executions.get(1).getPrice(), 0.0);
+      assertEquals(0, broker.getPosition(Instrument.makeFuture("ES")).quantity);
+   }
+}
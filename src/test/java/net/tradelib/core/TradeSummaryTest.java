@@ -16,6 +16,11 @@ package net.tradelib.core;
 
 import static org.junit.Assert.*;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 /*
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
@@ -47,4 +52,78 @@ public class TradeSummaryTest {
       }
       */
    }
+   
+   private static Trade newTrade(Series pnl, int first, int last, long position) {
+      Trade trade = new Trade();
+      trade.start = pnl.getTimestamp(first);
+      trade.end = pnl.getTimestamp(last);
+      trade.initialPosition = position;
+      for(int ii = first; ii <= last; ++ii) trade.pnl += pnl.get(ii);
+      return trade;
+   }
+   
+   private static void assertSummaryEquals(TradeSummary expected, TradeSummary actual) {
+      assertEquals(expected.numTrades, actual.numTrades);
+      assertEquals(expected.grossProfits, actual.grossProfits, 1e-9);
+      assertEquals(expected.grossLosses, actual.grossLosses, 1e-9);
+      assertEquals(expected.averageDailyPnl, actual.averageDailyPnl, 1e-9);
+      assertEquals(expected.dailyPnlStdDev, actual.dailyPnlStdDev, 1e-9);
+      assertEquals(expected.sharpeRatio, actual.sharpeRatio, 1e-9);
+      assertEquals(expected.equityMin, actual.equityMin, 1e-9);
+      assertEquals(expected.equityMax, actual.equityMax, 1e-9);
+      assertEquals(expected.maxDD, actual.maxDD, 1e-9);
+      assertEquals(expected.maxDDPct, actual.maxDDPct, 1e-9);
+   }
+   
+   @Test
+   public void testSinglePass() {
+      Random random = new Random(7);
+      Series pnl = new Series(1);
+      LocalDateTime ts = LocalDateTime.of(2010, 1, 4, 16, 0);
+      for(int ii = 0; ii < 200; ++ii) {
+         pnl.append(ts.plusDays(ii), 100.0*random.nextGaussian());
+      }
+      Series original = pnl.clone();
+      
+      // Flat periods, a reversal on the same day and a zero-position trade
+      List<Trade> trades = new ArrayList<Trade>();
+      trades.add(newTrade(pnl, 5, 20, 1));
+      trades.add(newTrade(pnl, 25, 40, -2));
+      trades.add(newTrade(pnl, 40, 60, 1));
+      trades.add(newTrade(pnl, 60, 61, -1));
+      trades.add(newTrade(pnl, 70, 70, 0));
+      trades.add(newTrade(pnl, 80, 120, -1));
+      trades.add(newTrade(pnl, 130, 190, 3));
+      
+      TradingResults tr = new TradingResults();
+      tr.pnl = pnl;
+      tr.stats = trades;
+      TradeSummaryBuilder.summarize(tr);
+      
+      // The PnL is left intact
+      for(int ii = 0; ii < pnl.size(); ++ii) {
+         assertEquals(original.get(ii), pnl.get(ii), 0.0);
+      }
+      
+      // Each summary matches a builder fed with its trades only
+      TradeSummaryBuilder all = new TradeSummaryBuilder(original.clone());
+      TradeSummaryBuilder longs = new TradeSummaryBuilder(original.clone());
+      TradeSummaryBuilder shorts = new TradeSummaryBuilder(original.clone());
+      for(Trade trade : trades) {
+         if(trade.initialPosition > 0) {
+            all.add(trade);
+            longs.add(trade);
+         } else if(trade.initialPosition < 0) {
+            all.add(trade);
+            shorts.add(trade);
+         }
+      }
+      
+      assertEquals(6, tr.all.numTrades);
+      assertEquals(3, tr.longs.numTrades);
+      assertEquals(3, tr.shorts.numTrades);
+      assertSummaryEquals(all.summarize(), tr.all);
+      assertSummaryEquals(longs.summarize(), tr.longs);
+      assertSummaryEquals(shorts.summarize(), tr.shorts);
+   }
 }
@@ -15,6 +15,10 @@
 package net.tradelib.functors;
 
 import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
 import net.tradelib.functors.Min;
 
 import org.junit.Test;
@@ -41,5 +45,47 @@ public class MinTest {
          }
       }
    }
-
+   
+   @Test
+   public void testAge() {
+      Random random = new Random(7);
+      int length = 25;
+      double [] data = new double[1000];
+      Min mm = new Min(length);
+      for(int ii = 0; ii < data.length; ++ii) {
+         // Few distinct values, lots of ties
+         data[ii] = random.nextInt(10);
+         mm.add(data[ii]);
+         
+         if(ii < length - 1) {
+            assertTrue(Double.isNaN(mm.last()));
+            assertEquals(-1, mm.getAge());
+            continue;
+         }
+         
+         // The latest extreme within the window
+         int best = ii;
+         for(int jj = ii; jj > ii - length; --jj) {
+            if(data[jj] < data[best]) best = jj;
+         }
+         assertEquals(data[best], mm.last(), 1e-10);
+         assertEquals(ii - best, mm.getAge());
+      }
+   }
+   
+   @Test
+   public void testNaN() {
+      double [] data = { 1.0, Double.NaN, 2.0, -0.0, 0.0, 3.0, Double.NaN, Double.NaN, Double.NaN, -1.0, 0.0, -0.0 };
+      int length = 3;
+      Min mm = new Min(length);
+      for(int ii = 0; ii < data.length; ++ii) {
+         mm.add(data[ii]);
+         if(ii < length - 1) continue;
+         
+         // The same as the original stream implementation
+         double expected = Arrays.stream(data, ii - length + 1, ii + 1).boxed().min(Double::compare).get();
+         // Double.equals tells -0.0 from 0.0, and NaN equals NaN
+         assertEquals(Double.valueOf(expected), Double.valueOf(mm.last()));
+      }
+   }
 }
@@ -15,6 +15,10 @@
 package net.tradelib.functors;
 
 import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
 import net.tradelib.functors.Percentile;
 
 import org.junit.Test;
@@ -39,4 +43,68 @@ public class PercentileTest {
          }
       }
    }
+   
+   @Test
+   public void testRolling() {
+      Random random = new Random(11);
+      int length = 50;
+      double [] data = new double[2000];
+      double [] percentiles = { 0.0, 0.1, 0.25, 0.5, 0.9, 1.0 };
+      Percentile percentile = new Percentile(length);
+      for(int ii = 0; ii < data.length; ++ii) {
+         // Rounded, so there are ties
+         data[ii] = Math.round(random.nextGaussian()*20.0)/4.0;
+         percentile.add(data[ii]);
+         if(ii < length - 1) continue;
+         
+         double [] window = Arrays.copyOfRange(data, ii - length + 1, ii + 1);
+         Arrays.sort(window);
+         
+         double [] values = percentile.last(percentiles);
+         for(int jj = 0; jj < percentiles.length; ++jj) {
+            double n = (length - 1.0)*percentiles[jj];
+            int k = (int)n;
+            double expected = k + 1 < length ? window[k] + (n - k)*(window[k + 1] - window[k]) : window[k];
+            assertEquals(expected, values[jj], 1e-10);
+         }
+         
+         // The rank is the inverse of the percentile
+         double value = percentile.last(0.3);
+         assertEquals(value, percentile.last(percentile.rank(value)), 1e-10);
+         assertEquals(0.0, percentile.rank(window[0] - 1.0), 1e-10);
+         assertEquals(1.0, percentile.rank(window[length - 1]), 1e-10);
+      }
+   }
+   
+   private static void checkAgainstSort(double [] data, int length) {
+      Percentile percentile = new Percentile(length);
+      for(int ii = 0; ii < data.length; ++ii) {
+         percentile.add(data[ii]);
+         if(ii < length - 1) continue;
+         
+         double [] window = Arrays.copyOfRange(data, ii - length + 1, ii + 1);
+         Arrays.sort(window);
+         // Same interpolation as "last", NaN propagates as with a full sort
+         double [] percentiles = { 0.0, 0.25, 0.5, 1.0 };
+         double [] values = percentile.last(percentiles);
+         for(int jj = 0; jj < percentiles.length; ++jj) {
+            double n = (length - 1.0)*percentiles[jj] + 1.0;
+            int k = (int)n;
+            double expected = n == 1.0 ? window[0] :
+                              n == length ? window[length - 1] :
+                              window[k - 1] + (n - k)*(window[k] - window[k - 1]);
+            assertEquals(expected, values[jj], 0.0);
+         }
+      }
+   }
+   
+   @Test
+   public void testNegativeZero() {
+      checkAgainstSort(new double [] { 0.0, -0.0, 1.0, 2.0, 3.0, 4.0, -0.0, 0.0, -0.0, 5.0, 6.0 }, 3);
+   }
+   
+   @Test
+   public void testNaN() {
+      checkAgainstSort(new double [] { 1.0, Double.NaN, 2.0, 3.0, 4.0, Double.NaN, Double.NaN, 5.0, 6.0, 7.0, 8.0 }, 3);
+   }
 }